@@ -4,7 +4,7 @@ import argparse
 import random
 from collections import Counter
 
-from utils import send_accept, send_prepare
+from utils import accepted_value, send_accept, send_prepare
 
 
 def majority(n: int) -> int:
@@ -57,9 +57,9 @@ def main():
 
     # Collect accepted values
     accepted_reports = [
-        (r["acceptedId"], r["acceptedValue"])
+        (r["acceptedId"], accepted_value(r))
         for _, r in promises
-        if "acceptedId" in r and "acceptedValue" in r
+        if "acceptedId" in r and accepted_value(r) is not None
     ]
 
     # Value Selection
@@ -1,3 +1,5 @@
+import base64
+
 import requests
 
 TIMEOUT = 1.0  # seconds
@@ -18,14 +20,30 @@ def send_prepare(server_id: int, proposal_id: int):
         return None
 
 
-def send_accept(server_id: int, proposal_id: int, value: str):
+def accepted_value(response: dict):
+    """The accepted value of a prepare response: text, or bytes when the server sent it in base64."""
+    if "acceptedValueBase64" in response:
+        return base64.b64decode(response["acceptedValueBase64"])
+    return response.get("acceptedValue")
+
+
+def send_accept(server_id: int, proposal_id: int, value):
     url = f"{server_url(server_id)}/api/paxos/accept"
     try:
-        r = requests.post(
-            url,
-            params={"id": proposal_id, "value": value},
-            timeout=TIMEOUT,
-        )
+        if isinstance(value, bytes):
+            r = requests.post(
+                f"{url}/bytes",
+                params={"id": proposal_id},
+                data=value,
+                headers={"Content-Type": "application/octet-stream"},
+                timeout=TIMEOUT,
+            )
+        else:
+            r = requests.post(
+                url,
+                params={"id": proposal_id, "value": value},
+                timeout=TIMEOUT,
+            )
         r.raise_for_status()
         return r.json()
     except Exception:
@@ -0,0 +1,123 @@
+package com.paxos.server.grpc;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.protobuf.ByteString;
+import com.paxos.server.config.ExecutionMode;
+import com.paxos.server.grpc.proto.AcceptRequestMessage;
+import com.paxos.server.grpc.proto.PaxosServiceGrpc;
+import com.paxos.server.grpc.proto.PrepareRequest;
+import com.paxos.server.service.PaxosAcceptorService;
+import com.paxos.server.service.PersistentPaxosAcceptorService;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.netty.shaded.io.grpc.netty.NettyChannelBuilder;
+import io.grpc.netty.shaded.io.grpc.netty.NettyServerBuilder;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@value #CLIENTS} concurrent unary calls against a {@link PaxosGrpcService} over loopback tcp,
+ * per execution mode of the grpc server. "ignored" prepares never block (no durable write),
+ * "durable" accepts each write a new slot to the wal with group commit, so handlers block until
+ * a group is fsynced and the number of handlers waiting at once sets the group size.
+ * Virtual threads need Java 21, add them with -p mode=virtual there.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g"})
+@State(Scope.Benchmark)
+public class ExecutionModeBenchmark {
+
+    static final int CLIENTS = 10_000;
+    static final int CHANNELS = 4;
+    // threads of the bounded mode, Tomcat's default
+    static final int THREADS = 200;
+
+    @Param({"platform", "bounded", "direct"})
+    public String mode;
+
+    @Param({"ignored", "durable"})
+    public String workload;
+
+    private Path dir;
+    private PersistentPaxosAcceptorService acceptor;
+    private PaxosGrpcService service;
+    private Executor executor;
+    private Server server;
+    private final List<ManagedChannel> channels = new ArrayList<>();
+    private final List<PaxosServiceGrpc.PaxosServiceFutureStub> stubs = new ArrayList<>();
+    private long nextSlot;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("paxos-execution-bench");
+        acceptor = new PersistentPaxosAcceptorService(1, dir.toString(), "wal", new PaxosAcceptorService());
+        acceptor.setGroupCommit(0, 256);
+        acceptor.init();
+        acceptor.prepare(Long.MAX_VALUE - 1);
+
+        ExecutionMode executionMode = ExecutionMode.parse(mode);
+        service = new PaxosGrpcService(acceptor, PaxosGrpcService.DEFAULT_STREAM_THREADS, mode);
+        NettyServerBuilder builder = NettyServerBuilder.forAddress(new InetSocketAddress("127.0.0.1", 0))
+                .addService(service);
+        executor = executionMode.newExecutor(THREADS, "paxos-grpc");
+        if (executionMode == ExecutionMode.DIRECT) {
+            builder.directExecutor();
+        } else if (executor != null) {
+            builder.executor(executor);
+        }
+        server = builder.build().start();
+        for (int i = 0; i < CHANNELS; i++) {
+            ManagedChannel channel = NettyChannelBuilder.forAddress("127.0.0.1", server.getPort())
+                    .usePlaintext()
+                    .build();
+            channels.add(channel);
+            stubs.add(PaxosServiceGrpc.newFutureStub(channel));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException, InterruptedException {
+        for (ManagedChannel channel : channels) {
+            channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        }
+        server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        if (executor instanceof ExecutorService) {
+            ((ExecutorService) executor).shutdownNow();
+        }
+        service.close();
+        acceptor.close();
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    @Benchmark
+    public Object clients() throws Exception {
+        List<ListenableFuture<?>> calls = new ArrayList<>(CLIENTS);
+        for (int i = 0; i < CLIENTS; i++) {
+            PaxosServiceGrpc.PaxosServiceFutureStub stub = stubs.get(i % CHANNELS);
+            if ("durable".equals(workload)) {
+                calls.add(stub.acceptRequest(AcceptRequestMessage.newBuilder()
+                        .setSlot(nextSlot++)
+                        .setId(Long.MAX_VALUE - 1)
+                        .setValue(ByteString.copyFromUtf8("v"))
+                        .build()));
+            } else {
+                calls.add(stub.prepare(PrepareRequest.newBuilder().setId(1).build()));
+            }
+        }
+        return Futures.allAsList(calls).get();
+    }
+}
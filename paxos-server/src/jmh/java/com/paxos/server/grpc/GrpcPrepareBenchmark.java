@@ -0,0 +1,141 @@
+package com.paxos.server.grpc;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.paxos.server.grpc.proto.PaxosServiceGrpc;
+import com.paxos.server.grpc.proto.PeerRequest;
+import com.paxos.server.grpc.proto.PeerResponse;
+import com.paxos.server.grpc.proto.PrepareRequest;
+import com.paxos.server.grpc.proto.PrepareResponse;
+import com.paxos.server.service.PaxosAcceptorService;
+import com.paxos.server.service.PersistentPaxosAcceptorService;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.netty.shaded.io.grpc.netty.NettyChannelBuilder;
+import io.grpc.netty.shaded.io.grpc.netty.NettyServerBuilder;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round trip of a Prepare rpc against a real {@link PaxosGrpcService}, either over
+ * loopback tcp (netty) or the in-process transport. The prepare is below the
+ * acceptor's promise, so it is ignored and nothing is persisted: the benchmark
+ * measures the rpc stack and the proto mapping, not the disk.
+ * Unary calls are compared with the peer stream, one request at a time and with
+ * {@value #PIPELINE} requests in flight.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GrpcPrepareBenchmark {
+
+    static final int PIPELINE = 16;
+
+    @Param({"netty", "inprocess"})
+    public String transport;
+
+    private Path dir;
+    private PersistentPaxosAcceptorService acceptor;
+    private PaxosGrpcService service;
+    private Server server;
+    private ManagedChannel channel;
+    private PaxosServiceGrpc.PaxosServiceBlockingStub stub;
+    private PaxosServiceGrpc.PaxosServiceFutureStub futureStub;
+    private PeerStream stream;
+    private PrepareRequest request;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("paxos-grpc-bench");
+        acceptor = new PersistentPaxosAcceptorService(1, dir.toString(), new PaxosAcceptorService());
+        acceptor.init();
+        acceptor.prepare(Long.MAX_VALUE);
+
+        service = new PaxosGrpcService(acceptor);
+        if ("netty".equals(transport)) {
+            server = NettyServerBuilder.forAddress(new InetSocketAddress("127.0.0.1", 0))
+                    .addService(service)
+                    .build()
+                    .start();
+            channel = NettyChannelBuilder.forAddress("127.0.0.1", server.getPort())
+                    .usePlaintext()
+                    .build();
+        } else {
+            String name = InProcessServerBuilder.generateName();
+            server = InProcessServerBuilder.forName(name)
+                    .addService(service)
+                    .build()
+                    .start();
+            channel = InProcessChannelBuilder.forName(name).build();
+        }
+        stub = PaxosServiceGrpc.newBlockingStub(channel);
+        futureStub = PaxosServiceGrpc.newFutureStub(channel);
+        stream = new PeerStream(1, channel);
+        request = PrepareRequest.newBuilder().setId(1).build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException, InterruptedException {
+        stream.close();
+        channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        service.close();
+        acceptor.close();
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Object prepare() {
+        return stub.prepare(request);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object prepareConcurrent() {
+        return stub.prepare(request);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PIPELINE)
+    public void preparePipelined(Blackhole blackhole) throws Exception {
+        List<ListenableFuture<PrepareResponse>> futures = new ArrayList<>(PIPELINE);
+        for (int i = 0; i < PIPELINE; i++) {
+            futures.add(futureStub.prepare(request));
+        }
+        for (ListenableFuture<PrepareResponse> future : futures) {
+            blackhole.consume(future.get());
+        }
+    }
+
+    @Benchmark
+    public Object prepareStream() {
+        return stream.send(PeerRequest.newBuilder().setPrepare(request)).join();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PIPELINE)
+    public void prepareStreamPipelined(Blackhole blackhole) {
+        List<CompletableFuture<PeerResponse>> futures = new ArrayList<>(PIPELINE);
+        for (int i = 0; i < PIPELINE; i++) {
+            futures.add(stream.send(PeerRequest.newBuilder().setPrepare(request)));
+        }
+        for (CompletableFuture<PeerResponse> future : futures) {
+            blackhole.consume(future.join());
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.paxos.server.grpc;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.paxos.server.grpc.proto.PrepareResponse;
+import com.paxos.server.grpc.proto.StateResponse;
+import com.paxos.server.model.AcceptResponse;
+import com.paxos.server.model.PaxosState;
+import com.paxos.server.model.PromiseResponse;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of mapping acceptor responses between the model and grpc messages
+ * ({@link ProtoMapper}), and of a full model -> wire -> model round trip.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ProtoMappingBenchmark {
+
+    private static final String VALUE = "v".repeat(64);
+
+    private PromiseResponse promise;
+    private AcceptResponse accept;
+    private PaxosState state;
+
+    private PrepareResponse promiseProto;
+    private com.paxos.server.grpc.proto.AcceptResponse acceptProto;
+    private StateResponse stateProto;
+
+    @Setup
+    public void setUp() {
+        promise = new PromiseResponse();
+        promise.setPromisedId(7L);
+        promise.setAcceptedId(5L);
+        promise.setAcceptedValue(VALUE);
+        accept = AcceptResponse.accept(7, VALUE);
+        state = new PaxosState(7, 5, VALUE);
+
+        promiseProto = ProtoMapper.toProto(promise);
+        acceptProto = ProtoMapper.toProto(accept);
+        stateProto = ProtoMapper.toProto(state);
+    }
+
+    @Benchmark
+    public Object promiseToProto() {
+        return ProtoMapper.toProto(promise);
+    }
+
+    @Benchmark
+    public Object promiseFromProto() {
+        return ProtoMapper.fromProto(promiseProto);
+    }
+
+    @Benchmark
+    public Object acceptToProto() {
+        return ProtoMapper.toProto(accept);
+    }
+
+    @Benchmark
+    public Object acceptFromProto() {
+        return ProtoMapper.fromProto(acceptProto);
+    }
+
+    @Benchmark
+    public Object stateToProto() {
+        return ProtoMapper.toProto(state);
+    }
+
+    @Benchmark
+    public Object stateFromProto() {
+        return ProtoMapper.fromProto(stateProto);
+    }
+
+    @Benchmark
+    public Object promiseWireRoundTrip() throws InvalidProtocolBufferException {
+        byte[] bytes = ProtoMapper.toProto(promise).toByteArray();
+        return ProtoMapper.fromProto(PrepareResponse.parseFrom(bytes));
+    }
+}
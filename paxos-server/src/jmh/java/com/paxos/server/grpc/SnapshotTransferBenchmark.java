@@ -0,0 +1,102 @@
+package com.paxos.server.grpc;
+
+import com.paxos.server.grpc.proto.InstallSnapshotRequest;
+import com.paxos.server.grpc.proto.PaxosServiceGrpc;
+import com.paxos.server.grpc.proto.SnapshotChunk;
+import com.paxos.server.model.KvSnapshot;
+import com.paxos.server.service.KvStateMachine;
+import com.paxos.server.service.LeaderService;
+import com.paxos.server.service.PaxosAcceptorService;
+import com.paxos.server.service.PersistentPaxosAcceptorService;
+import com.paxos.server.storage.KvSnapshotStore;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.netty.shaded.io.grpc.netty.NettyChannelBuilder;
+import io.grpc.netty.shaded.io.grpc.netty.NettyServerBuilder;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * InstallSnapshot of a 256MB key-value snapshot over loopback tcp, from the sender's file into
+ * the receiver's temp file, per chunk size. The receiver does not parse or install the file,
+ * so this is the transfer alone.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g"})
+@State(Scope.Benchmark)
+public class SnapshotTransferBenchmark {
+
+    private static final int KEYS = 4096;
+    private static final String VALUE = "x".repeat(64 * 1024);
+
+    @Param({"65536", "1048576"})
+    public int chunkBytes;
+
+    private Path dir;
+    private PersistentPaxosAcceptorService acceptor;
+    private KvStateMachine sender;
+    private PaxosGrpcService service;
+    private Server server;
+    private ManagedChannel channel;
+    private PaxosServiceGrpc.PaxosServiceBlockingStub stub;
+    private KvSnapshotStore receiverStore;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("paxos-snapshot-bench");
+        TreeMap<String, String> entries = new TreeMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            entries.put("key" + i, VALUE);
+        }
+        new KvSnapshotStore(dir.resolve("sender").resolve("0")).write(new KvSnapshot(KEYS, entries));
+        sender = new KvStateMachine(new LeaderService(), dir.resolve("sender").toString(), 1);
+        sender.start();
+
+        acceptor = new PersistentPaxosAcceptorService(1, dir.resolve("acceptor").toString(), new PaxosAcceptorService());
+        acceptor.init();
+        service = new PaxosGrpcService(acceptor);
+        service.setKvStateMachine(sender);
+        server = NettyServerBuilder.forAddress(new InetSocketAddress("127.0.0.1", 0))
+                .addService(service)
+                .build()
+                .start();
+        channel = NettyChannelBuilder.forAddress("127.0.0.1", server.getPort())
+                .usePlaintext()
+                .build();
+        stub = PaxosServiceGrpc.newBlockingStub(channel);
+        receiverStore = new KvSnapshotStore(dir.resolve("receiver"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException, InterruptedException {
+        channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        service.close();
+        acceptor.close();
+        sender.close();
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    @Benchmark
+    public long transfer() throws IOException {
+        try (KvSnapshotStore.Transfer transfer = receiverStore.receive()) {
+            Iterator<SnapshotChunk> chunks = stub.installSnapshot(
+                    InstallSnapshotRequest.newBuilder().setChunkBytes(chunkBytes).build());
+            while (chunks.hasNext()) {
+                transfer.write(chunks.next().getData().asReadOnlyByteBuffer());
+            }
+            return transfer.bytes();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.paxos.server.service;
+
+import com.google.protobuf.ByteString;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory prepare/accept throughput of the locked and lock-free acceptors,
+ * from one thread and from four threads racing on the same slot.
+ * Every call uses a new, higher proposal id so each one changes state.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AcceptorBenchmark {
+
+    private static final ByteString VALUE = ByteString.copyFromUtf8("v".repeat(64));
+
+    @Param({"locked", "lockfree"})
+    public String mode;
+
+    private final AtomicLong proposalId = new AtomicLong();
+
+    private PaxosAcceptorService locked;
+    private LockFreePaxosAcceptor lockFree;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        locked = new PaxosAcceptorService();
+        lockFree = new LockFreePaxosAcceptor();
+        proposalId.set(0);
+    }
+
+    private Object prepare(long id) {
+        return "locked".equals(mode) ? locked.prepare(id) : lockFree.prepare(0, id);
+    }
+
+    private Object accept(long id) {
+        return "locked".equals(mode) ? locked.acceptRequest(0, id, VALUE) : lockFree.acceptRequest(0, id, VALUE);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Object prepare() {
+        return prepare(proposalId.incrementAndGet());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object prepareContended() {
+        return prepare(proposalId.incrementAndGet());
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Object accept() {
+        return accept(proposalId.incrementAndGet());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object acceptContended() {
+        return accept(proposalId.incrementAndGet());
+    }
+}
@@ -0,0 +1,73 @@
+package com.paxos.server.service;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of read-only state calls and ignored prepares while a writer keeps
+ * accepting durable proposals on the same slot, in locked and lock-free mode.
+ * In locked mode readers queue behind the writer's fsync, in lock-free mode they
+ * should not notice it.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Group)
+public class ContendedAcceptorBenchmark {
+
+    @Param({"locked", "lockfree"})
+    public String mode;
+
+    @Param({"wal"})
+    public String engine;
+
+    private Path dir;
+    private PersistentPaxosAcceptorService acceptor;
+    private long proposalId;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("paxos-contended-bench");
+        acceptor = new PersistentPaxosAcceptorService(1, dir.toString(), engine, new PaxosAcceptorService());
+        acceptor.setAcceptorMode(mode);
+        acceptor.init();
+        proposalId = 1;
+        acceptor.prepare(proposalId);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        acceptor.close();
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public Object accept() {
+        // single writer thread, no need for an atomic counter
+        proposalId++;
+        return acceptor.acceptRequest(proposalId, "value");
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(2)
+    public Object state() {
+        return acceptor.getState();
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(2)
+    public Object ignoredPrepare() {
+        return acceptor.prepare(0);
+    }
+}
@@ -0,0 +1,77 @@
+package com.paxos.server.service;
+
+import com.paxos.server.PaxosServerApplication;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Key-value commands end to end on a single-server pool: proposed through the leader, made
+ * durable by the acceptor and applied by the apply loop. Throughput and the latency
+ * distribution (sample mode reports p50/p99/p99.9). Vary the number of clients with -t,
+ * concurrent commands are chosen in parallel slots and applied in batches.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class KvBenchmark {
+
+    private static final int KEYS = 1024;
+
+    @Param({"json", "wal"})
+    public String engine;
+
+    private Path dir;
+    private ConfigurableApplicationContext context;
+    private KvStateMachine kv;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("paxos-kv-bench");
+        context = new SpringApplicationBuilder(PaxosServerApplication.class).run(
+                "--paxos.server.id=1",
+                "--paxos.server.count=1",
+                "--paxos.server.data.dir=" + dir.toAbsolutePath(),
+                "--paxos.server.storage.engine=" + engine,
+                "--server.port=0",
+                "--grpc.server.port=0",
+                "--logging.level.com.paxos=WARN");
+        kv = context.getBean(KvStateMachine.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        context.close();
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    private static String key() {
+        return "key-" + ThreadLocalRandom.current().nextInt(KEYS);
+    }
+
+    @Benchmark
+    public Object put() {
+        return kv.put(key(), "value");
+    }
+
+    @Benchmark
+    public Object get() {
+        return kv.get(key());
+    }
+
+    @Benchmark
+    public Object cas() {
+        return kv.compareAndSet(key(), "value", "value");
+    }
+}
@@ -0,0 +1,78 @@
+package com.paxos.server.service;
+
+import com.paxos.server.model.BatchRequest;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput of durable prepares and accepts from concurrent proposers, with and
+ * without group commit, for both storage engines. Vary the number of proposers with -t.
+ * batchAccept reports accepts (not batches) per second so it compares directly with accept.
+ * Note that the json engine does not fsync.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class PersistentAcceptorBenchmark {
+
+    private static final int BATCH_SIZE = 64;
+
+    @Param({"false", "true"})
+    public boolean groupCommit;
+
+    @Param({"json", "wal"})
+    public String engine;
+
+    private final AtomicLong proposalId = new AtomicLong();
+
+    private Path dir;
+    private PersistentPaxosAcceptorService acceptor;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("paxos-acceptor-bench");
+        acceptor = new PersistentPaxosAcceptorService(1, dir.toString(), engine, new PaxosAcceptorService());
+        if (groupCommit) {
+            acceptor.setGroupCommit(0, 256);
+        }
+        acceptor.init();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        acceptor.close();
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    @Benchmark
+    public Object prepare() {
+        return acceptor.prepare(proposalId.incrementAndGet());
+    }
+
+    @Benchmark
+    public Object accept() {
+        return acceptor.acceptRequest(proposalId.incrementAndGet(), "value");
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public Object batchAccept() {
+        // consecutive slots, as a leader streaming log entries would send them
+        long first = proposalId.getAndAdd(BATCH_SIZE) + 1;
+        BatchRequest batch = new BatchRequest();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch.addAccept(first + i, first + i, "value");
+        }
+        return acceptor.batch(batch);
+    }
+}
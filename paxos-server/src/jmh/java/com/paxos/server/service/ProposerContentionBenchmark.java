@@ -0,0 +1,105 @@
+package com.paxos.server.service;
+
+import com.paxos.server.metrics.PaxosMetrics;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Duelling single-decree proposers: every operation is one slot that all proposers propose in
+ * at once, against one shared wal acceptor, until each of them returns the chosen value.
+ * Throughput is decisions per second; the secondary rounds result counts the rounds of every
+ * proposer per second, so rounds divided by decide is the rounds a decision took.
+ *
+ * blind retries with the next round after a fixed doubling backoff, the proposer before ballot
+ * jumping; jump jumps past the competing ballot; jitter adds randomized backoff to that;
+ * priority also makes higher server ids wait longer.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProposerContentionBenchmark {
+
+    @Param({"2", "4", "8"})
+    public int proposers;
+
+    @Param({"blind", "jump", "jitter", "priority"})
+    public String strategy;
+
+    private Path dir;
+    private PersistentPaxosAcceptorService acceptor;
+    private SimpleMeterRegistry registry;
+    private final List<ProposerService> services = new ArrayList<>();
+    private ExecutorService executor;
+    private long nextSlot;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class RoundCounters {
+        public long rounds;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("paxos-proposer-bench");
+        acceptor = new PersistentPaxosAcceptorService(0, dir.resolve("acceptor").toString(), "wal", new PaxosAcceptorService());
+        acceptor.init();
+        registry = new SimpleMeterRegistry();
+        PaxosMetrics metrics = new PaxosMetrics(registry);
+        for (int id = 1; id <= proposers; id++) {
+            // a pool of one acceptor, shared by every proposer
+            BallotAllocator ballots = new BallotAllocator(id, dir.resolve("proposers").toString());
+            ballots.start();
+            ProposerService proposer = new ProposerService(id, 1, ballots, acceptor, null);
+            proposer.setContention(!strategy.equals("blind"), strategy.equals("jitter") || strategy.equals("priority"),
+                    strategy.equals("priority"));
+            proposer.setRetries(10_000, 1, 64);
+            proposer.setMetrics(metrics);
+            services.add(proposer);
+        }
+        executor = Executors.newFixedThreadPool(proposers);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        executor.shutdownNow();
+        acceptor.close();
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    @Benchmark
+    public Object decide(RoundCounters counters) {
+        long slot = nextSlot++;
+        double before = rounds();
+        List<CompletableFuture<?>> proposals = new ArrayList<>(proposers);
+        for (ProposerService proposer : services) {
+            proposals.add(CompletableFuture.supplyAsync(() -> proposer.propose(slot, "v" + slot), executor));
+        }
+        Object ret = CompletableFuture.allOf(proposals.toArray(new CompletableFuture[0])).join();
+        counters.rounds += (long) (rounds() - before);
+        return ret;
+    }
+
+    /**
+     * Rounds of every proposal so far, chosen or failed.
+     */
+    private double rounds() {
+        return registry.find("paxos.proposer.rounds").summaries().stream()
+                .mapToDouble(DistributionSummary::totalAmount)
+                .sum();
+    }
+}
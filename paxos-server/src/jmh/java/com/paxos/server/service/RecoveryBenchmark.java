@@ -0,0 +1,88 @@
+package com.paxos.server.service;
+
+import com.paxos.server.model.BatchRequest;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Restart time and retained heap of a wal acceptor that accepted 100k slots, with the log kept
+ * in full or truncated below the last 1000 slots as after a key-value snapshot. Every
+ * invocation loads the checkpoint and log from disk; heapKb is the used heap after a full gc
+ * with the restarted acceptor still live, summed over the measurement iterations like every
+ * EVENTS counter.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx1g"})
+@State(Scope.Benchmark)
+public class RecoveryBenchmark {
+
+    private static final int SLOTS = 100_000;
+    private static final int KEPT = 1000;
+    private static final int BATCH_SIZE = 1000;
+    private static final String VALUE = "x".repeat(64);
+
+    @Param({"false", "true"})
+    public boolean truncated;
+
+    private Path dir;
+    private PersistentPaxosAcceptorService restarted;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Heap {
+        public long heapKb;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("paxos-recovery-bench");
+        PersistentPaxosAcceptorService acceptor = create();
+        acceptor.init();
+        for (int first = 0; first < SLOTS; first += BATCH_SIZE) {
+            BatchRequest batch = new BatchRequest();
+            for (int slot = first; slot < first + BATCH_SIZE; slot++) {
+                batch.addAccept(slot, 1, VALUE + slot);
+            }
+            acceptor.batch(batch);
+        }
+        if (truncated) {
+            acceptor.truncateBelow(SLOTS - KEPT);
+        }
+        acceptor.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    @TearDown(Level.Invocation)
+    public void closeRestarted(Heap heap) {
+        // outside of the measured time
+        System.gc();
+        heap.heapKb = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() / 1024;
+        restarted.close();
+        restarted = null;
+    }
+
+    @Benchmark
+    public Object restart() {
+        restarted = create();
+        restarted.init();
+        return restarted;
+    }
+
+    private PersistentPaxosAcceptorService create() {
+        return new PersistentPaxosAcceptorService(1, dir.toString(), PersistentPaxosAcceptorService.ENGINE_WAL,
+                new PaxosAcceptorService());
+    }
+}
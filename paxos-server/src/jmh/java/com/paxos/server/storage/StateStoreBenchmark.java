@@ -0,0 +1,78 @@
+package com.paxos.server.storage;
+
+import com.google.protobuf.ByteString;
+import com.paxos.server.model.PaxosState;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-operation write latency and bytes written of the json and wal state stores.
+ * Note that the json store does not fsync, so its latency is a lower bound of a
+ * durable write.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class StateStoreBenchmark {
+
+    private static final ByteString VALUE = ByteString.copyFromUtf8("v".repeat(64));
+
+    @Param({"json", "wal"})
+    public String engine;
+
+    private Path dir;
+    private PaxosStateStore store;
+    private long id;
+    private PaxosState last = new PaxosState(-1, -1);
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class WriteCounters {
+        public long bytesWritten;
+        public long writes;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("paxos-store-bench");
+        // slot 0 is the only slot, the checkpoint source is the last written state
+        PaxosStateStore.SlotStateSource source = consumer -> consumer.accept(0, last);
+        store = "wal".equals(engine)
+                ? new WalStateStore(dir, 1000, source)
+                : new JsonFileStateStore(dir.toFile(), source);
+        store.load((slot, state) -> { });
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        store.close();
+        FileUtils.deleteDirectory(dir.toFile());
+    }
+
+    @Benchmark
+    public void promise(WriteCounters counters) throws IOException {
+        long before = store.bytesWritten();
+        last = new PaxosState(++id, 0, VALUE);
+        store.persist(new StateRecord(0, last, true));
+        counters.bytesWritten += store.bytesWritten() - before;
+        counters.writes++;
+    }
+
+    @Benchmark
+    public void accept(WriteCounters counters) throws IOException {
+        long before = store.bytesWritten();
+        ++id;
+        last = new PaxosState(id, id, VALUE);
+        store.persist(new StateRecord(0, last, false));
+        counters.bytesWritten += store.bytesWritten() - before;
+        counters.writes++;
+    }
+}
@@ -0,0 +1,85 @@
+package com.paxos.server.load;
+
+import com.paxos.server.PaxosServerApplication;
+import org.apache.commons.io.FileUtils;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * N servers in this JVM, each a full Spring Boot context with its own ports and data dir,
+ * talking to each other over grpc like separate processes would. Started the same way as
+ * in MultiServerIntegrationTest.
+ */
+public class LoadCluster implements AutoCloseable {
+
+    private final List<ConfigurableApplicationContext> contexts = new ArrayList<>();
+    private final List<String> baseUrls = new ArrayList<>();
+    private final List<Path> dataDirs = new ArrayList<>();
+
+    /**
+     * @param serverArgs extra --key=value arguments for every server, e.g. the storage engine
+     */
+    public static LoadCluster start(int serverCount, List<String> serverArgs) throws IOException {
+        LoadCluster cluster = new LoadCluster();
+        try {
+            // grpc ports are base + server id, like run-server.sh
+            int baseGrpcPort = findAvailablePort();
+            for (int i = 1; i <= serverCount; i++) {
+                Path dataDir = Files.createTempDirectory("paxos-load-" + i);
+                cluster.dataDirs.add(dataDir);
+                int httpPort = findAvailablePort();
+                List<String> args = new ArrayList<>(List.of(
+                        "--paxos.server.id=" + i,
+                        "--paxos.server.count=" + serverCount,
+                        "--paxos.server.data.dir=" + dataDir.toAbsolutePath(),
+                        "--grpc.server.port=" + (baseGrpcPort + i),
+                        "--paxos.server.grpc.base.port=" + baseGrpcPort,
+                        "--server.port=" + httpPort,
+                        "--logging.level.com.paxos=WARN"));
+                serverArgs.forEach(arg -> args.add(arg.startsWith("--") ? arg : "--" + arg));
+                cluster.contexts.add(new SpringApplicationBuilder(PaxosServerApplication.class)
+                        .run(args.toArray(new String[0])));
+                cluster.baseUrls.add("http://localhost:" + httpPort);
+            }
+        } catch (RuntimeException | IOException e) {
+            cluster.close();
+            throw e;
+        }
+        return cluster;
+    }
+
+    public int size() {
+        return contexts.size();
+    }
+
+    /**
+     * http://localhost:port of server id, 1 to size().
+     */
+    public String baseUrl(int serverId) {
+        return baseUrls.get(serverId - 1);
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (ConfigurableApplicationContext context : contexts) {
+            context.close();
+        }
+        for (Path dir : dataDirs) {
+            FileUtils.deleteDirectory(dir.toFile());
+        }
+    }
+
+    private static int findAvailablePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            socket.setReuseAddress(true);
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package com.paxos.server.load;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load against an in-JVM cluster ({@link LoadCluster}) through the REST endpoints, the way
+ * clients see the servers.
+ *
+ * Closed loop: every client sends its next request when the previous one answered. Open loop:
+ * the clients together send at a fixed rate, each request at its scheduled time whether or not
+ * the earlier ones answered, and latency counts from the scheduled time, so a stalled server
+ * shows up in every request that should have been sent meanwhile (coordinated omission).
+ * Closed-loop latencies are corrected with the mean latency as the expected interval.
+ *
+ * Every run writes summary.json (configuration, throughput, errors, percentiles) plus the
+ * corrected (latency.hgrm) and raw service time (service.hgrm) histograms to its own directory.
+ *
+ * mvn -Pload test-compile exec:exec -Dload.args="--nodes=3 --clients=16 --mode=open --rate=500"
+ */
+public class LoadGenerator {
+
+    static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(1);
+
+    static class Options {
+        int nodes = 3;
+        int clients = 8;
+        String mode = "closed";
+        // total requests per second of the open loop
+        double rate = 500;
+        int warmupSeconds = 5;
+        int durationSeconds = 30;
+        // leader (/api/leader/propose), propose (/api/propose, one slot per request), kv (PUT /api/kv)
+        // or broadcast (GET /api/broadcast/paxos/state, every acceptor's state of one slot)
+        String op = "leader";
+        // server the requests go to, 0 spreads them over all servers
+        int target = 1;
+        String out = "target/load";
+        // fail the run when the corrected p99 is above this, 0 never fails
+        double maxP99Millis;
+        final List<String> serverArgs = new ArrayList<>();
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+            for (String arg : args) {
+                int eq = arg.indexOf('=');
+                if (!arg.startsWith("--") || eq < 0) {
+                    throw new IllegalArgumentException("Expected --name=value, got " + arg);
+                }
+                String name = arg.substring(2, eq);
+                String value = arg.substring(eq + 1);
+                switch (name) {
+                    case "nodes" -> options.nodes = Integer.parseInt(value);
+                    case "clients" -> options.clients = Integer.parseInt(value);
+                    case "mode" -> options.mode = value;
+                    case "rate" -> options.rate = Double.parseDouble(value);
+                    case "warmup" -> options.warmupSeconds = Integer.parseInt(value);
+                    case "duration" -> options.durationSeconds = Integer.parseInt(value);
+                    case "op" -> options.op = value;
+                    case "target" -> options.target = Integer.parseInt(value);
+                    case "out" -> options.out = value;
+                    case "max-p99-millis" -> options.maxP99Millis = Double.parseDouble(value);
+                    // passed on to every server, e.g. --server=paxos.server.storage.engine=wal
+                    case "server" -> options.serverArgs.add(value);
+                    default -> throw new IllegalArgumentException("Unknown option " + name);
+                }
+            }
+            if (!options.mode.equals("closed") && !options.mode.equals("open")) {
+                throw new IllegalArgumentException("mode is closed or open, got " + options.mode);
+            }
+            if (options.openLoop() && options.rate <= 0) {
+                throw new IllegalArgumentException("The open loop needs a rate above 0");
+            }
+            return options;
+        }
+
+        boolean openLoop() {
+            return mode.equals("open");
+        }
+    }
+
+    /**
+     * One client thread, its histograms are merged after the run.
+     */
+    private static class Client implements Runnable {
+        final int id;
+        final Options options;
+        final LoadCluster cluster;
+        final HttpClient http;
+        final AtomicLong slots;
+        final long startNanos;
+        final long recordFromNanos;
+        final long endNanos;
+        final Histogram latency = new Histogram(HIGHEST_TRACKABLE_MICROS, 3);
+        final Histogram service = new Histogram(HIGHEST_TRACKABLE_MICROS, 3);
+        long errors;
+        long sent;
+
+        Client(int id, Options options, LoadCluster cluster, HttpClient http, AtomicLong slots, long startNanos) {
+            this.id = id;
+            this.options = options;
+            this.cluster = cluster;
+            this.http = http;
+            this.slots = slots;
+            this.startNanos = startNanos;
+            this.recordFromNanos = startNanos + TimeUnit.SECONDS.toNanos(options.warmupSeconds);
+            this.endNanos = recordFromNanos + TimeUnit.SECONDS.toNanos(options.durationSeconds);
+        }
+
+        @Override
+        public void run() {
+            // open loop: this client's share of the rate, clients staggered over one interval
+            long intervalNanos = (long) (options.clients * 1e9 / options.rate);
+            long scheduled = startNanos + intervalNanos * id / options.clients;
+            for (long n = 0; ; n++) {
+                long now = System.nanoTime();
+                if (options.openLoop()) {
+                    if (scheduled > now) {
+                        LockSupport.parkNanos(scheduled - now);
+                        now = System.nanoTime();
+                    }
+                } else {
+                    scheduled = now;
+                }
+                if (scheduled >= endNanos) {
+                    return;
+                }
+                boolean ok = send(n);
+                long done = System.nanoTime();
+                if (scheduled >= recordFromNanos) {
+                    sent++;
+                    if (!ok) {
+                        errors++;
+                    }
+                    latency.recordValue(Math.min(HIGHEST_TRACKABLE_MICROS, (done - scheduled) / 1000));
+                    service.recordValue(Math.min(HIGHEST_TRACKABLE_MICROS, (done - now) / 1000));
+                }
+                scheduled += intervalNanos;
+            }
+        }
+
+        private boolean send(long n) {
+            int server = options.target > 0 ? options.target : (int) ((id + n) % cluster.size()) + 1;
+            String value = "c" + id + "-" + n;
+            HttpRequest.Builder request = switch (options.op) {
+                case "leader" -> HttpRequest.newBuilder(uri(server, "/api/leader/propose?value=" + value))
+                        .POST(HttpRequest.BodyPublishers.noBody());
+                case "propose" -> HttpRequest.newBuilder(uri(server, "/api/propose?value=" + value
+                        + "&slot=" + slots.getAndIncrement())).POST(HttpRequest.BodyPublishers.noBody());
+                case "kv" -> HttpRequest.newBuilder(uri(server, "/api/kv/key" + (n % 64) + "?value=" + value))
+                        .PUT(HttpRequest.BodyPublishers.noBody());
+                case "broadcast" -> HttpRequest.newBuilder(uri(server, "/api/broadcast/paxos/state?slot=" + (n % 64)))
+                        .GET();
+                default -> throw new IllegalArgumentException("Unknown op " + options.op);
+            };
+            try {
+                HttpResponse<Void> response = http.send(request.timeout(Duration.ofSeconds(30)).build(),
+                        HttpResponse.BodyHandlers.discarding());
+                return response.statusCode() / 100 == 2;
+            } catch (IOException e) {
+                return false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        private URI uri(int server, String path) {
+            return URI.create(cluster.baseUrl(server) + path);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args);
+        Map<String, Object> summary;
+        Histogram latency = new Histogram(HIGHEST_TRACKABLE_MICROS, 3);
+        Histogram service = new Histogram(HIGHEST_TRACKABLE_MICROS, 3);
+        try (LoadCluster cluster = LoadCluster.start(options.nodes, options.serverArgs)) {
+            HttpClient http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+            AtomicLong slots = new AtomicLong();
+            long start = System.nanoTime();
+            List<Client> clients = new ArrayList<>();
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < options.clients; i++) {
+                Client client = new Client(i, options, cluster, http, slots, start);
+                clients.add(client);
+                Thread thread = new Thread(client, "load-client-" + i);
+                threads.add(thread);
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            long sent = 0;
+            long errors = 0;
+            for (Client client : clients) {
+                latency.add(client.latency);
+                service.add(client.service);
+                sent += client.sent;
+                errors += client.errors;
+            }
+            if (!options.openLoop() && latency.getTotalCount() > 0) {
+                latency = latency.copyCorrectedForCoordinatedOmission((long) latency.getMean());
+            }
+            summary = summarize(options, sent, errors, latency, service);
+        }
+
+        Path dir = Path.of(options.out, String.format("%s-%s-%dn-%dc-%s", options.op, options.mode, options.nodes,
+                options.clients, LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss"))));
+        Files.createDirectories(dir);
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(dir.resolve("summary.json").toFile(), summary);
+        writeHistogram(latency, dir.resolve("latency.hgrm"));
+        writeHistogram(service, dir.resolve("service.hgrm"));
+        System.out.println(new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValueAsString(summary));
+        System.out.println("Results written to " + dir.toAbsolutePath());
+
+        double p99Millis = latency.getValueAtPercentile(99) / 1000.0;
+        if (options.maxP99Millis > 0 && p99Millis > options.maxP99Millis) {
+            System.err.printf("p99 %.2fms is above the limit of %.2fms%n", p99Millis, options.maxP99Millis);
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    static Map<String, Object> summarize(Options options, long sent, long errors, Histogram latency, Histogram service) {
+        Map<String, Object> config = new LinkedHashMap<>();
+        config.put("nodes", options.nodes);
+        config.put("clients", options.clients);
+        config.put("mode", options.mode);
+        if (options.openLoop()) {
+            config.put("rate", options.rate);
+        }
+        config.put("op", options.op);
+        config.put("target", options.target);
+        config.put("warmupSeconds", options.warmupSeconds);
+        config.put("durationSeconds", options.durationSeconds);
+        config.put("serverArgs", options.serverArgs);
+
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("config", config);
+        summary.put("requests", sent);
+        summary.put("errors", errors);
+        summary.put("throughputPerSecond", (sent - errors) / (double) options.durationSeconds);
+        summary.put("latencyMillis", percentiles(latency));
+        summary.put("serviceTimeMillis", percentiles(service));
+        return summary;
+    }
+
+    private static Map<String, Double> percentiles(Histogram histogram) {
+        Map<String, Double> ret = new LinkedHashMap<>();
+        ret.put("mean", histogram.getMean() / 1000.0);
+        for (double percentile : new double[]{50, 90, 99, 99.9, 99.99}) {
+            ret.put("p" + (percentile == (long) percentile ? String.valueOf((long) percentile) : String.valueOf(percentile)),
+                    histogram.getValueAtPercentile(percentile) / 1000.0);
+        }
+        ret.put("max", histogram.getMaxValue() / 1000.0);
+        return ret;
+    }
+
+    private static void writeHistogram(Histogram histogram, Path file) throws IOException {
+        try (PrintStream out = new PrintStream(Files.newOutputStream(file))) {
+            // values are microseconds, the file is in milliseconds like HdrHistogram's plotter expects
+            histogram.outputPercentileDistribution(out, 1000.0);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.paxos.server.config;
+
+import jakarta.annotation.PreDestroy;
+import net.devh.boot.grpc.server.serverfactory.GrpcServerConfigurer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Applies the execution modes to the embedded servers: paxos.server.rest.executor to Tomcat,
+ * which runs every REST controller, and paxos.server.grpc.executor to the grpc server. The grpc
+ * mode also runs the requests of peer streams, see PaxosGrpcService.
+ */
+@Configuration
+public class ExecutionConfig {
+
+    private static final Logger log = LoggerFactory.getLogger(ExecutionConfig.class);
+
+    @Value("${paxos.server.id:0}")
+    private int serverId;
+
+    @Value("${paxos.server.rest.executor:platform}")
+    private String restMode = "platform";
+
+    @Value("${paxos.server.grpc.executor:platform}")
+    private String grpcMode = "platform";
+
+    // threads of the bounded mode
+    @Value("${paxos.server.executor.threads:200}")
+    private int threads = 200;
+
+    private final List<ExecutorService> executors = new ArrayList<>();
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<?> restExecutorCustomizer() {
+        ExecutionMode mode = ExecutionMode.parse(restMode);
+        if (mode == ExecutionMode.DIRECT) {
+            throw new IllegalArgumentException("Execution mode direct would run REST requests on Tomcat's poller thread,"
+                    + " use it for paxos.server.grpc.executor only");
+        }
+        Executor executor = newExecutor(mode, "paxos-rest-" + serverId);
+        log.info("Server {} runs REST requests in execution mode {}", serverId, mode);
+        return protocolHandler -> {
+            if (executor != null) {
+                protocolHandler.setExecutor(executor);
+            }
+        };
+    }
+
+    @Bean
+    public GrpcServerConfigurer grpcExecutorConfigurer() {
+        ExecutionMode mode = ExecutionMode.parse(grpcMode);
+        Executor executor = newExecutor(mode, "paxos-grpc-" + serverId);
+        log.info("Server {} runs gRPC requests in execution mode {}", serverId, mode);
+        return serverBuilder -> {
+            if (mode == ExecutionMode.DIRECT) {
+                serverBuilder.directExecutor();
+            } else if (executor != null) {
+                serverBuilder.executor(executor);
+            }
+        };
+    }
+
+    @PreDestroy
+    public void close() {
+        executors.forEach(ExecutorService::shutdown);
+    }
+
+    private Executor newExecutor(ExecutionMode mode, String threadName) {
+        Executor executor = mode.newExecutor(threads, threadName);
+        if (executor instanceof ExecutorService) {
+            executors.add((ExecutorService) executor);
+        }
+        return executor;
+    }
+}
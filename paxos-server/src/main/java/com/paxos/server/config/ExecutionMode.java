@@ -0,0 +1,83 @@
+package com.paxos.server.config;
+
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * What runs request handlers of the REST and gRPC servers.
+ *
+ * PLATFORM keeps the server's own pool (Tomcat's worker pool, grpc's cached pool). BOUNDED is a
+ * fixed pool of platform threads, so blocking handlers queue up instead of adding threads.
+ * VIRTUAL starts a virtual thread per request and needs Java 21; blocking in a handler is cheap
+ * then, except inside the acceptor's synchronized methods, which pin the carrier thread. DIRECT
+ * runs handlers on the transport thread, only for gRPC and only when they never block, for
+ * example ignored prepares or an acceptor without durable writes.
+ */
+public enum ExecutionMode {
+    PLATFORM,
+    BOUNDED,
+    VIRTUAL,
+    DIRECT;
+
+    public static ExecutionMode parse(String name) {
+        try {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown execution mode: " + name
+                    + ", expected one of " + Arrays.toString(values()).toLowerCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * The executor of this mode, null for PLATFORM. Thread pools are named threadName-n and are
+     * daemon threads; the caller shuts down what it gets if it is an ExecutorService.
+     */
+    public Executor newExecutor(int threads, String threadName) {
+        switch (this) {
+            case BOUNDED:
+                AtomicInteger threadCount = new AtomicInteger();
+                return Executors.newFixedThreadPool(threads, runnable -> {
+                    Thread thread = new Thread(runnable, threadName + "-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            case VIRTUAL:
+                return newVirtualThreadPerTaskExecutor();
+            case DIRECT:
+                return MoreExecutors.directExecutor();
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Whether the current Java has virtual threads.
+     */
+    public static boolean virtualThreadsAvailable() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    // looked up at runtime, the server is built for Java 17
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        if (!virtualThreadsAvailable()) {
+            throw new IllegalStateException("Execution mode virtual needs Java 21, running on Java "
+                    + Runtime.version().feature());
+        }
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not create virtual thread executor", e);
+        }
+    }
+}
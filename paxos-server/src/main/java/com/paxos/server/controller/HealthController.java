@@ -1,10 +1,14 @@
 package com.paxos.server.controller;
 
+import com.paxos.server.model.PeerStatus;
+import com.paxos.server.service.PaxosForwardingService;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.Map;
+
 
 @RestController
 @RequestMapping("/health")
@@ -12,6 +16,12 @@ public class HealthController {
 
 //    private static final Logger log = LoggerFactory.getLogger(HealthController.class);
 
+    private final PaxosForwardingService forwardingService;
+
+    public HealthController(PaxosForwardingService forwardingService) {
+        this.forwardingService = forwardingService;
+    }
+
     /**
      * Health check endpoint
      */
@@ -19,4 +29,12 @@ public class HealthController {
     public ResponseEntity<String> health() {
         return ResponseEntity.ok("Server is healthy");
     }
+
+    /**
+     * Circuit breaker state and request deadline of every other server, by server id.
+     */
+    @GetMapping("/peers")
+    public ResponseEntity<Map<Integer, PeerStatus>> peers() {
+        return ResponseEntity.ok(forwardingService.peerStatus());
+    }
 }
@@ -0,0 +1,74 @@
+package com.paxos.server.controller;
+
+import com.paxos.server.model.KvResult;
+import com.paxos.server.service.KvStateMachine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * Controller for the replicated key-value store.
+ * Every command is chosen in a slot and applied in slot order before it returns.
+ */
+@RestController
+@RequestMapping("/api/kv")
+public class KvRestController {
+
+    private static final Logger log = LoggerFactory.getLogger(KvRestController.class);
+
+    private final KvStateMachine stateMachine;
+
+    public KvRestController(KvStateMachine stateMachine) {
+        this.stateMachine = stateMachine;
+    }
+
+    @PutMapping("/{key}")
+    public ResponseEntity<KvResult> put(@PathVariable String key, @RequestParam String value) {
+        log.debug("REST: Received put of key {} with value: {}", key, value);
+        return ResponseEntity.ok(stateMachine.put(key, value));
+    }
+
+    /**
+     * 404 if the key is absent.
+     */
+    @GetMapping("/{key}")
+    public ResponseEntity<KvResult> get(@PathVariable String key) {
+        log.debug("REST: Received get of key {}", key);
+        KvResult result = stateMachine.get(key);
+        return ResponseEntity.status(result.isSuccess() ? HttpStatus.OK : HttpStatus.NOT_FOUND).body(result);
+    }
+
+    @DeleteMapping("/{key}")
+    public ResponseEntity<KvResult> delete(@PathVariable String key) {
+        log.debug("REST: Received delete of key {}", key);
+        return ResponseEntity.ok(stateMachine.delete(key));
+    }
+
+    /**
+     * Set the key to value if it has the expected value, or is absent when expected is not given.
+     * 409 if it did not, with the current value.
+     */
+    @PostMapping("/{key}/cas")
+    public ResponseEntity<KvResult> compareAndSet(
+            @PathVariable String key,
+            @RequestParam String value,
+            @RequestParam(required = false) String expected) {
+        log.debug("REST: Received cas of key {} from {} to {}", key, expected, value);
+        KvResult result = stateMachine.compareAndSet(key, expected, value);
+        return ResponseEntity.status(result.isSuccess() ? HttpStatus.OK : HttpStatus.CONFLICT).body(result);
+    }
+
+    /**
+     * Install the newest snapshot of the other servers if this server is behind it.
+     * Answers with the applied index afterwards.
+     */
+    @PostMapping("/catch-up")
+    public ResponseEntity<KvResult> catchUp() {
+        log.info("REST: Received catch up request");
+        long before = stateMachine.appliedIndex();
+        long after = stateMachine.catchUp();
+        return ResponseEntity.ok(new KvResult(null, null, after > before, after));
+    }
+}
@@ -0,0 +1,84 @@
+package com.paxos.server.controller;
+
+import com.google.protobuf.ByteString;
+import com.paxos.server.model.ChosenValue;
+import com.paxos.server.service.LeaderService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Optional;
+
+/**
+ * Controller for proposing and reading values through this server as Multi-Paxos leader.
+ */
+@RestController
+@RequestMapping("/api/leader")
+public class LeaderRestController {
+
+    private static final Logger log = LoggerFactory.getLogger(LeaderRestController.class);
+
+    private final LeaderService leaderService;
+
+    public LeaderRestController(LeaderService leaderService) {
+        this.leaderService = leaderService;
+    }
+
+    /**
+     * Get a value chosen in the next free slot.
+     * Runs phase 1 only if this server is not (or no longer) the leader,
+     * otherwise a single accept round trip to a majority.
+     */
+    @PostMapping("/propose")
+    public ResponseEntity<ChosenValue> propose(@RequestParam String value) {
+        log.info("REST: Received leader proposal with value: {}", value);
+        ChosenValue chosen = leaderService.propose(value);
+        log.info("Chosen: {}", chosen);
+        return ResponseEntity.ok(chosen);
+    }
+
+    /**
+     * Get a binary value chosen in the next free slot: the request body
+     * (application/octet-stream) is proposed as read, without decoding it.
+     */
+    @PostMapping(value = "/propose/bytes", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<ChosenValue> proposeBytes(InputStream body) throws IOException {
+        ByteString value = ByteString.readFrom(body);
+        log.info("REST: Received leader proposal of {} bytes", value.size());
+        ChosenValue chosen = leaderService.propose(value);
+        log.info("Chosen: slot {} with id {}", chosen.getSlot(), chosen.getProposalId());
+        return ResponseEntity.ok(chosen);
+    }
+
+    /**
+     * Linearizable read of the value chosen in a slot, 404 if none is chosen yet.
+     * Answered from this server's state without a round trip while it holds a
+     * leader lease (paxos.lease.millis).
+     */
+    @GetMapping("/read")
+    public ResponseEntity<ChosenValue> read(@RequestParam long slot) {
+        log.debug("REST: Received leader read of slot {}", slot);
+        return ResponseEntity.of(leaderService.read(slot));
+    }
+
+    /**
+     * Like {@link #read}, the chosen value as application/octet-stream streamed from its bytes.
+     */
+    @GetMapping(value = "/read/bytes", produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<Resource> readBytes(@RequestParam long slot) {
+        log.debug("REST: Received leader read of the bytes of slot {}", slot);
+        Optional<ByteString> value = leaderService.read(slot).map(ChosenValue::getValueBytes);
+        if (value.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok()
+                .contentLength(value.get().size())
+                .body(new InputStreamResource(value.get().newInput()));
+    }
+}
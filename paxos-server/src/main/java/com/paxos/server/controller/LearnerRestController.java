@@ -0,0 +1,70 @@
+package com.paxos.server.controller;
+
+import com.paxos.server.model.ChosenValue;
+import com.paxos.server.service.DecisionStream;
+import com.paxos.server.service.LearnerService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+
+/**
+ * Controller for the values this server learned as decided, without proposing anything.
+ */
+@RestController
+@RequestMapping("/api/learner")
+public class LearnerRestController {
+
+    private static final Logger log = LoggerFactory.getLogger(LearnerRestController.class);
+
+    private final LearnerService learnerService;
+
+    public LearnerRestController(LearnerService learnerService) {
+        this.learnerService = learnerService;
+    }
+
+    /**
+     * The decided value of a slot, 404 if this server has not learned it (or has compacted it).
+     */
+    @GetMapping("/decided")
+    public ResponseEntity<ChosenValue> decided(@RequestParam long slot) {
+        log.debug("REST: Received learner read of slot {}", slot);
+        return ResponseEntity.of(learnerService.decided(slot));
+    }
+
+    /**
+     * Server-sent events with the decided values from fromSlot on, one "decided" event per slot
+     * with the slot as event id. The stream stays open until the client goes away.
+     */
+    @GetMapping(value = "/watch", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter watch(@RequestParam(defaultValue = "0") long fromSlot) {
+        log.info("REST: Received watch from slot {}", fromSlot);
+        SseEmitter emitter = new SseEmitter(0L);
+        DecisionStream stream = learnerService.watch(fromSlot, new DecisionStream.Sink() {
+            @Override
+            public void send(ChosenValue value) throws IOException {
+                emitter.send(SseEmitter.event()
+                        .id(String.valueOf(value.getSlot()))
+                        .name("decided")
+                        .data(value, MediaType.APPLICATION_JSON));
+            }
+
+            @Override
+            public void close(Throwable error) {
+                if (error == null) {
+                    emitter.complete();
+                } else {
+                    emitter.completeWithError(error);
+                }
+            }
+        });
+        emitter.onCompletion(stream::cancel);
+        emitter.onTimeout(stream::cancel);
+        emitter.onError(e -> stream.cancel());
+        return emitter;
+    }
+}
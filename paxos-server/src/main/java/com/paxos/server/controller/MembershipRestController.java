@@ -0,0 +1,67 @@
+package com.paxos.server.controller;
+
+import com.paxos.server.model.ChosenValue;
+import com.paxos.server.model.ClusterConfig;
+import com.paxos.server.service.LeaderService;
+import com.paxos.server.service.MembershipService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+/**
+ * Controller for the servers of the pool. Changes are chosen through this server as leader and
+ * take effect paxos.membership.alpha slots after the one they are chosen in; the leader fills
+ * those slots with no-ops, so a change is in effect when the call returns.
+ */
+@RestController
+@RequestMapping("/api/membership")
+public class MembershipRestController {
+
+    private static final Logger log = LoggerFactory.getLogger(MembershipRestController.class);
+
+    private final MembershipService membership;
+    private final LeaderService leaderService;
+
+    public MembershipRestController(MembershipService membership, LeaderService leaderService) {
+        this.membership = membership;
+        this.leaderService = leaderService;
+    }
+
+    /**
+     * Every configuration this server applied, oldest first, each with the slot it is in effect from.
+     */
+    @GetMapping("")
+    public ResponseEntity<List<ClusterConfig>> configs() {
+        return ResponseEntity.ok(membership.configs());
+    }
+
+    /**
+     * The configuration of the next slot this server applies.
+     */
+    @GetMapping("/current")
+    public ResponseEntity<ClusterConfig> current() {
+        return ResponseEntity.ok(membership.configFor(membership.appliedIndex() + 1));
+    }
+
+    /**
+     * Add server id with its grpc address (host:port), or move it to a new address.
+     * Answers with the slot the change was chosen in.
+     */
+    @PostMapping("/add")
+    public ResponseEntity<ChosenValue> add(@RequestParam int id, @RequestParam String address) {
+        log.info("REST: Received membership add of server {} at {}", id, address);
+        return ResponseEntity.ok(leaderService.reconfigure(membership.adding(id, address)));
+    }
+
+    /**
+     * Remove server id. Answers with the slot the change was chosen in.
+     */
+    @PostMapping("/remove")
+    public ResponseEntity<ChosenValue> remove(@RequestParam int id) {
+        log.info("REST: Received membership remove of server {}", id);
+        return ResponseEntity.ok(leaderService.reconfigure(membership.removing(id)));
+    }
+}
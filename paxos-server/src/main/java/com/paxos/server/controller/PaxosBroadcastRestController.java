@@ -1,15 +1,21 @@
 package com.paxos.server.controller;
 
+import com.google.protobuf.ByteString;
 import com.paxos.server.model.AcceptResponse;
 import com.paxos.server.model.PaxosState;
 import com.paxos.server.model.PromiseResponse;
+import com.paxos.server.model.Values;
 import com.paxos.server.service.CompositeAcceptorService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Controller for broadcasting prepare/send operations
@@ -18,6 +24,10 @@ import java.util.Map;
  * convenience (to send one request to all nodes in the pool) and for the
  * purpose of demonstrating grpc inter-node communication as this is
  * an interview exercise.
+ *
+ * The endpoints answer asynchronously: the request thread is released once the
+ * peer calls are sent, and the response is written when the collected responses
+ * are complete, so slow peers do not hold Tomcat worker threads.
  */
 @RestController
 @RequestMapping("/api/broadcast/paxos")
@@ -37,11 +47,14 @@ public class PaxosBroadcastRestController {
      * Acceptor responds with promise(n) or ignore
      */
     @PostMapping("/prepare")
-    public ResponseEntity<Map<Integer, PromiseResponse>> prepare(@RequestParam int id) {
-        log.info("REST: Received prepare request with id: {}", id);
-        Map<Integer, PromiseResponse> responses = acceptorService.prepare(id);
-        log.info("{} servers responded", responses.size());
-        return ResponseEntity.ok(responses);
+    public CompletableFuture<ResponseEntity<Map<Integer, PromiseResponse>>> prepare(
+            @RequestParam int id,
+            @RequestParam(defaultValue = "0") long slot) {
+        log.info("REST: Received prepare request for slot {} with id: {}", slot, id);
+        return acceptorService.prepare(slot, id).thenApply(responses -> {
+            log.info("{} servers responded", responses.size());
+            return ResponseEntity.ok(responses);
+        });
     }
 
     /**
@@ -50,21 +63,34 @@ public class PaxosBroadcastRestController {
      * Acceptor responds with accept(n, v) or ignore
      */
     @PostMapping("/accept")
-    public ResponseEntity<Map<Integer, AcceptResponse>> acceptRequest(
+    public CompletableFuture<ResponseEntity<Map<Integer, AcceptResponse>>> acceptRequest(
+            @RequestParam int id,
+            @RequestParam String value,
+            @RequestParam(defaultValue = "0") long slot) {
+        log.info("REST: Received accept request for slot {} with id: {}, value: {}", slot, id, value);
+        return acceptorService.acceptRequest(slot, id, Values.of(value)).thenApply(ResponseEntity::ok);
+    }
+
+    /**
+     * Phase 2 with a binary value: the request body (application/octet-stream) is sent to
+     * every acceptor as read, without decoding it.
+     */
+    @PostMapping(value = "/accept/bytes", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public CompletableFuture<ResponseEntity<Map<Integer, AcceptResponse>>> acceptBytes(
             @RequestParam int id,
-            @RequestParam String value) {
-        log.info("REST: Received accept request with id: {}, value: {}", id, value);
-        Map<Integer, AcceptResponse> responses = acceptorService.acceptRequest(id, value);
-        return ResponseEntity.ok(responses);
+            @RequestParam(defaultValue = "0") long slot,
+            InputStream body) throws IOException {
+        ByteString value = ByteString.readFrom(body);
+        log.info("REST: Received accept request for slot {} with id: {}, {} bytes", slot, id, value.size());
+        return acceptorService.acceptRequest(slot, id, value).thenApply(ResponseEntity::ok);
     }
 
     /**
      * Endpoint for getting paxos state
      */
     @GetMapping("/state")
-    public ResponseEntity<Map<Integer, PaxosState>> state() {
-        log.info("REST: Received state request");
-        Map<Integer, PaxosState> states = acceptorService.state();
-        return ResponseEntity.ok(states);
+    public CompletableFuture<ResponseEntity<Map<Integer, PaxosState>>> state(@RequestParam(defaultValue = "0") long slot) {
+        log.info("REST: Received state request for slot {}", slot);
+        return acceptorService.state(slot).thenApply(ResponseEntity::ok);
     }
 }
@@ -1,14 +1,24 @@
 package com.paxos.server.controller;
 
+import com.google.protobuf.ByteString;
+import com.paxos.server.metrics.PaxosMetrics;
 import com.paxos.server.model.AcceptResponse;
+import com.paxos.server.model.BatchRequest;
+import com.paxos.server.model.BatchResponse;
 import com.paxos.server.model.PaxosState;
 import com.paxos.server.model.PromiseResponse;
 import com.paxos.server.service.PersistentPaxosAcceptorService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
+import java.io.InputStream;
+
 /**
  * Controller for paxos operations on this host.
  */
@@ -20,8 +30,11 @@ public class PaxosRestController {
 
     private final PersistentPaxosAcceptorService acceptorService;
 
-    public PaxosRestController(PersistentPaxosAcceptorService acceptorService) {
+    private final PaxosMetrics metrics;
+
+    public PaxosRestController(PersistentPaxosAcceptorService acceptorService, PaxosMetrics metrics) {
         this.acceptorService = acceptorService;
+        this.metrics = metrics;
     }
 
     /**
@@ -30,9 +43,13 @@ public class PaxosRestController {
      * Acceptor responds with promise(n) or ignore
      */
     @PostMapping("/prepare")
-    public ResponseEntity<PromiseResponse> prepare(@RequestParam int id) {
-        log.info("REST: Received prepare request with id: {}", id);
-        PromiseResponse response = acceptorService.prepare(id);
+    public ResponseEntity<PromiseResponse> prepare(
+            @RequestParam int id,
+            @RequestParam(defaultValue = "0") long slot) {
+        log.info("REST: Received prepare request for slot {} with id: {}", slot, id);
+        long start = metrics.start();
+        PromiseResponse response = acceptorService.prepare(slot, id);
+        metrics.recordPrepare(PaxosMetrics.ENTRY_POINT_REST, response.isIgnored(), start);
         return ResponseEntity.ok(response);
     }
 
@@ -44,9 +61,43 @@ public class PaxosRestController {
     @PostMapping("/accept")
     public ResponseEntity<AcceptResponse> acceptRequest(
             @RequestParam int id,
-            @RequestParam String value) {
-        log.info("REST: Received accept request with id: {}, value: {}", id, value);
-        AcceptResponse response = acceptorService.acceptRequest(id, value);
+            @RequestParam String value,
+            @RequestParam(defaultValue = "0") long slot) {
+        log.info("REST: Received accept request for slot {} with id: {}, value: {}", slot, id, value);
+        long start = metrics.start();
+        AcceptResponse response = acceptorService.acceptRequest(slot, id, value);
+        metrics.recordAccept(PaxosMetrics.ENTRY_POINT_REST, response.isIgnored(), start);
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Phase 2 with a binary value: the request body (application/octet-stream) is the value,
+     * kept as read without decoding it.
+     */
+    @PostMapping(value = "/accept/bytes", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<AcceptResponse> acceptBytes(
+            @RequestParam int id,
+            @RequestParam(defaultValue = "0") long slot,
+            InputStream body) throws IOException {
+        ByteString value = ByteString.readFrom(body);
+        log.info("REST: Received accept request for slot {} with id: {}, {} bytes", slot, id, value.size());
+        long start = metrics.start();
+        AcceptResponse response = acceptorService.acceptRequest(slot, id, value);
+        metrics.recordAccept(PaxosMetrics.ENTRY_POINT_REST, response.isIgnored(), start);
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Batch endpoint: any number of prepares and accepts in one request,
+     * made durable together. Responds with the result of every entry.
+     */
+    @PostMapping("/batch")
+    public ResponseEntity<BatchResponse> batch(@RequestBody BatchRequest request) {
+        log.info("REST: Received batch of {} prepares and {} accepts",
+                request.getPrepares().size(), request.getAccepts().size());
+        long start = metrics.start();
+        BatchResponse response = acceptorService.batch(request);
+        metrics.recordBatch(PaxosMetrics.ENTRY_POINT_REST, request.size(), start);
         return ResponseEntity.ok(response);
     }
 
@@ -54,9 +105,25 @@ public class PaxosRestController {
      * Endpoint for getting paxos state
      */
     @GetMapping("/state")
-    public ResponseEntity<PaxosState> state() {
-        log.info("REST: Received state request");
-        PaxosState state = acceptorService.getState();
+    public ResponseEntity<PaxosState> state(@RequestParam(defaultValue = "0") long slot) {
+        log.info("REST: Received state request for slot {}", slot);
+        PaxosState state = acceptorService.getState(slot);
         return ResponseEntity.ok(state);
     }
+
+    /**
+     * The accepted value of a slot as application/octet-stream, streamed from the stored bytes.
+     * 404 if the slot has no accepted value.
+     */
+    @GetMapping(value = "/state/bytes", produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<Resource> stateBytes(@RequestParam(defaultValue = "0") long slot) {
+        log.info("REST: Received state bytes request for slot {}", slot);
+        ByteString value = acceptorService.getState(slot).getAcceptedValueBytes();
+        if (value == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok()
+                .contentLength(value.size())
+                .body(new InputStreamResource(value.newInput()));
+    }
 }
@@ -0,0 +1,58 @@
+package com.paxos.server.controller;
+
+import com.google.protobuf.ByteString;
+import com.paxos.server.model.ChosenValue;
+import com.paxos.server.service.ProposerService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Controller for running a whole single-decree Paxos proposal on this server.
+ */
+@RestController
+@RequestMapping("/api")
+public class ProposerRestController {
+
+    private static final Logger log = LoggerFactory.getLogger(ProposerRestController.class);
+
+    private final ProposerService proposerService;
+
+    public ProposerRestController(ProposerService proposerService) {
+        this.proposerService = proposerService;
+    }
+
+    /**
+     * Get a value chosen in slot with prepare and accept rounds over grpc. Answers with the
+     * chosen value, which is an earlier proposal's value if one was already accepted there.
+     */
+    @PostMapping("/propose")
+    public ResponseEntity<ChosenValue> propose(
+            @RequestParam String value,
+            @RequestParam(defaultValue = "0") long slot) {
+        log.info("REST: Received proposal for slot {} with value: {}", slot, value);
+        ChosenValue chosen = proposerService.propose(slot, value);
+        log.info("Chosen: {}", chosen);
+        return ResponseEntity.ok(chosen);
+    }
+
+    /**
+     * Like {@link #propose}, with a binary value: the request body (application/octet-stream)
+     * is proposed as read, without decoding it.
+     */
+    @PostMapping(value = "/propose/bytes", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<ChosenValue> proposeBytes(
+            @RequestParam(defaultValue = "0") long slot,
+            InputStream body) throws IOException {
+        ByteString value = ByteString.readFrom(body);
+        log.info("REST: Received proposal for slot {} of {} bytes", slot, value.size());
+        ChosenValue chosen = proposerService.propose(slot, value);
+        log.info("Chosen: slot {} with id {}", chosen.getSlot(), chosen.getProposalId());
+        return ResponseEntity.ok(chosen);
+    }
+}
@@ -2,24 +2,34 @@ package com.paxos.server.grpc;
 
 import io.grpc.ManagedChannel;
 import io.grpc.ManagedChannelBuilder;
+import jakarta.annotation.PostConstruct;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.SmartInitializingSingleton;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.event.ContextClosedEvent;
 import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.IntConsumer;
 
 
 /**
  * Provides access to a channel for a specified grpc server, efficiently reusing/pooling
  * connections.
+ *
+ * The peers start out as paxos.server.members (id=host:port,...) or, without it, servers 1 to
+ * paxos.server.count on localhost at the base grpc port plus their id. Membership changes
+ * replace them at runtime ({@link #setMembers}): channels to new servers are opened and the
+ * ones to servers that left are drained, their calls in flight finish before they close.
  */
 @Service
-public class GrpcChannelProvider implements SmartInitializingSingleton {
+public class GrpcChannelProvider {
 
 
 
@@ -34,33 +44,101 @@ public class GrpcChannelProvider implements SmartInitializingSingleton {
     @Value("${paxos.server.count}")
     private int serverCount;
 
-    private Map<Integer, ManagedChannel> channels = new HashMap<>();
+    // id=host:port of every server at startup, overrides paxos.server.count when set
+    @Value("${paxos.server.members:}")
+    private String initialMembers = "";
 
-    @Override
-    public void afterSingletonsInstantiated() {
+    // grpc address of every other server, by id
+    private final Map<Integer, String> addresses = new ConcurrentHashMap<>();
+    private final Map<Integer, ManagedChannel> channels = new ConcurrentHashMap<>();
+    private final List<IntConsumer> drainListeners = new CopyOnWriteArrayList<>();
+
+    @PostConstruct
+    public void start() {
+        setMembers(initialMembers());
+        log.info("grpc channels initiated.");
+    }
+
+    /**
+     * Every server of the pool at startup, this one included, by id.
+     */
+    public Map<Integer, String> initialMembers() {
+        Map<Integer, String> members = new TreeMap<>();
+        if (initialMembers != null && !initialMembers.isBlank()) {
+            for (String member : initialMembers.split(",")) {
+                String[] idAndAddress = member.trim().split("=", 2);
+                if (idAndAddress.length != 2) {
+                    throw new IllegalStateException("paxos.server.members entry is not id=host:port: " + member);
+                }
+                members.put(Integer.parseInt(idAndAddress[0].trim()), idAndAddress[1].trim());
+            }
+            return members;
+        }
         for (int i = 1; i <= serverCount; i++) {
-            if (i == serverId) {
-                continue;
+            members.put(i, "localhost:" + (baseGrpcPort + i));
+        }
+        return members;
+    }
+
+    /**
+     * Replace the peers with the servers of members other than this one. Channels to servers
+     * no longer in it are shut down gracefully, after the drain listeners were told.
+     */
+    public synchronized void setMembers(Map<Integer, String> members) {
+        for (Map.Entry<Integer, String> member : members.entrySet()) {
+            int id = member.getKey();
+            if (id != serverId && !member.getValue().equals(addresses.get(id))) {
+                if (addresses.containsKey(id)) {
+                    drain(id);
+                }
+                addresses.put(id, member.getValue());
+                log.info("Server {} added peer {} at {}", serverId, id, member.getValue());
+            }
+        }
+        for (int id : new ArrayList<>(addresses.keySet())) {
+            if (!members.containsKey(id)) {
+                drain(id);
             }
-            int grpcPort = baseGrpcPort + i;
-            ManagedChannel channel = ManagedChannelBuilder.forAddress("localhost", grpcPort)
-                    .usePlaintext()
-                    .build();
-            channels.put(i, channel);
         }
-        log.info("grpc channels initiated.");
+    }
+
+    /**
+     * Called with the id of every server whose channel is drained, before it shuts down.
+     */
+    public void onDrain(IntConsumer listener) {
+        drainListeners.add(listener);
+    }
+
+    /**
+     * The other servers, by id.
+     */
+    public List<Integer> peers() {
+        return new ArrayList<>(new TreeMap<>(addresses).keySet());
     }
 
     public ManagedChannel getChannel(int i) {
-        ManagedChannel ret = channels.get(i);
-        if (ret == null) {
+        String address = addresses.get(i);
+        if (address == null) {
             throw new IllegalStateException("No channel for server " + i);
         }
-        return ret;
+        return channels.computeIfAbsent(i, id -> ManagedChannelBuilder.forTarget(address)
+                .usePlaintext()
+                .build());
     }
 
     @EventListener
     public void onShutdown(ContextClosedEvent event) {
-        // TODO safely shutdown tcp connections
+        channels.values().forEach(ManagedChannel::shutdown);
+    }
+
+    private void drain(int id) {
+        addresses.remove(id);
+        drainListeners.forEach(listener -> listener.accept(id));
+        ManagedChannel channel = channels.remove(id);
+        if (channel != null) {
+            // new calls are refused, the ones in flight finish
+            channel.shutdown();
+        }
+        log.info("Server {} drained its channel to server {}", serverId, id);
     }
 }
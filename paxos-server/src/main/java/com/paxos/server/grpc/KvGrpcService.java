@@ -0,0 +1,67 @@
+package com.paxos.server.grpc;
+
+import com.paxos.server.grpc.proto.KvCasRequest;
+import com.paxos.server.grpc.proto.KvDeleteRequest;
+import com.paxos.server.grpc.proto.KvGetRequest;
+import com.paxos.server.grpc.proto.KvPutRequest;
+import com.paxos.server.grpc.proto.KvResponse;
+import com.paxos.server.grpc.proto.KvServiceGrpc;
+import com.paxos.server.model.KvResult;
+import com.paxos.server.service.KvStateMachine;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+import net.devh.boot.grpc.server.service.GrpcService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.function.Supplier;
+
+/**
+ * gRPC endpoints of the replicated key-value store, see {@link KvStateMachine}.
+ * Commands that could not be chosen or applied fail with UNAVAILABLE.
+ */
+@GrpcService
+public class KvGrpcService extends KvServiceGrpc.KvServiceImplBase {
+
+    private static final Logger log = LoggerFactory.getLogger(KvGrpcService.class);
+
+    private final KvStateMachine stateMachine;
+
+    public KvGrpcService(KvStateMachine stateMachine) {
+        this.stateMachine = stateMachine;
+    }
+
+    @Override
+    public void put(KvPutRequest request, StreamObserver<KvResponse> responseObserver) {
+        respond(() -> stateMachine.put(request.getKey(), request.getValue()), responseObserver);
+    }
+
+    @Override
+    public void get(KvGetRequest request, StreamObserver<KvResponse> responseObserver) {
+        respond(() -> stateMachine.get(request.getKey()), responseObserver);
+    }
+
+    @Override
+    public void delete(KvDeleteRequest request, StreamObserver<KvResponse> responseObserver) {
+        respond(() -> stateMachine.delete(request.getKey()), responseObserver);
+    }
+
+    @Override
+    public void cas(KvCasRequest request, StreamObserver<KvResponse> responseObserver) {
+        String expected = request.getHasExpected() ? request.getExpected() : null;
+        respond(() -> stateMachine.compareAndSet(request.getKey(), expected, request.getValue()), responseObserver);
+    }
+
+    private static void respond(Supplier<KvResult> command, StreamObserver<KvResponse> responseObserver) {
+        KvResult result;
+        try {
+            result = command.get();
+        } catch (IllegalStateException e) {
+            log.warn("gRPC: Key-value command failed: {}", e.getMessage());
+            responseObserver.onError(Status.UNAVAILABLE.withDescription(e.getMessage()).asRuntimeException());
+            return;
+        }
+        responseObserver.onNext(ProtoMapper.toProto(result));
+        responseObserver.onCompleted();
+    }
+}
@@ -1,99 +1,572 @@
 package com.paxos.server.grpc;
 
-import com.google.protobuf.Empty;
+import com.paxos.server.config.ExecutionMode;
 import com.paxos.server.grpc.proto.*;
+import com.paxos.server.metrics.PaxosMetrics;
 import com.paxos.server.model.AcceptResponse;
+import com.paxos.server.model.BatchRequest;
+import com.paxos.server.model.BatchResponse;
+import com.paxos.server.model.LeaderPromiseResponse;
 import com.paxos.server.model.PaxosState;
 import com.paxos.server.model.PromiseResponse;
-import com.paxos.server.service.PaxosAcceptorService;
+import com.paxos.server.model.ChosenValue;
+import com.paxos.server.model.Values;
+import com.paxos.server.service.DecisionStream;
+import com.paxos.server.service.KvStateMachine;
+import com.paxos.server.service.LearnerService;
 import com.paxos.server.service.PersistentPaxosAcceptorService;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
+import jakarta.annotation.PreDestroy;
+import net.devh.boot.grpc.server.event.GrpcServerShutdownEvent;
 import net.devh.boot.grpc.server.service.GrpcService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 
 @GrpcService
 public class PaxosGrpcService extends PaxosServiceGrpc.PaxosServiceImplBase {
 
     private static final Logger log = LoggerFactory.getLogger(PaxosGrpcService.class);
 
+    static final int DEFAULT_STREAM_THREADS = 16;
+    // well below the 4MB default limit on inbound messages
+    static final int MAX_SNAPSHOT_CHUNK_BYTES = 2 << 20;
+
     @Value("${paxos.server.id:0}")
     private int serverId;
 
     private final PersistentPaxosAcceptorService acceptorService;
 
+    @Autowired(required = false)
+    private PaxosMetrics metrics = PaxosMetrics.noop();
+
+    @Autowired(required = false)
+    private KvStateMachine kvStateMachine;
+
+    @Autowired(required = false)
+    private LearnerService learnerService;
+
+    // peer streams and watches that are still open
+    private final Set<OpenStream> openStreams = ConcurrentHashMap.newKeySet();
+    private volatile boolean stopping;
+
+    @Value("${paxos.kv.snapshot.chunk.bytes:1048576}")
+    private int snapshotChunkBytes = 1 << 20;
+
+    // runs the requests of peer streams, so that many requests of one stream are in flight at once
+    private final Executor streamExecutor;
+
     public PaxosGrpcService(PersistentPaxosAcceptorService acceptorService) {
+        this(acceptorService, DEFAULT_STREAM_THREADS);
+    }
+
+    public PaxosGrpcService(PersistentPaxosAcceptorService acceptorService, int streamThreads) {
+        this(acceptorService, streamThreads, ExecutionMode.PLATFORM.name());
+    }
+
+    /**
+     * @param executionMode the grpc server's execution mode: virtual runs each stream request on
+     *                      a virtual thread, direct on the stream's own thread one after the
+     *                      other, the others on a pool of streamThreads
+     */
+    @Autowired
+    public PaxosGrpcService(PersistentPaxosAcceptorService acceptorService,
+                            @Value("${paxos.server.grpc.stream.threads:16}") int streamThreads,
+                            @Value("${paxos.server.grpc.executor:platform}") String executionMode) {
         this.acceptorService = acceptorService;
+        ExecutionMode mode = ExecutionMode.parse(executionMode);
+        if (mode == ExecutionMode.VIRTUAL || mode == ExecutionMode.DIRECT) {
+            this.streamExecutor = mode.newExecutor(streamThreads, "paxos-stream");
+        } else {
+            this.streamExecutor = ExecutionMode.BOUNDED.newExecutor(streamThreads, "paxos-stream");
+        }
+    }
+
+    /**
+     * Ends the open peer streams and watches with UNAVAILABLE before the grpc server shuts down,
+     * which otherwise waits its whole grace period for these long-lived calls. The peers reopen
+     * their streams to another server, or to this one once it is back.
+     */
+    @EventListener
+    public void onServerShutdown(GrpcServerShutdownEvent event) {
+        stopping = true;
+        log.info("gRPC: Ending {} open streams before shutdown", openStreams.size());
+        openStreams.forEach(OpenStream::shutdown);
+    }
+
+    @PreDestroy
+    public void close() {
+        if (streamExecutor instanceof ExecutorService) {
+            ((ExecutorService) streamExecutor).shutdown();
+        }
     }
 
     @Override
     public void prepare(PrepareRequest request, StreamObserver<PrepareResponse> responseObserver) {
-        log.info("gRPC: Received prepare request with id: {}", request.getId());
-        
-        PromiseResponse result = acceptorService.prepare(request.getId());
-        
-        PrepareResponse.Builder responseBuilder = PrepareResponse.newBuilder()
-                .setIgnored(result.isIgnored())
-                .setPromisedId(result.getPromisedId());
-        
-        if (!result.isIgnored()) {
-            if (result.getAcceptedId() != null) {
-                responseBuilder.setAcceptedId(result.getAcceptedId());
-                responseBuilder.setAcceptedValue(result.getAcceptedValue());
-            }
-        }
-        log.debug("resp accepted grpc: has={}, val={}", responseBuilder.getHasAcceptedValue(), responseBuilder.getAcceptedValue());
-        responseObserver.onNext(responseBuilder.build());
+        responseObserver.onNext(handlePrepare(request));
         responseObserver.onCompleted();
     }
 
     @Override
     public void acceptRequest(AcceptRequestMessage request, StreamObserver<com.paxos.server.grpc.proto.AcceptResponse> responseObserver) {
-        log.info("gRPC: Received accept request with id: {}, value: {}", request.getId(), request.getValue());
-        
-        AcceptResponse result = acceptorService.acceptRequest(request.getId(), request.getValue());
-        
-        com.paxos.server.grpc.proto.AcceptResponse.Builder responseBuilder = 
-                com.paxos.server.grpc.proto.AcceptResponse.newBuilder()
-                        .setIgnored(result.isIgnored());
-        
-        if (!result.isIgnored()) {
-            responseBuilder
-                    .setAcceptedId(result.getAcceptedId())
-                    .setAcceptedValue(result.getAcceptedValue());
-        }
-        
-        responseObserver.onNext(responseBuilder.build());
+        responseObserver.onNext(handleAccept(request));
         responseObserver.onCompleted();
     }
 
     @Override
-    public void state(Empty request, StreamObserver<StateResponse> responseObserver) {
-        PaxosState state = acceptorService.getState();
+    public void prepareFrom(PrepareFromRequest request, StreamObserver<PrepareFromResponse> responseObserver) {
+        responseObserver.onNext(handlePrepareFrom(request));
+        responseObserver.onCompleted();
+    }
 
-        StateResponse.Builder builder = StateResponse.newBuilder()
-                .setPromisedId(state.getPromisedId())
-                .setAcceptedId(state.getAcceptedId());
+    @Override
+    public void lease(LeaseRequest request, StreamObserver<com.paxos.server.grpc.proto.LeaseResponse> responseObserver) {
+        responseObserver.onNext(handleLease(request));
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public void snapshotIndex(SnapshotIndexRequest request, StreamObserver<SnapshotIndexResponse> responseObserver) {
+        responseObserver.onNext(handleSnapshotIndex());
+        responseObserver.onCompleted();
+    }
 
-        if (state.getAcceptedValue() != null) {
-            builder.setAcceptedValue(state.getAcceptedValue());
+    @Override
+    public void installSnapshot(InstallSnapshotRequest request, StreamObserver<SnapshotChunk> responseObserver) {
+        Optional<Path> file = kvStateMachine != null ? kvStateMachine.snapshotFile() : Optional.empty();
+        if (file.isEmpty()) {
+            responseObserver.onError(Status.NOT_FOUND
+                    .withDescription("server " + serverId + " has no snapshot").asRuntimeException());
+            return;
+        }
+        int chunkBytes = request.getChunkBytes() > 0 ? request.getChunkBytes() : snapshotChunkBytes;
+        log.info("gRPC: Sending snapshot {} in chunks of {} bytes", file.get(), chunkBytes);
+        try {
+            SnapshotSender.send(file.get(), Math.min(chunkBytes, MAX_SNAPSHOT_CHUNK_BYTES),
+                    (ServerCallStreamObserver<SnapshotChunk>) responseObserver);
+        } catch (IOException e) {
+            responseObserver.onError(Status.INTERNAL
+                    .withDescription("Failed to open snapshot: " + e.getMessage()).asRuntimeException());
         }
+    }
 
-        StateResponse resp = builder.build();
+    @Override
+    public void learn(LearnRequest request, StreamObserver<LearnResponse> responseObserver) {
+        responseObserver.onNext(handleLearn(request));
+        responseObserver.onCompleted();
+    }
 
-        responseObserver.onNext(resp);
+    /**
+     * Decided values are sent as the call's flow control allows; a watcher that cannot keep up
+     * is failed with RESOURCE_EXHAUSTED, see {@link DecisionStream}.
+     */
+    @Override
+    public void watch(WatchRequest request, StreamObserver<DecidedValue> responseObserver) {
+        if (learnerService == null) {
+            responseObserver.onError(Status.UNIMPLEMENTED.withDescription("no learner").asRuntimeException());
+            return;
+        }
+        log.info("gRPC: Received watch from slot {}", request.getFromSlot());
+        WatchSink sink = new WatchSink((ServerCallStreamObserver<DecidedValue>) responseObserver);
+        sink.setStream(learnerService.watch(request.getFromSlot(), sink));
+        open(sink);
+    }
+
+    @Override
+    public void decided(DecidedRequest request, StreamObserver<DecidedResponse> responseObserver) {
+        if (learnerService == null) {
+            responseObserver.onError(Status.UNIMPLEMENTED.withDescription("no learner").asRuntimeException());
+            return;
+        }
+        log.debug("gRPC: Received decided from slot {}, limit {}", request.getFromSlot(), request.getLimit());
+        DecidedResponse.Builder response = DecidedResponse.newBuilder();
+        for (ChosenValue value : learnerService.decidedFrom(request.getFromSlot(), request.getLimit())) {
+            response.addValues(ProtoMapper.toProto(value));
+        }
+        responseObserver.onNext(response.build());
+        responseObserver.onCompleted();
+    }
+
+    /**
+     * Serve this key-value store's snapshots, for tests.
+     */
+    void setKvStateMachine(KvStateMachine kvStateMachine) {
+        this.kvStateMachine = kvStateMachine;
+    }
+
+    @Override
+    public void batchPrepare(BatchPrepareRequest request, StreamObserver<BatchPrepareResponse> responseObserver) {
+        log.info("gRPC: Received batch of {} prepares", request.getEntriesCount());
+
+        long start = metrics.start();
+        BatchRequest batch = new BatchRequest();
+        for (PrepareRequest entry : request.getEntriesList()) {
+            batch.addPrepare(entry.getSlot(), entry.getId());
+        }
+        BatchResponse result = acceptorService.batch(batch);
+        metrics.recordBatch(PaxosMetrics.ENTRY_POINT_GRPC, batch.size(), start);
+
+        BatchPrepareResponse.Builder response = BatchPrepareResponse.newBuilder();
+        for (PromiseResponse promise : result.getPrepares()) {
+            response.addEntries(ProtoMapper.toProto(promise));
+        }
+        responseObserver.onNext(response.build());
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public void batchAccept(BatchAcceptRequest request, StreamObserver<BatchAcceptResponse> responseObserver) {
+        log.info("gRPC: Received batch of {} accepts", request.getEntriesCount());
+
+        long start = metrics.start();
+        BatchRequest batch = new BatchRequest();
+        for (AcceptRequestMessage entry : request.getEntriesList()) {
+            batch.addAccept(entry.getSlot(), entry.getId(), entry.getValue());
+        }
+        BatchResponse result = acceptorService.batch(batch);
+        metrics.recordBatch(PaxosMetrics.ENTRY_POINT_GRPC, batch.size(), start);
+
+        BatchAcceptResponse.Builder response = BatchAcceptResponse.newBuilder();
+        for (AcceptResponse accept : result.getAccepts()) {
+            response.addEntries(ProtoMapper.toProto(accept));
+        }
+        responseObserver.onNext(response.build());
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public void state(StateRequest request, StreamObserver<StateResponse> responseObserver) {
+        responseObserver.onNext(handleState(request));
         responseObserver.onCompleted();
     }
 
+    private PrepareResponse handlePrepare(PrepareRequest request) {
+        log.info("gRPC: Received prepare request for slot {} with id: {}", request.getSlot(), request.getId());
+
+        long start = metrics.start();
+        PromiseResponse result = acceptorService.prepare(request.getSlot(), request.getId());
+        metrics.recordPrepare(PaxosMetrics.ENTRY_POINT_GRPC, result.isIgnored(), start);
+
+        PrepareResponse response = ProtoMapper.toProto(result);
+        log.debug("resp accepted grpc: has={}, val={} bytes", response.getHasAcceptedValue(), response.getAcceptedValue().size());
+        return response;
+    }
+
+    private PrepareFromResponse handlePrepareFrom(PrepareFromRequest request) {
+        log.info("gRPC: Received leader prepare from slot {} with id: {}", request.getFromSlot(), request.getId());
+
+        long start = metrics.start();
+        LeaderPromiseResponse result = acceptorService.prepareFrom(request.getFromSlot(), request.getId());
+        metrics.recordPrepare(PaxosMetrics.ENTRY_POINT_GRPC, result.isIgnored(), start);
+        return ProtoMapper.toProto(result);
+    }
+
+    private com.paxos.server.grpc.proto.LeaseResponse handleLease(LeaseRequest request) {
+        log.debug("gRPC: Received lease request of server {} with id: {} for {}ms",
+                request.getServerId(), request.getId(), request.getDurationMillis());
+        return ProtoMapper.toProto(acceptorService.grantLease(
+                request.getServerId(), request.getId(), request.getDurationMillis()));
+    }
+
+    private SnapshotIndexResponse handleSnapshotIndex() {
+        long index = kvStateMachine != null ? kvStateMachine.snapshotIndex() : -1;
+        return SnapshotIndexResponse.newBuilder().setIndex(index).build();
+    }
+
+    private LearnResponse handleLearn(LearnRequest request) {
+        log.debug("gRPC: Server {} accepted slot {} with id: {}", request.getServerId(), request.getSlot(), request.getId());
+        if (learnerService != null) {
+            learnerService.learn(request.getServerId(), request.getSlot(), request.getId(), request.getValue());
+        }
+        return LearnResponse.getDefaultInstance();
+    }
+
+    private com.paxos.server.grpc.proto.AcceptResponse handleAccept(AcceptRequestMessage request) {
+        log.info("gRPC: Received accept request for slot {} with id: {}, value: {}",
+                request.getSlot(), request.getId(), Values.sizeOf(request.getValue()));
+
+        long start = metrics.start();
+        AcceptResponse result = acceptorService.acceptRequest(request.getSlot(), request.getId(), request.getValue());
+        metrics.recordAccept(PaxosMetrics.ENTRY_POINT_GRPC, result.isIgnored(), start);
+        return ProtoMapper.toProto(result);
+    }
+
+    private StateResponse handleState(StateRequest request) {
+        PaxosState state = acceptorService.getState(request.getSlot());
+        return ProtoMapper.toProto(state);
+    }
+
+    /**
+     * Peer stream: every request is handed to the stream executor and answered as soon as it
+     * is done, so slow (durable) requests do not hold up the ones behind them.
+     * The response side is completed once the peer has completed its side and every
+     * request has been answered.
+     */
+    @Override
+    public StreamObserver<PeerRequest> stream(StreamObserver<PeerResponse> responseObserver) {
+        PeerStreamHandler handler = new PeerStreamHandler((ServerCallStreamObserver<PeerResponse>) responseObserver);
+        open(handler);
+        return handler;
+    }
+
+    /**
+     * A long-lived call, ended when the server shuts down.
+     */
+    private interface OpenStream {
+        void shutdown();
+    }
+
+    private void open(OpenStream stream) {
+        openStreams.add(stream);
+        // a call that arrived while the open ones were being ended
+        if (stopping) {
+            stream.shutdown();
+        }
+    }
+
+    private static StatusRuntimeException shuttingDown() {
+        return Status.UNAVAILABLE.withDescription("server is shutting down").asRuntimeException();
+    }
+
+    private class PeerStreamHandler implements StreamObserver<PeerRequest>, OpenStream {
+        private final ServerCallStreamObserver<PeerResponse> responses;
+        // guarded by responses
+        private int inFlight;
+        private boolean peerCompleted;
+        private boolean closed;
+
+        PeerStreamHandler(ServerCallStreamObserver<PeerResponse> responses) {
+            this.responses = responses;
+            responses.setOnCancelHandler(() -> {
+                synchronized (responses) {
+                    closed = true;
+                }
+                openStreams.remove(this);
+            });
+        }
+
+        @Override
+        public void shutdown() {
+            synchronized (responses) {
+                if (!closed) {
+                    closed = true;
+                    responses.onError(shuttingDown());
+                }
+            }
+            openStreams.remove(this);
+        }
+
+        @Override
+        public void onNext(PeerRequest request) {
+            synchronized (responses) {
+                inFlight++;
+            }
+            try {
+                streamExecutor.execute(() -> respond(handle(request)));
+            } catch (RejectedExecutionException e) {
+                respond(error(request, "server is shutting down"));
+            }
+        }
+
+        private PeerResponse handle(PeerRequest request) {
+            try {
+                switch (request.getBodyCase()) {
+                    case PREPARE:
+                        return PeerResponse.newBuilder()
+                                .setCorrelationId(request.getCorrelationId())
+                                .setPrepare(handlePrepare(request.getPrepare()))
+                                .build();
+                    case ACCEPT:
+                        return PeerResponse.newBuilder()
+                                .setCorrelationId(request.getCorrelationId())
+                                .setAccept(handleAccept(request.getAccept()))
+                                .build();
+                    case STATE:
+                        return PeerResponse.newBuilder()
+                                .setCorrelationId(request.getCorrelationId())
+                                .setState(handleState(request.getState()))
+                                .build();
+                    case PREPARE_FROM:
+                        return PeerResponse.newBuilder()
+                                .setCorrelationId(request.getCorrelationId())
+                                .setPrepareFrom(handlePrepareFrom(request.getPrepareFrom()))
+                                .build();
+                    case LEASE:
+                        return PeerResponse.newBuilder()
+                                .setCorrelationId(request.getCorrelationId())
+                                .setLease(handleLease(request.getLease()))
+                                .build();
+                    case SNAPSHOT_INDEX:
+                        return PeerResponse.newBuilder()
+                                .setCorrelationId(request.getCorrelationId())
+                                .setSnapshotIndex(handleSnapshotIndex())
+                                .build();
+                    case LEARN:
+                        return PeerResponse.newBuilder()
+                                .setCorrelationId(request.getCorrelationId())
+                                .setLearn(handleLearn(request.getLearn()))
+                                .build();
+                    default:
+                        return error(request, "unknown request: " + request.getBodyCase());
+                }
+            } catch (RuntimeException e) {
+                log.warn("gRPC: Failed stream request {}: {}", request.getCorrelationId(), e.getMessage());
+                return error(request, String.valueOf(e.getMessage()));
+            }
+        }
+
+        private PeerResponse error(PeerRequest request, String message) {
+            return PeerResponse.newBuilder()
+                    .setCorrelationId(request.getCorrelationId())
+                    .setError(message)
+                    .build();
+        }
+
+        private void respond(PeerResponse response) {
+            synchronized (responses) {
+                inFlight--;
+                if (closed) {
+                    return;
+                }
+                responses.onNext(response);
+                completeIfDone();
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            log.debug("gRPC: Peer stream failed: {}", t.getMessage());
+            synchronized (responses) {
+                closed = true;
+            }
+            openStreams.remove(this);
+        }
+
+        @Override
+        public void onCompleted() {
+            synchronized (responses) {
+                peerCompleted = true;
+                completeIfDone();
+            }
+        }
+
+        private void completeIfDone() {
+            if (peerCompleted && inFlight == 0 && !closed) {
+                closed = true;
+                responses.onCompleted();
+                openStreams.remove(this);
+            }
+        }
+    }
+
+    /**
+     * Sends decided values to a Watch call, waiting while the call is not ready so that a slow
+     * watcher backs up into its {@link DecisionStream} queue rather than grpc's buffers.
+     */
+    private class WatchSink implements DecisionStream.Sink, OpenStream {
+        private final ServerCallStreamObserver<DecidedValue> responses;
+        private final Object ready = new Object();
+        private volatile boolean cancelled;
+        private volatile DecisionStream stream;
+
+        WatchSink(ServerCallStreamObserver<DecidedValue> responses) {
+            this.responses = responses;
+            responses.setOnCancelHandler(() -> {
+                cancelled = true;
+                cancelStream();
+                signal();
+                openStreams.remove(this);
+            });
+            responses.setOnReadyHandler(this::signal);
+        }
+
+        @Override
+        public void shutdown() {
+            synchronized (responses) {
+                if (!cancelled) {
+                    cancelled = true;
+                    responses.onError(shuttingDown());
+                }
+            }
+            cancelStream();
+            signal();
+            openStreams.remove(this);
+        }
+
+        void setStream(DecisionStream stream) {
+            this.stream = stream;
+            if (cancelled) {
+                cancelStream();
+            }
+        }
+
+        private void cancelStream() {
+            DecisionStream current = stream;
+            if (current != null) {
+                current.cancel();
+            }
+        }
+
+        private void signal() {
+            synchronized (ready) {
+                ready.notifyAll();
+            }
+        }
+
+        @Override
+        public void send(ChosenValue value) throws InterruptedException {
+            synchronized (ready) {
+                while (!responses.isReady() && !cancelled) {
+                    ready.wait(1000);
+                }
+            }
+            // under the lock, so it cannot race the onError of a shutdown
+            synchronized (responses) {
+                if (!cancelled) {
+                    responses.onNext(ProtoMapper.toProto(value));
+                }
+            }
+        }
+
+        @Override
+        public void close(Throwable error) {
+            synchronized (responses) {
+                if (cancelled) {
+                    return;
+                }
+                cancelled = true;
+                if (error == null) {
+                    responses.onCompleted();
+                } else {
+                    responses.onError(Status.RESOURCE_EXHAUSTED.withDescription(error.getMessage()).asRuntimeException());
+                }
+            }
+            openStreams.remove(this);
+        }
+    }
+
     @Override
     public void ping(PingRequest request, StreamObserver<PongResponse> responseObserver) {
-        log.info("gRPC: Received ping request");
-        
+        log.debug("gRPC: Received ping request");
+
         PongResponse response = PongResponse.newBuilder()
                 .setMessage("pong from server " + serverId)
                 .build();
-        
+
         responseObserver.onNext(response);
         responseObserver.onCompleted();
     }
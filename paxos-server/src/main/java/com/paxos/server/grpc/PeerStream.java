@@ -0,0 +1,142 @@
+package com.paxos.server.grpc;
+
+import com.paxos.server.grpc.proto.PaxosServiceGrpc;
+import com.paxos.server.grpc.proto.PeerRequest;
+import com.paxos.server.grpc.proto.PeerResponse;
+import io.grpc.Channel;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Client side of the peer stream to one server.
+ * Requests are sent on a single long-lived bidirectional call without waiting for the
+ * previous response; each request gets a correlation id and its future is completed
+ * when the response with that id arrives. If the call fails, every request pending on
+ * it fails and the next request opens a new call.
+ */
+public class PeerStream implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(PeerStream.class);
+
+    private final int peerId;
+    private final PaxosServiceGrpc.PaxosServiceStub stub;
+    private final AtomicLong nextCorrelationId = new AtomicLong();
+
+    // guarded by this
+    private Call current;
+    private boolean closed;
+
+    public PeerStream(int peerId, Channel channel) {
+        this.peerId = peerId;
+        this.stub = PaxosServiceGrpc.newStub(channel);
+    }
+
+    /**
+     * Send a request, the correlation id is assigned here.
+     * The future fails if the call fails or the peer answers with an error.
+     */
+    public CompletableFuture<PeerResponse> send(PeerRequest.Builder request) {
+        return send(request, 0);
+    }
+
+    /**
+     * Send a request that fails with a TimeoutException unless it is answered within
+     * timeoutMillis, 0 waits as long as the call lasts. A late answer is dropped.
+     */
+    public CompletableFuture<PeerResponse> send(PeerRequest.Builder request, long timeoutMillis) {
+        long correlationId = nextCorrelationId.incrementAndGet();
+        PeerRequest message = request.setCorrelationId(correlationId).build();
+        CompletableFuture<PeerResponse> response = new CompletableFuture<>();
+        synchronized (this) {
+            if (closed) {
+                response.completeExceptionally(new IllegalStateException("stream to server " + peerId + " is closed"));
+                return response;
+            }
+            if (current == null) {
+                current = new Call();
+            }
+            Call call = current;
+            call.pending.put(correlationId, response);
+            try {
+                call.requests.onNext(message);
+            } catch (RuntimeException e) {
+                call.pending.remove(correlationId);
+                response.completeExceptionally(e);
+            }
+            if (timeoutMillis > 0) {
+                response.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS)
+                        .whenComplete((r, error) -> call.pending.remove(correlationId));
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Half-close the stream, requests already sent are still answered.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (current != null) {
+            current.requests.onCompleted();
+        }
+    }
+
+    /**
+     * One bidirectional call, replaced when it fails.
+     */
+    private class Call implements StreamObserver<PeerResponse> {
+        private final Map<Long, CompletableFuture<PeerResponse>> pending = new ConcurrentHashMap<>();
+        private final StreamObserver<PeerRequest> requests;
+
+        Call() {
+            requests = stub.stream(this);
+            log.debug("Opened peer stream to server {}", peerId);
+        }
+
+        @Override
+        public void onNext(PeerResponse response) {
+            CompletableFuture<PeerResponse> future = pending.remove(response.getCorrelationId());
+            if (future == null) {
+                log.warn("Unexpected response {} on stream to server {}", response.getCorrelationId(), peerId);
+                return;
+            }
+            if (response.getBodyCase() == PeerResponse.BodyCase.ERROR) {
+                future.completeExceptionally(new IllegalStateException(
+                        "server " + peerId + " failed request: " + response.getError()));
+            } else {
+                future.complete(response);
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            Status status = Status.fromThrowable(t);
+            log.warn("Peer stream to server {} failed: {} {}", peerId, status.getCode(), status.getDescription());
+            finish(t);
+        }
+
+        @Override
+        public void onCompleted() {
+            finish(new IllegalStateException("stream to server " + peerId + " was completed"));
+        }
+
+        private void finish(Throwable t) {
+            synchronized (PeerStream.this) {
+                if (current == this) {
+                    current = null;
+                }
+            }
+            pending.values().forEach(future -> future.completeExceptionally(t));
+            pending.clear();
+        }
+    }
+}
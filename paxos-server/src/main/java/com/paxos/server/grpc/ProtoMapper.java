@@ -0,0 +1,162 @@
+package com.paxos.server.grpc;
+
+import com.google.protobuf.ByteString;
+import com.paxos.server.grpc.proto.AcceptedSlot;
+import com.paxos.server.grpc.proto.DecidedValue;
+import com.paxos.server.grpc.proto.KvResponse;
+import com.paxos.server.grpc.proto.LeaseResponse;
+import com.paxos.server.grpc.proto.PrepareFromResponse;
+import com.paxos.server.grpc.proto.PrepareResponse;
+import com.paxos.server.grpc.proto.StateResponse;
+import com.paxos.server.model.AcceptResponse;
+import com.paxos.server.model.ChosenValue;
+import com.paxos.server.model.KvResult;
+import com.paxos.server.model.LeaderPromiseResponse;
+import com.paxos.server.model.PaxosState;
+import com.paxos.server.model.PromiseResponse;
+
+/**
+ * Conversion between the acceptor model classes and their grpc messages.
+ * The server side ({@link PaxosGrpcService}) maps model to proto, the forwarding
+ * side maps the peers' proto responses back to the model.
+ * Values are {@link ByteString}s on both sides and are passed through, never copied or decoded.
+ */
+public final class ProtoMapper {
+
+    private ProtoMapper() {
+    }
+
+    public static PrepareResponse toProto(PromiseResponse promise) {
+        PrepareResponse.Builder builder = PrepareResponse.newBuilder()
+                .setIgnored(promise.isIgnored());
+        if (promise.getPromisedId() != null) {
+            builder.setPromisedId(promise.getPromisedId());
+        }
+        if (!promise.isIgnored() && promise.getAcceptedId() != null) {
+            builder.setHasAcceptedValue(true);
+            builder.setAcceptedId(promise.getAcceptedId());
+            if (promise.getAcceptedValueBytes() != null) {
+                builder.setAcceptedValue(promise.getAcceptedValueBytes());
+            }
+        }
+        return builder.build();
+    }
+
+    public static com.paxos.server.grpc.proto.AcceptResponse toProto(AcceptResponse accept) {
+        com.paxos.server.grpc.proto.AcceptResponse.Builder builder =
+                com.paxos.server.grpc.proto.AcceptResponse.newBuilder()
+                        .setIgnored(accept.isIgnored());
+        if (!accept.isIgnored()) {
+            builder.setAcceptedId(accept.getAcceptedId());
+            if (accept.getAcceptedValueBytes() != null) {
+                builder.setAcceptedValue(accept.getAcceptedValueBytes());
+            }
+        } else if (accept.getPromisedId() != null) {
+            builder.setPromisedId(accept.getPromisedId());
+        }
+        return builder.build();
+    }
+
+    public static LeaseResponse toProto(com.paxos.server.model.LeaseResponse lease) {
+        LeaseResponse.Builder builder = LeaseResponse.newBuilder()
+                .setIgnored(lease.isIgnored());
+        if (lease.getPromisedId() != null) {
+            builder.setPromisedId(lease.getPromisedId());
+        }
+        return builder.build();
+    }
+
+    public static KvResponse toProto(KvResult result) {
+        KvResponse.Builder builder = KvResponse.newBuilder()
+                .setSuccess(result.isSuccess())
+                .setIndex(result.getIndex());
+        if (result.getValue() != null) {
+            builder.setHasValue(true).setValue(result.getValue());
+        }
+        return builder.build();
+    }
+
+    public static PrepareFromResponse toProto(LeaderPromiseResponse promise) {
+        PrepareFromResponse.Builder builder = PrepareFromResponse.newBuilder()
+                .setIgnored(promise.isIgnored());
+        if (promise.getPromisedId() != null) {
+            builder.setPromisedId(promise.getPromisedId());
+        }
+        for (LeaderPromiseResponse.AcceptedSlot accepted : promise.getAccepted()) {
+            AcceptedSlot.Builder slot = AcceptedSlot.newBuilder()
+                    .setSlot(accepted.getSlot())
+                    .setAcceptedId(accepted.getAcceptedId());
+            if (accepted.getAcceptedValueBytes() != null) {
+                slot.setAcceptedValue(accepted.getAcceptedValueBytes());
+            }
+            builder.addAccepted(slot);
+        }
+        return builder.build();
+    }
+
+    public static StateResponse toProto(PaxosState state) {
+        StateResponse.Builder builder = StateResponse.newBuilder()
+                .setPromisedId(state.getPromisedId())
+                .setAcceptedId(state.getAcceptedId());
+        if (state.getAcceptedValueBytes() != null) {
+            builder.setAcceptedValue(state.getAcceptedValueBytes());
+        }
+        return builder.build();
+    }
+
+    public static PromiseResponse fromProto(PrepareResponse response) {
+        PromiseResponse promise = new PromiseResponse();
+        promise.setIgnored(response.getIgnored());
+        promise.setPromisedId(response.getPromisedId());
+        if (response.getHasAcceptedValue()) {
+            promise.setAcceptedId(response.getAcceptedId());
+            promise.setAcceptedValueBytes(response.getAcceptedValue());
+        }
+        return promise;
+    }
+
+    public static AcceptResponse fromProto(com.paxos.server.grpc.proto.AcceptResponse response) {
+        AcceptResponse accept = new AcceptResponse();
+        accept.setIgnored(response.getIgnored());
+        accept.setAcceptedId(response.getAcceptedId());
+        accept.setAcceptedValueBytes(response.getAcceptedValue());
+        if (response.getIgnored()) {
+            accept.setPromisedId(response.getPromisedId());
+        }
+        return accept;
+    }
+
+    public static LeaderPromiseResponse fromProto(PrepareFromResponse response) {
+        LeaderPromiseResponse promise = new LeaderPromiseResponse();
+        promise.setIgnored(response.getIgnored());
+        promise.setPromisedId(response.getPromisedId());
+        for (AcceptedSlot accepted : response.getAcceptedList()) {
+            promise.getAccepted().add(new LeaderPromiseResponse.AcceptedSlot(
+                    accepted.getSlot(), accepted.getAcceptedId(), accepted.getAcceptedValue()));
+        }
+        return promise;
+    }
+
+    public static DecidedValue toProto(ChosenValue value) {
+        return DecidedValue.newBuilder()
+                .setSlot(value.getSlot())
+                .setId(value.getProposalId())
+                .setValue(value.getValueBytes() == null ? ByteString.EMPTY : value.getValueBytes())
+                .build();
+    }
+
+    public static ChosenValue fromProto(DecidedValue value) {
+        return new ChosenValue(value.getSlot(), value.getId(), value.getValue());
+    }
+
+    public static com.paxos.server.model.LeaseResponse fromProto(LeaseResponse response) {
+        return new com.paxos.server.model.LeaseResponse(response.getIgnored(), response.getPromisedId());
+    }
+
+    public static PaxosState fromProto(StateResponse response) {
+        return new PaxosState(
+                response.getPromisedId(),
+                response.getAcceptedId(),
+                response.hasAcceptedValue() ? response.getAcceptedValue() : null);
+    }
+}
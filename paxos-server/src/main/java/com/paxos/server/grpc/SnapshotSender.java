@@ -0,0 +1,103 @@
+package com.paxos.server.grpc;
+
+import com.google.protobuf.UnsafeByteOperations;
+import com.paxos.server.grpc.proto.SnapshotChunk;
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Server side of InstallSnapshot: sends a file in chunks as fast as the call's flow control
+ * allows. A chunk is only sent while the call is ready, so at most about one http/2 window
+ * of the file is buffered and the transfer takes its share of the connection alongside the
+ * peer stream instead of queueing megabytes in front of it.
+ *
+ * Chunks are memory mapped regions of the file wrapped without copying; the only copy is the
+ * transport's, into the socket buffers. The file is held open for the whole transfer, so a
+ * newer snapshot replacing it (by rename) does not affect the transfer.
+ */
+class SnapshotSender {
+
+    private static final Logger log = LoggerFactory.getLogger(SnapshotSender.class);
+
+    private final Path file;
+    private final FileChannel channel;
+    private final long size;
+    private final int chunkBytes;
+    private final ServerCallStreamObserver<SnapshotChunk> responses;
+
+    // guarded by this
+    private long offset;
+    private boolean done;
+
+    private SnapshotSender(Path file, int chunkBytes, ServerCallStreamObserver<SnapshotChunk> responses)
+            throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.size = channel.size();
+        this.chunkBytes = chunkBytes;
+        this.responses = responses;
+    }
+
+    /**
+     * Start sending the file, the call is completed once all of it was sent.
+     */
+    static void send(Path file, int chunkBytes, ServerCallStreamObserver<SnapshotChunk> responses) throws IOException {
+        SnapshotSender sender = new SnapshotSender(file, chunkBytes, responses);
+        responses.setOnCancelHandler(sender::cancel);
+        responses.setOnReadyHandler(sender::drain);
+        sender.drain();
+    }
+
+    private synchronized void drain() {
+        if (done) {
+            return;
+        }
+        try {
+            while (offset < size && responses.isReady()) {
+                int length = (int) Math.min(chunkBytes, size - offset);
+                SnapshotChunk chunk = SnapshotChunk.newBuilder()
+                        .setOffset(offset)
+                        .setTotalBytes(size)
+                        .setData(UnsafeByteOperations.unsafeWrap(
+                                channel.map(FileChannel.MapMode.READ_ONLY, offset, length)))
+                        .build();
+                responses.onNext(chunk);
+                offset += length;
+            }
+            if (offset >= size) {
+                finish();
+                responses.onCompleted();
+                log.info("Sent snapshot {} ({} bytes)", file, size);
+            }
+        } catch (IOException e) {
+            finish();
+            responses.onError(Status.INTERNAL
+                    .withDescription("Failed to read snapshot at offset " + offset + ": " + e.getMessage())
+                    .asRuntimeException());
+        }
+    }
+
+    private synchronized void cancel() {
+        if (!done) {
+            log.info("Snapshot transfer of {} cancelled after {} of {} bytes", file, offset, size);
+            finish();
+        }
+    }
+
+    // guarded by this
+    private void finish() {
+        done = true;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.debug("Failed to close {}: {}", file, e.getMessage());
+        }
+    }
+}
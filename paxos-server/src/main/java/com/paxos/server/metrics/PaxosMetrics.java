@@ -0,0 +1,180 @@
+package com.paxos.server.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Micrometer meters for the acceptor protocol, state persistence and peer rpcs.
+ * Timers publish percentile histograms so p99s can be computed across servers
+ * from the prometheus scrape (/actuator/prometheus).
+ */
+@Component
+public class PaxosMetrics {
+
+    public static final String ENTRY_POINT_REST = "rest";
+    public static final String ENTRY_POINT_GRPC = "grpc";
+
+    private final MeterRegistry registry;
+
+    public PaxosMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Metrics that are not recorded anywhere, for services created outside of spring.
+     */
+    public static PaxosMetrics noop() {
+        return new PaxosMetrics(new CompositeMeterRegistry());
+    }
+
+    /**
+     * Start timing an operation, pass the result to one of the record methods.
+     */
+    public long start() {
+        return System.nanoTime();
+    }
+
+    public void recordPrepare(String entryPoint, boolean ignored, long start) {
+        timer("paxos.acceptor.prepare", "Prepare (phase 1b) requests handled by this acceptor",
+                "entrypoint", entryPoint, "outcome", ignored ? "ignored" : "promised")
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordAccept(String entryPoint, boolean ignored, long start) {
+        timer("paxos.acceptor.accept", "Accept (phase 2b) requests handled by this acceptor",
+                "entrypoint", entryPoint, "outcome", ignored ? "ignored" : "accepted")
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Batch requests, the entries of a batch are not counted in the prepare and accept timers.
+     */
+    public void recordBatch(String entryPoint, int size, long start) {
+        timer("paxos.acceptor.batch", "Batched prepare/accept requests handled by this acceptor",
+                "entrypoint", entryPoint)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        DistributionSummary.builder("paxos.acceptor.batch.size")
+                .description("Number of entries in batched requests")
+                .tags("entrypoint", entryPoint)
+                .register(registry)
+                .record(size);
+    }
+
+    /**
+     * Time from submitting a state change to it being durable, including group commit queueing.
+     */
+    public void recordPersist(String engine, boolean success, long start) {
+        timer("paxos.storage.persist", "Time until an acceptor state change is durable",
+                "engine", engine, "result", success ? "success" : "failure")
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Latency of an rpc to a peer, failed rpcs are also counted in paxos.peer.rpc.errors.
+     */
+    public void recordPeerRpc(int peer, String operation, boolean success, long start) {
+        String peerTag = String.valueOf(peer);
+        timer("paxos.peer.rpc", "Latency of rpcs to other servers in the pool",
+                "peer", peerTag, "operation", operation, "result", success ? "success" : "failure")
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        if (!success) {
+            Counter.builder("paxos.peer.rpc.errors")
+                    .description("Failed rpcs to other servers in the pool")
+                    .tags("peer", peerTag, "operation", operation)
+                    .register(registry)
+                    .increment();
+        }
+    }
+
+    /**
+     * A request not sent because the circuit to the peer is open or the peer is suspected.
+     */
+    public void recordPeerRejected(int peer, String operation, String reason) {
+        Counter.builder("paxos.peer.rpc.rejected")
+                .description("Rpcs to other servers failed right away, without sending them")
+                .tags("peer", String.valueOf(peer), "operation", operation, "reason", reason)
+                .register(registry)
+                .increment();
+    }
+
+    /**
+     * Outcome of a leader's phase 1, lost elections were preempted by a higher proposal.
+     */
+    public void recordLeaderElection(boolean won) {
+        Counter.builder("paxos.leader.elections")
+                .description("Multi-Paxos phase 1 runs of this server's leader")
+                .tags("result", won ? "won" : "lost")
+                .register(registry)
+                .increment();
+    }
+
+    /**
+     * A proposal of the single-decree proposer from the call until it returned, with the rounds it took.
+     */
+    public void recordProposal(boolean chosen, int rounds, long start) {
+        String result = chosen ? "chosen" : "failed";
+        timer("paxos.proposer.propose", "Proposals run by this server's proposer", "result", result)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        DistributionSummary.builder("paxos.proposer.rounds")
+                .description("Ballots a proposal needed")
+                .tags("result", result)
+                .register(registry)
+                .record(rounds);
+    }
+
+    /**
+     * A value this server's learner found decided, from a majority of accepts or from its own leader.
+     */
+    public void recordLearnerDecision(String source) {
+        Counter.builder("paxos.learner.decisions")
+                .description("Values learned as decided by this server")
+                .tags("source", source)
+                .register(registry)
+                .increment();
+    }
+
+    /**
+     * Key-value command from the call until it is applied, including the round trips to choose it.
+     */
+    public void recordKvCommand(String op, boolean success, long start) {
+        timer("paxos.kv.command", "Key-value commands handled by this server",
+                "op", op, "result", success ? "success" : "failure")
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Consecutive chosen slots applied to the key-value store together.
+     */
+    public void recordKvApply(int batchSize) {
+        DistributionSummary.builder("paxos.kv.apply.batch.size")
+                .description("Number of slots applied to the key-value store at once")
+                .register(registry)
+                .record(batchSize);
+    }
+
+    /**
+     * Register a gauge on the acceptor state, the function is evaluated on every scrape.
+     */
+    public <T> void gauge(String name, String description, T source, ToDoubleFunction<T> value, String... tags) {
+        Gauge.builder(name, source, value)
+                .description(description)
+                .tags(tags)
+                .register(registry);
+    }
+
+    private Timer timer(String name, String description, String... tags) {
+        return Timer.builder(name)
+                .description(description)
+                .tags(tags)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+}
@@ -1,17 +1,21 @@
 package com.paxos.server.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.google.protobuf.ByteString;
 
 @JsonInclude(JsonInclude.Include.NON_NULL)
 public class AcceptResponse {
     
     private boolean ignored;
     private Long acceptedId;
-    private String acceptedValue;
+    private ByteString acceptedValue;
+    // set on ignored responses: the promise that preempted the request
+    private Long promisedId;
     
     public AcceptResponse() {}
     
-    public AcceptResponse(boolean ignored, Long acceptedId, String acceptedValue) {
+    public AcceptResponse(boolean ignored, Long acceptedId, ByteString acceptedValue) {
         this.ignored = ignored;
         this.acceptedId = acceptedId;
         this.acceptedValue = acceptedValue;
@@ -21,10 +25,20 @@ public class AcceptResponse {
         return new AcceptResponse(true, null, null);
     }
     
-    public static AcceptResponse accept(long id, String value) {
+    public static AcceptResponse ignore(long promisedId) {
+        AcceptResponse ret = ignore();
+        ret.setPromisedId(promisedId);
+        return ret;
+    }
+    
+    public static AcceptResponse accept(long id, ByteString value) {
         return new AcceptResponse(false, id, value);
     }
     
+    public static AcceptResponse accept(long id, String value) {
+        return accept(id, Values.of(value));
+    }
+    
     public boolean isIgnored() {
         return ignored;
     }
@@ -41,11 +55,44 @@ public class AcceptResponse {
         this.acceptedId = acceptedId;
     }
     
+    /**
+     * The accepted value as text, null if it is not valid UTF-8 (see {@link #getAcceptedValueBase64}).
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
     public String getAcceptedValue() {
-        return acceptedValue;
+        return Values.text(acceptedValue);
     }
     
     public void setAcceptedValue(String acceptedValue) {
+        this.acceptedValue = Values.of(acceptedValue);
+    }
+    
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public String getAcceptedValueBase64() {
+        return Values.base64(acceptedValue);
+    }
+    
+    public void setAcceptedValueBase64(String acceptedValueBase64) {
+        if (acceptedValueBase64 != null) {
+            this.acceptedValue = Values.fromBase64(acceptedValueBase64);
+        }
+    }
+    
+    @JsonIgnore
+    public ByteString getAcceptedValueBytes() {
+        return acceptedValue;
+    }
+    
+    @JsonIgnore
+    public void setAcceptedValueBytes(ByteString acceptedValue) {
         this.acceptedValue = acceptedValue;
     }
+
+    public Long getPromisedId() {
+        return promisedId;
+    }
+
+    public void setPromisedId(Long promisedId) {
+        this.promisedId = promisedId;
+    }
 }
@@ -0,0 +1,145 @@
+package com.paxos.server.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.google.protobuf.ByteString;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A batch of prepare and accept requests for one acceptor.
+ * The prepares are applied before the accepts, each in list order.
+ */
+public class BatchRequest {
+
+    private List<Prepare> prepares = new ArrayList<>();
+    private List<Accept> accepts = new ArrayList<>();
+
+    public BatchRequest() {}
+
+    public List<Prepare> getPrepares() {
+        return prepares;
+    }
+
+    public void setPrepares(List<Prepare> prepares) {
+        this.prepares = prepares == null ? new ArrayList<>() : prepares;
+    }
+
+    public List<Accept> getAccepts() {
+        return accepts;
+    }
+
+    public void setAccepts(List<Accept> accepts) {
+        this.accepts = accepts == null ? new ArrayList<>() : accepts;
+    }
+
+    public BatchRequest addPrepare(long slot, long id) {
+        prepares.add(new Prepare(slot, id));
+        return this;
+    }
+
+    public BatchRequest addAccept(long slot, long id, ByteString value) {
+        accepts.add(new Accept(slot, id, value));
+        return this;
+    }
+
+    public BatchRequest addAccept(long slot, long id, String value) {
+        return addAccept(slot, id, Values.of(value));
+    }
+
+    public int size() {
+        return prepares.size() + accepts.size();
+    }
+
+    public static class Prepare {
+        private long slot;
+        private long id;
+
+        public Prepare() {}
+
+        public Prepare(long slot, long id) {
+            this.slot = slot;
+            this.id = id;
+        }
+
+        public long getSlot() {
+            return slot;
+        }
+
+        public void setSlot(long slot) {
+            this.slot = slot;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public void setId(long id) {
+            this.id = id;
+        }
+    }
+
+    public static class Accept {
+        private long slot;
+        private long id;
+        private ByteString value;
+
+        public Accept() {}
+
+        public Accept(long slot, long id, ByteString value) {
+            this.slot = slot;
+            this.id = id;
+            this.value = value;
+        }
+
+        public long getSlot() {
+            return slot;
+        }
+
+        public void setSlot(long slot) {
+            this.slot = slot;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public void setId(long id) {
+            this.id = id;
+        }
+
+        /**
+         * The value as text, null if it is not valid UTF-8 (see {@link #getValueBase64}).
+         */
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        public String getValue() {
+            return Values.text(value);
+        }
+
+        public void setValue(String value) {
+            this.value = Values.of(value);
+        }
+
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        public String getValueBase64() {
+            return Values.base64(value);
+        }
+
+        public void setValueBase64(String valueBase64) {
+            if (valueBase64 != null) {
+                this.value = Values.fromBase64(valueBase64);
+            }
+        }
+
+        @JsonIgnore
+        public ByteString getValueBytes() {
+            return value;
+        }
+
+        @JsonIgnore
+        public void setValueBytes(ByteString value) {
+            this.value = value;
+        }
+    }
+}
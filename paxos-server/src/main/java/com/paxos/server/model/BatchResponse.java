@@ -0,0 +1,31 @@
+package com.paxos.server.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Per-entry results of a {@link BatchRequest}, in the same order as its entries.
+ */
+public class BatchResponse {
+
+    private List<PromiseResponse> prepares = new ArrayList<>();
+    private List<AcceptResponse> accepts = new ArrayList<>();
+
+    public BatchResponse() {}
+
+    public List<PromiseResponse> getPrepares() {
+        return prepares;
+    }
+
+    public void setPrepares(List<PromiseResponse> prepares) {
+        this.prepares = prepares;
+    }
+
+    public List<AcceptResponse> getAccepts() {
+        return accepts;
+    }
+
+    public void setAccepts(List<AcceptResponse> accepts) {
+        this.accepts = accepts;
+    }
+}
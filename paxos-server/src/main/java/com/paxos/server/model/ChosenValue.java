@@ -0,0 +1,85 @@
+package com.paxos.server.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.google.protobuf.ByteString;
+
+/**
+ * A value that a majority of acceptors accepted for a slot.
+ */
+public class ChosenValue {
+
+    private long slot;
+    private long proposalId;
+    private ByteString value;
+
+    public ChosenValue() {}
+
+    public ChosenValue(long slot, long proposalId, ByteString value) {
+        this.slot = slot;
+        this.proposalId = proposalId;
+        this.value = value;
+    }
+
+    public ChosenValue(long slot, long proposalId, String value) {
+        this(slot, proposalId, Values.of(value));
+    }
+
+    public long getSlot() {
+        return slot;
+    }
+
+    public void setSlot(long slot) {
+        this.slot = slot;
+    }
+
+    public long getProposalId() {
+        return proposalId;
+    }
+
+    public void setProposalId(long proposalId) {
+        this.proposalId = proposalId;
+    }
+
+    /**
+     * The value as text, null if it is not valid UTF-8 (see {@link #getValueBase64}).
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public String getValue() {
+        return Values.text(value);
+    }
+
+    public void setValue(String value) {
+        this.value = Values.of(value);
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public String getValueBase64() {
+        return Values.base64(value);
+    }
+
+    public void setValueBase64(String valueBase64) {
+        if (valueBase64 != null) {
+            this.value = Values.fromBase64(valueBase64);
+        }
+    }
+
+    @JsonIgnore
+    public ByteString getValueBytes() {
+        return value;
+    }
+
+    @JsonIgnore
+    public void setValueBytes(ByteString value) {
+        this.value = value;
+    }
+
+    @Override
+    public String toString() {
+        return "ChosenValue{" +
+                "slot=" + slot +
+                ", proposalId=" + proposalId +
+                ", value=" + Values.describe(value) +
+                '}';
+    }
+}
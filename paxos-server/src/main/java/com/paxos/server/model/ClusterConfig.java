@@ -0,0 +1,58 @@
+package com.paxos.server.model;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The servers that make up the pool from fromSlot on: server id to grpc address (host:port).
+ * Accepts in a slot need a majority of the configuration in effect for that slot.
+ */
+public class ClusterConfig {
+
+    private long fromSlot;
+    private Map<Integer, String> members = new TreeMap<>();
+
+    public ClusterConfig() {}
+
+    public ClusterConfig(long fromSlot, Map<Integer, String> members) {
+        this.fromSlot = fromSlot;
+        this.members = new TreeMap<>(members);
+    }
+
+    public long getFromSlot() {
+        return fromSlot;
+    }
+
+    public void setFromSlot(long fromSlot) {
+        this.fromSlot = fromSlot;
+    }
+
+    public Map<Integer, String> getMembers() {
+        return members;
+    }
+
+    public void setMembers(Map<Integer, String> members) {
+        this.members = members == null ? new TreeMap<>() : new TreeMap<>(members);
+    }
+
+    public boolean contains(int serverId) {
+        return members.containsKey(serverId);
+    }
+
+    public int majority() {
+        return members.size() / 2 + 1;
+    }
+
+    /**
+     * Whether the servers include a majority of the members, servers that are not members do not count.
+     */
+    public boolean isQuorum(Collection<Integer> servers) {
+        return servers.stream().filter(members::containsKey).count() >= majority();
+    }
+
+    @Override
+    public String toString() {
+        return "ClusterConfig{fromSlot=" + fromSlot + ", members=" + members + '}';
+    }
+}
@@ -0,0 +1,84 @@
+package com.paxos.server.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * A key-value command, proposed as the value of a slot and applied in slot order.
+ * The id identifies the command so the server that proposed it can hand the result
+ * back to its caller.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class KvCommand {
+
+    public enum Op {
+        PUT, GET, DELETE, CAS
+    }
+
+    private String id;
+    private Op op;
+    private String key;
+    private String value;
+    // CAS only: value the key must have for the swap, null if it must be absent
+    private String expected;
+
+    public KvCommand() {}
+
+    public KvCommand(String id, Op op, String key, String value, String expected) {
+        this.id = id;
+        this.op = op;
+        this.key = key;
+        this.value = value;
+        this.expected = expected;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public Op getOp() {
+        return op;
+    }
+
+    public void setOp(Op op) {
+        this.op = op;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public void setKey(String key) {
+        this.key = key;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public void setValue(String value) {
+        this.value = value;
+    }
+
+    public String getExpected() {
+        return expected;
+    }
+
+    public void setExpected(String expected) {
+        this.expected = expected;
+    }
+
+    @Override
+    public String toString() {
+        return "KvCommand{" +
+                "id='" + id + '\'' +
+                ", op=" + op +
+                ", key='" + key + '\'' +
+                ", value='" + value + '\'' +
+                ", expected='" + expected + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,69 @@
+package com.paxos.server.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Result of a key-value command.
+ * success: GET found the key, PUT always, DELETE removed the key, CAS swapped the value.
+ * value: the key's value after the command, for DELETE the value it removed.
+ * index: the slot the command was applied in, for a lease read the index it was read at.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class KvResult {
+
+    private String key;
+    private String value;
+    private boolean success;
+    private long index;
+
+    public KvResult() {}
+
+    public KvResult(String key, String value, boolean success, long index) {
+        this.key = key;
+        this.value = value;
+        this.success = success;
+        this.index = index;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public void setKey(String key) {
+        this.key = key;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public void setValue(String value) {
+        this.value = value;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public void setSuccess(boolean success) {
+        this.success = success;
+    }
+
+    public long getIndex() {
+        return index;
+    }
+
+    public void setIndex(long index) {
+        this.index = index;
+    }
+
+    @Override
+    public String toString() {
+        return "KvResult{" +
+                "key='" + key + '\'' +
+                ", value='" + value + '\'' +
+                ", success=" + success +
+                ", index=" + index +
+                '}';
+    }
+}
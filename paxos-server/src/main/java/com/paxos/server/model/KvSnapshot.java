@@ -0,0 +1,56 @@
+package com.paxos.server.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Contents of the key-value store after applying every slot up to and including index, with
+ * the pool's configurations at that point.
+ */
+public class KvSnapshot {
+
+    private long index = -1;
+    private Map<String, String> entries = new TreeMap<>();
+    private List<ClusterConfig> membership = new ArrayList<>();
+
+    public KvSnapshot() {}
+
+    public KvSnapshot(long index, Map<String, String> entries) {
+        this.index = index;
+        this.entries = entries;
+    }
+
+    public KvSnapshot(long index, Map<String, String> entries, List<ClusterConfig> membership) {
+        this(index, entries);
+        this.membership = membership;
+    }
+
+    public long getIndex() {
+        return index;
+    }
+
+    public void setIndex(long index) {
+        this.index = index;
+    }
+
+    public Map<String, String> getEntries() {
+        return entries;
+    }
+
+    public void setEntries(Map<String, String> entries) {
+        this.entries = entries == null ? new TreeMap<>() : entries;
+    }
+
+    /**
+     * Configurations of the pool, oldest first, empty in snapshots written before membership changes.
+     */
+    public List<ClusterConfig> getMembership() {
+        return membership;
+    }
+
+    public void setMembership(List<ClusterConfig> membership) {
+        this.membership = membership == null ? new ArrayList<>() : membership;
+    }
+}
@@ -0,0 +1,114 @@
+package com.paxos.server.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.google.protobuf.ByteString;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Response to a prepare that covers every slot from a given slot on (Multi-Paxos phase 1).
+ * A promise lists every slot at or above that slot that already holds an accepted proposal,
+ * so the new leader can re-propose those values before it picks new slots.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class LeaderPromiseResponse {
+
+    private boolean ignored;
+    private Long promisedId;
+    private List<AcceptedSlot> accepted = new ArrayList<>();
+
+    public LeaderPromiseResponse() {}
+
+    public boolean isIgnored() {
+        return ignored;
+    }
+
+    public void setIgnored(boolean ignored) {
+        this.ignored = ignored;
+    }
+
+    public Long getPromisedId() {
+        return promisedId;
+    }
+
+    public void setPromisedId(Long promisedId) {
+        this.promisedId = promisedId;
+    }
+
+    public List<AcceptedSlot> getAccepted() {
+        return accepted;
+    }
+
+    public void setAccepted(List<AcceptedSlot> accepted) {
+        this.accepted = accepted == null ? new ArrayList<>() : accepted;
+    }
+
+    public static class AcceptedSlot {
+        private long slot;
+        private long acceptedId;
+        private ByteString acceptedValue;
+
+        public AcceptedSlot() {}
+
+        public AcceptedSlot(long slot, long acceptedId, ByteString acceptedValue) {
+            this.slot = slot;
+            this.acceptedId = acceptedId;
+            this.acceptedValue = acceptedValue;
+        }
+
+        public AcceptedSlot(long slot, long acceptedId, String acceptedValue) {
+            this(slot, acceptedId, Values.of(acceptedValue));
+        }
+
+        public long getSlot() {
+            return slot;
+        }
+
+        public void setSlot(long slot) {
+            this.slot = slot;
+        }
+
+        public long getAcceptedId() {
+            return acceptedId;
+        }
+
+        public void setAcceptedId(long acceptedId) {
+            this.acceptedId = acceptedId;
+        }
+
+        /**
+         * The accepted value as text, null if it is not valid UTF-8 (see {@link #getAcceptedValueBase64}).
+         */
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        public String getAcceptedValue() {
+            return Values.text(acceptedValue);
+        }
+
+        public void setAcceptedValue(String acceptedValue) {
+            this.acceptedValue = Values.of(acceptedValue);
+        }
+
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        public String getAcceptedValueBase64() {
+            return Values.base64(acceptedValue);
+        }
+
+        public void setAcceptedValueBase64(String acceptedValueBase64) {
+            if (acceptedValueBase64 != null) {
+                this.acceptedValue = Values.fromBase64(acceptedValueBase64);
+            }
+        }
+
+        @JsonIgnore
+        public ByteString getAcceptedValueBytes() {
+            return acceptedValue;
+        }
+
+        @JsonIgnore
+        public void setAcceptedValueBytes(ByteString acceptedValue) {
+            this.acceptedValue = acceptedValue;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.paxos.server.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Response to a leader lease request: granted, or ignored with the proposal
+ * (promise or lease) that the requested ballot is below.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class LeaseResponse {
+
+    private boolean ignored;
+    private Long promisedId;
+
+    public LeaseResponse() {}
+
+    public LeaseResponse(boolean ignored, Long promisedId) {
+        this.ignored = ignored;
+        this.promisedId = promisedId;
+    }
+
+    public static LeaseResponse grant(long proposalId) {
+        return new LeaseResponse(false, proposalId);
+    }
+
+    public static LeaseResponse ignore(long promisedId) {
+        return new LeaseResponse(true, promisedId);
+    }
+
+    public boolean isIgnored() {
+        return ignored;
+    }
+
+    public void setIgnored(boolean ignored) {
+        this.ignored = ignored;
+    }
+
+    public Long getPromisedId() {
+        return promisedId;
+    }
+
+    public void setPromisedId(Long promisedId) {
+        this.promisedId = promisedId;
+    }
+}
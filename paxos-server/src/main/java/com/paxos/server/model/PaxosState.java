@@ -1,25 +1,51 @@
 package com.paxos.server.model;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.protobuf.ByteString;
 
 import java.util.Objects;
 
+/**
+ * State of one slot of an acceptor. The accepted value is held as the bytes it arrived as and
+ * is handed on without copies. In JSON it is text when it is valid UTF-8, otherwise base64 in
+ * acceptedValueBase64.
+ */
 public class PaxosState {
     private final long acceptedId;
     private final long promisedId;
-    private final String acceptedValue;
+    private final ByteString acceptedValue;
 
-    @JsonCreator
-    public PaxosState(
-            @JsonProperty("promisedId") long promisedId,
-            @JsonProperty("acceptedId") long acceptedId,
-            @JsonProperty("acceptedValue") String acceptedValue) {
+    public PaxosState(long promisedId, long acceptedId, ByteString acceptedValue) {
         this.acceptedId = acceptedId;
         this.promisedId = promisedId;
         this.acceptedValue = acceptedValue;
     }
 
+    public PaxosState(long promisedId, long acceptedId, String acceptedValue) {
+        this(promisedId, acceptedId, Values.of(acceptedValue));
+    }
+
+    /**
+     * A state without an accepted value.
+     */
+    public PaxosState(long promisedId, long acceptedId) {
+        this(promisedId, acceptedId, (ByteString) null);
+    }
+
+    @JsonCreator
+    static PaxosState fromJson(
+            @JsonProperty("promisedId") long promisedId,
+            @JsonProperty("acceptedId") long acceptedId,
+            @JsonProperty("acceptedValue") String acceptedValue,
+            @JsonProperty("acceptedValueBase64") String acceptedValueBase64) {
+        return acceptedValueBase64 != null
+                ? new PaxosState(promisedId, acceptedId, Values.fromBase64(acceptedValueBase64))
+                : new PaxosState(promisedId, acceptedId, acceptedValue);
+    }
+
     public long getAcceptedId() {
         return acceptedId;
     }
@@ -28,10 +54,39 @@ public class PaxosState {
         return promisedId;
     }
 
-    public String getAcceptedValue() {
+    @JsonIgnore
+    public ByteString getAcceptedValueBytes() {
         return acceptedValue;
     }
 
+    /**
+     * The accepted value as text, null if it is not valid UTF-8 (see {@link #getAcceptedValueBase64}).
+     */
+    @JsonProperty("acceptedValue")
+    public String getAcceptedValue() {
+        return Values.text(acceptedValue);
+    }
+
+    @JsonProperty("acceptedValueBase64")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public String getAcceptedValueBase64() {
+        return Values.base64(acceptedValue);
+    }
+
+    /**
+     * Monotonic merge of two states of the same slot: the highest promisedId and the
+     * accepted proposal with the highest id. Merging is order independent, so states
+     * persisted or replayed out of order still end up at the latest state.
+     */
+    public PaxosState merge(PaxosState other) {
+        long promised = Math.max(promisedId, other.promisedId);
+        PaxosState accepted = other.acceptedId >= 0 && other.acceptedId >= acceptedId ? other : this;
+        if (promised == accepted.promisedId) {
+            return accepted;
+        }
+        return new PaxosState(promised, accepted.acceptedId, accepted.acceptedValue);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -44,4 +99,13 @@ public class PaxosState {
     public int hashCode() {
         return Objects.hash(acceptedId, promisedId, acceptedValue);
     }
+
+    @Override
+    public String toString() {
+        return "PaxosState{" +
+                "promisedId=" + promisedId +
+                ", acceptedId=" + acceptedId +
+                ", acceptedValue=" + Values.sizeOf(acceptedValue) +
+                '}';
+    }
 }
@@ -0,0 +1,89 @@
+package com.paxos.server.model;
+
+/**
+ * How this server sees one of its peers: the circuit to it, the deadline of its requests and
+ * how much it is suspected to be down.
+ */
+public class PeerStatus {
+
+    private final int serverId;
+    private final String circuit;
+    private final int consecutiveFailures;
+    private final long rejected;
+    private final long samples;
+    private final double p99Millis;
+    private final long deadlineMillis;
+    private final double phi;
+    private final boolean suspected;
+    private final long sinceLastPongMillis;
+
+    public PeerStatus(int serverId, String circuit, int consecutiveFailures, long rejected, long samples,
+                      double p99Millis, long deadlineMillis, double phi, boolean suspected,
+                      long sinceLastPongMillis) {
+        this.serverId = serverId;
+        this.circuit = circuit;
+        this.consecutiveFailures = consecutiveFailures;
+        this.rejected = rejected;
+        this.samples = samples;
+        this.p99Millis = p99Millis;
+        this.deadlineMillis = deadlineMillis;
+        this.phi = phi;
+        this.suspected = suspected;
+        this.sinceLastPongMillis = sinceLastPongMillis;
+    }
+
+    public int getServerId() {
+        return serverId;
+    }
+
+    /**
+     * CLOSED, OPEN or HALF_OPEN (a probe is in flight).
+     */
+    public String getCircuit() {
+        return circuit;
+    }
+
+    public int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /**
+     * Requests failed without being sent because the circuit was open.
+     */
+    public long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * Successful requests seen, the latest of them make up the latency window.
+     */
+    public long getSamples() {
+        return samples;
+    }
+
+    public double getP99Millis() {
+        return p99Millis;
+    }
+
+    public long getDeadlineMillis() {
+        return deadlineMillis;
+    }
+
+    /**
+     * Phi accrual suspicion from the peer's pings, 0 before its first pong.
+     */
+    public double getPhi() {
+        return phi;
+    }
+
+    public boolean isSuspected() {
+        return suspected;
+    }
+
+    /**
+     * Time since the peer last answered a ping, -1 if it never did.
+     */
+    public long getSinceLastPongMillis() {
+        return sinceLastPongMillis;
+    }
+}
@@ -1,6 +1,8 @@
 package com.paxos.server.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.google.protobuf.ByteString;
 
 @JsonInclude(JsonInclude.Include.NON_NULL)
 public class PromiseResponse {
@@ -8,7 +10,7 @@ public class PromiseResponse {
     private boolean ignored;
     private Long promisedId;
     private Long acceptedId;
-    private String acceptedValue;
+    private ByteString acceptedValue;
 
     
     public PromiseResponse() {}
@@ -25,11 +27,36 @@ public class PromiseResponse {
         return acceptedId;
     }
 
+    /**
+     * The accepted value as text, null if it is not valid UTF-8 (see {@link #getAcceptedValueBase64}).
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
     public String getAcceptedValue() {
-        return acceptedValue;
+        return Values.text(acceptedValue);
     }
 
     public void setAcceptedValue(String acceptedValue) {
+        this.acceptedValue = Values.of(acceptedValue);
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public String getAcceptedValueBase64() {
+        return Values.base64(acceptedValue);
+    }
+
+    public void setAcceptedValueBase64(String acceptedValueBase64) {
+        if (acceptedValueBase64 != null) {
+            this.acceptedValue = Values.fromBase64(acceptedValueBase64);
+        }
+    }
+
+    @JsonIgnore
+    public ByteString getAcceptedValueBytes() {
+        return acceptedValue;
+    }
+
+    @JsonIgnore
+    public void setAcceptedValueBytes(ByteString acceptedValue) {
         this.acceptedValue = acceptedValue;
     }
 
@@ -54,7 +81,7 @@ public class PromiseResponse {
         return "PromiseResponse{" +
                 "ignored=" + ignored +
                 ", acceptedId=" + acceptedId +
-                ", acceptedValue='" + acceptedValue + '\'' +
+                ", acceptedValue=" + Values.describe(acceptedValue) +
                 '}';
     }
 }
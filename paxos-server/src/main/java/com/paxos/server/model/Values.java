@@ -0,0 +1,64 @@
+package com.paxos.server.model;
+
+import com.google.protobuf.ByteString;
+
+import java.util.Base64;
+
+/**
+ * Conversions of values between the bytes they are carried and stored as, and the text of the
+ * JSON and String based APIs. Both ways copy, so the acceptor, storage and grpc paths stay on
+ * {@link ByteString}. In JSON a value is text when it is valid UTF-8 and base64 in a second
+ * property otherwise, so binary values survive a round trip through the REST APIs.
+ */
+public final class Values {
+
+    private Values() {
+    }
+
+    /**
+     * The UTF-8 bytes of value, null for null.
+     */
+    public static ByteString of(String value) {
+        return value == null ? null : ByteString.copyFromUtf8(value);
+    }
+
+    /**
+     * value as UTF-8 text, null for null and for bytes that are not valid UTF-8, which JSON
+     * carries in base64 instead (see {@link #base64}).
+     */
+    public static String text(ByteString value) {
+        return value == null || !value.isValidUtf8() ? null : value.toStringUtf8();
+    }
+
+    /**
+     * value in base64 if it is not valid UTF-8, null for null and for text.
+     */
+    public static String base64(ByteString value) {
+        return value == null || value.isValidUtf8() ? null : Base64.getEncoder().encodeToString(value.toByteArray());
+    }
+
+    /**
+     * The bytes of a base64 value, null for null.
+     */
+    public static ByteString fromBase64(String base64) {
+        return base64 == null ? null : ByteString.copyFrom(Base64.getDecoder().decode(base64));
+    }
+
+    /**
+     * value for toString: the text if it is valid UTF-8, otherwise its size.
+     */
+    public static String describe(ByteString value) {
+        if (value == null) {
+            return "null";
+        }
+        return value.isValidUtf8() ? value.toStringUtf8() : "<" + value.size() + " bytes>";
+    }
+
+    /**
+     * value for log lines written on every accept, and for the acceptor state they log: only its
+     * size, so logging never scans or copies the value.
+     */
+    public static String sizeOf(ByteString value) {
+        return value == null ? "null" : "<" + value.size() + " bytes>";
+    }
+}
@@ -0,0 +1,102 @@
+package com.paxos.server.service;
+
+import com.google.common.base.Ticker;
+import com.paxos.server.model.LeaseResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * Acceptor side of leader leases.
+ *
+ * While a lease is held the acceptor makes no promise (prepare or prepareFrom) to any server
+ * but the holder, so no other server can get a value chosen and the holder may answer reads
+ * from its own state. A lease is only granted for a ballot at least as high as every proposal
+ * this acceptor has promised, and runs for its duration measured on this acceptor's clock
+ * from when the request arrived, which is never earlier than when the leader started it.
+ *
+ * Promises and grants exclude each other through a read/write lock: promises share the read
+ * lock, so they only wait for a grant in progress, never for each other.
+ *
+ * Leases are not persisted. After a restart the acceptor makes no promise to anyone for the
+ * maximum lease duration, so a lease granted before the restart runs out first.
+ */
+class AcceptorLease {
+
+    private static final Logger log = LoggerFactory.getLogger(AcceptorLease.class);
+
+    static final int NO_HOLDER = -1;
+
+    private final Ticker ticker;
+    private final long maxLeaseNanos;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // guarded by lock
+    private int holder = NO_HOLDER;
+    private long ballot = -1;
+    private long expiresAt;
+
+    AcceptorLease(Ticker ticker, long maxLeaseMillis) {
+        this.ticker = ticker;
+        this.maxLeaseNanos = TimeUnit.MILLISECONDS.toNanos(maxLeaseMillis);
+        // a lease granted before a restart may still be running
+        this.expiresAt = ticker.read() + maxLeaseNanos;
+    }
+
+    /**
+     * Run promises that must not interleave with a grant, checking each of them with {@link #blocks}.
+     */
+    <T> T guard(Supplier<T> promises) {
+        lock.readLock().lock();
+        try {
+            return promises.get();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Whether a prepare with this proposal id must be ignored because another server holds
+     * the lease. Only meaningful inside {@link #guard}.
+     */
+    boolean blocks(long proposalId) {
+        if (blocks(proposalId, ticker.read())) {
+            log.info("Ignoring prepare with id: {} while server {} holds the lease", proposalId, holder);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Grant or extend the lease of the given server, for a ballot that must be at least
+     * the highest proposal promised by this acceptor.
+     */
+    LeaseResponse grant(int server, long proposalId, long durationMillis, long highestPromisedId) {
+        long durationNanos = Math.min(TimeUnit.MILLISECONDS.toNanos(durationMillis), maxLeaseNanos);
+        lock.writeLock().lock();
+        try {
+            long now = ticker.read();
+            boolean heldByOther = now - expiresAt < 0 && server != holder;
+            if (proposalId < highestPromisedId || heldByOther) {
+                long promisedId = Math.max(highestPromisedId, ballot);
+                log.info("Refusing lease to server {} with id: {} (promised: {}, holder: {})",
+                        server, proposalId, promisedId, holder);
+                return LeaseResponse.ignore(promisedId);
+            }
+            holder = server;
+            ballot = proposalId;
+            expiresAt = now + durationNanos;
+            log.debug("Granted lease to server {} with id: {} for {}ms", server, proposalId, durationMillis);
+            return LeaseResponse.grant(proposalId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private boolean blocks(long proposalId, long now) {
+        return now - expiresAt < 0 && LeaderService.serverOf(proposalId) != holder;
+    }
+}
@@ -0,0 +1,73 @@
+package com.paxos.server.service;
+
+import com.paxos.server.storage.ProposerRoundStore;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+
+/**
+ * Every ballot this server proposes with, for the leader's phase 1 as well as single-decree
+ * proposals. Ballots are (round &lt;&lt; 16) | serverId, so two servers never share one, and
+ * the rounds of one server only grow: each is written to {@link ProposerRoundStore} before it
+ * is handed out, so neither a restart nor the two proposers of one server reuse a ballot.
+ */
+@Service
+public class BallotAllocator {
+
+    private static final Logger log = LoggerFactory.getLogger(BallotAllocator.class);
+
+    @Value("${paxos.server.id:0}")
+    private int serverId;
+
+    @Value("${paxos.server.data.dir}")
+    private String dataDir;
+
+    // guarded by this
+    private ProposerRoundStore store;
+    private long round;
+
+    public BallotAllocator() {
+    }
+
+    /**
+     * Ballots of serverId, with the round kept in dataDir.
+     */
+    BallotAllocator(int serverId, String dataDir) {
+        this.serverId = serverId;
+        this.dataDir = dataDir;
+    }
+
+    @PostConstruct
+    public synchronized void start() throws IOException {
+        store = new ProposerRoundStore(Path.of(dataDir, String.valueOf(serverId)));
+        round = store.load();
+        log.info("Server {} allocates ballots after round {}", serverId, round);
+    }
+
+    /**
+     * Last round handed out, it is durable.
+     */
+    public synchronized long round() {
+        return round;
+    }
+
+    /**
+     * A new ballot of this server above proposalId and every ballot handed out before.
+     */
+    public synchronized long next(long proposalId) {
+        long next = Math.max(round, proposalId >> LeaderService.SERVER_BITS) + 1;
+        try {
+            store.write(next);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not persist ballot round " + next + " to " + store, e);
+        }
+        round = next;
+        return (next << LeaderService.SERVER_BITS) | serverId;
+    }
+}
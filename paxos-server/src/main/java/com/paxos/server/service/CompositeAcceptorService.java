@@ -1,5 +1,6 @@
 package com.paxos.server.service;
 
+import com.google.protobuf.ByteString;
 import com.paxos.server.model.AcceptResponse;
 import com.paxos.server.model.PaxosState;
 import com.paxos.server.model.PromiseResponse;
@@ -9,10 +10,11 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Predicate;
 
 /**
  * Acts as a combined service for the current host and other hosts in the
@@ -30,6 +32,10 @@ public class CompositeAcceptorService {
     @Value("${paxos.server.count}")
     private int serverCount;
 
+    // number of non-ignored responses prepare/accept wait for, 0 waits for every server
+    @Value("${paxos.broadcast.quorum:0}")
+    private int quorum;
+
     @Autowired
     private PersistentPaxosAcceptorService internalService;
 
@@ -39,91 +45,73 @@ public class CompositeAcceptorService {
 
     /**
      * Combined paxos prepare operation for this host and remote hosts in consensus pool.
-     * Return a map of server id to prepare responses.
+     * Completes with a map of server id to prepare responses, on the thread of the last
+     * response it waits for; no thread waits for the peers in between.
      */
-    public Map<Integer, PromiseResponse> prepare(long proposalId) {
-
-        Map<Integer, PromiseResponse> ret = new HashMap<>();
-        List<Integer> serversIgnored = new ArrayList<>();
-
-        PromiseResponse internalResp = internalService.prepare(proposalId);
-        if (!internalResp.isIgnored()) {
-            ret.put(serverId, internalResp);
-        } else {
-            serversIgnored.add(serverId);
-        }
-
-        Map<Integer, PromiseResponse> remoteResponses = remoteService.prepare(proposalId);
-        log.debug("remote prepare responses: {}", remoteResponses);
-
-        for (int i = 1; i <= serverCount; i++) {
-            if (i == serverId) {
-                continue;
+    public CompletableFuture<Map<Integer, PromiseResponse>> prepare(long slot, long proposalId) {
+        // start the remote calls first so they overlap with the local prepare
+        Map<Integer, CompletableFuture<PromiseResponse>> remoteResponses =
+                remoteService.prepareAsync(slot, proposalId, quorum());
+
+        QuorumCollector<PromiseResponse> collector =
+                new QuorumCollector<>(quorum, PromiseResponse::isIgnored, "prepare");
+        collector.add(serverId, internalService.prepare(slot, proposalId));
+        collector.addAll(remoteResponses);
+
+        return collector.result().thenApply(ret -> {
+            log.debug("prepare responses: {}", ret);
+            List<Integer> serversIgnored = collector.ignoredServers();
+            if (!serversIgnored.isEmpty()) {
+                log.info("Prepare responses ignored for servers: {}", serversIgnored);
             }
-            if (remoteResponses.containsKey(i)) {
-                PromiseResponse resp = remoteResponses.get(i);
-                if (!resp.isIgnored()) {
-                    ret.put(i, resp);
-                } else {
-                    serversIgnored.add(serverId);
-                }
-            }
-        }
-
-        if (!serversIgnored.isEmpty()) {
-            log.info("Prepare responses ignored for servers: {}", serversIgnored);
-        }
-
-        return ret;
+            return ret;
+        });
     }
 
     /**
      * Combined paxos accept operation for this host and remote hosts in consensus pool.
-     * Return a map of server id to accept responses.
+     * Completes with a map of server id to accept responses, like {@link #prepare}.
      */
-    public Map<Integer, AcceptResponse> acceptRequest(long proposalId, String value) {
-
-        Map<Integer, AcceptResponse> ret = new HashMap<>();
-        List<Integer> serversIgnored = new ArrayList<>();
-
-        AcceptResponse internalResp = internalService.acceptRequest(proposalId, value);
-        if (!internalResp.isIgnored()) {
-            ret.put(serverId, internalResp);
-        } else {
-            serversIgnored.add(serverId);
-        }
-
-        Map<Integer, AcceptResponse> remoteResponses = remoteService.acceptRequest(proposalId, value);
-        log.debug("remote accept responses: {}", remoteResponses);
-
-        for (int i = 1; i <= serverCount; i++) {
-            if (i == serverId) {
-                continue;
-            }
-            if (remoteResponses.containsKey(i)) {
-                AcceptResponse resp = remoteResponses.get(i);
-                if (!resp.isIgnored()) {
-                    ret.put(i, resp);
-                } else {
-                    serversIgnored.add(serverId);
-                }
+    public CompletableFuture<Map<Integer, AcceptResponse>> acceptRequest(long slot, long proposalId, ByteString value) {
+        // start the remote calls first so they overlap with the local accept
+        Map<Integer, CompletableFuture<AcceptResponse>> remoteResponses =
+                remoteService.acceptRequestAsync(slot, proposalId, value, quorum());
+
+        QuorumCollector<AcceptResponse> collector =
+                new QuorumCollector<>(quorum, AcceptResponse::isIgnored, "accept");
+        collector.add(serverId, internalService.acceptRequest(slot, proposalId, value));
+        collector.addAll(remoteResponses);
+
+        return collector.result().thenApply(ret -> {
+            log.debug("accept responses: {}", ret);
+            List<Integer> serversIgnored = collector.ignoredServers();
+            if (!serversIgnored.isEmpty()) {
+                log.info("Accept responses ignored for servers: {}", serversIgnored);
             }
-        }
-
-        if (!serversIgnored.isEmpty()) {
-            log.info("Accept responses ignored for servers: {}", serversIgnored);
-        }
+            return ret;
+        });
+    }
 
-        return ret;
+    /**
+     * The responses prepare and accept wait for, null for every server.
+     */
+    private Predicate<Collection<Integer>> quorum() {
+        return quorum > 0 ? servers -> servers.size() >= quorum : null;
     }
 
-    public Map<Integer, PaxosState> state() {
-        Map<Integer, PaxosState> ret = new HashMap<>();
-        PaxosState internalState = internalService.getState();
-        ret.put(serverId, internalState);
-        Map<Integer, PaxosState> remoteStates = remoteService.getState();
-        log.debug("remote states: {}", remoteStates);
-        ret.putAll(remoteStates);
-        return ret;
+    /**
+     * State of the slot on every server that answers, servers that fail are left out.
+     */
+    public CompletableFuture<Map<Integer, PaxosState>> state(long slot) {
+        Map<Integer, CompletableFuture<PaxosState>> remoteStates = remoteService.getStateAsync(slot);
+
+        // nothing is ignored, so this waits for every server
+        QuorumCollector<PaxosState> collector = new QuorumCollector<>(0, state -> false, "state");
+        collector.add(serverId, internalService.getState(slot));
+        collector.addAll(remoteStates);
+        return collector.result().thenApply(ret -> {
+            log.debug("states: {}", ret);
+            return ret;
+        });
     }
 }
@@ -0,0 +1,134 @@
+package com.paxos.server.service;
+
+import com.paxos.server.model.ChosenValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+/**
+ * One watcher of decided values (gRPC Watch, server-sent events). Values are queued by the
+ * learner without blocking and handed to the sink on the watch executor, one at a time and in
+ * the order they were queued; the sink may block until the client takes them. A watcher that
+ * falls more than capacity values behind is closed with an error instead of buffering without
+ * bound, it can watch again from the last slot it got.
+ */
+public class DecisionStream {
+
+    private static final Logger log = LoggerFactory.getLogger(DecisionStream.class);
+
+    /**
+     * Where the values go, for example a grpc call.
+     */
+    public interface Sink {
+        void send(ChosenValue value) throws Exception;
+
+        /**
+         * The stream ended, error is null if it was cancelled by the watcher.
+         */
+        void close(Throwable error);
+    }
+
+    private final Sink sink;
+    private final int capacity;
+    private final Executor executor;
+    private final Runnable onClose;
+
+    // guarded by this
+    private final Queue<ChosenValue> queue = new ArrayDeque<>();
+    private boolean draining;
+    private boolean closed;
+
+    DecisionStream(Sink sink, int capacity, Executor executor, Runnable onClose) {
+        this.sink = sink;
+        this.capacity = capacity;
+        this.executor = executor;
+        this.onClose = onClose;
+    }
+
+    /**
+     * Queue values decided before the watch started, not counted against the capacity.
+     */
+    synchronized void replay(Collection<ChosenValue> values) {
+        queue.addAll(values);
+        schedule();
+    }
+
+    /**
+     * Queue a value that was just decided.
+     */
+    synchronized void offer(ChosenValue value) {
+        if (closed) {
+            return;
+        }
+        if (queue.size() >= capacity) {
+            log.info("Closing watcher that fell {} decisions behind at slot {}", queue.size(), value.getSlot());
+            fail(new IllegalStateException("Watcher fell more than " + capacity
+                    + " decisions behind, watch again from the last slot received"));
+            return;
+        }
+        queue.add(value);
+        schedule();
+    }
+
+    /**
+     * Stop sending, when the watcher went away.
+     */
+    public void cancel() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            queue.clear();
+        }
+        onClose.run();
+    }
+
+    // guarded by this
+    private void schedule() {
+        if (!draining && !queue.isEmpty()) {
+            draining = true;
+            executor.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            ChosenValue next;
+            synchronized (this) {
+                next = closed ? null : queue.poll();
+                if (next == null) {
+                    draining = false;
+                    return;
+                }
+            }
+            try {
+                sink.send(next);
+            } catch (Exception e) {
+                log.debug("Closing watcher that failed at slot {}: {}", next.getSlot(), e.getMessage());
+                synchronized (this) {
+                    fail(e);
+                    draining = false;
+                }
+                return;
+            }
+        }
+    }
+
+    // guarded by this
+    private void fail(Throwable error) {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        queue.clear();
+        executor.execute(() -> {
+            onClose.run();
+            sink.close(error);
+        });
+    }
+}
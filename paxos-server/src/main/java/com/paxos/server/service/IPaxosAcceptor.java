@@ -1,12 +1,18 @@
 package com.paxos.server.service;
 
+import com.google.protobuf.ByteString;
 import com.paxos.server.model.AcceptResponse;
+import com.paxos.server.model.BatchRequest;
+import com.paxos.server.model.BatchResponse;
+import com.paxos.server.model.LeaderPromiseResponse;
 import com.paxos.server.model.PaxosState;
 import com.paxos.server.model.PromiseResponse;
+import com.paxos.server.model.Values;
 import org.springframework.stereotype.Service;
 
 /**
  * Interface for a Paxos acceptor role.
+ * Every slot is an independent paxos instance, the methods without a slot operate on slot 0.
  */
 @Service
 public interface IPaxosAcceptor {
@@ -14,16 +20,57 @@ public interface IPaxosAcceptor {
     /**
      * Paxos Phase 1b: Prepare/Promise
      */
-    PromiseResponse prepare(long proposalId);
+    PromiseResponse prepare(long slot, long proposalId);
 
     /**
-     * Paxos Phase 2b: Accept
+     * Paxos Phase 2b: Accept. The value is kept as given, not copied.
      */
-    AcceptResponse acceptRequest(long proposalId, String value);
+    AcceptResponse acceptRequest(long slot, long proposalId, ByteString value);
 
     /**
-     * Get the state of this acceptor
+     * Multi-Paxos Phase 1b: one promise for every slot, returning the accepted proposals
+     * at or above fromSlot
      */
-    PaxosState getState();
+    LeaderPromiseResponse prepareFrom(long fromSlot, long proposalId);
+
+    /**
+     * Get the state of this acceptor for a slot
+     */
+    PaxosState getState(long slot);
+
+    /**
+     * Apply a batch of prepares and accepts, prepares first, and return the result of every entry.
+     * Implementations should make the whole batch durable at once, the default applies the
+     * entries one at a time.
+     */
+    default BatchResponse batch(BatchRequest request) {
+        BatchResponse ret = new BatchResponse();
+        for (BatchRequest.Prepare prepare : request.getPrepares()) {
+            ret.getPrepares().add(prepare(prepare.getSlot(), prepare.getId()));
+        }
+        for (BatchRequest.Accept accept : request.getAccepts()) {
+            ret.getAccepts().add(acceptRequest(accept.getSlot(), accept.getId(), accept.getValueBytes()));
+        }
+        return ret;
+    }
+
+    default PromiseResponse prepare(long proposalId) {
+        return prepare(0, proposalId);
+    }
+
+    /**
+     * Accept of a text value, as its UTF-8 bytes.
+     */
+    default AcceptResponse acceptRequest(long slot, long proposalId, String value) {
+        return acceptRequest(slot, proposalId, Values.of(value));
+    }
+
+    default AcceptResponse acceptRequest(long proposalId, String value) {
+        return acceptRequest(0, proposalId, value);
+    }
+
+    default PaxosState getState() {
+        return getState(0);
+    }
 
 }
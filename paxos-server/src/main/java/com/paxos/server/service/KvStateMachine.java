@@ -0,0 +1,620 @@
+package com.paxos.server.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+import com.paxos.server.metrics.PaxosMetrics;
+import com.paxos.server.model.ChosenValue;
+import com.paxos.server.model.KvCommand;
+import com.paxos.server.model.KvResult;
+import com.paxos.server.model.KvSnapshot;
+import com.paxos.server.storage.KvSnapshotStore;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Replicated key-value store on top of the values chosen by {@link LeaderService}.
+ *
+ * Every command is proposed as the JSON of a {@link KvCommand} and applied to an in-memory
+ * sorted map in slot order, once every slot below it is chosen. Chosen values arrive from the
+ * {@link LearnerService} in any order, on every server; a single apply thread collects them
+ * and applies each run of consecutive slots as one batch under one lock acquisition. Values
+ * that are not commands (no-ops, values proposed through /api/leader/propose) take up their
+ * slot and are skipped.
+ *
+ * A command returns once it is applied. GET is proposed like any other command, or with
+ * leader leases enabled answered from the map once everything up to the leader's read index
+ * is applied.
+ *
+ * Every paxos.kv.snapshot.every applied slots the map is copied by the apply thread and written
+ * to a snapshot file in the background. Once the snapshot is durable the leader forgets the
+ * chosen values it covers, and {@link LogTruncationService} lets the acceptors drop their slots
+ * once every server has a snapshot past them. On start the snapshot is loaded and applying
+ * resumes after its index.
+ *
+ * A server that fell behind the others, or lost its data dir, catches up with {@link #catchUp}:
+ * it streams the newest snapshot among its peers over InstallSnapshot and installs it in place
+ * of its own state, instead of replaying the slots. The slots after the snapshot that a peer's
+ * learner still holds are replayed from it, which is also how a server that joins the pool
+ * ({@link MembershipService}) gets everything it missed.
+ *
+ * Membership changes are applied in slot order like commands and go into the snapshots.
+ */
+@Service
+public class KvStateMachine {
+
+    private static final Logger log = LoggerFactory.getLogger(KvStateMachine.class);
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    // decided values asked from a peer at once when catching up
+    static final int REPLAY_BATCH = 1000;
+
+    @Value("${paxos.server.id:0}")
+    private int serverId;
+
+    // how long a command waits to be applied after it was chosen
+    @Value("${paxos.kv.timeout.millis:5000}")
+    private long timeoutMillis = 5000;
+
+    // where snapshots are written, no snapshots if empty
+    @Value("${paxos.server.data.dir:}")
+    private String dataDir;
+
+    // applied slots between snapshots, 0 disables them
+    @Value("${paxos.kv.snapshot.every:10000}")
+    private long snapshotEvery = 10000;
+
+    // how long a snapshot transfer from another server may take
+    @Value("${paxos.kv.catchup.timeout.millis:60000}")
+    private long catchUpTimeoutMillis = 60000;
+
+    private final LeaderService leaderService;
+
+    @Autowired(required = false)
+    private PaxosMetrics metrics = PaxosMetrics.noop();
+
+    @Autowired(required = false)
+    private PaxosForwardingService remoteService;
+
+    // decided values come from the learner, so every server applies them; only the leader's own without one
+    @Autowired(required = false)
+    private LearnerService learner;
+
+    @Autowired(required = false)
+    private MembershipService membership;
+
+    // chosen values handed over by the leader, in any slot order
+    private final BlockingQueue<ChosenValue> decided = new LinkedBlockingQueue<>();
+    // commands proposed by this server, by command id
+    private final Map<String, CompletableFuture<KvResult>> pending = new ConcurrentHashMap<>();
+    private Thread applier;
+
+    // guarded by this
+    private final NavigableMap<String, String> data = new TreeMap<>();
+    // every slot up to here is applied
+    private long appliedIndex = -1;
+
+    private KvSnapshotStore snapshotStore;
+    private ExecutorService snapshotExecutor;
+    // every slot up to here is in a durable snapshot
+    private volatile long snapshotIndex = -1;
+    // set by the apply thread, cleared once the snapshot is written
+    private volatile boolean snapshotting;
+
+    @Autowired
+    public KvStateMachine(LeaderService leaderService) {
+        this.leaderService = leaderService;
+    }
+
+    public KvStateMachine(LeaderService leaderService, String dataDir, long snapshotEvery) {
+        this(leaderService);
+        this.dataDir = dataDir;
+        this.snapshotEvery = snapshotEvery;
+    }
+
+    /**
+     * Apply membership changes to membership, for tests.
+     */
+    void setMembership(MembershipService membership) {
+        this.membership = membership;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (dataDir != null && !dataDir.isBlank() && snapshotEvery > 0) {
+            snapshotStore = new KvSnapshotStore(Path.of(dataDir, String.valueOf(serverId)));
+            snapshotExecutor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "paxos-kv-snapshot-" + serverId);
+                thread.setDaemon(true);
+                return thread;
+            });
+            restoreSnapshot();
+        }
+        metrics.gauge("paxos.kv.snapshot.index", "Last slot in a durable snapshot of the key-value store",
+                this, KvStateMachine::snapshotIndex);
+        if (learner != null) {
+            learner.addListener(decided::add);
+        } else {
+            leaderService.addListener(decided::add);
+        }
+        applier = new Thread(this::applyLoop, "paxos-kv-apply-" + serverId);
+        applier.setDaemon(true);
+        applier.start();
+    }
+
+    @PreDestroy
+    public void close() {
+        if (applier != null) {
+            applier.interrupt();
+        }
+        if (snapshotExecutor != null) {
+            snapshotExecutor.shutdown();
+        }
+    }
+
+    public KvResult put(String key, String value) {
+        return execute(new KvCommand(newId(), KvCommand.Op.PUT, key, value, null));
+    }
+
+    public KvResult delete(String key) {
+        return execute(new KvCommand(newId(), KvCommand.Op.DELETE, key, null, null));
+    }
+
+    /**
+     * Set the key to value if it currently has the expected value, expected null means absent.
+     */
+    public KvResult compareAndSet(String key, String expected, String value) {
+        return execute(new KvCommand(newId(), KvCommand.Op.CAS, key, value, expected));
+    }
+
+    public KvResult get(String key) {
+        if (!leaderService.leasesEnabled()) {
+            return execute(new KvCommand(newId(), KvCommand.Op.GET, key, null, null));
+        }
+        long start = metrics.start();
+        long readIndex = leaderService.readIndex();
+        synchronized (this) {
+            awaitApplied(readIndex - 1);
+            String value = data.get(key);
+            metrics.recordKvCommand(KvCommand.Op.GET.name(), true, start);
+            return new KvResult(key, value, value != null, appliedIndex);
+        }
+    }
+
+    /**
+     * Highest slot applied so far, every slot below it is applied too.
+     */
+    public synchronized long appliedIndex() {
+        return appliedIndex;
+    }
+
+    /**
+     * Highest slot in a durable snapshot, -1 if there is none. Acceptors may drop the slots up
+     * to the lowest snapshot index of all servers.
+     */
+    public long snapshotIndex() {
+        return snapshotIndex;
+    }
+
+    /**
+     * The file of the last durable snapshot, sent to other servers catching up.
+     */
+    public Optional<Path> snapshotFile() {
+        return snapshotStore != null ? snapshotStore.file() : Optional.empty();
+    }
+
+    /**
+     * Install the newest snapshot of the other servers if it is ahead of this server's applied
+     * index, then replay the decided slots after it from a peer. Returns the applied index
+     * afterwards. Runs on the snapshot thread, so it never races a snapshot being written.
+     */
+    public long catchUp() {
+        if (snapshotExecutor == null || remoteService == null) {
+            throw new IllegalStateException("Snapshots are disabled, set paxos.server.data.dir and paxos.kv.snapshot.every");
+        }
+        try {
+            return snapshotExecutor.submit(this::catchUpNow).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted catching up", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to catch up: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    // snapshot thread
+    private long catchUpNow() throws IOException {
+        installNewestSnapshot();
+        replayDecided();
+        return appliedIndex();
+    }
+
+    // snapshot thread
+    private void installNewestSnapshot() throws IOException {
+        int source = -1;
+        long newest = appliedIndex();
+        for (Map.Entry<Integer, CompletableFuture<Long>> peer : remoteService.snapshotIndexAsync().entrySet()) {
+            try {
+                long index = peer.getValue().get(LogTruncationService.PEER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                if (index > newest) {
+                    source = peer.getKey();
+                    newest = index;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted asking for snapshot indexes", e);
+            } catch (ExecutionException | TimeoutException e) {
+                log.debug("Server {} has no snapshot index from server {}: {}", serverId, peer.getKey(), e.getMessage());
+            }
+        }
+        if (source < 0) {
+            log.debug("Server {} is not behind any snapshot at applied index {}", serverId, appliedIndex());
+            return;
+        }
+
+        long start = System.nanoTime();
+        try (KvSnapshotStore.Transfer transfer = snapshotStore.receive()) {
+            long bytes = remoteService.installSnapshot(source, transfer, catchUpTimeoutMillis);
+            KvSnapshot snapshot = transfer.finish();
+            if (snapshot.getIndex() <= appliedIndex()) {
+                return;
+            }
+            transfer.commit();
+            install(snapshot);
+            log.info("Server {} installed snapshot at slot {} from server {} ({} keys, {} bytes) in {}ms",
+                    serverId, snapshot.getIndex(), source, snapshot.getEntries().size(), bytes,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+    }
+
+    /**
+     * Hand the decided values after the applied index to the learner, from the first peer that
+     * holds the next slot, and wait until they are applied.
+     */
+    // snapshot thread
+    private void replayDecided() {
+        if (learner == null) {
+            return;
+        }
+        long last = -1;
+        for (int peer : remoteService.peers()) {
+            long next = appliedIndex() + 1;
+            try {
+                while (true) {
+                    List<ChosenValue> values = remoteService.decided(peer, next, REPLAY_BATCH,
+                            LogTruncationService.PEER_TIMEOUT_MILLIS);
+                    if (values.isEmpty() || values.get(0).getSlot() > next) {
+                        // a peer without the next slot cannot fill the gap
+                        break;
+                    }
+                    values.forEach(learner::addDecided);
+                    last = values.get(values.size() - 1).getSlot();
+                    next = last + 1;
+                }
+            } catch (RuntimeException e) {
+                log.debug("Server {} could not replay decided slots from server {}: {}", serverId, peer, e.getMessage());
+            }
+            if (last >= 0) {
+                log.info("Server {} replayed decided slots up to {} from server {}", serverId, last, peer);
+                break;
+            }
+        }
+        if (last < 0) {
+            return;
+        }
+        synchronized (this) {
+            try {
+                awaitApplied(last);
+            } catch (IllegalStateException e) {
+                log.warn("Server {} replayed slots up to {} but applied only up to {}", serverId, last, appliedIndex);
+            }
+        }
+    }
+
+    /**
+     * Replace the contents with a durable snapshot that is ahead of the applied index.
+     */
+    void install(KvSnapshot snapshot) {
+        synchronized (this) {
+            if (snapshot.getIndex() <= appliedIndex) {
+                return;
+            }
+            data.clear();
+            data.putAll(snapshot.getEntries());
+            appliedIndex = snapshot.getIndex();
+            notifyAll();
+        }
+        snapshotIndex = snapshot.getIndex();
+        if (membership != null) {
+            membership.install(snapshot.getIndex(), snapshot.getMembership());
+        }
+        compactBelow(snapshot.getIndex() + 1);
+    }
+
+    /**
+     * Copy of the current contents.
+     */
+    synchronized NavigableMap<String, String> entries() {
+        return new TreeMap<>(data);
+    }
+
+    private KvResult execute(KvCommand command) {
+        long start = metrics.start();
+        CompletableFuture<KvResult> result = new CompletableFuture<>();
+        pending.put(command.getId(), result);
+        boolean success = false;
+        try {
+            leaderService.propose(encode(command));
+            KvResult ret = result.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            success = true;
+            return ret;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for " + command, e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to apply " + command, e.getCause());
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("Command " + command.getId() + " was chosen but not applied within "
+                    + timeoutMillis + "ms, slots below it are not chosen yet", e);
+        } finally {
+            pending.remove(command.getId());
+            metrics.recordKvCommand(command.getOp().name(), success, start);
+        }
+    }
+
+    private void applyLoop() {
+        TreeMap<Long, ChosenValue> waiting = new TreeMap<>();
+        List<ChosenValue> arrived = new ArrayList<>();
+        while (true) {
+            try {
+                arrived.add(decided.take());
+            } catch (InterruptedException e) {
+                log.debug("Server {} apply loop stopped at slot {}", serverId, appliedIndex());
+                return;
+            }
+            decided.drainTo(arrived);
+            for (ChosenValue value : arrived) {
+                waiting.put(value.getSlot(), value);
+            }
+            arrived.clear();
+            try {
+                applyReady(waiting);
+                maybeSnapshot();
+            } catch (RuntimeException e) {
+                log.error("Server {} failed to apply slots after {}", serverId, appliedIndex(), e);
+            }
+        }
+    }
+
+    /**
+     * Apply the run of consecutive slots after the applied index, removing them from waiting
+     * once applied. Values that are neither a command nor a change are skipped like no-ops.
+     * Returns the number of slots applied.
+     */
+    int applyReady(TreeMap<Long, ChosenValue> waiting) {
+        List<ChosenValue> batch = new ArrayList<>();
+        // the apply thread is the only one moving appliedIndex
+        long next = appliedIndex() + 1;
+        waiting.headMap(next).clear();
+        for (ChosenValue value : waiting.values()) {
+            if (value.getSlot() != next) {
+                break;
+            }
+            batch.add(value);
+            next++;
+        }
+        if (batch.isEmpty()) {
+            return 0;
+        }
+
+        List<CompletableFuture<KvResult>> callers = new ArrayList<>();
+        List<KvResult> results = new ArrayList<>();
+        synchronized (this) {
+            for (ChosenValue value : batch) {
+                if (value.getSlot() != appliedIndex + 1) {
+                    // a snapshot installed in the meantime covers it
+                    continue;
+                }
+                if (MembershipService.isChange(value.getValueBytes())) {
+                    if (membership != null) {
+                        membership.apply(value.getSlot(), value.getValueBytes());
+                    }
+                    appliedIndex = value.getSlot();
+                    waiting.remove(value.getSlot());
+                    continue;
+                }
+                KvCommand command = decode(value);
+                if (command != null) {
+                    KvResult result = apply(command, value.getSlot());
+                    CompletableFuture<KvResult> caller = pending.get(command.getId());
+                    if (caller != null) {
+                        callers.add(caller);
+                        results.add(result);
+                    }
+                }
+                appliedIndex = value.getSlot();
+                waiting.remove(value.getSlot());
+            }
+            notifyAll();
+        }
+        if (membership != null) {
+            membership.applied(appliedIndex());
+        }
+        for (int i = 0; i < callers.size(); i++) {
+            callers.get(i).complete(results.get(i));
+        }
+        metrics.recordKvApply(batch.size());
+        log.debug("Server {} applied slots {} to {}", serverId, batch.get(0).getSlot(), appliedIndex());
+        return batch.size();
+    }
+
+    private void restoreSnapshot() {
+        KvSnapshot snapshot;
+        try {
+            snapshot = snapshotStore.load().orElse(null);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to load key-value snapshot " + snapshotStore, e);
+        }
+        if (snapshot == null) {
+            return;
+        }
+        synchronized (this) {
+            data.putAll(snapshot.getEntries());
+            appliedIndex = snapshot.getIndex();
+        }
+        snapshotIndex = snapshot.getIndex();
+        if (membership != null) {
+            membership.install(snapshot.getIndex(), snapshot.getMembership());
+        }
+        compactBelow(snapshot.getIndex() + 1);
+        log.info("Server {} restored {} keys from snapshot at slot {}",
+                serverId, snapshot.getEntries().size(), snapshot.getIndex());
+    }
+
+    /**
+     * Start writing a snapshot if enough slots were applied since the last one and none is
+     * being written. Called by the apply thread, which copies the map so applying is only held
+     * up for the copy.
+     */
+    void maybeSnapshot() {
+        if (snapshotStore == null || snapshotting) {
+            return;
+        }
+        KvSnapshot snapshot;
+        synchronized (this) {
+            if (appliedIndex - snapshotIndex < snapshotEvery) {
+                return;
+            }
+            snapshot = new KvSnapshot(appliedIndex, new TreeMap<>(data),
+                    membership != null ? membership.configs() : new ArrayList<>());
+        }
+        snapshotting = true;
+        snapshotExecutor.execute(() -> writeSnapshot(snapshot));
+    }
+
+    private void writeSnapshot(KvSnapshot snapshot) {
+        try {
+            if (snapshot.getIndex() <= snapshotIndex) {
+                // a newer snapshot was installed from another server
+                return;
+            }
+            long start = System.nanoTime();
+            long bytes = snapshotStore.write(snapshot);
+            snapshotIndex = snapshot.getIndex();
+            compactBelow(snapshot.getIndex() + 1);
+            log.info("Server {} wrote snapshot at slot {} ({} keys, {} bytes) in {}ms", serverId,
+                    snapshot.getIndex(), snapshot.getEntries().size(), bytes,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (IOException | RuntimeException e) {
+            log.error("Server {} failed to write snapshot at slot {}", serverId, snapshot.getIndex(), e);
+        } finally {
+            snapshotting = false;
+        }
+    }
+
+    private void compactBelow(long slot) {
+        leaderService.compactBelow(slot);
+        if (learner != null) {
+            learner.compactBelow(slot);
+        }
+    }
+
+    // guarded by this
+    private KvResult apply(KvCommand command, long slot) {
+        String key = command.getKey();
+        String current = data.get(key);
+        switch (command.getOp()) {
+            case PUT:
+                data.put(key, command.getValue());
+                return new KvResult(key, command.getValue(), true, slot);
+            case DELETE:
+                data.remove(key);
+                return new KvResult(key, current, current != null, slot);
+            case CAS:
+                if (Objects.equals(current, command.getExpected())) {
+                    data.put(key, command.getValue());
+                    return new KvResult(key, command.getValue(), true, slot);
+                }
+                return new KvResult(key, current, false, slot);
+            case GET:
+            default:
+                return new KvResult(key, current, current != null, slot);
+        }
+    }
+
+    // guarded by this
+    private void awaitApplied(long index) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (appliedIndex < index) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new IllegalStateException("Slot " + index + " not applied within " + timeoutMillis + "ms");
+            }
+            try {
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted waiting for slot " + index, e);
+            }
+        }
+    }
+
+    private String newId() {
+        return serverId + "-" + UUID.randomUUID();
+    }
+
+    /**
+     * The command as the bytes of its JSON, proposed as they are written.
+     */
+    static ByteString encode(KvCommand command) {
+        try {
+            // the array is not touched once written, so it is wrapped rather than copied
+            return UnsafeByteOperations.unsafeWrap(objectMapper.writeValueAsBytes(command));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to encode " + command, e);
+        }
+    }
+
+    private KvCommand decode(ChosenValue value) {
+        ByteString encoded = value.getValueBytes();
+        if (encoded == null || encoded.isEmpty() || encoded.byteAt(0) != '{') {
+            return null;
+        }
+        // parsed from the bytes, without decoding them into a String first
+        try (InputStream in = encoded.newInput()) {
+            KvCommand command = objectMapper.readValue(in, KvCommand.class);
+            return command.getOp() != null && command.getKey() != null ? command : null;
+        } catch (IOException e) {
+            log.debug("Server {} skipping slot {}, not a command: {}", serverId, value.getSlot(), e.getMessage());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,621 @@
+package com.paxos.server.service;
+
+import com.google.common.base.Ticker;
+import com.google.protobuf.ByteString;
+import com.paxos.server.metrics.PaxosMetrics;
+import com.paxos.server.model.AcceptResponse;
+import com.paxos.server.model.ChosenValue;
+import com.paxos.server.model.ClusterConfig;
+import com.paxos.server.model.LeaderPromiseResponse;
+import com.paxos.server.model.LeaseResponse;
+import com.paxos.server.model.Values;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Stable leader for Multi-Paxos.
+ *
+ * Phase 1 runs once for every slot from the first slot this server has not seen chosen
+ * ({@link IPaxosAcceptor#prepareFrom}). Values the acceptors already accepted in those slots
+ * are proposed again under the new ballot and holes are filled with {@link #NO_OP}. After
+ * that every new value gets the next slot and costs a single accept round trip to a majority.
+ *
+ * The server stays leader until a majority ignores one of its accepts because some acceptor
+ * promised a higher proposal; the next proposal then runs phase 1 again with a ballot above
+ * the highest competing proposal reported by the ignored responses.
+ *
+ * Ballots come from {@link BallotAllocator}, above the highest proposal this server's own
+ * acceptor has promised or any acceptor reported; it hands out the single-decree proposer's
+ * ballots too and keeps its round durable, so no ballot is used twice.
+ *
+ * With paxos.lease.millis set the leader also holds a lease from a majority of acceptors
+ * (see {@link AcceptorLease}), renewed in the background. While the lease is valid no other
+ * server can get a value chosen, so {@link #read} answers from the values this leader knows
+ * to be chosen without any round trip. The leader's view of the lease ends early by the clock
+ * drift bound and a fixed margin, see {@link #leaseValidUntil}.
+ *
+ * Quorums follow the replicated configuration ({@link MembershipService}): an accept needs a
+ * majority of the configuration in effect for its slot, known once every slot alpha below it
+ * is applied, which the leader waits for. Phase 1 and leases need a majority of every
+ * configuration from the first slot not known to be chosen on, so they cover every slot the
+ * leader may propose in while a change takes effect.
+ */
+@Service
+public class LeaderService {
+
+    private static final Logger log = LoggerFactory.getLogger(LeaderService.class);
+
+    /**
+     * Value proposed for a slot that a new leader found empty below slots that are in use.
+     */
+    public static final String NO_OP = "";
+    private static final ByteString NO_OP_BYTES = ByteString.EMPTY;
+
+    static final int SERVER_BITS = 16;
+    private static final long SERVER_MASK = (1L << SERVER_BITS) - 1;
+
+    @Value("${paxos.server.id:0}")
+    private int serverId;
+
+    @Value("${paxos.server.count}")
+    private int serverCount;
+
+    // attempts of a proposal, each attempt after the first runs phase 1 again
+    @Value("${paxos.leader.propose.attempts:3}")
+    private int maxAttempts = 3;
+
+    // leader leases, 0 disables them
+    @Value("${paxos.lease.millis:0}")
+    private long leaseMillis;
+
+    // bound on how much faster or slower any server's clock runs than another's, 0.01 = 1%
+    @Value("${paxos.lease.max.drift:0.01}")
+    private double maxDrift = 0.01;
+
+    // taken off every lease on top of the drift bound, covers scheduling delays
+    @Value("${paxos.lease.margin.millis:20}")
+    private long marginMillis = 20;
+
+    @Autowired
+    private PersistentPaxosAcceptorService internalService;
+
+    @Autowired
+    private PaxosForwardingService remoteService;
+
+    @Autowired
+    private BallotAllocator ballots;
+
+    // quorums are a majority of paxos.server.count without it
+    @Autowired(required = false)
+    private MembershipService membership;
+
+    @Autowired(required = false)
+    private PaxosMetrics metrics = PaxosMetrics.noop();
+
+    private Ticker ticker = Ticker.systemTicker();
+
+    private ScheduledExecutorService leaseRenewer;
+
+    // highest proposal id some acceptor reported when ignoring this server
+    private final AtomicLong highestSeen = new AtomicLong(-1);
+
+    // guarded by this
+    private long ballot = -1;
+    private long nextSlot;
+    // every slot below chosenPrefix is known to be chosen
+    private long chosenPrefix;
+    // values this server got chosen or recovered as leader
+    private final TreeMap<Long, ChosenValue> chosen = new TreeMap<>();
+    // chosen values below this slot were forgotten, they are in the state machine's snapshot
+    private long compactedBelow;
+    private final List<Consumer<ChosenValue>> listeners = new ArrayList<>();
+    private long leaseBallot = -1;
+    private long leaseValidUntil;
+    // phase 1 in progress, null if none; it runs outside the lock and every caller waits for it
+    private CompletableFuture<Boolean> election;
+
+    /**
+     * Ballots carry the id of the server that proposed them in the low bits.
+     */
+    static int serverOf(long proposalId) {
+        return (int) (proposalId & SERVER_MASK);
+    }
+
+    /**
+     * Ticker time until which a lease requested at start is valid for the leader. The acceptors
+     * count the full duration on their own clocks from when they received the request, later
+     * than start; the leader stops short by the drift between the clocks and the margin.
+     */
+    static long leaseValidUntil(long start, long leaseMillis, double maxDrift, long marginMillis) {
+        long leaseNanos = TimeUnit.MILLISECONDS.toNanos(leaseMillis);
+        return start + (long) (leaseNanos * (1 - maxDrift)) - TimeUnit.MILLISECONDS.toNanos(marginMillis);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (leaseMillis <= 0) {
+            return;
+        }
+        leaseRenewer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "paxos-lease-renewer-" + serverId);
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1, leaseMillis / 3);
+        leaseRenewer.scheduleWithFixedDelay(this::renewLease, period, period, TimeUnit.MILLISECONDS);
+        log.info("Server {} leader leases enabled: {}ms, max drift {}, margin {}ms",
+                serverId, leaseMillis, maxDrift, marginMillis);
+    }
+
+    @PreDestroy
+    public void close() {
+        if (leaseRenewer != null) {
+            leaseRenewer.shutdownNow();
+        }
+    }
+
+    /**
+     * Use another clock for leases, for tests.
+     */
+    void setTicker(Ticker ticker) {
+        this.ticker = ticker;
+    }
+
+    /**
+     * Get the value chosen in a new slot. Runs phase 1 first if this server is not the leader.
+     */
+    public ChosenValue propose(String value) {
+        return propose(Values.of(value));
+    }
+
+    /**
+     * Get the value chosen in a new slot, like {@link #propose(String)} with the value as bytes.
+     * The same value goes to every acceptor, it is not copied. Values in the envelope of a
+     * membership change are refused, those are only proposed by {@link #reconfigure}.
+     */
+    public ChosenValue propose(ByteString value) {
+        if (MembershipService.isChange(value)) {
+            throw new IllegalStateException("Values starting like a membership change are reserved");
+        }
+        return choose(value);
+    }
+
+    private ChosenValue choose(ByteString value) {
+        long failedSlot = -1;
+        for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+            long proposalId;
+            long slot;
+            if (!ensureLeader()) {
+                continue;
+            }
+            synchronized (this) {
+                if (ballot < 0) {
+                    // preempted by a concurrent proposal since the election
+                    continue;
+                }
+                ChosenValue recovered = failedSlot >= 0 ? chosen.get(failedSlot) : null;
+                if (recovered != null && value.equals(recovered.getValueBytes())) {
+                    // the previous attempt was accepted by enough acceptors to be recovered
+                    return recovered;
+                }
+                proposalId = ballot;
+                slot = nextSlot++;
+            }
+            Predicate<Collection<Integer>> quorum;
+            try {
+                quorum = quorumOf(slot);
+            } catch (IllegalStateException e) {
+                // the slot stays empty, the next phase 1 fills it with a no-op
+                synchronized (this) {
+                    if (ballot == proposalId) {
+                        ballot = -1;
+                    }
+                }
+                throw e;
+            }
+            if (accept(slot, proposalId, value, quorum).join()) {
+                ChosenValue ret = new ChosenValue(slot, proposalId, value);
+                markChosen(ret);
+                return ret;
+            }
+            log.info("Leader ballot {} was preempted in slot {} (highest seen: {})", proposalId, slot, highestSeen.get());
+            failedSlot = slot;
+            synchronized (this) {
+                if (ballot == proposalId) {
+                    ballot = -1;
+                }
+            }
+        }
+        throw new IllegalStateException("Server " + serverId + " could not get a value chosen in "
+                + maxAttempts + " attempts, highest competing proposal: " + highestSeen.get());
+    }
+
+    /**
+     * Get a change of the pool to members chosen, then fill the slots up to where it takes
+     * effect with no-ops so it does not wait for other proposals.
+     */
+    public ChosenValue reconfigure(Map<Integer, String> members) {
+        if (membership == null) {
+            throw new IllegalStateException("Server " + serverId + " has no replicated membership");
+        }
+        ChosenValue change = choose(MembershipService.encode(members));
+        long effective = change.getSlot() + membership.alpha();
+        while (nextSlot() < effective) {
+            propose(NO_OP_BYTES);
+        }
+        log.info("Server {} got the change to {} chosen in slot {}, in effect from slot {}",
+                serverId, members, change.getSlot(), effective);
+        return change;
+    }
+
+    /**
+     * Linearizable read of a slot: the chosen value, or empty if nothing is chosen in the slot yet.
+     * Answered locally while this server holds a valid lease, otherwise the lease (and if
+     * needed the leadership) is acquired first.
+     */
+    public Optional<ChosenValue> read(long slot) {
+        return underLease(() -> {
+            if (slot < compactedBelow) {
+                throw new IllegalStateException("Slot " + slot + " was compacted into a snapshot");
+            }
+            return Optional.ofNullable(chosen.get(slot));
+        });
+    }
+
+    /**
+     * Slot below which this server knows every chosen value, checked under a valid lease like
+     * {@link #read}. Every value that was chosen before the call and whose proposer learned
+     * it was chosen is below it.
+     */
+    public long readIndex() {
+        return underLease(() -> chosenPrefix);
+    }
+
+    /**
+     * Register a listener for the values this server learns are chosen, called in no
+     * particular slot order and while holding this service's lock, so it must not block.
+     * Values chosen before registration are not replayed.
+     */
+    public synchronized void addListener(Consumer<ChosenValue> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Forget the chosen values below slot, which a state machine holds in a durable snapshot.
+     * Slots below it count as chosen and are never proposed again, also after a restart when
+     * this is called with the snapshot's index before the first proposal.
+     */
+    public synchronized void compactBelow(long slot) {
+        if (slot <= compactedBelow) {
+            return;
+        }
+        chosen.headMap(slot).clear();
+        compactedBelow = slot;
+        chosenPrefix = Math.max(chosenPrefix, slot);
+        nextSlot = Math.max(nextSlot, slot);
+        log.debug("Server {} compacted chosen values below slot {}", serverId, slot);
+    }
+
+    private synchronized long nextSlot() {
+        return nextSlot;
+    }
+
+    /**
+     * Chosen values below this slot were forgotten, 0 if none were.
+     */
+    synchronized long compactedBelow() {
+        return compactedBelow;
+    }
+
+    private <T> T underLease(Supplier<T> read) {
+        if (leaseMillis <= 0) {
+            throw new IllegalStateException("Leases are disabled, set paxos.lease.millis");
+        }
+        long proposalId = -1;
+        if (ensureLeader()) {
+            synchronized (this) {
+                if (hasLease()) {
+                    return read.get();
+                }
+                proposalId = ballot;
+            }
+        }
+        if (proposalId < 0) {
+            throw new IllegalStateException("Server " + serverId + " could not become leader, highest competing proposal: "
+                    + highestSeen.get());
+        }
+        acquireLease(proposalId);
+        synchronized (this) {
+            if (hasLease()) {
+                return read.get();
+            }
+        }
+        throw new IllegalStateException("Server " + serverId + " could not get a lease for ballot " + proposalId);
+    }
+
+    /**
+     * Whether reads can be served under a lease, see {@link #read}.
+     */
+    public boolean leasesEnabled() {
+        return leaseMillis > 0;
+    }
+
+    /**
+     * Ballot this server leads with, -1 if it is not the leader.
+     */
+    public synchronized long ballot() {
+        return ballot;
+    }
+
+    /**
+     * Become leader unless this server is, true if it is afterwards. One election runs at a
+     * time, without holding this service's lock so that reads, listeners and compaction do not
+     * wait for its round trips; concurrent callers wait for the same election.
+     */
+    private boolean ensureLeader() {
+        CompletableFuture<Boolean> running;
+        boolean mine = false;
+        synchronized (this) {
+            if (ballot >= 0) {
+                return true;
+            }
+            if (election == null) {
+                election = new CompletableFuture<>();
+                mine = true;
+            }
+            running = election;
+        }
+        if (!mine) {
+            return running.handle((won, error) -> won != null && won).join();
+        }
+        boolean won = false;
+        try {
+            won = elect();
+            return won;
+        } finally {
+            synchronized (this) {
+                election = null;
+            }
+            running.complete(won);
+        }
+    }
+
+    /**
+     * Phase 1 for every slot from chosenPrefix on, then phase 2 for every slot the promises
+     * report as accepted and every hole below them. Runs outside the lock, see
+     * {@link #ensureLeader}; ballot and nextSlot are published under it once it won.
+     */
+    private boolean elect() {
+        long candidate = ballots.next(Math.max(highestSeen.get(), internalService.leaderPromisedId()));
+        long fromSlot;
+        synchronized (this) {
+            fromSlot = chosenPrefix;
+        }
+        log.info("Server {} running phase 1 with ballot {} from slot {}", serverId, candidate, fromSlot);
+
+        // start the remote calls first so they overlap with the local prepare
+        Predicate<Collection<Integer>> quorum = quorumFrom(fromSlot);
+        Map<Integer, CompletableFuture<LeaderPromiseResponse>> remoteResponses =
+                remoteService.prepareFromAsync(fromSlot, candidate, quorum);
+        remoteResponses.values().forEach(pending -> pending.thenAccept(this::observe));
+
+        QuorumCollector<LeaderPromiseResponse> collector =
+                new QuorumCollector<>(quorum, LeaderPromiseResponse::isIgnored, "prepareFrom");
+        LeaderPromiseResponse local = internalService.prepareFrom(fromSlot, candidate);
+        observe(local);
+        collector.add(serverId, local);
+        collector.addAll(remoteResponses);
+
+        Map<Integer, LeaderPromiseResponse> promises = collector.result().join();
+        if (!quorum.test(promises.keySet())) {
+            log.info("Server {} lost election with ballot {}: {} promises, ignored by {}",
+                    serverId, candidate, promises.size(), collector.ignoredServers());
+            metrics.recordLeaderElection(false);
+            return false;
+        }
+
+        // highest accepted proposal of every slot, any of them may have been chosen
+        TreeMap<Long, LeaderPromiseResponse.AcceptedSlot> accepted = new TreeMap<>();
+        for (LeaderPromiseResponse promise : promises.values()) {
+            for (LeaderPromiseResponse.AcceptedSlot slot : promise.getAccepted()) {
+                LeaderPromiseResponse.AcceptedSlot known = accepted.get(slot.getSlot());
+                if (known == null || slot.getAcceptedId() > known.getAcceptedId()) {
+                    accepted.put(slot.getSlot(), slot);
+                }
+            }
+        }
+
+        long endSlot;
+        Map<Long, ByteString> values = new TreeMap<>();
+        synchronized (this) {
+            endSlot = accepted.isEmpty() ? nextSlot : Math.max(nextSlot, accepted.lastKey() + 1);
+            for (long slot = fromSlot; slot < endSlot; slot++) {
+                if (chosen.containsKey(slot)) {
+                    continue;
+                }
+                LeaderPromiseResponse.AcceptedSlot known = accepted.get(slot);
+                values.put(slot, known != null ? known.getAcceptedValueBytes() : NO_OP_BYTES);
+            }
+        }
+        Map<Long, CompletableFuture<Boolean>> pending = new TreeMap<>();
+        for (Map.Entry<Long, ByteString> entry : values.entrySet()) {
+            // membership changes among the recovered values count for the slots after them
+            Predicate<Collection<Integer>> slotQuorum = membership == null ? majority()
+                    : configQuorum(membership.configFor(entry.getKey(), values));
+            pending.put(entry.getKey(), accept(entry.getKey(), candidate, entry.getValue(), slotQuorum));
+        }
+        for (Map.Entry<Long, CompletableFuture<Boolean>> entry : pending.entrySet()) {
+            if (!entry.getValue().join()) {
+                log.info("Server {} was preempted recovering slot {} with ballot {}", serverId, entry.getKey(), candidate);
+                metrics.recordLeaderElection(false);
+                return false;
+            }
+            markChosen(new ChosenValue(entry.getKey(), candidate, values.get(entry.getKey())));
+        }
+
+        long next;
+        synchronized (this) {
+            ballot = candidate;
+            // compaction may have moved it meanwhile, no proposal did as there was no ballot
+            nextSlot = Math.max(nextSlot, endSlot);
+            next = nextSlot;
+        }
+        metrics.recordLeaderElection(true);
+        log.info("Server {} is leader with ballot {}, recovered {} slots, next slot {}",
+                serverId, candidate, values.size(), next);
+        return true;
+    }
+
+    /**
+     * Phase 2 for one slot, completes with true once a quorum accepted.
+     */
+    private CompletableFuture<Boolean> accept(long slot, long proposalId, ByteString value,
+                                              Predicate<Collection<Integer>> quorum) {
+        // start the remote calls first so they overlap with the local accept
+        Map<Integer, CompletableFuture<AcceptResponse>> remoteResponses =
+                remoteService.acceptRequestAsync(slot, proposalId, value, quorum);
+        remoteResponses.values().forEach(pending -> pending.thenAccept(this::observe));
+
+        QuorumCollector<AcceptResponse> collector =
+                new QuorumCollector<>(quorum, AcceptResponse::isIgnored, "accept");
+        AcceptResponse local = internalService.acceptRequest(slot, proposalId, value);
+        observe(local);
+        collector.add(serverId, local);
+        collector.addAll(remoteResponses);
+        return collector.result().thenApply(responses -> quorum.test(responses.keySet()));
+    }
+
+    private void renewLease() {
+        long proposalId;
+        synchronized (this) {
+            if (ballot < 0) {
+                return;
+            }
+            proposalId = ballot;
+        }
+        try {
+            acquireLease(proposalId);
+        } catch (RuntimeException e) {
+            log.warn("Server {} failed to renew its lease: {}", serverId, e.getMessage());
+        }
+    }
+
+    /**
+     * Ask every acceptor for a lease on the ballot, valid once a majority granted it.
+     */
+    private boolean acquireLease(long proposalId) {
+        // taken before any request is sent, the acceptors start counting later
+        long start = ticker.read();
+        Predicate<Collection<Integer>> quorum;
+        synchronized (this) {
+            quorum = quorumFrom(chosenPrefix);
+        }
+        Map<Integer, CompletableFuture<LeaseResponse>> remoteResponses =
+                remoteService.leaseAsync(serverId, proposalId, leaseMillis, quorum);
+        remoteResponses.values().forEach(pending -> pending.thenAccept(this::observe));
+
+        QuorumCollector<LeaseResponse> collector =
+                new QuorumCollector<>(quorum, LeaseResponse::isIgnored, "lease");
+        LeaseResponse local = internalService.grantLease(serverId, proposalId, leaseMillis);
+        observe(local);
+        collector.add(serverId, local);
+        collector.addAll(remoteResponses);
+
+        boolean granted = quorum.test(collector.result().join().keySet());
+        synchronized (this) {
+            if (granted && ballot == proposalId) {
+                leaseBallot = proposalId;
+                leaseValidUntil = leaseValidUntil(start, leaseMillis, maxDrift, marginMillis);
+                return true;
+            }
+        }
+        log.info("Server {} did not get a lease for ballot {}, ignored by {}",
+                serverId, proposalId, collector.ignoredServers());
+        return false;
+    }
+
+    private boolean hasLease() {
+        return ballot >= 0 && leaseBallot == ballot && ticker.read() - leaseValidUntil < 0;
+    }
+
+    private void observe(LeaseResponse response) {
+        if (response.isIgnored() && response.getPromisedId() != null) {
+            highestSeen.accumulateAndGet(response.getPromisedId(), Math::max);
+        }
+    }
+
+    private void observe(LeaderPromiseResponse response) {
+        if (response.isIgnored() && response.getPromisedId() != null) {
+            highestSeen.accumulateAndGet(response.getPromisedId(), Math::max);
+        }
+    }
+
+    private void observe(AcceptResponse response) {
+        if (response.isIgnored() && response.getPromisedId() != null) {
+            highestSeen.accumulateAndGet(response.getPromisedId(), Math::max);
+        }
+    }
+
+    private synchronized void markChosen(ChosenValue value) {
+        if (value.getSlot() < compactedBelow) {
+            return;
+        }
+        if (chosen.put(value.getSlot(), value) == null) {
+            listeners.forEach(listener -> listener.accept(value));
+        }
+        while (chosen.containsKey(chosenPrefix)) {
+            chosenPrefix++;
+        }
+    }
+
+    /**
+     * Quorum of the accepts in slot, waits until its configuration is known.
+     */
+    private Predicate<Collection<Integer>> quorumOf(long slot) {
+        if (membership == null) {
+            return majority();
+        }
+        membership.awaitSettled(slot);
+        return configQuorum(membership.configFor(slot));
+    }
+
+    /**
+     * Quorum covering every slot from slot on: a majority of every configuration known from there.
+     */
+    private Predicate<Collection<Integer>> quorumFrom(long slot) {
+        if (membership == null) {
+            return majority();
+        }
+        List<ClusterConfig> configs = membership.configsFrom(slot);
+        return servers -> configs.stream().allMatch(config -> config.isQuorum(servers));
+    }
+
+    private static Predicate<Collection<Integer>> configQuorum(ClusterConfig config) {
+        return config::isQuorum;
+    }
+
+    private Predicate<Collection<Integer>> majority() {
+        int majority = serverCount / 2 + 1;
+        return servers -> servers.size() >= majority;
+    }
+}
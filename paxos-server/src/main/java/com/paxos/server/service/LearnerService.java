@@ -0,0 +1,307 @@
+package com.paxos.server.service;
+
+import com.google.protobuf.ByteString;
+import com.paxos.server.metrics.PaxosMetrics;
+import com.paxos.server.model.ChosenValue;
+import com.paxos.server.model.ClusterConfig;
+import com.paxos.server.model.Values;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Learner: finds out which values are decided without running a proposer.
+ *
+ * Every acceptor tells every learner about each accept (the Learn rpc, sent by this server for
+ * its own acceptor). A value is decided once a majority of acceptors accepted it with the same
+ * proposal id; since a proposal id carries one value, counting acceptors per (slot, id) is
+ * enough. Values this server's leader got chosen are decided right away.
+ *
+ * Decided values go to the listeners (the key-value store) and to the watchers of
+ * {@link #watch}, so clients are told about a decision one hop after the accepts instead of
+ * polling every server. Decided values are kept until a snapshot covers them
+ * ({@link #compactBelow}), which bounds how far back a watch can start.
+ *
+ * With a replicated membership only the members of the slot's configuration count, and votes
+ * for a slot whose configuration is not known yet ({@link MembershipService#settled}) are
+ * held until enough slots before it are applied.
+ */
+@Service
+public class LearnerService {
+
+    private static final Logger log = LoggerFactory.getLogger(LearnerService.class);
+
+    public static final String SOURCE_QUORUM = "quorum";
+    public static final String SOURCE_LEADER = "leader";
+    public static final String SOURCE_CATCH_UP = "catchup";
+
+    @Value("${paxos.server.id:0}")
+    private int serverId;
+
+    @Value("${paxos.server.count:1}")
+    private int serverCount = 1;
+
+    // send this acceptor's accepts to the other servers' learners
+    @Value("${paxos.learner.notify:true}")
+    private boolean notifyPeers = true;
+
+    // decisions a watcher may fall behind before it is closed
+    @Value("${paxos.learner.watch.buffer:10000}")
+    private int watchBuffer = 10000;
+
+    @Autowired(required = false)
+    private PersistentPaxosAcceptorService acceptor;
+
+    @Autowired(required = false)
+    private PaxosForwardingService remoteService;
+
+    @Autowired(required = false)
+    private LeaderService leaderService;
+
+    // majorities of paxos.server.count without it
+    @Autowired(required = false)
+    private MembershipService membership;
+
+    @Autowired(required = false)
+    private PaxosMetrics metrics = PaxosMetrics.noop();
+
+    private ExecutorService watchExecutor;
+
+    // guarded by this
+    // acceptors that accepted each proposal id, for the slots not decided yet
+    private final Map<Long, Map<Long, Votes>> votes = new HashMap<>();
+    // slots with votes held until their configuration is known
+    private final TreeSet<Long> unsettled = new TreeSet<>();
+    private final TreeMap<Long, ChosenValue> decided = new TreeMap<>();
+    // decided values below this slot were forgotten
+    private long compactedBelow;
+    private final List<Consumer<ChosenValue>> listeners = new ArrayList<>();
+    private final List<DecisionStream> watchers = new ArrayList<>();
+
+    public LearnerService() {
+    }
+
+    LearnerService(int serverId, int serverCount, int watchBuffer) {
+        this.serverId = serverId;
+        this.serverCount = serverCount;
+        this.watchBuffer = watchBuffer;
+    }
+
+    void setMembership(MembershipService membership) {
+        this.membership = membership;
+    }
+
+    @PostConstruct
+    public void start() {
+        AtomicInteger threadCount = new AtomicInteger();
+        watchExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "paxos-watch-" + serverId + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (acceptor != null) {
+            acceptor.addAcceptListener(this::acceptedLocally);
+        }
+        if (leaderService != null) {
+            leaderService.addListener(value -> decide(value, SOURCE_LEADER));
+        }
+        if (membership != null) {
+            membership.onApplied(index -> decideSettled());
+        }
+        metrics.gauge("paxos.learner.watchers", "Clients watching decided values", this, LearnerService::watcherCount);
+    }
+
+    @PreDestroy
+    public void close() {
+        List<DecisionStream> open;
+        synchronized (this) {
+            open = new ArrayList<>(watchers);
+        }
+        open.forEach(DecisionStream::cancel);
+        if (watchExecutor != null) {
+            watchExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * An acceptor accepted value with proposalId in slot.
+     */
+    public void learn(int server, long slot, long proposalId, String value) {
+        learn(server, slot, proposalId, Values.of(value));
+    }
+
+    /**
+     * An acceptor accepted value with proposalId in slot. The value is held as given, not copied.
+     */
+    public void learn(int server, long slot, long proposalId, ByteString value) {
+        ChosenValue chosen = null;
+        synchronized (this) {
+            if (slot < compactedBelow || decided.containsKey(slot)) {
+                return;
+            }
+            Votes proposal = votes.computeIfAbsent(slot, s -> new HashMap<>())
+                    .computeIfAbsent(proposalId, id -> new Votes(value));
+            proposal.acceptors.add(server);
+            if (membership != null && !membership.settled(slot)) {
+                unsettled.add(slot);
+            } else if (isQuorum(slot, proposal.acceptors)) {
+                chosen = new ChosenValue(slot, proposalId, value);
+            }
+        }
+        if (chosen != null) {
+            decide(chosen, SOURCE_QUORUM);
+        }
+    }
+
+    /**
+     * A value another server decided, e.g. replayed to catch up.
+     */
+    public void addDecided(ChosenValue value) {
+        decide(value, SOURCE_CATCH_UP);
+    }
+
+    /**
+     * Up to limit of the decided values from fromSlot on, in slot order.
+     */
+    public synchronized List<ChosenValue> decidedFrom(long fromSlot, int limit) {
+        List<ChosenValue> ret = new ArrayList<>();
+        for (ChosenValue value : decided.tailMap(fromSlot).values()) {
+            if (ret.size() >= limit) {
+                break;
+            }
+            ret.add(value);
+        }
+        return ret;
+    }
+
+    /**
+     * The decided value of slot, empty if it is not known here (yet, or no longer).
+     */
+    public synchronized Optional<ChosenValue> decided(long slot) {
+        return Optional.ofNullable(decided.get(slot));
+    }
+
+    /**
+     * Called with every newly decided value, in the order they are learned, on the thread that
+     * learned it. Must not block.
+     */
+    public synchronized void addListener(Consumer<ChosenValue> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Send the decided values from fromSlot on to the sink: first the ones still held, in slot
+     * order, then each value as it is learned. Values below the oldest one held are skipped.
+     */
+    public synchronized DecisionStream watch(long fromSlot, DecisionStream.Sink sink) {
+        DecisionStream[] stream = new DecisionStream[1];
+        stream[0] = new DecisionStream(sink, watchBuffer, watchExecutor, () -> unwatch(stream[0]));
+        stream[0].replay(new ArrayList<>(decided.tailMap(fromSlot).values()));
+        watchers.add(stream[0]);
+        log.debug("Server {} has a new watcher from slot {}", serverId, fromSlot);
+        return stream[0];
+    }
+
+    /**
+     * Forget the decided values below slot, which a state machine holds in a durable snapshot.
+     */
+    public synchronized void compactBelow(long slot) {
+        if (slot <= compactedBelow) {
+            return;
+        }
+        decided.headMap(slot).clear();
+        votes.keySet().removeIf(s -> s < slot);
+        unsettled.headSet(slot).clear();
+        compactedBelow = slot;
+    }
+
+    private void acceptedLocally(long slot, long proposalId, ByteString value) {
+        learn(serverId, slot, proposalId, value);
+        if (notifyPeers && remoteService != null) {
+            // responses carry nothing, failures only mean that learner decides later or from its leader
+            remoteService.learnAsync(serverId, slot, proposalId, value);
+        }
+    }
+
+    private synchronized void decide(ChosenValue value, String source) {
+        long slot = value.getSlot();
+        if (slot < compactedBelow || decided.containsKey(slot)) {
+            return;
+        }
+        decided.put(slot, value);
+        votes.remove(slot);
+        unsettled.remove(slot);
+        metrics.recordLearnerDecision(source);
+        log.debug("Server {} learned slot {} is decided with id: {} from {}", serverId, slot, value.getProposalId(), source);
+        listeners.forEach(listener -> listener.accept(value));
+        // under the lock, so a watch starting now sees the value either replayed or offered
+        for (DecisionStream watcher : new ArrayList<>(watchers)) {
+            watcher.offer(value);
+        }
+    }
+
+    /**
+     * Decide the held slots whose configuration became known.
+     */
+    private void decideSettled() {
+        List<ChosenValue> chosen = new ArrayList<>();
+        synchronized (this) {
+            while (!unsettled.isEmpty() && membership.settled(unsettled.first())) {
+                long slot = unsettled.pollFirst();
+                Map<Long, Votes> proposals = votes.getOrDefault(slot, Map.of());
+                proposals.forEach((proposalId, proposal) -> {
+                    if (isQuorum(slot, proposal.acceptors)) {
+                        chosen.add(new ChosenValue(slot, proposalId, proposal.value));
+                    }
+                });
+            }
+        }
+        chosen.forEach(value -> decide(value, SOURCE_QUORUM));
+    }
+
+    private boolean isQuorum(long slot, Set<Integer> acceptors) {
+        if (membership == null) {
+            return acceptors.size() >= serverCount / 2 + 1;
+        }
+        ClusterConfig config = membership.configFor(slot);
+        return config.isQuorum(acceptors);
+    }
+
+    private synchronized void unwatch(DecisionStream stream) {
+        watchers.remove(stream);
+    }
+
+    private synchronized int watcherCount() {
+        return watchers.size();
+    }
+
+    /**
+     * The acceptors that accepted one proposal id, and its value.
+     */
+    private static class Votes {
+        final ByteString value;
+        final Set<Integer> acceptors = new HashSet<>();
+
+        Votes(ByteString value) {
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,420 @@
+package com.paxos.server.service;
+
+import com.google.protobuf.ByteString;
+import com.paxos.server.model.AcceptResponse;
+import com.paxos.server.model.LeaderPromiseResponse;
+import com.paxos.server.model.PaxosState;
+import com.paxos.server.model.PromiseResponse;
+import com.paxos.server.model.Values;
+import com.paxos.server.storage.PaxosStateStore;
+import com.paxos.server.storage.StateRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Paxos acceptor without locks.
+ * The state of every slot is an immutable {@link PaxosState} held in an atomic reference,
+ * prepare and accept compute the next state and install it with a compare-and-set, retrying
+ * if another request got there first. Reads and ignored requests never wait for a writer.
+ *
+ * Every installed state carries a future that the owner completes once the state is durable
+ * (see {@link PersistentPaxosAcceptorService}). It is attached at the moment of the
+ * compare-and-set, so a request that finds a state installed by a concurrent request can wait
+ * for exactly that state to reach disk.
+ *
+ * Slots are kept in fixed size pages of atomic references, like {@link SlotTable}.
+ *
+ * A leader's promise ({@link #prepareFrom}) covers every slot and lives in its own atomic
+ * reference. An accept installs its state first and then reads the leader promise, while
+ * prepareFrom installs the promise first and then reads the slots, so at least one of them
+ * sees the other. An accept that finds a higher leader promise behind it is withdrawn and
+ * answered as ignored.
+ *
+ * Slots below the truncation point are dropped and requests for them ignored, like in
+ * {@link PaxosAcceptorService#truncateBelow}. A request that checked the truncation point
+ * just before it moved may still install its state in a dropped page, where it is lost; that
+ * is harmless since every server has already applied the slot.
+ */
+class LockFreePaxosAcceptor {
+
+    private static final Logger log = LoggerFactory.getLogger(LockFreePaxosAcceptor.class);
+
+    private static final int PAGE_BITS = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private static final CompletableFuture<Void> DURABLE = CompletableFuture.completedFuture(null);
+    private static final Slot INITIAL = new Slot(new PaxosState(-1, -1), DURABLE);
+
+    /**
+     * An installed state and the future of it being durable.
+     */
+    static final class Slot {
+        final PaxosState state;
+        final CompletableFuture<Void> durable;
+
+        Slot(PaxosState state, CompletableFuture<Void> durable) {
+            this.state = state;
+            this.durable = durable;
+        }
+    }
+
+    /**
+     * Outcome of a prepare or accept. When nothing changed {@code before == after}.
+     */
+    static final class Transition<R> {
+        final long slot;
+        final R response;
+        final boolean ignored;
+        final Slot before;
+        final Slot after;
+
+        Transition(long slot, R response, boolean ignored, Slot before, Slot after) {
+            this.slot = slot;
+            this.response = response;
+            this.ignored = ignored;
+            this.before = before;
+            this.after = after;
+        }
+
+        boolean changed() {
+            return before != after;
+        }
+    }
+
+    // directory of pages, replaced (never mutated in place) when it grows
+    private volatile AtomicReferenceArray<AtomicReferenceArray<Slot>> pages = new AtomicReferenceArray<>(1);
+
+    private final AtomicLong maxSlot = new AtomicLong(-1);
+
+    // promise for every slot, made by prepareFrom
+    private final AtomicReference<Slot> leader = new AtomicReference<>(INITIAL);
+
+    // first slot kept
+    private final AtomicLong truncatedBelow = new AtomicLong();
+
+    /**
+     * Phase 1b: Prepare/Promise
+     * If the proposal number is higher than any we've seen for the slot, promise not to accept
+     * any proposal with a lower number.
+     */
+    Transition<PromiseResponse> prepare(long slot, long proposalId) {
+        log.info("Received prepare request for slot {} with id: {}", slot, proposalId);
+        if (truncated(slot)) {
+            PromiseResponse ret = new PromiseResponse();
+            ret.setIgnored(true);
+            ret.setPromisedId(leaderPromisedId());
+            return new Transition<>(slot, ret, true, INITIAL, INITIAL);
+        }
+        AtomicReferenceArray<Slot> page = page(slot, false);
+        int offset = offset(slot);
+        while (true) {
+            Slot current = page == null ? INITIAL : page.get(offset);
+            PaxosState state = current.state;
+            long promisedId = Math.max(state.getPromisedId(), leaderPromisedId());
+            PromiseResponse ret = new PromiseResponse();
+            if (state.getAcceptedId() >= 0) {
+                ret.setAcceptedId(state.getAcceptedId());
+                ret.setAcceptedValueBytes(state.getAcceptedValueBytes());
+            }
+
+            if (proposalId <= promisedId) {
+                // not required by paxos but its 'nice' to return
+                ret.setPromisedId(promisedId);
+                ret.setIgnored(true);
+                log.info("Ignoring prepare for slot {} with id: {} (already promised: {})",
+                        slot, proposalId, promisedId);
+                return new Transition<>(slot, ret, true, current, current);
+            }
+
+            if (page == null) {
+                page = page(slot, true);
+                continue;
+            }
+            Slot next = new Slot(new PaxosState(proposalId, state.getAcceptedId(), state.getAcceptedValueBytes()),
+                    new CompletableFuture<>());
+            if (page.compareAndSet(offset, current, next)) {
+                updateMaxSlot(slot);
+                ret.setPromisedId(proposalId);
+                log.info("Promising for slot {} id: {}", slot, proposalId);
+                return new Transition<>(slot, ret, false, current, next);
+            }
+        }
+    }
+
+    /**
+     * Phase 2b: Accept
+     * If the proposal number is at least as high as any we've promised for the slot,
+     * accept the proposal.
+     */
+    Transition<AcceptResponse> acceptRequest(long slot, long proposalId, ByteString value) {
+        log.info("Received accept request for slot {} with id: {}, value: {}", slot, proposalId, Values.sizeOf(value));
+        if (truncated(slot)) {
+            return new Transition<>(slot, AcceptResponse.ignore(leaderPromisedId()), true, INITIAL, INITIAL);
+        }
+        AtomicReferenceArray<Slot> page = page(slot, true);
+        int offset = offset(slot);
+        while (true) {
+            Slot current = page.get(offset);
+            PaxosState state = current.state;
+            long promisedId = Math.max(state.getPromisedId(), leaderPromisedId());
+            if (proposalId < promisedId) {
+                log.info("Ignoring accept for slot {} with id: {} (promised: {})",
+                        slot, proposalId, promisedId);
+                return new Transition<>(slot, AcceptResponse.ignore(promisedId), true, current, current);
+            }
+
+            AcceptResponse ret = AcceptResponse.accept(proposalId, value);
+            PaxosState accepted = new PaxosState(proposalId, proposalId, value);
+            if (accepted.equals(state)) {
+                // repeated accept, nothing to install
+                return new Transition<>(slot, ret, false, current, current);
+            }
+            // this code assumes proposer adheres to protocol and does not send
+            // a different value for the same proposalId even though the code allows it
+            Slot next = new Slot(accepted, new CompletableFuture<>());
+            if (page.compareAndSet(offset, current, next)) {
+                updateMaxSlot(slot);
+                long leaderId = leaderPromisedId();
+                if (leaderId > proposalId) {
+                    return withdraw(page, offset, slot, leaderId, current, next);
+                }
+                log.info("Accepted slot {} id: {}, value: {}", slot, proposalId, Values.sizeOf(value));
+                return new Transition<>(slot, ret, false, current, next);
+            }
+        }
+    }
+
+    /**
+     * A leader promised a higher proposal while an accept was being installed, and its scan of
+     * the slots may have missed the accept. Put the previous state back and ignore the accept.
+     * If a later request already replaced the accepted state it cannot be taken back, it is
+     * still persisted but the accept is answered as ignored, so a proposer never counts it.
+     */
+    private Transition<AcceptResponse> withdraw(AtomicReferenceArray<Slot> page, int offset, long slot,
+                                                long leaderId, Slot before, Slot accepted) {
+        log.info("Withdrawing accept for slot {} with id: {} (leader promised: {})",
+                slot, accepted.state.getAcceptedId(), leaderId);
+        if (page.compareAndSet(offset, accepted, before)) {
+            // requests that saw the withdrawn state fail instead of waiting for it forever
+            accepted.durable.completeExceptionally(
+                    new IllegalStateException("accept for slot " + slot + " was preempted by a leader promise"));
+            return new Transition<>(slot, AcceptResponse.ignore(leaderId), true, before, before);
+        }
+        return new Transition<>(slot, AcceptResponse.ignore(leaderId), true, before, accepted);
+    }
+
+    /**
+     * Multi-Paxos phase 1b: a single promise for every slot, see
+     * {@link PaxosAcceptorService#prepareFrom}. The transition's slot is {@link StateRecord#ALL_SLOTS}.
+     */
+    Transition<LeaderPromiseResponse> prepareFrom(long fromSlot, long proposalId) {
+        log.info("Received leader prepare from slot {} with id: {}", fromSlot, proposalId);
+        while (true) {
+            Slot current = leader.get();
+            LeaderPromiseResponse ret = new LeaderPromiseResponse();
+            if (proposalId <= current.state.getPromisedId()) {
+                log.info("Ignoring leader prepare with id: {} (already promised: {})",
+                        proposalId, current.state.getPromisedId());
+                ret.setIgnored(true);
+                ret.setPromisedId(current.state.getPromisedId());
+                return new Transition<>(StateRecord.ALL_SLOTS, ret, true, current, current);
+            }
+            Slot next = new Slot(new PaxosState(proposalId, -1), new CompletableFuture<>());
+            if (leader.compareAndSet(current, next)) {
+                ret.setPromisedId(proposalId);
+                // read the slots only after the promise is installed, see withdraw
+                forEachSlot(Math.max(fromSlot, truncatedBelow.get()), (slot, state) -> {
+                    if (state.getAcceptedId() >= 0) {
+                        ret.getAccepted().add(new LeaderPromiseResponse.AcceptedSlot(
+                                slot, state.getAcceptedId(), state.getAcceptedValueBytes()));
+                    }
+                });
+                log.info("Promising every slot id: {}, {} accepted slots from slot {}",
+                        proposalId, ret.getAccepted().size(), fromSlot);
+                return new Transition<>(StateRecord.ALL_SLOTS, ret, false, current, next);
+            }
+        }
+    }
+
+    /**
+     * Highest proposal number promised for every slot, -1 if none.
+     */
+    long leaderPromisedId() {
+        return leader.get().state.getPromisedId();
+    }
+
+    /**
+     * Drop every slot below the given one, once all servers have applied them.
+     */
+    synchronized void truncateBelow(long slot) {
+        if (slot <= truncatedBelow.get()) {
+            return;
+        }
+        // requests check the truncation point first, so move it before dropping the pages
+        truncatedBelow.set(slot);
+        AtomicReferenceArray<AtomicReferenceArray<Slot>> directory = pages;
+        int index = (int) Math.min(slot >>> PAGE_BITS, directory.length());
+        for (int i = 0; i < index; i++) {
+            directory.set(i, null);
+        }
+        AtomicReferenceArray<Slot> partial = index < directory.length() ? directory.get(index) : null;
+        if (partial != null) {
+            for (int i = 0; i < offset(slot); i++) {
+                partial.set(i, INITIAL);
+            }
+        }
+        log.info("Truncated slots below {}", slot);
+    }
+
+    /**
+     * First slot kept, 0 if nothing was truncated.
+     */
+    long truncatedBelow() {
+        return truncatedBelow.get();
+    }
+
+    private boolean truncated(long slot) {
+        long first = truncatedBelow.get();
+        // negative slots are rejected when their page is looked up
+        if (slot >= 0 && slot < first) {
+            log.info("Ignoring request for slot {} below the truncation point {}", slot, first);
+            return true;
+        }
+        return false;
+    }
+
+    PaxosState getState(long slot) {
+        AtomicReferenceArray<Slot> page = page(slot, false);
+        PaxosState state = page == null ? INITIAL.state : page.get(offset(slot)).state;
+        long leaderId = leaderPromisedId();
+        return leaderId > state.getPromisedId()
+                ? new PaxosState(leaderId, state.getAcceptedId(), state.getAcceptedValueBytes())
+                : state;
+    }
+
+    /**
+     * Merge persisted state into a slot while loading it from storage, see {@link PaxosState#merge}.
+     */
+    void restoreState(long slot, PaxosState state) {
+        if (slot == StateRecord.ALL_SLOTS) {
+            leader.updateAndGet(current -> new Slot(current.state.merge(state), DURABLE));
+            return;
+        }
+        if (slot == StateRecord.TRUNCATED) {
+            truncateBelow(state.getPromisedId());
+            return;
+        }
+        if (slot < truncatedBelow.get()) {
+            return;
+        }
+        AtomicReferenceArray<Slot> page = page(slot, true);
+        int offset = offset(slot);
+        while (true) {
+            Slot current = page.get(offset);
+            Slot next = new Slot(current.state.merge(state), DURABLE);
+            if (page.compareAndSet(offset, current, next)) {
+                updateMaxSlot(slot);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Highest slot that has ever been prepared or accepted, -1 if none.
+     */
+    long maxSlot() {
+        return maxSlot.get();
+    }
+
+    /**
+     * Visit the state of every slot that holds a promise or an accepted value, the leader
+     * promise as slot {@link StateRecord#ALL_SLOTS} and the truncation point as slot
+     * {@link StateRecord#TRUNCATED}.
+     * Each slot is read atomically, the slots together are not a consistent snapshot.
+     */
+    void forEachSlot(PaxosStateStore.SlotStateConsumer consumer) {
+        long first = truncatedBelow.get();
+        if (first > 0) {
+            consumer.accept(StateRecord.TRUNCATED, new PaxosState(first, -1));
+        }
+        Slot leaderPromise = leader.get();
+        if (leaderPromise != INITIAL) {
+            consumer.accept(StateRecord.ALL_SLOTS, leaderPromise.state);
+        }
+        forEachSlot(first, consumer);
+    }
+
+    private void forEachSlot(long fromSlot, PaxosStateStore.SlotStateConsumer consumer) {
+        AtomicReferenceArray<AtomicReferenceArray<Slot>> directory = pages;
+        for (int index = (int) (fromSlot >>> PAGE_BITS); index < directory.length(); index++) {
+            AtomicReferenceArray<Slot> page = directory.get(index);
+            if (page == null) {
+                continue;
+            }
+            for (int i = 0; i < PAGE_SIZE; i++) {
+                Slot slot = page.get(i);
+                long number = ((long) index << PAGE_BITS) | i;
+                if (slot != INITIAL && number >= fromSlot) {
+                    consumer.accept(number, slot.state);
+                }
+            }
+        }
+    }
+
+    private void updateMaxSlot(long slot) {
+        if (slot > maxSlot.get()) {
+            maxSlot.accumulateAndGet(slot, Math::max);
+        }
+    }
+
+    private static int offset(long slot) {
+        return (int) (slot & PAGE_MASK);
+    }
+
+    private AtomicReferenceArray<Slot> page(long slot, boolean create) {
+        if (slot < 0) {
+            throw new IllegalArgumentException("slot must be non-negative: " + slot);
+        }
+        long index = slot >>> PAGE_BITS;
+        if (index >= Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("slot too large: " + slot);
+        }
+        AtomicReferenceArray<AtomicReferenceArray<Slot>> directory = pages;
+        AtomicReferenceArray<Slot> page = index < directory.length() ? directory.get((int) index) : null;
+        if (page != null || !create) {
+            return page;
+        }
+        return createPage((int) index);
+    }
+
+    /**
+     * Pages are only created when a slot is first written, which is rare enough to take a lock.
+     */
+    private synchronized AtomicReferenceArray<Slot> createPage(int index) {
+        AtomicReferenceArray<AtomicReferenceArray<Slot>> directory = pages;
+        if (index >= directory.length()) {
+            int length = Math.max(index + 1, directory.length() * 2);
+            AtomicReferenceArray<AtomicReferenceArray<Slot>> grown = new AtomicReferenceArray<>(length);
+            for (int i = 0; i < directory.length(); i++) {
+                grown.set(i, directory.get(i));
+            }
+            directory = grown;
+        }
+        AtomicReferenceArray<Slot> page = directory.get(index);
+        if (page == null) {
+            page = new AtomicReferenceArray<>(PAGE_SIZE);
+            for (int i = 0; i < PAGE_SIZE; i++) {
+                page.set(i, INITIAL);
+            }
+            directory.set(index, page);
+        }
+        pages = directory;
+        return page;
+    }
+}
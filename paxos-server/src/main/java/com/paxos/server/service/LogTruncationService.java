@@ -0,0 +1,105 @@
+package com.paxos.server.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Drops the acceptor slots that every server's key-value store has in a durable snapshot.
+ *
+ * A slot may only be dropped once no server will ever need it again: a server that restarts
+ * resumes from its snapshot, and a leader recovering slots never asks below its own snapshot.
+ * So the acceptor is truncated below the lowest snapshot index of all servers, and only when
+ * every server answered; a server that is down holds truncation back until it is up again.
+ */
+@Service
+public class LogTruncationService {
+
+    private static final Logger log = LoggerFactory.getLogger(LogTruncationService.class);
+
+    static final long PEER_TIMEOUT_MILLIS = 1000;
+
+    @Value("${paxos.server.id:0}")
+    private int serverId;
+
+    // how often to look for slots to drop, 0 disables truncation
+    @Value("${paxos.truncate.interval.millis:10000}")
+    private long intervalMillis = 10000;
+
+    private final PersistentPaxosAcceptorService acceptor;
+    private final PaxosForwardingService remoteService;
+    private final KvStateMachine stateMachine;
+
+    private ScheduledExecutorService scheduler;
+
+    public LogTruncationService(PersistentPaxosAcceptorService acceptor, PaxosForwardingService remoteService,
+                                KvStateMachine stateMachine) {
+        this.acceptor = acceptor;
+        this.remoteService = remoteService;
+        this.stateMachine = stateMachine;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (intervalMillis <= 0) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "paxos-truncate-" + serverId);
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::truncateQuietly, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Truncate the acceptor below the lowest snapshot index of all servers.
+     * Returns the acceptor's truncation point afterwards.
+     */
+    public long truncate() throws InterruptedException {
+        long lowest = stateMachine.snapshotIndex();
+        Map<Integer, CompletableFuture<Long>> peers = remoteService.snapshotIndexAsync();
+        for (Map.Entry<Integer, CompletableFuture<Long>> peer : peers.entrySet()) {
+            try {
+                lowest = Math.min(lowest, peer.getValue().get(PEER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+            } catch (ExecutionException | TimeoutException e) {
+                log.debug("Server {} not truncating, no snapshot index from server {}: {}",
+                        serverId, peer.getKey(), e.getMessage());
+                return acceptor.truncatedBelow();
+            }
+        }
+        if (lowest + 1 > acceptor.truncatedBelow()) {
+            acceptor.truncateBelow(lowest + 1);
+            log.info("Server {} truncated acceptor slots below {}", serverId, lowest + 1);
+        }
+        return acceptor.truncatedBelow();
+    }
+
+    private void truncateQuietly() {
+        try {
+            truncate();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            log.warn("Server {} failed to truncate acceptor slots", serverId, e);
+        }
+    }
+}
@@ -0,0 +1,400 @@
+package com.paxos.server.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+import com.paxos.server.grpc.GrpcChannelProvider;
+import com.paxos.server.metrics.PaxosMetrics;
+import com.paxos.server.model.ClusterConfig;
+import com.paxos.server.storage.MembershipStore;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+
+/**
+ * The servers of the pool as a replicated configuration that changes by consensus, with
+ * Lamport's alpha window.
+ *
+ * A change is a value in an envelope ({@link #encode}) that client proposals are not allowed to
+ * start with, chosen in some slot i and applied by the state machine in slot order. It takes
+ * effect from slot i + alpha on: the accepts of every slot need a majority of the
+ * configuration in effect for that slot. Since that configuration only depends on the values
+ * up to alpha slots earlier, a server knows it once it applied those, see {@link #settled};
+ * the leader waits for that before it proposes in a slot, so at most alpha slots are in
+ * flight, and the learner waits before it counts votes.
+ *
+ * Whenever the applied index moves into a new configuration the grpc channels are updated:
+ * servers that joined get a channel, and the channels to servers that left every current or
+ * pending configuration are drained. The configurations are written to {@link MembershipStore}
+ * as they are applied and go into the state machine's snapshots, so a restarted server and one
+ * catching up from a snapshot count quorums like the rest of the pool.
+ *
+ * The pool starts out with paxos.server.members, or servers 1 to paxos.server.count.
+ */
+@Service
+public class MembershipService {
+
+    private static final Logger log = LoggerFactory.getLogger(MembershipService.class);
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    // starts every change, a NUL byte and a tag no JSON command or text value begins with
+    static final ByteString CHANGE_PREFIX = ByteString.copyFrom(new byte[] {0, 'P', 'X', 'M', '1'});
+
+    @Value("${paxos.server.id:0}")
+    private int serverId;
+
+    @Value("${paxos.server.count:1}")
+    private int serverCount = 1;
+
+    // where applied configurations are written, not written if empty
+    @Value("${paxos.server.data.dir:}")
+    private String dataDir;
+
+    // slots between a change being chosen and taking effect, which bounds the slots in flight
+    @Value("${paxos.membership.alpha:64}")
+    private long alpha = 64;
+
+    // how long a proposal waits for the configuration of its slot to be known
+    @Value("${paxos.membership.wait.millis:5000}")
+    private long waitMillis = 5000;
+
+    @Autowired(required = false)
+    private GrpcChannelProvider channels;
+
+    @Autowired(required = false)
+    private PaxosMetrics metrics = PaxosMetrics.noop();
+
+    private final List<LongConsumer> listeners = new CopyOnWriteArrayList<>();
+    private MembershipStore store;
+
+    // guarded by this
+    // every configuration by the slot it takes effect from
+    private final TreeMap<Long, ClusterConfig> configs = new TreeMap<>();
+    // every slot up to here is applied
+    private long appliedIndex = -1;
+    // fromSlot of the configuration the channels were last updated for, and how many were known then
+    private long channelsFrom = -1;
+    private int channelsConfigs;
+
+    public MembershipService() {
+    }
+
+    /**
+     * A pool of members that is not persisted and has no channels, for tests.
+     */
+    MembershipService(int serverId, Map<Integer, String> members, long alpha) {
+        this.serverId = serverId;
+        this.alpha = alpha;
+        this.waitMillis = 100;
+        configs.put(0L, new ClusterConfig(0, members));
+    }
+
+    @PostConstruct
+    public void start() {
+        if (dataDir != null && !dataDir.isBlank()) {
+            store = new MembershipStore(Path.of(dataDir, String.valueOf(serverId)));
+            try {
+                store.load().ifPresent(this::merge);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to load membership " + store, e);
+            }
+        }
+        synchronized (this) {
+            if (configs.isEmpty()) {
+                configs.put(0L, new ClusterConfig(0, initialMembers()));
+            }
+            log.info("Server {} starts with {}, alpha {}", serverId, configs.lastEntry().getValue(), alpha);
+        }
+        updateChannels();
+        metrics.gauge("paxos.membership.members", "Servers in the configuration of the next slot to apply",
+                this, membership -> membership.configFor(membership.appliedIndex() + 1).getMembers().size());
+    }
+
+    /**
+     * Value that changes the pool to members once chosen: the envelope prefix and the members as JSON.
+     */
+    public static ByteString encode(Map<Integer, String> members) {
+        validate(members);
+        try {
+            byte[] json = objectMapper.writeValueAsBytes(Map.of("members", new TreeMap<>(members)));
+            return CHANGE_PREFIX.concat(UnsafeByteOperations.unsafeWrap(json));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to encode members " + members, e);
+        }
+    }
+
+    /**
+     * Whether value is in the envelope of a change. Proposers refuse such values from clients,
+     * only {@link LeaderService#reconfigure} proposes them.
+     */
+    public static boolean isChange(ByteString value) {
+        return value != null && value.startsWith(CHANGE_PREFIX);
+    }
+
+    /**
+     * Fail unless members can make up a pool: at least one, every one with a positive id and an address.
+     */
+    static void validate(Map<Integer, String> members) {
+        if (members == null || members.isEmpty()) {
+            throw new IllegalStateException("A configuration needs at least one member");
+        }
+        members.forEach((id, address) -> {
+            if (id == null || id <= 0 || address == null || address.isBlank()) {
+                throw new IllegalStateException("A member needs a positive id and a host:port address, not "
+                        + id + "=" + address);
+            }
+        });
+    }
+
+    public long alpha() {
+        return alpha;
+    }
+
+    public synchronized long appliedIndex() {
+        return appliedIndex;
+    }
+
+    /**
+     * The configuration in effect for slot, as far as this server applied changes.
+     */
+    public synchronized ClusterConfig configFor(long slot) {
+        Map.Entry<Long, ClusterConfig> entry = configs.floorEntry(slot);
+        return entry != null ? entry.getValue() : configs.firstEntry().getValue();
+    }
+
+    /**
+     * The configuration in effect for slot if the values not applied yet are chosen too, e.g.
+     * the ones a new leader recovers.
+     */
+    public synchronized ClusterConfig configFor(long slot, Map<Long, ByteString> unapplied) {
+        TreeMap<Long, ClusterConfig> with = new TreeMap<>(configs);
+        unapplied.forEach((changeSlot, value) -> {
+            Map<Integer, String> members = changeSlot > appliedIndex ? decode(value) : null;
+            if (members != null) {
+                with.put(changeSlot + alpha, new ClusterConfig(changeSlot + alpha, members));
+            }
+        });
+        Map.Entry<Long, ClusterConfig> entry = with.floorEntry(slot);
+        return entry != null ? entry.getValue() : with.firstEntry().getValue();
+    }
+
+    /**
+     * The configuration in effect for slot and every later one known, a quorum of all of them
+     * covers any slot from slot on.
+     */
+    public synchronized List<ClusterConfig> configsFrom(long slot) {
+        List<ClusterConfig> ret = new ArrayList<>();
+        ret.add(configFor(slot));
+        ret.addAll(configs.tailMap(slot, false).values());
+        return ret;
+    }
+
+    /**
+     * The newest configuration, which may not be in effect yet.
+     */
+    public synchronized ClusterConfig latest() {
+        return configs.lastEntry().getValue();
+    }
+
+    /**
+     * Every configuration, oldest first.
+     */
+    public synchronized List<ClusterConfig> configs() {
+        return new ArrayList<>(configs.values());
+    }
+
+    /**
+     * Whether the configuration of slot is known here, every change that can affect it is applied.
+     */
+    public synchronized boolean settled(long slot) {
+        return slot - alpha <= appliedIndex;
+    }
+
+    /**
+     * Wait until the configuration of slot is known.
+     */
+    public synchronized void awaitSettled(long slot) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(waitMillis);
+        while (!settled(slot)) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new IllegalStateException("Configuration of slot " + slot + " not known within " + waitMillis
+                        + "ms, applied up to slot " + appliedIndex + " with alpha " + alpha);
+            }
+            try {
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted waiting for the configuration of slot " + slot, e);
+            }
+        }
+    }
+
+    /**
+     * Called with the applied index whenever it moved. Must not block.
+     */
+    public void onApplied(LongConsumer listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Members of the newest configuration plus server id at address.
+     */
+    public synchronized Map<Integer, String> adding(int id, String address) {
+        if (id <= 0 || address == null || address.isBlank()) {
+            throw new IllegalStateException("A member needs a positive id and a host:port address");
+        }
+        Map<Integer, String> members = new TreeMap<>(latest().getMembers());
+        if (address.equals(members.get(id))) {
+            throw new IllegalStateException("Server " + id + " is already a member at " + address);
+        }
+        members.put(id, address);
+        return members;
+    }
+
+    /**
+     * Members of the newest configuration without server id.
+     */
+    public synchronized Map<Integer, String> removing(int id) {
+        Map<Integer, String> members = new TreeMap<>(latest().getMembers());
+        if (members.remove(id) == null) {
+            throw new IllegalStateException("Server " + id + " is not a member");
+        }
+        if (members.isEmpty()) {
+            throw new IllegalStateException("The last member cannot be removed");
+        }
+        return members;
+    }
+
+    /**
+     * A value chosen in slot is applied, called by the state machine in slot order. Changes are
+     * durable before this returns, a change with members that cannot make up a pool is skipped
+     * like any other value that is not one.
+     */
+    public void apply(long slot, ByteString value) {
+        Map<Integer, String> members = decode(value);
+        if (members == null) {
+            if (isChange(value)) {
+                log.warn("Server {} skipping invalid change in slot {}", serverId, slot);
+            }
+            return;
+        }
+        ClusterConfig config = new ClusterConfig(slot + alpha, members);
+        synchronized (this) {
+            if (configs.containsKey(config.getFromSlot())) {
+                return;
+            }
+            configs.put(config.getFromSlot(), config);
+            persist();
+        }
+        log.info("Server {} applied change in slot {} to {}", serverId, slot, config);
+    }
+
+    /**
+     * Every slot up to index is applied.
+     */
+    public void applied(long index) {
+        synchronized (this) {
+            if (index <= appliedIndex) {
+                return;
+            }
+            appliedIndex = index;
+            notifyAll();
+        }
+        updateChannels();
+        listeners.forEach(listener -> listener.accept(index));
+    }
+
+    /**
+     * Take over the configurations of a snapshot at index, installed or restored by the state machine.
+     */
+    public void install(long index, List<ClusterConfig> snapshotConfigs) {
+        synchronized (this) {
+            merge(snapshotConfigs);
+            persist();
+        }
+        applied(index);
+    }
+
+    private Map<Integer, String> initialMembers() {
+        if (channels != null) {
+            return channels.initialMembers();
+        }
+        Map<Integer, String> members = new TreeMap<>();
+        for (int i = 1; i <= serverCount; i++) {
+            members.put(i, "localhost:" + i);
+        }
+        return members;
+    }
+
+    // configurations of one pool are prefixes of the same sequence, so merging keeps every one known
+    private synchronized void merge(List<ClusterConfig> known) {
+        for (ClusterConfig config : known) {
+            configs.putIfAbsent(config.getFromSlot(), config);
+        }
+    }
+
+    // guarded by this
+    private void persist() {
+        if (store == null) {
+            return;
+        }
+        try {
+            store.write(new ArrayList<>(configs.values()));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write membership " + store, e);
+        }
+    }
+
+    /**
+     * Channels to the members of the configuration in effect for the next slot to apply and of
+     * every later one, the others are drained.
+     */
+    private void updateChannels() {
+        Map<Integer, String> members = new TreeMap<>();
+        synchronized (this) {
+            Long floor = configs.floorKey(appliedIndex + 1);
+            long from = floor != null ? floor : configs.firstKey();
+            if (from == channelsFrom && configs.size() == channelsConfigs) {
+                return;
+            }
+            channelsFrom = from;
+            channelsConfigs = configs.size();
+            configs.tailMap(from, true).values().forEach(config -> members.putAll(config.getMembers()));
+        }
+        if (channels != null) {
+            channels.setMembers(members);
+        }
+    }
+
+    // the members of a valid change, null for any other value
+    private static Map<Integer, String> decode(ByteString value) {
+        if (!isChange(value)) {
+            return null;
+        }
+        try (InputStream in = value.substring(CHANGE_PREFIX.size()).newInput()) {
+            Map<Integer, String> members = objectMapper.readValue(in, ClusterConfig.class).getMembers();
+            validate(members);
+            return members;
+        } catch (IOException | IllegalStateException e) {
+            log.debug("Not a valid membership change: {}", e.getMessage());
+            return null;
+        }
+    }
+}
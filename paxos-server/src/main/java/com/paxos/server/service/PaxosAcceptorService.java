@@ -1,23 +1,31 @@
 package com.paxos.server.service;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.protobuf.ByteString;
 import com.paxos.server.model.AcceptResponse;
+import com.paxos.server.model.LeaderPromiseResponse;
 import com.paxos.server.model.PaxosState;
 import com.paxos.server.model.PromiseResponse;
-import jakarta.annotation.PostConstruct;
-import jakarta.annotation.PreDestroy;
+import com.paxos.server.model.Values;
+import com.paxos.server.storage.PaxosStateStore;
+import com.paxos.server.storage.StateRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.io.File;
-import java.io.IOException;
-import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Paxos Acceptor implementation.
  * Handles the acceptor role in the Paxos consensus protocol.
+ * Each slot (paxos instance) is an independent register with its own
+ * promisedId/acceptedId/acceptedValue, so a stream of values can be decided one slot
+ * after the other. The methods without a slot operate on slot 0.
+ * A leader's promise from {@link #prepareFrom} covers every slot at once, the promisedId
+ * of a slot is the higher of its own promise and the leader's.
+ * Slots below the truncation point ({@link #truncateBelow}) are dropped and every request
+ * for them is ignored.
  * Note that this class assumes that proposers are adhering to the
  * paxos protocol and not sending invalid prepare or acceptRequest commands.
  */
@@ -26,31 +34,46 @@ public class PaxosAcceptorService {
 
     private static final Logger log = LoggerFactory.getLogger(PaxosAcceptorService.class);
 
-    // Highest proposal number promised
-    private long promisedId = -1;
-    
-    // Highest proposal number accepted
-    private long acceptedId = -1;
-    
-    // Value associated with the accepted proposal
-    private String acceptedValue = null;
+    // Per slot: highest proposal number promised, highest proposal number accepted
+    // and the value associated with the accepted proposal
+    private final SlotTable slots = new SlotTable();
+
+    // highest proposal number promised for every slot by prepareFrom
+    private long leaderPromisedId = -1;
+
+    // first slot kept, the ones below were applied by every server
+    private long truncatedBelow = 0;
+
+    public PromiseResponse prepare(long proposalId) {
+        return prepare(0, proposalId);
+    }
+
+    public AcceptResponse acceptRequest(long proposalId, String value) {
+        return acceptRequest(0, proposalId, value);
+    }
+
+    public PaxosState getState() {
+        return getState(0);
+    }
 
     /**
      * Phase 1b: Prepare/Promise
-     * If the proposal number is higher than any we've seen, promise not to accept
+     * If the proposal number is higher than any we've seen for the slot, promise not to accept
      * any proposal with a lower number.
      */
-    public synchronized PromiseResponse prepare(long proposalId) {
-        log.info("Received prepare request with id: {}", proposalId);
+    public synchronized PromiseResponse prepare(long slot, long proposalId) {
+        log.info("Received prepare request for slot {} with id: {}", slot, proposalId);
+        long promisedId = promisedId(slot);
+        long acceptedId = slots.acceptedId(slot);
         PromiseResponse ret = new PromiseResponse();
-        if (proposalId > promisedId) {
+        if (proposalId > promisedId && !truncated(slot)) {
             ret.setPromisedId(proposalId);
-            promisedId = proposalId;
-            log.info("Promising for id: {}", proposalId);
+            slots.setPromisedId(slot, proposalId);
+            log.info("Promising for slot {} id: {}", slot, proposalId);
             // when promising proposalId, return previously highest acceptedId and value
             if (acceptedId >= 0) {
                 ret.setAcceptedId(acceptedId);
-                ret.setAcceptedValue(acceptedValue);
+                ret.setAcceptedValueBytes(slots.acceptedValue(slot));
             }
         } else {
             if (promisedId >= 0) {
@@ -60,46 +83,182 @@ public class PaxosAcceptorService {
             if (acceptedId >= 0) {
                 // not required by paxos but its 'nice' to return
                 ret.setAcceptedId(acceptedId);
-                ret.setAcceptedValue(acceptedValue);
+                ret.setAcceptedValueBytes(slots.acceptedValue(slot));
             }
-            log.info("Ignoring prepare with id: {} (already promised: {})",
-                    proposalId, promisedId);
+            log.info("Ignoring prepare for slot {} with id: {} (already promised: {})",
+                    slot, proposalId, promisedId);
             ret.setIgnored(true);
         }
         return ret;
     }
 
+    /**
+     * Accept of a text value, as its UTF-8 bytes.
+     */
+    public AcceptResponse acceptRequest(long slot, long proposalId, String value) {
+        return acceptRequest(slot, proposalId, Values.of(value));
+    }
+
     /**
      * Phase 2b: Accept
-     * If the proposal number is at least as high as any we've promised,
-     * accept the proposal.
+     * If the proposal number is at least as high as any we've promised for the slot,
+     * accept the proposal. The value is kept as given, not copied.
      */
-    public synchronized AcceptResponse acceptRequest(long proposalId, String value) {
-        log.info("Received accept request with id: {}, value: {}",
-                proposalId, value);
+    public synchronized AcceptResponse acceptRequest(long slot, long proposalId, ByteString value) {
+        log.info("Received accept request for slot {} with id: {}, value: {}",
+                slot, proposalId, Values.sizeOf(value));
 
-        if (proposalId >= promisedId) {
+        long promisedId = promisedId(slot);
+        if (proposalId >= promisedId && !truncated(slot)) {
             // this code assumes proposer adheres to protocol and does not send
             // a different value for the same proposalId even though the code allows it
-            promisedId = proposalId;
-            acceptedId = proposalId;
-            acceptedValue = value;
-            log.info("Accepted id: {}, value: {}", proposalId, value);
-            return AcceptResponse.accept(acceptedId, acceptedValue);
+            slots.setPromisedId(slot, proposalId);
+            slots.setAccepted(slot, proposalId, value);
+            log.info("Accepted slot {} id: {}, value: {}", slot, proposalId, Values.sizeOf(value));
+            return AcceptResponse.accept(proposalId, value);
         } else {
-            log.info("Ignoring accept with id: {} (promised: {})",
-                    proposalId, promisedId);
-            return AcceptResponse.ignore();
+            log.info("Ignoring accept for slot {} with id: {} (promised: {})",
+                    slot, proposalId, promisedId);
+            return AcceptResponse.ignore(promisedId);
+        }
+    }
+
+    /**
+     * Multi-Paxos phase 1b: a single promise for every slot.
+     * If the proposal number is higher than any leader promise made so far, promise not to
+     * accept a lower proposal in any slot, and return every accepted proposal at or above
+     * fromSlot. Slots that promised a higher number on their own keep that promise, an accept
+     * from the leader there is ignored and reports the competing promise.
+     */
+    public synchronized LeaderPromiseResponse prepareFrom(long fromSlot, long proposalId) {
+        log.info("Received leader prepare from slot {} with id: {}", fromSlot, proposalId);
+        LeaderPromiseResponse ret = new LeaderPromiseResponse();
+        if (proposalId <= leaderPromisedId) {
+            log.info("Ignoring leader prepare with id: {} (already promised: {})", proposalId, leaderPromisedId);
+            ret.setIgnored(true);
+            ret.setPromisedId(leaderPromisedId);
+            return ret;
         }
+        leaderPromisedId = proposalId;
+        ret.setPromisedId(proposalId);
+        slots.forEach(Math.max(fromSlot, truncatedBelow), (slot, promisedId, acceptedId, acceptedValue) -> {
+            if (acceptedId >= 0) {
+                ret.getAccepted().add(new LeaderPromiseResponse.AcceptedSlot(slot, acceptedId, acceptedValue));
+            }
+        });
+        log.info("Promising every slot id: {}, {} accepted slots from slot {}",
+                proposalId, ret.getAccepted().size(), fromSlot);
+        return ret;
+    }
+
+    public synchronized PaxosState getState(long slot) {
+        return new PaxosState(promisedId(slot), slots.acceptedId(slot), slots.acceptedValue(slot));
     }
 
-    public synchronized PaxosState getState() {
-        return new PaxosState(promisedId, acceptedId, acceptedValue);
+    /**
+     * Highest proposal number promised for every slot, -1 if none.
+     */
+    public synchronized long leaderPromisedId() {
+        return leaderPromisedId;
+    }
+
+    /**
+     * Drop every slot below the given one, once all servers have applied them.
+     */
+    public synchronized void truncateBelow(long slot) {
+        if (slot <= truncatedBelow) {
+            return;
+        }
+        slots.truncateBelow(slot);
+        truncatedBelow = slot;
+        log.info("Truncated slots below {}", slot);
     }
 
-    synchronized void setState(PaxosState state) {
-        this.promisedId = state.getPromisedId();
-        this.acceptedId = state.getAcceptedId();
-        this.acceptedValue = state.getAcceptedValue();
+    /**
+     * First slot kept, 0 if nothing was truncated.
+     */
+    public synchronized long truncatedBelow() {
+        return truncatedBelow;
+    }
+
+    private long promisedId(long slot) {
+        return Math.max(slots.promisedId(slot), leaderPromisedId);
+    }
+
+    private boolean truncated(long slot) {
+        if (slot < truncatedBelow) {
+            log.info("Ignoring request for slot {} below the truncation point {}", slot, truncatedBelow);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Merge persisted state into a slot while loading it from storage.
+     * The merge is monotonic: the promisedId only goes up and an accepted proposal
+     * only replaces one with a lower or equal id, so replaying records in any order
+     * (or more than once) yields the latest state.
+     */
+    synchronized void restoreState(long slot, PaxosState state) {
+        if (slot == StateRecord.ALL_SLOTS) {
+            leaderPromisedId = Math.max(leaderPromisedId, state.getPromisedId());
+            return;
+        }
+        if (slot == StateRecord.TRUNCATED) {
+            truncateBelow(state.getPromisedId());
+            return;
+        }
+        if (slot < truncatedBelow) {
+            return;
+        }
+        if (state.getPromisedId() > slots.promisedId(slot)) {
+            slots.setPromisedId(slot, state.getPromisedId());
+        }
+        if (state.getAcceptedId() >= 0 && state.getAcceptedId() >= slots.acceptedId(slot)) {
+            slots.setAccepted(slot, state.getAcceptedId(), state.getAcceptedValueBytes());
+        }
+    }
+
+    /**
+     * Highest slot that has ever been prepared or accepted, -1 if none.
+     */
+    public synchronized long maxSlot() {
+        return slots.maxSlot();
+    }
+
+    /**
+     * Visit the state of every slot that holds a promise or an accepted value, the leader
+     * promise as slot {@link StateRecord#ALL_SLOTS} and the truncation point as slot
+     * {@link StateRecord#TRUNCATED}.
+     * The lock is taken for one page of slots at a time and released while the consumer
+     * runs, so a checkpoint does not hold up requests. Each page is read atomically, the
+     * slots together are not a consistent snapshot.
+     */
+    void forEachSlot(PaxosStateStore.SlotStateConsumer consumer) {
+        List<Map.Entry<Long, PaxosState>> batch = new ArrayList<>();
+        long from;
+        synchronized (this) {
+            if (truncatedBelow > 0) {
+                batch.add(Map.entry(StateRecord.TRUNCATED, new PaxosState(truncatedBelow, -1)));
+            }
+            if (leaderPromisedId >= 0) {
+                batch.add(Map.entry(StateRecord.ALL_SLOTS, new PaxosState(leaderPromisedId, -1)));
+            }
+            from = truncatedBelow;
+        }
+        while (true) {
+            batch.forEach(entry -> consumer.accept(entry.getKey(), entry.getValue()));
+            batch.clear();
+            synchronized (this) {
+                from = Math.max(from, truncatedBelow);
+                if (from > slots.maxSlot()) {
+                    return;
+                }
+                long to = from + SlotTable.PAGE_SIZE;
+                slots.forEach(from, to, (slot, promisedId, acceptedId, acceptedValue) ->
+                        batch.add(Map.entry(slot, new PaxosState(promisedId, acceptedId, acceptedValue))));
+                from = to;
+            }
+        }
     }
 }
@@ -1,27 +1,82 @@
 package com.paxos.server.service;
 
-import com.google.protobuf.Empty;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.protobuf.ByteString;
 import com.paxos.server.grpc.GrpcChannelProvider;
+import com.paxos.server.grpc.PeerStream;
+import com.paxos.server.grpc.ProtoMapper;
 import com.paxos.server.grpc.proto.AcceptRequestMessage;
+import com.paxos.server.grpc.proto.DecidedRequest;
+import com.paxos.server.grpc.proto.DecidedValue;
+import com.paxos.server.grpc.proto.InstallSnapshotRequest;
+import com.paxos.server.grpc.proto.LearnRequest;
+import com.paxos.server.grpc.proto.LeaseRequest;
 import com.paxos.server.grpc.proto.PaxosServiceGrpc;
+import com.paxos.server.grpc.proto.PeerRequest;
+import com.paxos.server.grpc.proto.PeerResponse;
+import com.paxos.server.grpc.proto.PrepareFromRequest;
 import com.paxos.server.grpc.proto.PrepareRequest;
-import com.paxos.server.grpc.proto.PrepareResponse;
+import com.paxos.server.grpc.proto.SnapshotChunk;
+import com.paxos.server.grpc.proto.SnapshotIndexRequest;
+import com.paxos.server.grpc.proto.SnapshotIndexResponse;
+import com.paxos.server.grpc.proto.StateRequest;
+import com.paxos.server.metrics.PaxosMetrics;
 import com.paxos.server.model.AcceptResponse;
+import com.paxos.server.model.ChosenValue;
+import com.paxos.server.model.LeaderPromiseResponse;
+import com.paxos.server.model.LeaseResponse;
 import com.paxos.server.model.PaxosState;
+import com.paxos.server.model.PeerStatus;
 import com.paxos.server.model.PromiseResponse;
+import com.paxos.server.storage.KvSnapshotStore;
 import io.grpc.ManagedChannel;
+import io.grpc.Status;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
 /**
  * Paxos forwarding service.
- * Sends prepare/accept request to other participants in consensus pool
+ * Sends prepare/accept request to other participants in consensus pool.
+ * All peers are contacted at once, so a broadcast costs roughly one round trip to the
+ * slowest peer rather than the sum of all of them.
+ * By default requests travel on one long-lived {@link PeerStream} per peer, which lets any
+ * number of requests be in flight without per-call overhead. With
+ * paxos.server.peer.transport=unary every request is a separate call on a grpc future stub.
+ *
+ * Every request has a deadline derived from the peer's recent latency and goes through the
+ * peer's circuit breaker ({@link PeerHealth}), so a hung or dead peer costs a bounded wait and
+ * then nothing at all until a probe or a ping finds it answering again.
+ *
+ * The peers are the servers {@link GrpcChannelProvider} has channels to, which follow the
+ * membership; the stream to a server that left is closed when its channel is drained.
  */
 @Service
 public class PaxosForwardingService {
@@ -31,125 +86,401 @@ public class PaxosForwardingService {
     @Value("${paxos.server.id:0}")
     private int serverId;
 
-    @Value("${paxos.server.count}")
-    private int serverCount;
-
     @Autowired
     private GrpcChannelProvider grpcChannelProvider;
 
+    @Autowired
+    private PaxosMetrics metrics;
+
+    @Autowired
+    private PeerMonitor peerMonitor;
+
+    @Value("${paxos.server.peer.transport:stream}")
+    private String transport;
+
+    @Value("${paxos.peer.deadline.min.millis:100}")
+    private long minDeadlineMillis = 100;
+
+    @Value("${paxos.peer.deadline.max.millis:5000}")
+    private long maxDeadlineMillis = 5000;
+
+    // deadline as a multiple of the peer's p99 latency
+    @Value("${paxos.peer.deadline.multiplier:3}")
+    private double deadlineMultiplier = 3;
+
+    // consecutive failures that open a peer's circuit, 0 never opens it
+    @Value("${paxos.peer.breaker.failures:5}")
+    private int breakerFailures = 5;
+
+    // how long an open circuit rejects requests before a probe is let through
+    @Value("${paxos.peer.breaker.open.millis:1000}")
+    private long breakerOpenMillis = 1000;
+
+    private final Map<Integer, PeerStream> streams = new ConcurrentHashMap<>();
+    private final Map<Integer, PeerHealth> health = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void start() {
+        // pings are the probes of open circuits
+        peerMonitor.onPong(peer -> health(peer).reachable());
+        grpcChannelProvider.onDrain(peer -> {
+            PeerStream stream = streams.remove(peer);
+            if (stream != null) {
+                stream.close();
+            }
+            health.remove(peer);
+        });
+    }
+
+    @PreDestroy
+    public void close() {
+        streams.values().forEach(PeerStream::close);
+    }
+
     /**
-     * Send prepare request to other servers in pool
+     * Send prepare request to other servers in pool without waiting for the responses.
+     * quorum is the caller's, see {@link #fanOut}, null if it waits for every server.
+     * Returns a map of server id to the pending response.
      */
-    public Map<Integer, PromiseResponse> prepare(long proposalId) {
-        Map<Integer, PromiseResponse> responses = new HashMap<>();
-        
-        for (int i = 1; i <= serverCount; i++) {
-            if (i == serverId) {
-                continue;
-            }
-            
-            try {
-                ManagedChannel channel = grpcChannelProvider.getChannel(i);
-                
-                PaxosServiceGrpc.PaxosServiceBlockingStub stub = PaxosServiceGrpc.newBlockingStub(channel);
-                
-                PrepareRequest request = PrepareRequest.newBuilder()
-                        .setId(proposalId)
-                        .build();
-                
-                PrepareResponse grpcResponse = stub.prepare(request);
-                
-                PromiseResponse promiseResponse = new PromiseResponse();
-                promiseResponse.setIgnored(grpcResponse.getIgnored());
-                promiseResponse.setPromisedId(grpcResponse.getPromisedId());
-                if (grpcResponse.getHasAcceptedValue()) {
-                    promiseResponse.setAcceptedId(grpcResponse.getAcceptedId());
-                    promiseResponse.setAcceptedValue(grpcResponse.getAcceptedValue());
+    public Map<Integer, CompletableFuture<PromiseResponse>> prepareAsync(long slot, long proposalId,
+                                                                         Predicate<Collection<Integer>> quorum) {
+        PrepareRequest request = PrepareRequest.newBuilder()
+                .setSlot(slot)
+                .setId(proposalId)
+                .build();
+
+        return fanOut("prepare", quorum, stub -> stub.prepare(request),
+                peerRequest -> peerRequest.setPrepare(request), PeerResponse::getPrepare,
+                ProtoMapper::fromProto);
+    }
+
+    /**
+     * Send a leader prepare covering every slot to other servers in pool without waiting for the responses.
+     * quorum is the caller's, like for {@link #prepareAsync}.
+     * Returns a map of server id to the pending response.
+     */
+    public Map<Integer, CompletableFuture<LeaderPromiseResponse>> prepareFromAsync(
+            long fromSlot, long proposalId, Predicate<Collection<Integer>> quorum) {
+        PrepareFromRequest request = PrepareFromRequest.newBuilder()
+                .setFromSlot(fromSlot)
+                .setId(proposalId)
+                .build();
+
+        return fanOut("prepareFrom", quorum, stub -> stub.prepareFrom(request),
+                peerRequest -> peerRequest.setPrepareFrom(request), PeerResponse::getPrepareFrom,
+                ProtoMapper::fromProto);
+    }
+
+    /**
+     * Ask the other servers in pool for a leader lease without waiting for the responses.
+     * quorum is the caller's, like for {@link #prepareAsync}.
+     * Returns a map of server id to the pending response.
+     */
+    public Map<Integer, CompletableFuture<LeaseResponse>> leaseAsync(int serverId, long proposalId, long durationMillis,
+                                                                    Predicate<Collection<Integer>> quorum) {
+        LeaseRequest request = LeaseRequest.newBuilder()
+                .setServerId(serverId)
+                .setId(proposalId)
+                .setDurationMillis(durationMillis)
+                .build();
+
+        return fanOut("lease", quorum, stub -> stub.lease(request),
+                peerRequest -> peerRequest.setLease(request), PeerResponse::getLease,
+                ProtoMapper::fromProto);
+    }
+
+    /**
+     * Tell the learners of the other servers in pool that this server's acceptor accepted a value,
+     * without waiting for the responses.
+     */
+    public Map<Integer, CompletableFuture<Void>> learnAsync(int serverId, long slot, long proposalId, ByteString value) {
+        LearnRequest request = LearnRequest.newBuilder()
+                .setServerId(serverId)
+                .setSlot(slot)
+                .setId(proposalId)
+                .setValue(value)
+                .build();
+
+        return fanOut("learn", null, stub -> stub.learn(request),
+                peerRequest -> peerRequest.setLearn(request), PeerResponse::getLearn,
+                response -> null);
+    }
+
+    /**
+     * Ask the other servers in pool for the last slot in their key-value snapshot without waiting for the responses.
+     * Returns a map of server id to the pending response.
+     */
+    public Map<Integer, CompletableFuture<Long>> snapshotIndexAsync() {
+        SnapshotIndexRequest request = SnapshotIndexRequest.getDefaultInstance();
+
+        return fanOut("snapshotIndex", null, stub -> stub.snapshotIndex(request),
+                peerRequest -> peerRequest.setSnapshotIndex(request), PeerResponse::getSnapshotIndex,
+                SnapshotIndexResponse::getIndex);
+    }
+
+    /**
+     * Stream the key-value snapshot of a server into the transfer, on its own call next to the
+     * peer stream. Blocks until the last chunk arrived; returns the number of bytes received.
+     */
+    public long installSnapshot(int peer, KvSnapshotStore.Transfer transfer, long timeoutMillis) throws IOException {
+        long start = metrics.start();
+        boolean success = false;
+        try {
+            Iterator<SnapshotChunk> chunks = PaxosServiceGrpc.newBlockingStub(grpcChannelProvider.getChannel(peer))
+                    .withDeadlineAfter(timeoutMillis, TimeUnit.MILLISECONDS)
+                    .installSnapshot(InstallSnapshotRequest.getDefaultInstance());
+            while (chunks.hasNext()) {
+                SnapshotChunk chunk = chunks.next();
+                if (chunk.getOffset() != transfer.bytes()) {
+                    throw new IOException("Snapshot chunk from server " + peer + " at offset " + chunk.getOffset()
+                            + ", expected " + transfer.bytes());
                 }
-                
-                responses.put(i, promiseResponse);
-                log.info("Received prepare response from server {}: ignored={}", i, promiseResponse.isIgnored());
-                
-            } catch (Exception e) {
-                log.warn("Failed to send prepare request to server {}: {}", i, e.getMessage());
+                transfer.write(chunk.getData().asReadOnlyByteBuffer());
             }
+            success = true;
+            return transfer.bytes();
+        } finally {
+            metrics.recordPeerRpc(peer, "installSnapshot", success, start);
         }
-        log.info("Total prepared responses: {}", responses.size());
-        return responses;
     }
 
     /**
-     * Send accept request to other servers in pool
+     * Up to limit of the values a server decided from fromSlot on, in slot order, on their own
+     * unary call. Blocks until they arrived.
      */
-    public Map<Integer, AcceptResponse> acceptRequest(long proposalId, String value) {
-        Map<Integer, AcceptResponse> responses = new HashMap<>();
-
-        for (int i = 1; i <= serverCount; i++) {
-            if (i == serverId) {
-                continue;
+    public List<ChosenValue> decided(int peer, long fromSlot, int limit, long timeoutMillis) {
+        long start = metrics.start();
+        boolean success = false;
+        try {
+            DecidedRequest request = DecidedRequest.newBuilder()
+                    .setFromSlot(fromSlot)
+                    .setLimit(limit)
+                    .build();
+            List<ChosenValue> ret = new ArrayList<>();
+            for (DecidedValue value : PaxosServiceGrpc.newBlockingStub(grpcChannelProvider.getChannel(peer))
+                    .withDeadlineAfter(timeoutMillis, TimeUnit.MILLISECONDS)
+                    .decided(request)
+                    .getValuesList()) {
+                ret.add(ProtoMapper.fromProto(value));
             }
+            success = true;
+            return ret;
+        } finally {
+            metrics.recordPeerRpc(peer, "decided", success, start);
+        }
+    }
 
-            try {
-                ManagedChannel channel = grpcChannelProvider.getChannel(i);
-
-                PaxosServiceGrpc.PaxosServiceBlockingStub stub = PaxosServiceGrpc.newBlockingStub(channel);
+    /**
+     * Send accept request to other servers in pool without waiting for the responses.
+     * Every peer is sent the same message, which refers to value without copying it.
+     * quorum is the caller's, like for {@link #prepareAsync}.
+     * Returns a map of server id to the pending response.
+     */
+    public Map<Integer, CompletableFuture<AcceptResponse>> acceptRequestAsync(
+            long slot, long proposalId, ByteString value, Predicate<Collection<Integer>> quorum) {
+        AcceptRequestMessage request = AcceptRequestMessage.newBuilder()
+                .setSlot(slot)
+                .setId(proposalId)
+                .setValue(value)
+                .build();
 
-                AcceptRequestMessage request = AcceptRequestMessage.newBuilder()
-                        .setId(proposalId)
-                        .setValue(value)
-                        .build();
+        return fanOut("accept", quorum, stub -> stub.acceptRequest(request),
+                peerRequest -> peerRequest.setAccept(request), PeerResponse::getAccept,
+                ProtoMapper::fromProto);
+    }
 
-                com.paxos.server.grpc.proto.AcceptResponse grpcResponse = stub.acceptRequest(request);
+    /**
+     * Request paxos state from other servers in pool without waiting for the responses.
+     * Returns a map of server id to the pending response.
+     */
+    public Map<Integer, CompletableFuture<PaxosState>> getStateAsync(long slot) {
+        StateRequest request = StateRequest.newBuilder()
+                .setSlot(slot)
+                .build();
 
-                AcceptResponse acceptResp = new AcceptResponse();
-                acceptResp.setIgnored(grpcResponse.getIgnored());
-                acceptResp.setAcceptedId(grpcResponse.getAcceptedId());
-                acceptResp.setAcceptedValue(grpcResponse.getAcceptedValue());
+        return fanOut("state", null, stub -> stub.state(request),
+                peerRequest -> peerRequest.setState(request), PeerResponse::getState,
+                ProtoMapper::fromProto);
+    }
 
-                responses.put(i, acceptResp);
-                log.info("Received accept response from server {}: ignored={}", i, acceptResp.isIgnored());
+    /**
+     * The other servers requests go to, by id.
+     */
+    public List<Integer> peers() {
+        return grpcChannelProvider.peers();
+    }
 
-            } catch (Exception e) {
-                log.warn("Failed to send accept request to server {}: {}", i, e.getMessage());
-            }
+    /**
+     * Circuit and deadline of every peer, by server id.
+     */
+    public Map<Integer, PeerStatus> peerStatus() {
+        Map<Integer, PeerStatus> ret = new TreeMap<>();
+        for (int i : grpcChannelProvider.peers()) {
+            ret.put(i, health(i).status(peerMonitor.phi(i), peerMonitor.isSuspected(i),
+                    peerMonitor.sinceLastPongMillis(i)));
         }
+        return ret;
+    }
+
+    /**
+     * Send prepare request to other servers in pool
+     */
+    public Map<Integer, PromiseResponse> prepare(long slot, long proposalId) {
+        Map<Integer, PromiseResponse> responses = collect(prepareAsync(slot, proposalId, null), "prepare");
+        log.info("Total prepared responses: {}", responses.size());
+        return responses;
+    }
+
+    /**
+     * Send accept request to other servers in pool
+     */
+    public Map<Integer, AcceptResponse> acceptRequest(long slot, long proposalId, ByteString value) {
+        Map<Integer, AcceptResponse> responses = collect(acceptRequestAsync(slot, proposalId, value, null), "accept");
         log.info("Total accept responses: {}", responses.size());
         return responses;
     }
 
-    public Map<Integer, PaxosState> getState() {
-        Map<Integer, PaxosState> states = new HashMap<>();
+    public Map<Integer, PaxosState> getState(long slot) {
+        Map<Integer, PaxosState> states = collect(getStateAsync(slot), "state");
+        log.info("Total state responses: {}", states.size());
+        return states;
+    }
 
-        for (int i = 1; i <= serverCount; i++) {
-            if (i == serverId) {
+    /**
+     * Issue one request per peer, either on the peer stream or as a unary call. Every request
+     * is sent before this method returns, so the caller only ever waits for the slowest peer
+     * it cares about. The latency and outcome of every request is recorded per peer.
+     * A peer whose circuit is open gets no request, its future fails right away.
+     *
+     * Peers are sent to least suspected first ({@link PeerMonitor}). Requests that only need a
+     * quorum skip the suspected peers while the others still make one of the caller's quorums
+     * with this server; with a null quorum every peer is sent to.
+     */
+    private <G, R> Map<Integer, CompletableFuture<R>> fanOut(
+            String operation,
+            Predicate<Collection<Integer>> quorum,
+            Function<PaxosServiceGrpc.PaxosServiceFutureStub, ListenableFuture<G>> unaryCall,
+            Consumer<PeerRequest.Builder> streamRequest,
+            Function<PeerResponse, G> streamResponse,
+            Function<G, R> mapper) {
+        boolean useStream = !"unary".equals(transport);
+        Map<Integer, CompletableFuture<R>> futures = new LinkedHashMap<>();
+        List<Integer> peers = peerMonitor.byPhi();
+        Set<Integer> skipped = routeAround(peers, quorum);
+
+        for (int i : peers) {
+            int peer = i;
+            if (skipped.contains(peer)) {
+                metrics.recordPeerRejected(peer, operation, "suspected");
+                futures.put(i, CompletableFuture.failedFuture(
+                        new IllegalStateException("server " + peer + " is suspected to be down")));
                 continue;
             }
-
+            PeerHealth peerHealth = health(i);
+            if (!peerHealth.tryAcquire()) {
+                metrics.recordPeerRejected(peer, operation, "circuit");
+                futures.put(i, CompletableFuture.failedFuture(
+                        new IllegalStateException("circuit to server " + peer + " is open")));
+                continue;
+            }
+            long deadline = peerHealth.deadlineMillis();
+            long start = metrics.start();
+            CompletableFuture<R> future;
             try {
-                ManagedChannel channel = grpcChannelProvider.getChannel(i);
-
-                PaxosServiceGrpc.PaxosServiceBlockingStub stub = PaxosServiceGrpc.newBlockingStub(channel);
+                if (useStream) {
+                    PeerRequest.Builder request = PeerRequest.newBuilder();
+                    streamRequest.accept(request);
+                    future = stream(i).send(request, deadline).thenApply(streamResponse).thenApply(mapper);
+                } else {
+                    ManagedChannel channel = grpcChannelProvider.getChannel(i);
+                    PaxosServiceGrpc.PaxosServiceFutureStub stub = PaxosServiceGrpc.newFutureStub(channel)
+                            .withDeadlineAfter(deadline, TimeUnit.MILLISECONDS);
+                    future = toCompletableFuture(unaryCall.apply(stub)).thenApply(mapper);
+                }
+            } catch (Exception e) {
+                future = CompletableFuture.failedFuture(e);
+            }
+            future.whenComplete((response, error) -> {
+                if (error == null) {
+                    peerHealth.success(System.nanoTime() - start);
+                } else if (isTimeout(error)) {
+                    peerHealth.timeout(deadline);
+                } else {
+                    peerHealth.failure();
+                }
+                metrics.recordPeerRpc(peer, operation, error == null, start);
+            });
+            futures.put(i, future);
+        }
+        return futures;
+    }
 
-                Empty request = Empty.newBuilder()
-                        .build();
+    private static boolean isTimeout(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof TimeoutException) {
+                return true;
+            }
+        }
+        return Status.fromThrowable(error).getCode() == Status.Code.DEADLINE_EXCEEDED;
+    }
 
-                com.paxos.server.grpc.proto.StateResponse grpcResponse = stub.state(request);
+    /**
+     * The suspected peers, if the rest of them still make a quorum with this server.
+     */
+    private Set<Integer> routeAround(List<Integer> peers, Predicate<Collection<Integer>> quorum) {
+        if (quorum == null) {
+            return Set.of();
+        }
+        Set<Integer> suspected = peers.stream().filter(peerMonitor::isSuspected).collect(Collectors.toSet());
+        if (suspected.isEmpty()) {
+            return Set.of();
+        }
+        List<Integer> rest = new ArrayList<>();
+        rest.add(serverId);
+        peers.stream().filter(peer -> !suspected.contains(peer)).forEach(rest::add);
+        return quorum.test(rest) ? suspected : Set.of();
+    }
 
-                PaxosState state = new PaxosState(
-                        grpcResponse.getPromisedId(),
-                        grpcResponse.getAcceptedId(),
-                        grpcResponse.hasAcceptedValue() ? grpcResponse.getAcceptedValue() : null
-                );
+    private PeerHealth health(int peer) {
+        return health.computeIfAbsent(peer, id -> new PeerHealth(id, Ticker.systemTicker(), minDeadlineMillis,
+                maxDeadlineMillis, deadlineMultiplier, breakerFailures, breakerOpenMillis));
+    }
 
-                states.put(i, state);
-                log.debug("Received state from server {}: {}", i, state);
+    private PeerStream stream(int peer) {
+        return streams.computeIfAbsent(peer, id -> new PeerStream(id, grpcChannelProvider.getChannel(id)));
+    }
 
+    /**
+     * Wait for every pending response, dropping the servers that failed.
+     */
+    private <R> Map<Integer, R> collect(Map<Integer, CompletableFuture<R>> futures, String operation) {
+        Map<Integer, R> responses = new HashMap<>();
+        for (Map.Entry<Integer, CompletableFuture<R>> entry : futures.entrySet()) {
+            try {
+                R response = entry.getValue().join();
+                responses.put(entry.getKey(), response);
+                log.info("Received {} response from server {}", operation, entry.getKey());
             } catch (Exception e) {
-                log.warn("Failed to send state request to server {}: {}", i, e.getMessage());
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                log.warn("Failed to send {} request to server {}: {}", operation, entry.getKey(), cause.getMessage());
             }
         }
-        log.info("Total state responses: {}", states.size());
-        return states;
+        return responses;
+    }
 
+    static <T> CompletableFuture<T> toCompletableFuture(ListenableFuture<T> listenableFuture) {
+        CompletableFuture<T> ret = new CompletableFuture<>();
+        Futures.addCallback(listenableFuture, new FutureCallback<T>() {
+            @Override
+            public void onSuccess(T result) {
+                ret.complete(result);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                ret.completeExceptionally(t);
+            }
+        }, MoreExecutors.directExecutor());
+        return ret;
     }
 }
@@ -0,0 +1,159 @@
+package com.paxos.server.service;
+
+import com.google.common.base.Ticker;
+import com.paxos.server.model.PeerStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caller side view of one peer: the deadline of requests to it and a circuit breaker.
+ *
+ * The deadline is multiplier times the p99 latency of the last {@value #WINDOW} requests,
+ * bounded by min and max; until {@value #MIN_SAMPLES} requests completed it is max. A request
+ * that timed out took at least its deadline, which is what it counts as, and doubles the
+ * deadline right away: a peer that slows down past its deadline gets longer ones instead of
+ * timing out forever, but a hung one costs at most max per request.
+ *
+ * After failureThreshold consecutive failures (timeouts included) the circuit opens and
+ * requests fail right away instead of waiting for the peer. Once it was open for openMillis
+ * one request is let through as a probe: the circuit closes if it succeeds and opens again if
+ * not, and every other request is rejected while the probe is in flight. A pong from the peer
+ * monitor's pings closes it right away.
+ */
+class PeerHealth {
+
+    private static final Logger log = LoggerFactory.getLogger(PeerHealth.class);
+
+    static final int WINDOW = 256;
+    static final int MIN_SAMPLES = 32;
+
+    enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int peer;
+    private final Ticker ticker;
+    private final long minDeadlineNanos;
+    private final long maxDeadlineNanos;
+    private final double multiplier;
+    private final int failureThreshold;
+    private final long openNanos;
+
+    // guarded by this
+    private final long[] latencies = new long[WINDOW];
+    private long samples;
+    private long p99Nanos;
+    private long deadlineNanos;
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private long rejected;
+
+    /**
+     * @param failureThreshold consecutive failures that open the circuit, 0 never opens it
+     */
+    PeerHealth(int peer, Ticker ticker, long minDeadlineMillis, long maxDeadlineMillis, double multiplier,
+               int failureThreshold, long openMillis) {
+        this.peer = peer;
+        this.ticker = ticker;
+        this.minDeadlineNanos = TimeUnit.MILLISECONDS.toNanos(minDeadlineMillis);
+        this.maxDeadlineNanos = TimeUnit.MILLISECONDS.toNanos(maxDeadlineMillis);
+        this.multiplier = multiplier;
+        this.failureThreshold = failureThreshold;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+        this.deadlineNanos = maxDeadlineNanos;
+    }
+
+    /**
+     * Whether a request may be sent now, false if the circuit is open or a probe is in flight.
+     * A request that was let through must be followed by {@link #success} or {@link #failure}.
+     */
+    synchronized boolean tryAcquire() {
+        if (state == State.OPEN && ticker.read() - openedAt >= openNanos) {
+            log.info("Probing server {} after its circuit was open", peer);
+            state = State.HALF_OPEN;
+            return true;
+        }
+        if (state == State.CLOSED) {
+            return true;
+        }
+        rejected++;
+        return false;
+    }
+
+    synchronized long deadlineMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(deadlineNanos);
+    }
+
+    synchronized void success(long latencyNanos) {
+        record(latencyNanos);
+        consecutiveFailures = 0;
+        if (state != State.CLOSED) {
+            log.info("Circuit to server {} closed", peer);
+            state = State.CLOSED;
+        }
+    }
+
+    synchronized void failure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN
+                || (state == State.CLOSED && failureThreshold > 0 && consecutiveFailures >= failureThreshold)) {
+            log.warn("Circuit to server {} opened after {} consecutive failures", peer, consecutiveFailures);
+            state = State.OPEN;
+            openedAt = ticker.read();
+        }
+    }
+
+    /**
+     * A request sent with deadlineMillis timed out, a failure that also widens the deadline.
+     */
+    synchronized void timeout(long deadlineMillis) {
+        long timedOutNanos = TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+        record(timedOutNanos);
+        // requests that were in flight together widen it once, not once each
+        long widened = Math.min(maxDeadlineNanos, timedOutNanos * 2);
+        if (widened > deadlineNanos) {
+            log.info("Deadline of server {} widened to {}ms after a timeout", peer, TimeUnit.NANOSECONDS.toMillis(widened));
+            deadlineNanos = widened;
+        }
+        failure();
+    }
+
+    /**
+     * The peer answered a ping, an open circuit closes without waiting for a probe request.
+     */
+    synchronized void reachable() {
+        if (state == State.OPEN) {
+            log.info("Circuit to server {} closed, it answers pings", peer);
+            state = State.CLOSED;
+            consecutiveFailures = 0;
+        }
+    }
+
+    synchronized State state() {
+        return state;
+    }
+
+    /**
+     * Status with the peer monitor's verdict on the peer.
+     */
+    synchronized PeerStatus status(double phi, boolean suspected, long sinceLastPongMillis) {
+        return new PeerStatus(peer, state.name(), consecutiveFailures, rejected, samples,
+                p99Nanos / 1e6, TimeUnit.NANOSECONDS.toMillis(deadlineNanos), phi, suspected, sinceLastPongMillis);
+    }
+
+    private void record(long latencyNanos) {
+        latencies[(int) (samples++ % WINDOW)] = latencyNanos;
+        if (samples >= MIN_SAMPLES && samples % MIN_SAMPLES == 0) {
+            updateDeadline();
+        }
+    }
+
+    private void updateDeadline() {
+        long[] sorted = Arrays.copyOf(latencies, (int) Math.min(samples, WINDOW));
+        Arrays.sort(sorted);
+        p99Nanos = sorted[(int) Math.ceil(sorted.length * 0.99) - 1];
+        deadlineNanos = Math.max(minDeadlineNanos, Math.min(maxDeadlineNanos, (long) (p99Nanos * multiplier)));
+    }
+}
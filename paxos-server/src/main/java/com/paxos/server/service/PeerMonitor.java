@@ -0,0 +1,215 @@
+package com.paxos.server.service;
+
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.paxos.server.grpc.GrpcChannelProvider;
+import com.paxos.server.grpc.proto.PaxosServiceGrpc;
+import com.paxos.server.grpc.proto.PingRequest;
+import com.paxos.server.grpc.proto.PongResponse;
+import com.paxos.server.metrics.PaxosMetrics;
+import io.grpc.ManagedChannel;
+import io.grpc.Status;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Pings every other server in the background and keeps a {@link PhiAccrualDetector} per peer.
+ *
+ * A peer whose phi is at or above paxos.peer.monitor.phi.threshold is suspected: fan-outs send
+ * to it last and quorum requests skip it while the other servers can still make a majority,
+ * so requests route around a sick server instead of waiting for its deadline. Suspicion ends
+ * with the next pong. A warning is logged whenever a peer becomes suspected or recovers.
+ *
+ * While a peer is unreachable every ping is a connect attempt, so it is reached again within
+ * one interval of coming back.
+ *
+ * The peers are the servers {@link GrpcChannelProvider} has channels to, a server that joins
+ * is pinged from the next interval on and one that left is forgotten.
+ */
+@Service
+public class PeerMonitor {
+
+    private static final Logger log = LoggerFactory.getLogger(PeerMonitor.class);
+
+    @Value("${paxos.server.id:0}")
+    private int serverId;
+
+    @Value("${paxos.server.count}")
+    private int serverCount;
+
+    // how often every peer is pinged, 0 disables the monitor and nobody is ever suspected
+    @Value("${paxos.peer.monitor.interval.millis:200}")
+    private long intervalMillis = 200;
+
+    @Value("${paxos.peer.monitor.phi.threshold:8}")
+    private double threshold = 8;
+
+    @Value("${paxos.peer.monitor.min.stddev.millis:50}")
+    private long minStdDevMillis = 50;
+
+    // pause on top of the mean interval that does not count against a peer
+    @Value("${paxos.peer.monitor.acceptable.pause.millis:1000}")
+    private long acceptablePauseMillis = 1000;
+
+    private final GrpcChannelProvider grpcChannelProvider;
+
+    @Autowired(required = false)
+    private PaxosMetrics metrics = PaxosMetrics.noop();
+
+    private final Map<Integer, PhiAccrualDetector> detectors = new ConcurrentHashMap<>();
+    private final Map<Integer, Boolean> suspected = new ConcurrentHashMap<>();
+    // peers with a phi gauge
+    private final Set<Integer> gauged = ConcurrentHashMap.newKeySet();
+    private final List<IntConsumer> pongListeners = new CopyOnWriteArrayList<>();
+    private Ticker ticker = Ticker.systemTicker();
+    private ScheduledExecutorService scheduler;
+
+    @Autowired
+    public PeerMonitor(GrpcChannelProvider grpcChannelProvider) {
+        this.grpcChannelProvider = grpcChannelProvider;
+    }
+
+    /**
+     * A monitor that is not started, fed through {@link #detector}, for tests.
+     */
+    PeerMonitor(int serverId, int serverCount, Ticker ticker, long intervalMillis, double threshold) {
+        this.grpcChannelProvider = null;
+        this.serverId = serverId;
+        this.serverCount = serverCount;
+        this.ticker = ticker;
+        this.intervalMillis = intervalMillis;
+        this.threshold = threshold;
+    }
+
+    @PostConstruct
+    public void start() {
+        peers().forEach(this::registerGauge);
+        if (grpcChannelProvider != null) {
+            grpcChannelProvider.onDrain(peer -> {
+                detectors.remove(peer);
+                suspected.remove(peer);
+            });
+        }
+        if (intervalMillis <= 0) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "paxos-monitor-" + serverId);
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(this::pingAll, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    public double phi(int peer) {
+        return intervalMillis <= 0 ? 0 : detector(peer).phi();
+    }
+
+    public boolean isSuspected(int peer) {
+        boolean now = phi(peer) >= threshold;
+        Boolean before = suspected.put(peer, now);
+        if (before != null && before != now) {
+            if (now) {
+                log.warn("Server {} suspects server {}, no pong for {}ms", serverId, peer,
+                        TimeUnit.NANOSECONDS.toMillis(detector(peer).sinceLastHeartbeatNanos()));
+            } else {
+                log.warn("Server {} hears from server {} again", serverId, peer);
+            }
+        }
+        return now;
+    }
+
+    /**
+     * Millis since the last pong of peer, -1 if there was none.
+     */
+    public long sinceLastPongMillis(int peer) {
+        long nanos = detector(peer).sinceLastHeartbeatNanos();
+        return nanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    /**
+     * Called with the server id of every pong.
+     */
+    public void onPong(IntConsumer listener) {
+        pongListeners.add(listener);
+    }
+
+    /**
+     * The other servers, least suspected first.
+     */
+    public List<Integer> byPhi() {
+        return peers().stream()
+                .sorted(Comparator.comparingDouble(this::phi))
+                .collect(Collectors.toList());
+    }
+
+    PhiAccrualDetector detector(int peer) {
+        return detectors.computeIfAbsent(peer, id ->
+                new PhiAccrualDetector(ticker, intervalMillis, minStdDevMillis, acceptablePauseMillis));
+    }
+
+    private List<Integer> peers() {
+        if (grpcChannelProvider != null) {
+            return grpcChannelProvider.peers();
+        }
+        return IntStream.rangeClosed(1, serverCount).filter(i -> i != serverId).boxed().collect(Collectors.toList());
+    }
+
+    private void registerGauge(int peer) {
+        if (gauged.add(peer)) {
+            metrics.gauge("paxos.peer.phi", "Phi accrual suspicion of another server, from its pings",
+                    this, monitor -> monitor.phi(peer), "peer", String.valueOf(peer));
+        }
+    }
+
+    private void pingAll() {
+        for (int peer : peers()) {
+            registerGauge(peer);
+            try {
+                ManagedChannel channel = grpcChannelProvider.getChannel(peer);
+                ListenableFuture<PongResponse> pong = PaxosServiceGrpc.newFutureStub(channel)
+                        .withDeadlineAfter(Math.max(intervalMillis, acceptablePauseMillis), TimeUnit.MILLISECONDS)
+                        .ping(PingRequest.getDefaultInstance());
+                PaxosForwardingService.toCompletableFuture(pong).whenComplete((response, error) -> {
+                    if (error == null) {
+                        detector(peer).heartbeat();
+                        pongListeners.forEach(listener -> listener.accept(peer));
+                    } else if (Status.fromThrowable(error).getCode() == Status.Code.UNAVAILABLE) {
+                        // reconnect at the next ping rather than after grpc's growing backoff,
+                        // which would keep a restarted peer out for up to two minutes
+                        channel.resetConnectBackoff();
+                    }
+                    // logs the change as soon as it is seen
+                    isSuspected(peer);
+                });
+            } catch (RuntimeException e) {
+                log.debug("Could not ping server {}: {}", peer, e.getMessage());
+            }
+        }
+    }
+}
@@ -1,9 +1,20 @@
 package com.paxos.server.service;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Ticker;
+import com.google.protobuf.ByteString;
+import com.paxos.server.metrics.PaxosMetrics;
 import com.paxos.server.model.AcceptResponse;
+import com.paxos.server.model.BatchRequest;
+import com.paxos.server.model.BatchResponse;
+import com.paxos.server.model.LeaderPromiseResponse;
+import com.paxos.server.model.LeaseResponse;
 import com.paxos.server.model.PaxosState;
 import com.paxos.server.model.PromiseResponse;
+import com.paxos.server.storage.GroupCommitter;
+import com.paxos.server.storage.JsonFileStateStore;
+import com.paxos.server.storage.PaxosStateStore;
+import com.paxos.server.storage.StateRecord;
+import com.paxos.server.storage.WalStateStore;
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
@@ -15,18 +26,41 @@ import org.springframework.stereotype.Service;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongPredicate;
 
 /**
  * Wrapper around {@link PaxosAcceptorService} that persists state to a file.
- *
+ * The on-disk format is chosen with paxos.server.storage.engine, see {@link PaxosStateStore}.
+ * With paxos.server.acceptor.mode=lockfree the state lives in a {@link LockFreePaxosAcceptor}
+ * instead and requests never take a lock.
+ * With paxos.lease.millis set, promises to other servers are refused while a leader
+ * holds a lease, see {@link AcceptorLease}.
+ * Slots that every server has applied are dropped with {@link #truncateBelow}; the wal engine
+ * writes its checkpoints on a background thread.
  */
 @Service
 public class PersistentPaxosAcceptorService implements IPaxosAcceptor {
 
     private static final Logger log = LoggerFactory.getLogger(PersistentPaxosAcceptorService.class);
-    private static final String STATE_FILE_NAME = "paxos-state.json";
 
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    static final String ENGINE_JSON = "json";
+    static final String ENGINE_WAL = "wal";
+
+    static final String MODE_LOCKED = "locked";
+    static final String MODE_LOCKFREE = "lockfree";
+
+    private static final CompletableFuture<Void> DONE = CompletableFuture.completedFuture(null);
 
     @Value("${paxos.server.id:0}")
     private int serverId;
@@ -34,16 +68,82 @@ public class PersistentPaxosAcceptorService implements IPaxosAcceptor {
     @Value("${paxos.server.data.dir}")
     private String dataDir;
 
+    @Value("${paxos.server.storage.engine:json}")
+    private String storageEngine = ENGINE_JSON;
+
+    @Value("${paxos.server.storage.wal.compact.every:1000}")
+    private int walCompactEvery = 1000;
+
+    // when enabled, concurrent state changes share one durable write, see GroupCommitter
+    @Value("${paxos.server.storage.commit.group:false}")
+    private boolean groupCommit;
+
+    @Value("${paxos.server.storage.commit.window.micros:0}")
+    private long commitWindowMicros;
+
+    @Value("${paxos.server.storage.commit.batch.size:256}")
+    private int commitBatchSize = 256;
+
+    @Value("${paxos.server.acceptor.mode:locked}")
+    private String acceptorMode = MODE_LOCKED;
+
+    // leader leases, 0 disables them
+    @Value("${paxos.lease.millis:0}")
+    private long leaseMillis;
+
     @Autowired
     private PaxosAcceptorService acceptorService;
 
+    @Autowired(required = false)
+    private PaxosMetrics metrics = PaxosMetrics.noop();
+
+    // set in lockfree mode, replaces acceptorService
+    private LockFreePaxosAcceptor lockFreeAcceptor;
+
+    private PaxosStateStore store;
+
+    private GroupCommitter groupCommitter;
+
+    // writes wal checkpoints, so appends never wait for one
+    private ExecutorService checkpointExecutor;
+
+    private Ticker ticker = Ticker.systemTicker();
+
+    // set when leases are enabled
+    private AcceptorLease lease;
+
+    // highest proposal id promised in any slot, only tracked when leases are enabled
+    private final AtomicLong highestPromisedId = new AtomicLong(-1);
+
+    // locked mode: write of each slot that is not durable yet, or failed,
+    // and the last leader promise
+    private final Map<Long, CompletableFuture<Void>> slotWrites = new ConcurrentHashMap<>();
+    // guarded by this
+    private CompletableFuture<Void> leaderWrite = DONE;
+
+    private final List<AcceptListener> acceptListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Told about every accept once it is durable, including repeats of an accept.
+     */
+    @FunctionalInterface
+    public interface AcceptListener {
+        void accepted(long slot, long proposalId, ByteString value);
+    }
+
     public PersistentPaxosAcceptorService() {
 
     }
 
     public PersistentPaxosAcceptorService(int serverId, String dataDir, PaxosAcceptorService acceptorService) {
+        this(serverId, dataDir, ENGINE_JSON, acceptorService);
+    }
+
+    public PersistentPaxosAcceptorService(int serverId, String dataDir, String storageEngine,
+                                          PaxosAcceptorService acceptorService) {
         this.serverId = serverId;
         this.dataDir = dataDir;
+        this.storageEngine = storageEngine;
         this.acceptorService = acceptorService;
     }
 
@@ -52,6 +152,53 @@ public class PersistentPaxosAcceptorService implements IPaxosAcceptor {
         loadStateFromFile();
     }
 
+    /**
+     * Enable group commit, must be called before {@link #init()}.
+     */
+    public void setGroupCommit(long commitWindowMicros, int commitBatchSize) {
+        this.groupCommit = true;
+        this.commitWindowMicros = commitWindowMicros;
+        this.commitBatchSize = commitBatchSize;
+    }
+
+    /**
+     * Choose the acceptor mode, must be called before {@link #init()}.
+     */
+    void setAcceptorMode(String acceptorMode) {
+        this.acceptorMode = acceptorMode;
+    }
+
+    /**
+     * Enable leader leases, must be called before {@link #init()}.
+     */
+    void setLease(long leaseMillis, Ticker ticker) {
+        this.leaseMillis = leaseMillis;
+        this.ticker = ticker;
+    }
+
+    @PreDestroy
+    public void close() {
+        if (groupCommitter != null) {
+            groupCommitter.close();
+        }
+        if (checkpointExecutor != null) {
+            // a checkpoint in progress finishes, an interrupted one is completed on the next load
+            checkpointExecutor.shutdown();
+            try {
+                checkpointExecutor.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            if (store != null) {
+                store.close();
+            }
+        } catch (IOException e) {
+            log.warn("Server {} failed to close state store {}", serverId, store, e);
+        }
+    }
+
     void loadStateFromFile() {
         if (dataDir == null || dataDir.isBlank()) {
             throw new IllegalStateException("paxos.server.data.dir must be non-empty");
@@ -61,62 +208,544 @@ public class PersistentPaxosAcceptorService implements IPaxosAcceptor {
         if (!dataDirFile.exists()) {
             dataDirFile.mkdirs();
             log.info("Created missing data: dir {}", dataDirFile.getAbsolutePath());
-            return;
         }
 
-        File stateFile = new File(dataDirFile, STATE_FILE_NAME);
+        PaxosStateStore.SlotStateConsumer restore;
+        PaxosStateStore.SlotStateSource source;
+        switch (acceptorMode) {
+            case MODE_LOCKED:
+                restore = acceptorService::restoreState;
+                source = acceptorService::forEachSlot;
+                break;
+            case MODE_LOCKFREE:
+                lockFreeAcceptor = new LockFreePaxosAcceptor();
+                restore = lockFreeAcceptor::restoreState;
+                source = lockFreeAcceptor::forEachSlot;
+                break;
+            default:
+                throw new IllegalStateException("Unknown paxos.server.acceptor.mode: " + acceptorMode);
+        }
 
-        if (stateFile.exists()) {
-            try {
-                PaxosState state = objectMapper.readValue(stateFile, PaxosState.class);
-                acceptorService.setState(state);
-                log.info("Server {} loaded state from {}: {}}",
-                        serverId, stateFile.getAbsolutePath(), state);
-            } catch (IOException e) {
-                throw new IllegalStateException("Failed to read state file: " + stateFile.getAbsolutePath(), e);
+        store = createStore(dataDirFile, source);
+
+        try {
+            if (store.load(restore)) {
+                log.info("Server {} loaded state from {}: slot 0 {}, max slot {}",
+                        serverId, store, getState(), maxSlot());
+            } else {
+                log.info("Server {} state file does not exist, starting with fresh state: {}",
+                        serverId, store);
             }
-        } else {
-            log.info("Server {} state file does not exist, starting with fresh state: {}",
-                    serverId, stateFile.getAbsolutePath());
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to read state file: " + store, e);
+        }
+
+        if (leaseMillis > 0) {
+            source.forEachSlot((slot, state) -> {
+                if (slot != StateRecord.TRUNCATED) {
+                    highestPromisedId.accumulateAndGet(state.getPromisedId(), Math::max);
+                }
+            });
+            lease = new AcceptorLease(ticker, leaseMillis);
+            log.info("Server {} leases enabled: {}ms, no promises until a lease from before a restart ran out",
+                    serverId, leaseMillis);
+        }
+
+        metrics.gauge("paxos.acceptor.promised.id", "Highest proposal id promised in slot 0",
+                this, acceptor -> acceptor.getState().getPromisedId());
+        metrics.gauge("paxos.acceptor.accepted.id", "Highest proposal id accepted in slot 0",
+                this, acceptor -> acceptor.getState().getAcceptedId());
+        metrics.gauge("paxos.acceptor.max.slot", "Highest slot that has been prepared or accepted",
+                this, PersistentPaxosAcceptorService::maxSlot);
+        metrics.gauge("paxos.acceptor.truncated.below", "First slot kept, the ones below were applied by every server",
+                this, PersistentPaxosAcceptorService::truncatedBelow);
+
+        if (groupCommit) {
+            groupCommitter = new GroupCommitter(store, commitWindowMicros, commitBatchSize,
+                    "paxos-group-commit-" + serverId);
+            log.info("Server {} group commit enabled: window={}us, batch size={}",
+                    serverId, commitWindowMicros, commitBatchSize);
         }
     }
 
+    private PaxosStateStore createStore(File dataDirFile, PaxosStateStore.SlotStateSource source) {
+        switch (storageEngine) {
+            case ENGINE_JSON:
+                return new JsonFileStateStore(dataDirFile, source);
+            case ENGINE_WAL:
+                checkpointExecutor = Executors.newSingleThreadExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "paxos-checkpoint-" + serverId);
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                return new WalStateStore(dataDirFile.toPath(), walCompactEvery, source, checkpointExecutor);
+            default:
+                throw new IllegalStateException("Unknown paxos.server.storage.engine: " + storageEngine);
+        }
+    }
 
-    void persistState(PaxosState state) {
-        File stateFile = Path.of(dataDir, String.valueOf(serverId), STATE_FILE_NAME).toFile();
+    /**
+     * Persist the given state change. The returned future completes once it is durable,
+     * which with group commit may be after this method returns.
+     */
+    CompletableFuture<Void> persistState(StateRecord record) {
+        long start = metrics.start();
+        if (groupCommitter != null) {
+            CompletableFuture<Void> durable = groupCommitter.submit(record);
+            durable.whenComplete((ignored, error) -> metrics.recordPersist(storageEngine, error == null, start));
+            return durable;
+        }
+        try {
+            store.persist(record);
+            metrics.recordPersist(storageEngine, true, start);
+            log.info("Server {} saved state to {}: {}", serverId, store, record);
+            return DONE;
+        } catch (IOException e) {
+            metrics.recordPersist(storageEngine, false, start);
+            return CompletableFuture.failedFuture(e);
+        }
+    }
 
+    /**
+     * Persist the state changes of a batch request with a single durable write.
+     */
+    CompletableFuture<Void> persistStates(List<StateRecord> records) {
+        long start = metrics.start();
+        if (groupCommitter != null) {
+            CompletableFuture<Void> durable = groupCommitter.submitAll(records);
+            durable.whenComplete((ignored, error) -> metrics.recordPersist(storageEngine, error == null, start));
+            return durable;
+        }
         try {
-            String stateString = objectMapper.writeValueAsString(state);
-            objectMapper.writerWithDefaultPrettyPrinter().writeValue(stateFile, state);
-            log.info("Server {} saved state to {}: state={}",
-                    serverId, stateFile.getAbsolutePath(), stateString);
+            store.persistAll(records);
+            metrics.recordPersist(storageEngine, true, start);
+            log.info("Server {} saved {} states to {}", serverId, records.size(), store);
+            return DONE;
         } catch (IOException e) {
-            log.error("Server {} failed to save state to {}", serverId, stateFile.getAbsolutePath(), e);
+            metrics.recordPersist(storageEngine, false, start);
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Persist the transition of a slot made under this object's monitor, see {@link #record}.
+     * A repeat that needs no write waits for the write that made the state it repeats.
+     */
+    private CompletableFuture<Void> persistSlot(long slot, PaxosState before, PaxosState after) {
+        StateRecord record = record(slot, before, after);
+        if (record == null) {
+            return written(slot);
+        }
+        return track(List.of(slot), persistState(record));
+    }
+
+    /**
+     * Record for a transition made under this object's monitor, null if the state is unchanged
+     * and on its way to disk. When the write of a slot's state or of the leader promise failed,
+     * the in-memory state is ahead of the disk: the next request of that slot, a repeat as well
+     * as a change, writes the full state so that its answer does not depend on the lost write.
+     */
+    private StateRecord record(long slot, PaxosState before, PaxosState after) {
+        if (failed(slotWrites.get(slot)) || failed(leaderWrite)) {
+            return new StateRecord(slot, after, false);
+        }
+        return before.equals(after) ? null : StateRecord.of(slot, before, after);
+    }
+
+    /**
+     * Future of the writes the current state of the slot depends on.
+     */
+    private CompletableFuture<Void> written(long slot) {
+        return CompletableFuture.allOf(slotWrites.getOrDefault(slot, DONE), leaderWrite);
+    }
+
+    /**
+     * Remember the write of the given slots until it is durable, a failed one stays.
+     */
+    private CompletableFuture<Void> track(List<Long> slots, CompletableFuture<Void> durable) {
+        for (long slot : slots) {
+            slotWrites.put(slot, durable);
+            durable.thenRun(() -> slotWrites.remove(slot, durable));
         }
+        return durable;
+    }
+
+    private static boolean failed(CompletableFuture<Void> durable) {
+        return durable != null && durable.isCompletedExceptionally();
+    }
+
+    private void awaitDurable(CompletableFuture<Void> durable) {
+        try {
+            durable.join();
+        } catch (CompletionException e) {
+            // the caller must not answer the request if its state change is not durable
+            throw new IllegalStateException("Server " + serverId + " failed to save state to " + store, e.getCause());
+        }
+    }
+
+    /**
+     * State transitions happen under this object's monitor so they are submitted for
+     * persistence in order, waiting for them to be durable happens outside of it.
+     */
+    @Override
+    public PromiseResponse prepare(long slot, long proposalId) {
+        if (lease == null) {
+            return doPrepare(slot, proposalId);
+        }
+        return lease.guard(() -> {
+            if (lease.blocks(proposalId)) {
+                return leased(slot);
+            }
+            PromiseResponse ret = doPrepare(slot, proposalId);
+            trackPromise(proposalId, ret.isIgnored());
+            return ret;
+        });
     }
 
-    public synchronized PromiseResponse prepare(long proposalId) {
-        PaxosState before = acceptorService.getState();
-        PromiseResponse ret = acceptorService.prepare(proposalId);
-        PaxosState after = acceptorService.getState();
-        if (!before.equals(after)) {
-            persistState(after);
+    private PromiseResponse doPrepare(long slot, long proposalId) {
+        if (lockFreeAcceptor != null) {
+            LockFreePaxosAcceptor.Transition<PromiseResponse> transition = lockFreeAcceptor.prepare(slot, proposalId);
+            awaitDurable(commit(transition));
+            return transition.response;
         }
+        PromiseResponse ret;
+        CompletableFuture<Void> durable;
+        synchronized (this) {
+            PaxosState before = acceptorService.getState(slot);
+            ret = acceptorService.prepare(slot, proposalId);
+            PaxosState after = acceptorService.getState(slot);
+            durable = ret.isIgnored() && before.equals(after) ? DONE : persistSlot(slot, before, after);
+        }
+        awaitDurable(durable);
+        return ret;
+    }
+
+    @Override
+    public AcceptResponse acceptRequest(long slot, long proposalId, ByteString value) {
+        AcceptResponse ret = doAcceptRequest(slot, proposalId, value);
+        trackPromise(proposalId, ret.isIgnored());
+        if (!ret.isIgnored()) {
+            notifyAccepted(slot, proposalId, value);
+        }
+        return ret;
+    }
+
+    public void addAcceptListener(AcceptListener listener) {
+        acceptListeners.add(listener);
+    }
+
+    private void notifyAccepted(long slot, long proposalId, ByteString value) {
+        for (AcceptListener listener : acceptListeners) {
+            listener.accepted(slot, proposalId, value);
+        }
+    }
+
+    private AcceptResponse doAcceptRequest(long slot, long proposalId, ByteString value) {
+        if (lockFreeAcceptor != null) {
+            LockFreePaxosAcceptor.Transition<AcceptResponse> transition =
+                    lockFreeAcceptor.acceptRequest(slot, proposalId, value);
+            awaitDurable(commit(transition));
+            return transition.response;
+        }
+        AcceptResponse ret;
+        CompletableFuture<Void> durable;
+        synchronized (this) {
+            PaxosState before = acceptorService.getState(slot);
+            ret = acceptorService.acceptRequest(slot, proposalId, value);
+            PaxosState after = acceptorService.getState(slot);
+            durable = ret.isIgnored() && before.equals(after) ? DONE : persistSlot(slot, before, after);
+        }
+        awaitDurable(durable);
+        return ret;
+    }
+
+    @Override
+    public LeaderPromiseResponse prepareFrom(long fromSlot, long proposalId) {
+        if (lease == null) {
+            return doPrepareFrom(fromSlot, proposalId);
+        }
+        return lease.guard(() -> {
+            if (lease.blocks(proposalId)) {
+                LeaderPromiseResponse ret = new LeaderPromiseResponse();
+                ret.setIgnored(true);
+                ret.setPromisedId(leaderPromisedId());
+                return ret;
+            }
+            LeaderPromiseResponse ret = doPrepareFrom(fromSlot, proposalId);
+            trackPromise(proposalId, ret.isIgnored());
+            return ret;
+        });
+    }
+
+    /**
+     * Grant or extend a leader lease, see {@link AcceptorLease}. Always ignored when leases are disabled.
+     */
+    public LeaseResponse grantLease(int server, long proposalId, long durationMillis) {
+        if (lease == null) {
+            return LeaseResponse.ignore(-1);
+        }
+        return lease.grant(server, proposalId, durationMillis, highestPromisedId.get());
+    }
+
+    private LeaderPromiseResponse doPrepareFrom(long fromSlot, long proposalId) {
+        if (lockFreeAcceptor != null) {
+            LockFreePaxosAcceptor.Transition<LeaderPromiseResponse> transition =
+                    lockFreeAcceptor.prepareFrom(fromSlot, proposalId);
+            awaitDurable(commit(transition));
+            return transition.response;
+        }
+        LeaderPromiseResponse ret;
+        CompletableFuture<Void> durable = DONE;
+        synchronized (this) {
+            ret = acceptorService.prepareFrom(fromSlot, proposalId);
+            if (!ret.isIgnored()) {
+                durable = persistState(new StateRecord(StateRecord.ALL_SLOTS,
+                        new PaxosState(proposalId, -1), true));
+                leaderWrite = durable;
+            }
+        }
+        awaitDurable(durable);
         return ret;
     }
 
+    /**
+     * Apply every entry of the batch, prepares first, and persist all resulting state
+     * changes with one write. In locked mode the whole batch is a single transition under
+     * this object's monitor; in lock-free mode each entry is its own CAS and only the
+     * write is shared. No entry is answered before the batch is durable.
+     */
+    @Override
+    public BatchResponse batch(BatchRequest request) {
+        BatchResponse ret = lease == null
+                ? doBatch(request, proposalId -> false)
+                : lease.guard(() -> doBatch(request, lease::blocks));
+        for (int i = 0; i < request.getAccepts().size(); i++) {
+            BatchRequest.Accept accept = request.getAccepts().get(i);
+            if (!ret.getAccepts().get(i).isIgnored()) {
+                notifyAccepted(accept.getSlot(), accept.getId(), accept.getValueBytes());
+            }
+        }
+        return ret;
+    }
 
-    public synchronized AcceptResponse acceptRequest(long proposalId, String value) {
-        PaxosState before = acceptorService.getState();
-        AcceptResponse ret = acceptorService.acceptRequest(proposalId, value);
-        PaxosState after = acceptorService.getState();
-        if (!before.equals(after)) {
-            persistState(after);
+    private BatchResponse doBatch(BatchRequest request, LongPredicate leased) {
+        BatchResponse ret = new BatchResponse();
+        List<PromiseResponse> promises = new ArrayList<>(request.getPrepares().size());
+        List<AcceptResponse> accepts = new ArrayList<>(request.getAccepts().size());
+        ret.setPrepares(promises);
+        ret.setAccepts(accepts);
+        if (lockFreeAcceptor != null) {
+            List<LockFreePaxosAcceptor.Transition<?>> transitions = new ArrayList<>(request.size());
+            for (BatchRequest.Prepare prepare : request.getPrepares()) {
+                if (leased.test(prepare.getId())) {
+                    promises.add(leased(prepare.getSlot()));
+                    continue;
+                }
+                LockFreePaxosAcceptor.Transition<PromiseResponse> transition =
+                        lockFreeAcceptor.prepare(prepare.getSlot(), prepare.getId());
+                trackPromise(prepare.getId(), transition.ignored);
+                transitions.add(transition);
+                promises.add(transition.response);
+            }
+            for (BatchRequest.Accept accept : request.getAccepts()) {
+                LockFreePaxosAcceptor.Transition<AcceptResponse> transition =
+                        lockFreeAcceptor.acceptRequest(accept.getSlot(), accept.getId(), accept.getValueBytes());
+                trackPromise(accept.getId(), transition.ignored);
+                transitions.add(transition);
+                accepts.add(transition.response);
+            }
+            for (CompletableFuture<Void> durable : commitAll(transitions)) {
+                awaitDurable(durable);
+            }
+            return ret;
+        }
+        List<StateRecord> records = new ArrayList<>(request.size());
+        List<Long> written = new ArrayList<>(request.size());
+        List<CompletableFuture<Void>> waitFor = new ArrayList<>();
+        synchronized (this) {
+            for (BatchRequest.Prepare prepare : request.getPrepares()) {
+                if (leased.test(prepare.getId())) {
+                    promises.add(leased(prepare.getSlot()));
+                    continue;
+                }
+                PaxosState before = acceptorService.getState(prepare.getSlot());
+                PromiseResponse promise = acceptorService.prepare(prepare.getSlot(), prepare.getId());
+                trackPromise(prepare.getId(), promise.isIgnored());
+                PaxosState after = acceptorService.getState(prepare.getSlot());
+                if (!promise.isIgnored() || !before.equals(after)) {
+                    add(prepare.getSlot(), before, after, records, written, waitFor);
+                }
+                promises.add(promise);
+            }
+            for (BatchRequest.Accept accept : request.getAccepts()) {
+                PaxosState before = acceptorService.getState(accept.getSlot());
+                AcceptResponse response = acceptorService.acceptRequest(accept.getSlot(), accept.getId(), accept.getValueBytes());
+                trackPromise(accept.getId(), response.isIgnored());
+                PaxosState after = acceptorService.getState(accept.getSlot());
+                if (!response.isIgnored() || !before.equals(after)) {
+                    add(accept.getSlot(), before, after, records, written, waitFor);
+                }
+                accepts.add(response);
+            }
+            if (!records.isEmpty()) {
+                waitFor.add(track(written, persistStates(records)));
+            }
+        }
+        for (CompletableFuture<Void> durable : waitFor) {
+            awaitDurable(durable);
         }
         return ret;
     }
 
-    public synchronized PaxosState getState() {
-        return acceptorService.getState();
+    /**
+     * Add the record of a locked batch entry to the batch write, or the write it repeats to waitFor.
+     */
+    private void add(long slot, PaxosState before, PaxosState after, List<StateRecord> records,
+                     List<Long> written, List<CompletableFuture<Void>> waitFor) {
+        StateRecord record = record(slot, before, after);
+        if (record == null) {
+            waitFor.add(written(slot));
+        } else {
+            records.add(record);
+            written.add(slot);
+        }
+    }
+
+    /**
+     * Persist the states installed by the transitions of a lock-free batch with one write,
+     * see {@link #commit}. Returns the futures the batch has to wait for.
+     */
+    private List<CompletableFuture<Void>> commitAll(List<LockFreePaxosAcceptor.Transition<?>> transitions) {
+        List<CompletableFuture<Void>> waitFor = new ArrayList<>();
+        List<StateRecord> records = new ArrayList<>(transitions.size());
+        List<CompletableFuture<Void>> written = new ArrayList<>(transitions.size());
+        for (LockFreePaxosAcceptor.Transition<?> transition : transitions) {
+            if (!transition.changed()) {
+                if (!transition.ignored) {
+                    waitFor.add(transition.after.durable);
+                }
+                continue;
+            }
+            records.add(record(transition));
+            written.add(transition.after.durable);
+        }
+        if (records.isEmpty()) {
+            return waitFor;
+        }
+        persistStates(records).whenComplete((ignored, error) -> {
+            for (CompletableFuture<Void> durable : written) {
+                if (error != null) {
+                    durable.completeExceptionally(error);
+                } else {
+                    durable.complete(null);
+                }
+            }
+        });
+        waitFor.addAll(written);
+        return waitFor;
+    }
+
+    /**
+     * Persist the state installed by a lock-free transition and complete its durable future.
+     * Transitions of concurrent requests are persisted in whatever order they arrive here,
+     * which is safe because stores merge records monotonically.
+     * A promise only writes the new promisedId, unless the state it was made on is not
+     * durable yet: then the full state is written so that the promise does not depend on it.
+     */
+    private CompletableFuture<Void> commit(LockFreePaxosAcceptor.Transition<?> transition) {
+        LockFreePaxosAcceptor.Slot after = transition.after;
+        if (!transition.changed()) {
+            // a successful repeat must not be answered before the state it repeats is durable
+            return transition.ignored ? DONE : after.durable;
+        }
+        persistState(record(transition)).whenComplete((ignored, error) -> {
+            if (error != null) {
+                after.durable.completeExceptionally(error);
+            } else {
+                after.durable.complete(null);
+            }
+        });
+        return after.durable;
+    }
+
+    /**
+     * Drop every slot below the given one, for slots that every server in the pool has applied
+     * and will never need again. Requests for slots below it are ignored from then on.
+     * The slots are dropped before the truncation point is persisted, so stores that write
+     * the full state (json, checkpoints) no longer include them.
+     */
+    public void truncateBelow(long slot) {
+        if (slot <= truncatedBelow()) {
+            return;
+        }
+        if (lockFreeAcceptor != null) {
+            lockFreeAcceptor.truncateBelow(slot);
+        } else {
+            acceptorService.truncateBelow(slot);
+            slotWrites.keySet().removeIf(kept -> kept < slot);
+        }
+        awaitDurable(persistState(new StateRecord(StateRecord.TRUNCATED, new PaxosState(slot, -1), true)));
+    }
+
+    /**
+     * First slot kept, 0 if nothing was truncated.
+     */
+    public long truncatedBelow() {
+        return lockFreeAcceptor != null ? lockFreeAcceptor.truncatedBelow() : acceptorService.truncatedBelow();
+    }
+
+    /**
+     * Response to a prepare refused because another server holds the lease.
+     */
+    private PromiseResponse leased(long slot) {
+        PromiseResponse ret = new PromiseResponse();
+        ret.setIgnored(true);
+        ret.setPromisedId(getState(slot).getPromisedId());
+        return ret;
+    }
+
+    private void trackPromise(long proposalId, boolean ignored) {
+        if (lease != null && !ignored) {
+            highestPromisedId.accumulateAndGet(proposalId, Math::max);
+        }
+    }
+
+    private static StateRecord record(LockFreePaxosAcceptor.Transition<?> transition) {
+        LockFreePaxosAcceptor.Slot before = transition.before;
+        return before.durable.isDone() && !before.durable.isCompletedExceptionally()
+                ? StateRecord.of(transition.slot, before.state, transition.after.state)
+                : new StateRecord(transition.slot, transition.after.state, false);
+    }
+
+    @Override
+    public PaxosState getState(long slot) {
+        if (lockFreeAcceptor != null) {
+            return lockFreeAcceptor.getState(slot);
+        }
+        synchronized (this) {
+            return acceptorService.getState(slot);
+        }
+    }
+
+    /**
+     * Highest proposal number promised for every slot by {@link #prepareFrom}, -1 if none.
+     */
+    public long leaderPromisedId() {
+        if (lockFreeAcceptor != null) {
+            return lockFreeAcceptor.leaderPromisedId();
+        }
+        return acceptorService.leaderPromisedId();
+    }
+
+    /**
+     * Highest slot that has ever been prepared or accepted, -1 if none.
+     */
+    public long maxSlot() {
+        if (lockFreeAcceptor != null) {
+            return lockFreeAcceptor.maxSlot();
+        }
+        synchronized (this) {
+            return acceptorService.maxSlot();
+        }
     }
 }
@@ -0,0 +1,89 @@
+package com.paxos.server.service;
+
+import com.google.common.base.Ticker;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Phi accrual failure detector (Hayashibara et al.) for the heartbeats of one peer.
+ *
+ * Instead of a yes/no verdict it gives phi, the suspicion that the peer is down: -log10 of
+ * the probability that a heartbeat arrives even later than now, given the mean and standard
+ * deviation of the last {@value #WINDOW} intervals between heartbeats. phi 1 means a 10%
+ * chance of a false suspicion, 2 a 1% chance and so on. Intervals are assumed normally
+ * distributed, with the logistic approximation of the normal CDF also used by Akka and
+ * Cassandra; acceptablePause is added to the mean so a short stall does not raise phi.
+ *
+ * Until the first heartbeat phi is 0, a peer is not suspected before it was ever seen.
+ */
+class PhiAccrualDetector {
+
+    static final int WINDOW = 100;
+
+    private final Ticker ticker;
+    private final double minStdDevNanos;
+    private final long acceptablePauseNanos;
+
+    // guarded by this
+    private final long[] intervals = new long[WINDOW];
+    private int count;
+    private int next;
+    private double sum;
+    private double squares;
+    private long lastHeartbeat = -1;
+
+    /**
+     * @param expectedIntervalMillis the heartbeat interval, the history starts with it
+     */
+    PhiAccrualDetector(Ticker ticker, long expectedIntervalMillis, long minStdDevMillis, long acceptablePauseMillis) {
+        this.ticker = ticker;
+        this.minStdDevNanos = TimeUnit.MILLISECONDS.toNanos(minStdDevMillis);
+        this.acceptablePauseNanos = TimeUnit.MILLISECONDS.toNanos(acceptablePauseMillis);
+        // two intervals a quarter off the expected one on either side, like Akka's bootstrap
+        long expected = TimeUnit.MILLISECONDS.toNanos(expectedIntervalMillis);
+        add(expected - expected / 4);
+        add(expected + expected / 4);
+    }
+
+    synchronized void heartbeat() {
+        long now = ticker.read();
+        if (lastHeartbeat >= 0) {
+            add(now - lastHeartbeat);
+        }
+        lastHeartbeat = now;
+    }
+
+    synchronized double phi() {
+        if (lastHeartbeat < 0) {
+            return 0;
+        }
+        double mean = sum / count;
+        double stdDev = Math.max(minStdDevNanos, Math.sqrt(Math.max(0, squares / count - mean * mean)));
+        double elapsed = ticker.read() - lastHeartbeat;
+        double y = (elapsed - (mean + acceptablePauseNanos)) / stdDev;
+        double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+        // probability of a later heartbeat is e / (1 + e), computed so it does not round to 0 early
+        return elapsed > mean + acceptablePauseNanos ? -Math.log10(e / (1 + e)) : -Math.log10(1 - 1 / (1 + e));
+    }
+
+    /**
+     * Nanos since the last heartbeat, -1 if there was none.
+     */
+    synchronized long sinceLastHeartbeatNanos() {
+        return lastHeartbeat < 0 ? -1 : ticker.read() - lastHeartbeat;
+    }
+
+    private void add(long interval) {
+        if (count == WINDOW) {
+            long dropped = intervals[next];
+            sum -= dropped;
+            squares -= (double) dropped * dropped;
+        } else {
+            count++;
+        }
+        intervals[next] = interval;
+        next = (next + 1) % WINDOW;
+        sum += interval;
+        squares += (double) interval * interval;
+    }
+}
@@ -0,0 +1,278 @@
+package com.paxos.server.service;
+
+import com.google.protobuf.ByteString;
+import com.paxos.server.metrics.PaxosMetrics;
+import com.paxos.server.model.AcceptResponse;
+import com.paxos.server.model.ChosenValue;
+import com.paxos.server.model.PromiseResponse;
+import com.paxos.server.model.Values;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Single-decree Paxos proposer: gets a value chosen in one slot with both phases run from this
+ * server over grpc, what proposer_demo.py does with one HTTP call per acceptor and phase.
+ *
+ * Phase 1 prepares the slot at every acceptor and waits for a majority of promises. Majorities
+ * are of the configuration this server knows for the slot ({@link MembershipService}), like the
+ * leader's accepts, and of paxos.server.count without a replicated membership. The value
+ * accepted under the highest proposal id any promise reports is proposed again, the client's
+ * value only if none was accepted, so the value returned may be another proposer's. Phase 2
+ * then needs a majority of accepts. A round that is preempted at either phase is retried with
+ * the next ballot after a backoff that doubles up to paxos.proposer.backoff.max.millis.
+ *
+ * Duelling proposers preempt each other until one of them gets both phases through. Ignored
+ * responses report the proposal that preempted this one, so the next ballot jumps straight
+ * past it instead of climbing one round at a time through ballots that are already beaten.
+ * The backoff is a random time up to the doubled bound, so two proposers that collided do not
+ * collide again on the same schedule; with paxos.proposer.priority lower server ids also
+ * wait less, so the same proposer tends to win every duel.
+ *
+ * Ballots come from the {@link BallotAllocator} the leader uses too, so they stay unique across
+ * restarts and never collide with the leader's.
+ */
+@Service
+public class ProposerService {
+
+    private static final Logger log = LoggerFactory.getLogger(ProposerService.class);
+
+    @Value("${paxos.server.id:0}")
+    private int serverId;
+
+    @Value("${paxos.server.count}")
+    private int serverCount;
+
+    // rounds a proposal may take before it fails
+    @Value("${paxos.proposer.attempts:5}")
+    private int maxAttempts = 5;
+
+    @Value("${paxos.proposer.backoff.millis:10}")
+    private long backoffMillis = 10;
+
+    @Value("${paxos.proposer.backoff.max.millis:1000}")
+    private long maxBackoffMillis = 1000;
+
+    // next ballot above the highest proposal reported by ignored responses, not just the next round
+    @Value("${paxos.proposer.ballot.jump:true}")
+    private boolean ballotJump = true;
+
+    // back off a random time up to the bound instead of the bound itself
+    @Value("${paxos.proposer.backoff.jitter:true}")
+    private boolean jitter = true;
+
+    // server id n waits n-1 base backoffs longer than server 1
+    @Value("${paxos.proposer.priority:false}")
+    private boolean priority;
+
+    @Autowired
+    private BallotAllocator ballots;
+
+    @Autowired
+    private PersistentPaxosAcceptorService internalService;
+
+    @Autowired
+    private PaxosForwardingService remoteService;
+
+    // quorums are a majority of paxos.server.count without it
+    @Autowired(required = false)
+    private MembershipService membership;
+
+    @Autowired(required = false)
+    private PaxosMetrics metrics = PaxosMetrics.noop();
+
+    // guarded by this
+    // highest proposal id an ignored response reported
+    private long highestSeen = -1;
+
+    public ProposerService() {
+    }
+
+    /**
+     * A proposer for a pool of serverCount acceptors, remoteService may be null in a pool of one.
+     */
+    ProposerService(int serverId, int serverCount, BallotAllocator ballots,
+                    PersistentPaxosAcceptorService internalService, PaxosForwardingService remoteService) {
+        this.serverId = serverId;
+        this.serverCount = serverCount;
+        this.ballots = ballots;
+        this.internalService = internalService;
+        this.remoteService = remoteService;
+    }
+
+    /**
+     * Blind retries (every option false) are the behavior before ballot jumping, for comparison.
+     */
+    void setContention(boolean ballotJump, boolean jitter, boolean priority) {
+        this.ballotJump = ballotJump;
+        this.jitter = jitter;
+        this.priority = priority;
+    }
+
+    void setRetries(int maxAttempts, long backoffMillis, long maxBackoffMillis) {
+        this.maxAttempts = maxAttempts;
+        this.backoffMillis = backoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    void setMembership(MembershipService membership) {
+        this.membership = membership;
+    }
+
+    void setMetrics(PaxosMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Get a value chosen in slot: value, or the value some earlier proposal already got
+     * accepted there.
+     */
+    public ChosenValue propose(long slot, String value) {
+        return propose(slot, Values.of(value));
+    }
+
+    /**
+     * Get a value chosen in slot, like {@link #propose(long, String)} with the value as bytes.
+     * Values in the envelope of a membership change are refused.
+     */
+    public ChosenValue propose(long slot, ByteString value) {
+        if (MembershipService.isChange(value)) {
+            throw new IllegalStateException("Values starting like a membership change are reserved");
+        }
+        long start = metrics.start();
+        long backoff = backoffMillis;
+        for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+            long proposalId = nextBallot();
+            Optional<ChosenValue> chosen = runRound(slot, proposalId, value);
+            if (chosen.isPresent()) {
+                metrics.recordProposal(true, attempt, start);
+                return chosen.get();
+            }
+            if (attempt < maxAttempts) {
+                sleep(backoffDelay(backoff));
+                backoff = Math.min(backoff * 2, maxBackoffMillis);
+            }
+        }
+        metrics.recordProposal(false, maxAttempts, start);
+        throw new IllegalStateException("Server " + serverId + " could not get a value chosen in slot " + slot
+                + " in " + maxAttempts + " rounds");
+    }
+
+    /**
+     * Last round this server used, it is durable.
+     */
+    public long round() {
+        return ballots.round();
+    }
+
+    /**
+     * Both phases with one ballot, empty if either was preempted.
+     */
+    private Optional<ChosenValue> runRound(long slot, long proposalId, ByteString value) {
+        Predicate<Collection<Integer>> quorum = quorumOf(slot);
+        QuorumCollector<PromiseResponse> prepares = collect(quorum,
+                remoteService == null ? Map.of() : remoteService.prepareAsync(slot, proposalId, quorum),
+                () -> internalService.prepare(slot, proposalId),
+                PromiseResponse::isIgnored, "prepare");
+        Map<Integer, PromiseResponse> promises = prepares.result().join();
+        if (!quorum.test(promises.keySet())) {
+            log.info("Proposer ballot {} got {} promises for slot {}", proposalId, promises.size(), slot);
+            preemptedBy(prepares.ignoredResponses().stream().map(PromiseResponse::getPromisedId));
+            return Optional.empty();
+        }
+
+        ByteString proposed = value;
+        long highestAccepted = -1;
+        for (PromiseResponse promise : promises.values()) {
+            if (promise.getAcceptedId() != null && promise.getAcceptedId() > highestAccepted) {
+                highestAccepted = promise.getAcceptedId();
+                proposed = promise.getAcceptedValueBytes();
+            }
+        }
+        if (highestAccepted >= 0) {
+            log.info("Proposer ballot {} proposes the value accepted under {} in slot {}", proposalId, highestAccepted, slot);
+        }
+
+        ByteString accepted = proposed;
+        QuorumCollector<AcceptResponse> acceptances = collect(quorum,
+                remoteService == null ? Map.of() : remoteService.acceptRequestAsync(slot, proposalId, accepted, quorum),
+                () -> internalService.acceptRequest(slot, proposalId, accepted),
+                AcceptResponse::isIgnored, "accept");
+        Map<Integer, AcceptResponse> accepts = acceptances.result().join();
+        if (!quorum.test(accepts.keySet())) {
+            log.info("Proposer ballot {} got {} accepts for slot {}", proposalId, accepts.size(), slot);
+            preemptedBy(acceptances.ignoredResponses().stream().map(AcceptResponse::getPromisedId));
+            return Optional.empty();
+        }
+        return Optional.of(new ChosenValue(slot, proposalId, accepted));
+    }
+
+    private synchronized void preemptedBy(Stream<Long> promisedIds) {
+        promisedIds.filter(Objects::nonNull).forEach(id -> highestSeen = Math.max(highestSeen, id));
+    }
+
+    /**
+     * Start above the local acceptor's leader promise and, when jumping, above the highest
+     * proposal that preempted this proposer, so no round is spent on a ballot known to lose.
+     */
+    private synchronized long nextBallot() {
+        return ballots.next(Math.max(internalService.leaderPromisedId(), ballotJump ? highestSeen : -1));
+    }
+
+    /**
+     * Responses of every server (the remote calls are already sent), the result is complete
+     * once a quorum is not ignored or cannot be.
+     */
+    private <T> QuorumCollector<T> collect(Predicate<Collection<Integer>> quorum,
+                                           Map<Integer, CompletableFuture<T>> remote,
+                                           Supplier<T> local,
+                                           Predicate<T> isIgnored,
+                                           String operation) {
+        QuorumCollector<T> collector = new QuorumCollector<>(quorum, isIgnored, operation);
+        collector.add(serverId, local.get());
+        collector.addAll(remote);
+        return collector;
+    }
+
+    private long backoffDelay(long backoff) {
+        long delay = jitter ? ThreadLocalRandom.current().nextLong(backoff + 1) : backoff;
+        if (priority) {
+            delay += (serverId - 1) * backoffMillis;
+        }
+        return delay;
+    }
+
+    /**
+     * A majority of the members in slot's configuration, waits until it is known. Servers that
+     * joined later or left do not count.
+     */
+    private Predicate<Collection<Integer>> quorumOf(long slot) {
+        if (membership == null) {
+            int majority = serverCount / 2 + 1;
+            return servers -> servers.size() >= majority;
+        }
+        membership.awaitSettled(slot);
+        return membership.configFor(slot)::isQuorum;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while backing off", e);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.paxos.server.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Predicate;
+
+/**
+ * Collects responses from the servers in the pool and completes as soon as
+ * a quorum of non-ignored responses has arrived, or as soon as a quorum can no
+ * longer be reached. Responses arriving after completion (stragglers) are
+ * dropped, their calls are left to finish in the background.
+ *
+ * A quorum of zero or less means every response is waited for. Instead of a count the quorum
+ * can be any test on the servers that answered, e.g. a majority of the members of a
+ * configuration ({@link com.paxos.server.model.ClusterConfig#isQuorum}).
+ */
+class QuorumCollector<T> {
+
+    private static final Logger log = LoggerFactory.getLogger(QuorumCollector.class);
+
+    // null waits for every response
+    private final Predicate<Collection<Integer>> isQuorum;
+    private final Predicate<T> isIgnored;
+    private final String operation;
+
+    private final Map<Integer, T> accepted = new HashMap<>();
+    private final Map<Integer, T> ignored = new LinkedHashMap<>();
+    private final CompletableFuture<Map<Integer, T>> result = new CompletableFuture<>();
+
+    private final Set<Integer> outstanding = new HashSet<>();
+    // set once every server has been registered, completion is not decided before that
+    private boolean sealed;
+
+    QuorumCollector(int quorum, Predicate<T> isIgnored, String operation) {
+        this(quorum > 0 ? servers -> servers.size() >= quorum : null, isIgnored, operation);
+    }
+
+    QuorumCollector(Predicate<Collection<Integer>> isQuorum, Predicate<T> isIgnored, String operation) {
+        this.isQuorum = isQuorum;
+        this.isIgnored = isIgnored;
+        this.operation = operation;
+    }
+
+    /**
+     * Register a response that is already known, e.g. the one from this host.
+     */
+    synchronized void add(int serverId, T response) {
+        outstanding.add(serverId);
+        onResponse(serverId, response);
+    }
+
+    /**
+     * Register a response that is still pending.
+     */
+    void add(int serverId, CompletableFuture<T> pending) {
+        synchronized (this) {
+            outstanding.add(serverId);
+        }
+        pending.whenComplete((response, error) -> {
+            if (error != null) {
+                onFailure(serverId, error);
+            } else {
+                onResponse(serverId, response);
+            }
+        });
+    }
+
+    void addAll(Map<Integer, CompletableFuture<T>> pending) {
+        pending.forEach(this::add);
+    }
+
+    /**
+     * Future of the non-ignored responses, completed once the quorum is met,
+     * is no longer reachable, or every server has answered.
+     */
+    CompletableFuture<Map<Integer, T>> result() {
+        synchronized (this) {
+            sealed = true;
+            checkDone();
+        }
+        return result;
+    }
+
+    synchronized List<Integer> ignoredServers() {
+        return new ArrayList<>(ignored.keySet());
+    }
+
+    /**
+     * The ignored responses that arrived before the result was decided, e.g. to learn which
+     * proposal preempted this one.
+     */
+    synchronized List<T> ignoredResponses() {
+        return new ArrayList<>(ignored.values());
+    }
+
+    private synchronized void onResponse(int serverId, T response) {
+        outstanding.remove(serverId);
+        if (result.isDone()) {
+            log.debug("Late {} response from server {} after quorum was decided", operation, serverId);
+            return;
+        }
+        if (isIgnored.test(response)) {
+            ignored.put(serverId, response);
+        } else {
+            accepted.put(serverId, response);
+        }
+        checkDone();
+    }
+
+    private synchronized void onFailure(int serverId, Throwable error) {
+        outstanding.remove(serverId);
+        Throwable cause = error.getCause() != null ? error.getCause() : error;
+        log.warn("Failed to send {} request to server {}: {}", operation, serverId, cause.getMessage());
+        checkDone();
+    }
+
+    private void checkDone() {
+        if (!sealed || result.isDone()) {
+            return;
+        }
+        boolean quorumMet = isQuorum != null && isQuorum.test(accepted.keySet());
+        boolean quorumUnreachable = false;
+        if (isQuorum != null && !quorumMet) {
+            Set<Integer> reachable = new HashSet<>(accepted.keySet());
+            reachable.addAll(outstanding);
+            quorumUnreachable = !isQuorum.test(reachable);
+        }
+        if (quorumMet || quorumUnreachable || outstanding.isEmpty()) {
+            if (!outstanding.isEmpty()) {
+                log.debug("{} quorum decided with {} responses still outstanding (met={})",
+                        operation, outstanding.size(), quorumMet);
+            }
+            result.complete(new HashMap<>(accepted));
+        }
+    }
+}
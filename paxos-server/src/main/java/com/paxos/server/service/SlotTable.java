@@ -0,0 +1,167 @@
+package com.paxos.server.service;
+
+import com.google.protobuf.ByteString;
+import com.paxos.server.model.PaxosState;
+
+import java.util.Arrays;
+
+/**
+ * Per-slot acceptor state (promisedId, acceptedId, acceptedValue) indexed directly by slot number.
+ *
+ * Multi-Paxos slots are dense and increasing, so instead of a map the table keeps a
+ * directory of fixed size pages of primitive arrays: a lookup is two array reads, never
+ * allocates, and a slot costs ~20 bytes plus its value, held as the bytes it was accepted
+ * with. Slots that were never written read as the initial state (-1, -1, null).
+ *
+ * Not thread safe, callers synchronize.
+ */
+class SlotTable {
+
+    private static final int PAGE_BITS = 12;
+    static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private long[][] promisedPages = new long[1][];
+    private long[][] acceptedPages = new long[1][];
+    private ByteString[][] valuePages = new ByteString[1][];
+
+    private long maxSlot = -1;
+
+    long promisedId(long slot) {
+        long[] page = page(promisedPages, slot);
+        return page == null ? -1 : page[offset(slot)];
+    }
+
+    long acceptedId(long slot) {
+        long[] page = page(acceptedPages, slot);
+        return page == null ? -1 : page[offset(slot)];
+    }
+
+    ByteString acceptedValue(long slot) {
+        int index = pageIndex(slot);
+        if (index >= valuePages.length || valuePages[index] == null) {
+            return null;
+        }
+        return valuePages[index][offset(slot)];
+    }
+
+    void setPromisedId(long slot, long promisedId) {
+        int index = ensurePage(slot);
+        promisedPages[index][offset(slot)] = promisedId;
+    }
+
+    void setAccepted(long slot, long acceptedId, ByteString acceptedValue) {
+        int index = ensurePage(slot);
+        acceptedPages[index][offset(slot)] = acceptedId;
+        valuePages[index][offset(slot)] = acceptedValue;
+    }
+
+    PaxosState getState(long slot) {
+        return new PaxosState(promisedId(slot), acceptedId(slot), acceptedValue(slot));
+    }
+
+    /**
+     * Highest slot ever written, -1 if none.
+     */
+    long maxSlot() {
+        return maxSlot;
+    }
+
+    /**
+     * Visit every slot that holds a promise or an accepted value, in slot order.
+     */
+    void forEach(SlotVisitor visitor) {
+        forEach(0, visitor);
+    }
+
+    /**
+     * Visit every slot at or above fromSlot that holds a promise or an accepted value, in slot order.
+     */
+    void forEach(long fromSlot, SlotVisitor visitor) {
+        forEach(fromSlot, Long.MAX_VALUE, visitor);
+    }
+
+    /**
+     * Visit every slot from fromSlot up to (excluding) toSlot that holds a promise or an
+     * accepted value, in slot order.
+     */
+    void forEach(long fromSlot, long toSlot, SlotVisitor visitor) {
+        int endIndex = (int) Math.min(promisedPages.length, ((toSlot - 1) >>> PAGE_BITS) + 1);
+        for (int index = pageIndex(fromSlot); index < endIndex; index++) {
+            long[] promised = promisedPages[index];
+            if (promised == null) {
+                continue;
+            }
+            long[] accepted = acceptedPages[index];
+            ByteString[] values = valuePages[index];
+            for (int i = 0; i < PAGE_SIZE; i++) {
+                long slot = ((long) index << PAGE_BITS) | i;
+                if ((promised[i] >= 0 || accepted[i] >= 0) && slot >= fromSlot && slot < toSlot) {
+                    visitor.visit(slot, promised[i], accepted[i], values[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drop every slot below the given one, freeing the pages that lie entirely below it.
+     */
+    void truncateBelow(long slot) {
+        int index = pageIndex(slot);
+        for (int i = 0; i < Math.min(index, promisedPages.length); i++) {
+            promisedPages[i] = null;
+            acceptedPages[i] = null;
+            valuePages[i] = null;
+        }
+        if (index < promisedPages.length && promisedPages[index] != null) {
+            Arrays.fill(promisedPages[index], 0, offset(slot), -1);
+            Arrays.fill(acceptedPages[index], 0, offset(slot), -1);
+            Arrays.fill(valuePages[index], 0, offset(slot), null);
+        }
+    }
+
+    interface SlotVisitor {
+        void visit(long slot, long promisedId, long acceptedId, ByteString acceptedValue);
+    }
+
+    private static int offset(long slot) {
+        return (int) (slot & PAGE_MASK);
+    }
+
+    private static int pageIndex(long slot) {
+        if (slot < 0) {
+            throw new IllegalArgumentException("slot must be non-negative: " + slot);
+        }
+        long index = slot >>> PAGE_BITS;
+        if (index >= Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("slot too large: " + slot);
+        }
+        return (int) index;
+    }
+
+    private static long[] page(long[][] pages, long slot) {
+        int index = pageIndex(slot);
+        return index < pages.length ? pages[index] : null;
+    }
+
+    private int ensurePage(long slot) {
+        int index = pageIndex(slot);
+        if (index >= promisedPages.length) {
+            int length = Math.max(index + 1, promisedPages.length * 2);
+            promisedPages = Arrays.copyOf(promisedPages, length);
+            acceptedPages = Arrays.copyOf(acceptedPages, length);
+            valuePages = Arrays.copyOf(valuePages, length);
+        }
+        if (promisedPages[index] == null) {
+            long[] promised = new long[PAGE_SIZE];
+            long[] accepted = new long[PAGE_SIZE];
+            Arrays.fill(promised, -1);
+            Arrays.fill(accepted, -1);
+            promisedPages[index] = promised;
+            acceptedPages[index] = accepted;
+            valuePages[index] = new ByteString[PAGE_SIZE];
+        }
+        maxSlot = Math.max(maxSlot, slot);
+        return index;
+    }
+}
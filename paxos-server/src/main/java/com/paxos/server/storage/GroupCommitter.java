@@ -0,0 +1,155 @@
+package com.paxos.server.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Batches concurrent state changes into a single durable write.
+ *
+ * Callers submit states in the order the transitions happened and wait on the
+ * returned future. A single writer thread takes everything queued (waiting up to
+ * the commit window for more, bounded by the max batch size), persists the batch
+ * with {@link PaxosStateStore#persistAll} and releases every caller in it at once.
+ * Throughput therefore grows with the number of concurrent callers instead of
+ * being capped at one request per sync.
+ */
+public class GroupCommitter implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(GroupCommitter.class);
+
+    private static final CompletableFuture<Void> DONE = CompletableFuture.completedFuture(null);
+
+    private final PaxosStateStore store;
+    private final long commitWindowNanos;
+    private final int maxBatchSize;
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+
+    private volatile boolean running = true;
+    // future of the most recently submitted state, guarded by this
+    private CompletableFuture<Void> lastSubmitted = DONE;
+
+    private static class Pending {
+        final List<StateRecord> records;
+        final CompletableFuture<Void> durable = new CompletableFuture<>();
+
+        Pending(List<StateRecord> records) {
+            this.records = records;
+        }
+    }
+
+    public GroupCommitter(PaxosStateStore store, long commitWindowMicros, int maxBatchSize, String name) {
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("maxBatchSize must be positive");
+        }
+        this.store = store;
+        this.commitWindowNanos = TimeUnit.MICROSECONDS.toNanos(commitWindowMicros);
+        this.maxBatchSize = maxBatchSize;
+        this.writer = new Thread(this::run, name);
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Queue a state change. The returned future completes once the change
+     * (and every change submitted before it) is durable.
+     */
+    public CompletableFuture<Void> submit(StateRecord record) {
+        return submitAll(List.of(record));
+    }
+
+    /**
+     * Queue the state changes of one batch request, they are always written together
+     * in the same durable write.
+     */
+    public synchronized CompletableFuture<Void> submitAll(List<StateRecord> records) {
+        if (!running) {
+            return CompletableFuture.failedFuture(new IllegalStateException("group committer is closed"));
+        }
+        Pending pending = new Pending(records);
+        queue.add(pending);
+        lastSubmitted = pending.durable;
+        return pending.durable;
+    }
+
+    /**
+     * Future that completes once every change submitted so far is durable.
+     */
+    public synchronized CompletableFuture<Void> lastSubmitted() {
+        return lastSubmitted;
+    }
+
+    private void run() {
+        List<Pending> batch = new ArrayList<>(maxBatchSize);
+        List<StateRecord> records = new ArrayList<>(maxBatchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + commitWindowNanos;
+                while (batch.size() < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    Pending next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                // not interrupted by close (an interrupt would close the store's file channel),
+                // keep going and flush what we have
+                log.warn("Group commit writer interrupted");
+            }
+
+            if (!batch.isEmpty()) {
+                flush(batch, records);
+            }
+        }
+    }
+
+    private void flush(List<Pending> batch, List<StateRecord> records) {
+        for (Pending pending : batch) {
+            records.addAll(pending.records);
+        }
+        try {
+            store.persistAll(records);
+            for (Pending pending : batch) {
+                pending.durable.complete(null);
+            }
+            log.debug("Group committed {} states to {}", records.size(), store);
+        } catch (Exception e) {
+            log.error("Failed to group commit {} states to {}", records.size(), store, e);
+            for (Pending pending : batch) {
+                pending.durable.completeExceptionally(e);
+            }
+        }
+        batch.clear();
+        records.clear();
+    }
+
+    /**
+     * Stop accepting new states, flush the ones already queued and stop the writer thread.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            running = false;
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.paxos.server.storage;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.paxos.server.model.PaxosState;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Stores acceptor state as pretty printed json files which are rewritten on
+ * every change. Slot 0 lives in paxos-state.json, every other slot in
+ * paxos-slots.json. Human readable, but every update costs a full serialize
+ * and rewrite of the file, so use the wal engine for many slots.
+ */
+public class JsonFileStateStore implements PaxosStateStore {
+
+    public static final String STATE_FILE_NAME = "paxos-state.json";
+    public static final String SLOTS_FILE_NAME = "paxos-slots.json";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final File stateFile;
+    private final File slotsFile;
+    private final SlotStateSource source;
+    // latest slot 0 state written, records are merged into it
+    private PaxosState slotZero;
+    private long bytesWritten;
+
+    public JsonFileStateStore(File dataDir, SlotStateSource source) {
+        this.stateFile = new File(dataDir, STATE_FILE_NAME);
+        this.slotsFile = new File(dataDir, SLOTS_FILE_NAME);
+        this.source = source;
+    }
+
+    @Override
+    public synchronized boolean load(SlotStateConsumer consumer) throws IOException {
+        boolean found = false;
+        if (stateFile.exists()) {
+            slotZero = objectMapper.readValue(stateFile, PaxosState.class);
+            consumer.accept(0, slotZero);
+            found = true;
+        }
+        if (slotsFile.exists()) {
+            Map<Long, PaxosState> slots = objectMapper.readValue(slotsFile, new TypeReference<>() {});
+            slots.forEach(consumer::accept);
+            found = true;
+        }
+        return found;
+    }
+
+    @Override
+    public synchronized void persist(StateRecord record) throws IOException {
+        persistAll(List.of(record));
+    }
+
+    /**
+     * The files only ever hold the latest state, so each file is written at most once per batch.
+     * Records may arrive out of order (lock-free acceptor), slot 0 records are merged monotonically
+     * so an older record never overwrites a newer state.
+     */
+    @Override
+    public synchronized void persistAll(List<StateRecord> records) throws IOException {
+        boolean slotZeroChanged = false;
+        boolean otherSlots = false;
+        for (StateRecord record : records) {
+            if (record.getSlot() == 0) {
+                slotZero = slotZero == null ? record.getState() : slotZero.merge(record.getState());
+                slotZeroChanged = true;
+            } else {
+                otherSlots = true;
+            }
+        }
+        if (slotZeroChanged) {
+            write(stateFile, slotZero);
+        }
+        if (otherSlots) {
+            Map<Long, PaxosState> slots = new TreeMap<>();
+            source.forEachSlot((slot, state) -> {
+                if (slot != 0) {
+                    slots.put(slot, state);
+                }
+            });
+            write(slotsFile, slots);
+        }
+    }
+
+    private void write(File file, Object value) throws IOException {
+        objectMapper.writerWithDefaultPrettyPrinter().writeValue(file, value);
+        bytesWritten += file.length();
+    }
+
+    @Override
+    public synchronized long bytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public String toString() {
+        return stateFile.getParentFile().getAbsolutePath();
+    }
+}
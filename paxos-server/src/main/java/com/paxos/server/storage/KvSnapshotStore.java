@@ -0,0 +1,152 @@
+package com.paxos.server.storage;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.paxos.server.model.KvSnapshot;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+
+/**
+ * Snapshot of the key-value store in a json file, replaced as a whole on every write
+ * (temp file + fsync + atomic rename) so a crash leaves either the old or the new snapshot.
+ * A snapshot received from another server ({@link #receive}) is installed the same way.
+ */
+public class KvSnapshotStore {
+
+    private static final Logger log = LoggerFactory.getLogger(KvSnapshotStore.class);
+
+    public static final String SNAPSHOT_FILE_NAME = "kv-snapshot.json";
+    static final String RECEIVED_FILE_NAME = SNAPSHOT_FILE_NAME + ".recv";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Path dataDir;
+    private final Path snapshotFile;
+
+    public KvSnapshotStore(Path dataDir) {
+        this.dataDir = dataDir;
+        this.snapshotFile = dataDir.resolve(SNAPSHOT_FILE_NAME);
+    }
+
+    /**
+     * The last snapshot written, empty if there is none.
+     */
+    public Optional<KvSnapshot> load() throws IOException {
+        if (!Files.exists(snapshotFile)) {
+            return Optional.empty();
+        }
+        return Optional.of(objectMapper.readValue(snapshotFile.toFile(), KvSnapshot.class));
+    }
+
+    /**
+     * The snapshot file, empty if there is none.
+     */
+    public Optional<Path> file() {
+        return Files.exists(snapshotFile) ? Optional.of(snapshotFile) : Optional.empty();
+    }
+
+    /**
+     * Start receiving a snapshot file from another server.
+     */
+    public Transfer receive() throws IOException {
+        Files.createDirectories(dataDir);
+        return new Transfer(dataDir.resolve(RECEIVED_FILE_NAME));
+    }
+
+    /**
+     * Replace the snapshot, durable when this returns. Returns the size of the file written.
+     */
+    public long write(KvSnapshot snapshot) throws IOException {
+        Files.createDirectories(dataDir);
+        Path tmp = dataDir.resolve(SNAPSHOT_FILE_NAME + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.wrap(objectMapper.writeValueAsBytes(snapshot));
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+            channel.force(true);
+        }
+        replaceWith(tmp);
+        return Files.size(snapshotFile);
+    }
+
+    private void replaceWith(Path file) throws IOException {
+        Files.move(file, snapshotFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        // makes the rename durable, not supported on every platform
+        try (FileChannel dir = FileChannel.open(dataDir, StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException e) {
+            log.debug("Unable to fsync directory {}: {}", dataDir, e.getMessage());
+        }
+    }
+
+    /**
+     * Snapshot file being received in chunks. The chunks are appended to a temp file, which
+     * replaces the snapshot on {@link #commit} once {@link #finish} has read it back. Closing
+     * a transfer that was not committed deletes the temp file.
+     */
+    public class Transfer implements Closeable {
+        private final Path file;
+        private final FileChannel channel;
+        private long bytes;
+        private boolean committed;
+
+        private Transfer(Path file) throws IOException {
+            this.file = file;
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        }
+
+        /**
+         * Append the next chunk.
+         */
+        public void write(ByteBuffer chunk) throws IOException {
+            while (chunk.hasRemaining()) {
+                bytes += channel.write(chunk);
+            }
+        }
+
+        public long bytes() {
+            return bytes;
+        }
+
+        /**
+         * Make the received file durable and parse it, failing if it is not a complete snapshot.
+         */
+        public KvSnapshot finish() throws IOException {
+            channel.force(true);
+            channel.close();
+            return objectMapper.readValue(file.toFile(), KvSnapshot.class);
+        }
+
+        /**
+         * Replace the snapshot with the received one, after {@link #finish}.
+         */
+        public void commit() throws IOException {
+            replaceWith(file);
+            committed = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+            if (!committed) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return snapshotFile.toAbsolutePath().toString();
+    }
+}
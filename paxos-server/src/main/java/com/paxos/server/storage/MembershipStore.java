@@ -0,0 +1,76 @@
+package com.paxos.server.storage;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.paxos.server.model.ClusterConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * The configurations a server has applied, in a json file replaced as a whole on every change
+ * (temp file + fsync + atomic rename). Written before a change takes effect, so a restarted
+ * server never counts a quorum with a configuration the pool already left.
+ */
+public class MembershipStore {
+
+    private static final Logger log = LoggerFactory.getLogger(MembershipStore.class);
+
+    public static final String MEMBERSHIP_FILE_NAME = "membership.json";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Path dataDir;
+    private final Path membershipFile;
+
+    public MembershipStore(Path dataDir) {
+        this.dataDir = dataDir;
+        this.membershipFile = dataDir.resolve(MEMBERSHIP_FILE_NAME);
+    }
+
+    /**
+     * The configurations last written, oldest first, empty if none were.
+     */
+    public Optional<List<ClusterConfig>> load() throws IOException {
+        if (!Files.exists(membershipFile)) {
+            return Optional.empty();
+        }
+        return Optional.of(objectMapper.readValue(membershipFile.toFile(), new TypeReference<List<ClusterConfig>>() {}));
+    }
+
+    /**
+     * Replace the configurations, durable when this returns.
+     */
+    public void write(List<ClusterConfig> configs) throws IOException {
+        Files.createDirectories(dataDir);
+        Path tmp = dataDir.resolve(MEMBERSHIP_FILE_NAME + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.wrap(objectMapper.writeValueAsBytes(configs));
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+            channel.force(true);
+        }
+        Files.move(tmp, membershipFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        // makes the rename durable, not supported on every platform
+        try (FileChannel dir = FileChannel.open(dataDir, StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException e) {
+            log.debug("Unable to fsync directory {}: {}", dataDir, e.getMessage());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return membershipFile.toString();
+    }
+}
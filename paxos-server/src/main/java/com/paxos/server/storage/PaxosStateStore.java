@@ -0,0 +1,55 @@
+package com.paxos.server.storage;
+
+import com.paxos.server.model.PaxosState;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Durable storage for the per-slot state of a paxos acceptor.
+ * An acceptor must not answer a prepare or accept request before the
+ * resulting state has been persisted.
+ */
+public interface PaxosStateStore extends Closeable {
+
+    /**
+     * Load the persisted state, passing every stored record to the consumer.
+     * A slot may be passed more than once; the consumer must merge monotonically
+     * (promisedId and acceptedId never go down).
+     * Returns false if nothing has been persisted yet.
+     */
+    boolean load(SlotStateConsumer consumer) throws IOException;
+
+    /**
+     * Persist a state change.
+     */
+    void persist(StateRecord record) throws IOException;
+
+    /**
+     * Persist a batch of consecutive state changes. Stores should make the whole batch
+     * durable with a single sync, the default persists them one at a time.
+     */
+    default void persistAll(List<StateRecord> records) throws IOException {
+        for (StateRecord record : records) {
+            persist(record);
+        }
+    }
+
+    /**
+     * Total number of bytes written to disk by this store since it was opened.
+     */
+    long bytesWritten();
+
+    interface SlotStateConsumer {
+        void accept(long slot, PaxosState state);
+    }
+
+    /**
+     * Read access to the current state of every slot, used by stores that
+     * write the full state (checkpoints, whole-file rewrites).
+     */
+    interface SlotStateSource {
+        void forEachSlot(SlotStateConsumer consumer);
+    }
+}
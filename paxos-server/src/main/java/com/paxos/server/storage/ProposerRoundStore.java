@@ -0,0 +1,72 @@
+package com.paxos.server.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Highest ballot round a server has used, as leader or single-decree proposer, in a one line
+ * text file replaced as a whole on every write (temp file + fsync + atomic rename). A round is
+ * written before any message carries it, so a restarted server never sends two different
+ * values under one ballot.
+ */
+public class ProposerRoundStore {
+
+    private static final Logger log = LoggerFactory.getLogger(ProposerRoundStore.class);
+
+    public static final String ROUND_FILE_NAME = "proposer-round";
+
+    private final Path dataDir;
+    private final Path roundFile;
+
+    public ProposerRoundStore(Path dataDir) {
+        this.dataDir = dataDir;
+        this.roundFile = dataDir.resolve(ROUND_FILE_NAME);
+    }
+
+    /**
+     * The last round written, 0 if none was.
+     */
+    public long load() throws IOException {
+        if (!Files.exists(roundFile)) {
+            return 0;
+        }
+        return Long.parseLong(Files.readString(roundFile, StandardCharsets.UTF_8).trim());
+    }
+
+    /**
+     * Replace the round, durable when this returns.
+     */
+    public void write(long round) throws IOException {
+        Files.createDirectories(dataDir);
+        Path tmp = dataDir.resolve(ROUND_FILE_NAME + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.wrap((round + "\n").getBytes(StandardCharsets.UTF_8));
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+            channel.force(true);
+        }
+        Files.move(tmp, roundFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        // makes the rename durable, not supported on every platform
+        try (FileChannel dir = FileChannel.open(dataDir, StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException e) {
+            log.debug("Unable to fsync directory {}: {}", dataDir, e.getMessage());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return roundFile.toString();
+    }
+}
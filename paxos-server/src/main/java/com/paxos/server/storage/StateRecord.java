@@ -0,0 +1,64 @@
+package com.paxos.server.storage;
+
+import com.paxos.server.model.PaxosState;
+
+import java.util.Objects;
+
+/**
+ * A state change of one slot, as handed to a {@link PaxosStateStore}.
+ * A promise only raised the promisedId, an accept changed the accepted proposal.
+ */
+public final class StateRecord {
+
+    /**
+     * Slot of the records holding a leader's promise, which covers every slot
+     * (see {@code IPaxosAcceptor#prepareFrom}). Only its promisedId is used.
+     */
+    public static final long ALL_SLOTS = -1;
+
+    /**
+     * Slot of the records holding the truncation point of the acceptor: its promisedId is the
+     * first slot still kept, every slot below it was dropped once the whole pool applied it.
+     */
+    public static final long TRUNCATED = -2;
+
+    private final long slot;
+    private final PaxosState state;
+    private final boolean promise;
+
+    public StateRecord(long slot, PaxosState state, boolean promise) {
+        this.slot = slot;
+        this.state = state;
+        this.promise = promise;
+    }
+
+    /**
+     * Record for the transition of a slot from one state to another.
+     */
+    public static StateRecord of(long slot, PaxosState before, PaxosState after) {
+        boolean promise = before.getAcceptedId() == after.getAcceptedId()
+                && Objects.equals(before.getAcceptedValueBytes(), after.getAcceptedValueBytes());
+        return new StateRecord(slot, after, promise);
+    }
+
+    public long getSlot() {
+        return slot;
+    }
+
+    public PaxosState getState() {
+        return state;
+    }
+
+    public boolean isPromise() {
+        return promise;
+    }
+
+    @Override
+    public String toString() {
+        return "StateRecord{" +
+                "slot=" + slot +
+                ", state=" + state +
+                ", promise=" + promise +
+                '}';
+    }
+}
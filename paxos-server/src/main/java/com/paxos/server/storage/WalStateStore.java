@@ -0,0 +1,389 @@
+package com.paxos.server.storage;
+
+import com.google.protobuf.ByteString;
+import com.paxos.server.model.PaxosState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only write-ahead log of per-slot promise/accept records.
+ *
+ * Every record is framed as [payload length][crc32c][type][payload] and is fsynced before
+ * {@link #persist} returns; {@link #persistAll} syncs once per batch. After a configurable
+ * number of records the log is rotated: it is renamed to the previous log and appends
+ * continue in a new log, while the state of every slot is written to a
+ * checkpoint file (temp file + fsync + atomic rename) on the checkpoint executor. Once the
+ * checkpoint is in place the previous log is deleted. With a background executor appends
+ * never wait for a checkpoint.
+ * On load the checkpoint is read and the previous and current logs replayed on top of it;
+ * a torn or corrupt record at the tail of a log is discarded.
+ *
+ * Records are replayed through a monotonic merge (promisedId and acceptedId never
+ * go down), so re-applying records already covered by the checkpoint is harmless. For the
+ * same reason the checkpoint need not be a consistent snapshot: every slot is read after the
+ * rotation, so it holds at least everything in the previous log, and anything newer is also
+ * in the current log.
+ */
+public class WalStateStore implements PaxosStateStore {
+
+    private static final Logger log = LoggerFactory.getLogger(WalStateStore.class);
+
+    public static final String LOG_FILE_NAME = "paxos-wal.log";
+    public static final String PREVIOUS_LOG_FILE_NAME = "paxos-wal.prev.log";
+    public static final String CHECKPOINT_FILE_NAME = "paxos-checkpoint.bin";
+
+    static final byte PROMISE = 1;
+    static final byte ACCEPT = 2;
+
+    // payload length + crc32c of type and payload
+    private static final int HEADER_SIZE = Integer.BYTES * 2;
+
+    private final Path logFile;
+    private final Path previousLogFile;
+    private final Path checkpointFile;
+    private final Path dataDir;
+    private final int compactEvery;
+    private final SlotStateSource source;
+    private final Executor checkpointExecutor;
+
+    private FileChannel logChannel;
+    private int recordsSinceCheckpoint;
+    private long bytesWritten;
+    // a checkpoint of the previous log is being written
+    private boolean checkpointing;
+
+    /**
+     * Store that writes checkpoints on the thread that appends the record triggering them.
+     */
+    public WalStateStore(Path dataDir, int compactEvery, SlotStateSource source) {
+        this(dataDir, compactEvery, source, Runnable::run);
+    }
+
+    /**
+     * @param compactEvery number of log records after which the log is compacted into a checkpoint
+     * @param source current state of every slot, written to the checkpoint
+     * @param checkpointExecutor runs checkpoint writes
+     */
+    public WalStateStore(Path dataDir, int compactEvery, SlotStateSource source, Executor checkpointExecutor) {
+        if (compactEvery <= 0) {
+            throw new IllegalArgumentException("compactEvery must be positive");
+        }
+        this.dataDir = dataDir;
+        this.logFile = dataDir.resolve(LOG_FILE_NAME);
+        this.previousLogFile = dataDir.resolve(PREVIOUS_LOG_FILE_NAME);
+        this.checkpointFile = dataDir.resolve(CHECKPOINT_FILE_NAME);
+        this.compactEvery = compactEvery;
+        this.source = source;
+        this.checkpointExecutor = checkpointExecutor;
+    }
+
+    @Override
+    public synchronized boolean load(SlotStateConsumer consumer) throws IOException {
+        boolean found = false;
+
+        if (Files.exists(checkpointFile)) {
+            ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(checkpointFile));
+            while (buf.hasRemaining()) {
+                if (!readRecord(buf, consumer)) {
+                    throw new IOException("Corrupt checkpoint file: " + checkpointFile);
+                }
+            }
+            found = true;
+        }
+
+        if (Files.exists(previousLogFile)) {
+            found |= replay(previousLogFile, consumer) > 0;
+        }
+        if (Files.exists(logFile)) {
+            int records = replay(logFile, consumer);
+            recordsSinceCheckpoint = records;
+            found |= records > 0;
+        }
+
+        if (Files.exists(previousLogFile)) {
+            // the last checkpoint did not complete, write it now so the next rotation has a free name
+            log.info("Completing interrupted checkpoint of {}", previousLogFile);
+            writeCheckpoint();
+        }
+        openLog();
+        return found;
+    }
+
+    @Override
+    public synchronized void persist(StateRecord record) throws IOException {
+        persistAll(List.of(record));
+    }
+
+    /**
+     * Append one record per state change and fsync once for the whole batch.
+     */
+    @Override
+    public synchronized void persistAll(List<StateRecord> records) throws IOException {
+        if (logChannel == null) {
+            openLog();
+        }
+
+        for (StateRecord record : records) {
+            ByteBuffer buf = record.isPromise()
+                    ? encodePromise(record.getSlot(), record.getState().getPromisedId())
+                    : encodeAccept(record.getSlot(), record.getState());
+            bytesWritten += writeFully(logChannel, buf);
+        }
+        logChannel.force(false);
+
+        recordsSinceCheckpoint += records.size();
+        if (recordsSinceCheckpoint >= compactEvery && !checkpointing) {
+            rotate();
+        }
+    }
+
+    /**
+     * Start appending to a new log and checkpoint the previous one on the checkpoint executor.
+     * If the checkpoint of the last rotation failed, its log is still there and is checkpointed
+     * here first; renaming the current log would replace it. If that fails again the rotation
+     * is skipped and appends stay in the current log until the next try.
+     */
+    private void rotate() throws IOException {
+        if (Files.exists(previousLogFile)) {
+            try {
+                writeCheckpoint();
+            } catch (IOException e) {
+                log.error("Failed to checkpoint {}, not rotating {}", previousLogFile, logFile, e);
+                recordsSinceCheckpoint = 0;
+                return;
+            }
+        }
+        logChannel.close();
+        logChannel = null;
+        Files.move(logFile, previousLogFile, StandardCopyOption.ATOMIC_MOVE);
+        openLog();
+        syncDirectory();
+        recordsSinceCheckpoint = 0;
+        checkpointing = true;
+        try {
+            checkpointExecutor.execute(this::checkpointPreviousLog);
+        } catch (RejectedExecutionException e) {
+            // shutting down, the previous log is checkpointed on the next load
+            checkpointing = false;
+        }
+    }
+
+    private void checkpointPreviousLog() {
+        try {
+            writeCheckpoint();
+        } catch (IOException e) {
+            log.error("Failed to checkpoint {}, it is replayed on the next load", previousLogFile, e);
+        } finally {
+            synchronized (this) {
+                checkpointing = false;
+            }
+        }
+    }
+
+    /**
+     * Write the current state of every slot to the checkpoint file and delete the previous log.
+     * Does not hold the store's lock while writing, appends continue in the current log.
+     */
+    private void writeCheckpoint() throws IOException {
+        Path tmp = dataDir.resolve(CHECKPOINT_FILE_NAME + ".tmp");
+        CheckpointWriter writer;
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writer = new CheckpointWriter(channel);
+            source.forEachSlot(writer);
+            if (writer.error != null) {
+                throw writer.error;
+            }
+            channel.force(true);
+        }
+        Files.move(tmp, checkpointFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory();
+        Files.deleteIfExists(previousLogFile);
+        synchronized (this) {
+            bytesWritten += writer.bytes;
+        }
+        log.debug("Compacted wal into checkpoint {} with {} slots", checkpointFile, writer.slots);
+    }
+
+    /**
+     * Whether a checkpoint is being written, for tests.
+     */
+    synchronized boolean checkpointing() {
+        return checkpointing;
+    }
+
+    private class CheckpointWriter implements SlotStateConsumer {
+        private final FileChannel channel;
+        private IOException error;
+        private long slots;
+        private long bytes;
+
+        CheckpointWriter(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void accept(long slot, PaxosState state) {
+            if (error != null) {
+                return;
+            }
+            try {
+                bytes += writeFully(channel, encodeAccept(slot, state));
+                slots++;
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+    }
+
+    @Override
+    public synchronized long bytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (logChannel != null) {
+            logChannel.close();
+            logChannel = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return logFile.toAbsolutePath().toString();
+    }
+
+    /**
+     * Replay a log, discarding a torn or corrupt tail. Returns the number of records replayed.
+     */
+    private int replay(Path file, SlotStateConsumer consumer) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(file));
+        int records = 0;
+        while (buf.hasRemaining()) {
+            int recordStart = buf.position();
+            if (!readRecord(buf, consumer)) {
+                log.warn("Discarding torn or corrupt wal tail at offset {} of {}", recordStart, file);
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                    channel.truncate(recordStart);
+                    channel.force(true);
+                }
+                break;
+            }
+            records++;
+        }
+        return records;
+    }
+
+    private void openLog() throws IOException {
+        if (logChannel == null) {
+            logChannel = FileChannel.open(logFile, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+    }
+
+    private void syncDirectory() {
+        // makes the rename durable, not supported on every platform
+        try (FileChannel dir = FileChannel.open(dataDir, StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException e) {
+            log.debug("Unable to fsync directory {}: {}", dataDir, e.getMessage());
+        }
+    }
+
+    private static int writeFully(FileChannel channel, ByteBuffer buf) throws IOException {
+        int written = 0;
+        while (buf.hasRemaining()) {
+            written += channel.write(buf);
+        }
+        return written;
+    }
+
+    static ByteBuffer encodePromise(long slot, long promisedId) {
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + 1 + Long.BYTES * 2);
+        buf.position(HEADER_SIZE);
+        buf.put(PROMISE).putLong(slot).putLong(promisedId);
+        return frame(buf);
+    }
+
+    static ByteBuffer encodeAccept(long slot, PaxosState state) {
+        ByteString value = state.getAcceptedValueBytes();
+        int payloadSize = 1 + Long.BYTES * 3 + Integer.BYTES + (value == null ? 0 : value.size());
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + payloadSize);
+        buf.position(HEADER_SIZE);
+        buf.put(ACCEPT)
+                .putLong(slot)
+                .putLong(state.getPromisedId())
+                .putLong(state.getAcceptedId())
+                .putInt(value == null ? -1 : value.size());
+        if (value != null) {
+            // straight from the value's bytes into the frame
+            value.copyTo(buf);
+        }
+        return frame(buf);
+    }
+
+    private static ByteBuffer frame(ByteBuffer buf) {
+        int payloadSize = buf.position() - HEADER_SIZE;
+        CRC32C crc = new CRC32C();
+        crc.update(buf.array(), HEADER_SIZE, payloadSize);
+        buf.putInt(0, payloadSize);
+        buf.putInt(Integer.BYTES, (int) crc.getValue());
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * Read one record and pass it to the consumer. A promise record is passed
+     * as a state without an accepted proposal.
+     * Returns false if the record is incomplete or fails its checksum.
+     */
+    static boolean readRecord(ByteBuffer buf, SlotStateConsumer consumer) {
+        if (buf.remaining() < HEADER_SIZE) {
+            return false;
+        }
+        int payloadSize = buf.getInt();
+        int expectedCrc = buf.getInt();
+        if (payloadSize <= 0 || payloadSize > buf.remaining()) {
+            return false;
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(buf.array(), buf.position(), payloadSize);
+        if ((int) crc.getValue() != expectedCrc) {
+            return false;
+        }
+
+        byte type = buf.get();
+        if (type != PROMISE && type != ACCEPT) {
+            return false;
+        }
+        long slot = buf.getLong();
+        long promisedId = buf.getLong();
+        if (type == PROMISE) {
+            consumer.accept(slot, new PaxosState(promisedId, -1));
+            return true;
+        }
+        long acceptedId = buf.getLong();
+        int valueLength = buf.getInt();
+        ByteString value = null;
+        if (valueLength >= 0) {
+            // copied out, a view would keep the whole log buffer reachable
+            value = ByteString.copyFrom(buf.array(), buf.position(), valueLength);
+            buf.position(buf.position() + valueLength);
+        }
+        consumer.accept(slot, new PaxosState(promisedId, acceptedId, value));
+        return true;
+    }
+}
@@ -0,0 +1,59 @@
+package com.paxos.server.config;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExecutionModeTest {
+
+    @Test
+    @DisplayName("modes are parsed from properties ignoring case, unknown ones are rejected")
+    void testParse() {
+        assertEquals(ExecutionMode.VIRTUAL, ExecutionMode.parse("virtual"));
+        assertEquals(ExecutionMode.BOUNDED, ExecutionMode.parse(" Bounded "));
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> ExecutionMode.parse("fast"));
+        assertTrue(e.getMessage().contains("direct"), e.getMessage());
+    }
+
+    @Test
+    @DisplayName("each mode runs tasks where it says")
+    void testExecutors() throws Exception {
+        assertNull(ExecutionMode.PLATFORM.newExecutor(2, "test"));
+
+        Thread caller = Thread.currentThread();
+        CompletableFuture<Thread> ranOn = new CompletableFuture<>();
+        ExecutionMode.DIRECT.newExecutor(2, "test").execute(() -> ranOn.complete(Thread.currentThread()));
+        assertSame(caller, ranOn.getNow(null));
+
+        ExecutorService bounded = (ExecutorService) ExecutionMode.BOUNDED.newExecutor(2, "test-bounded");
+        try {
+            Thread thread = bounded.submit(Thread::currentThread).get(5, TimeUnit.SECONDS);
+            assertTrue(thread.getName().startsWith("test-bounded-"), thread.getName());
+            assertTrue(thread.isDaemon());
+        } finally {
+            bounded.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("virtual threads are used on Java 21 and refused with a clear error before")
+    void testVirtual() throws Exception {
+        if (!ExecutionMode.virtualThreadsAvailable()) {
+            IllegalStateException e = assertThrows(IllegalStateException.class,
+                    () -> ExecutionMode.VIRTUAL.newExecutor(2, "test"));
+            assertTrue(e.getMessage().contains("Java 21"), e.getMessage());
+            return;
+        }
+        Executor executor = ExecutionMode.VIRTUAL.newExecutor(2, "test");
+        CompletableFuture<Boolean> ran = new CompletableFuture<>();
+        executor.execute(() -> ran.complete(true));
+        assertTrue(ran.get(5, TimeUnit.SECONDS));
+        ((ExecutorService) executor).shutdown();
+    }
+}
@@ -0,0 +1,110 @@
+package com.paxos.server.grpc;
+
+import com.google.protobuf.ByteString;
+import com.paxos.server.grpc.proto.AcceptRequestMessage;
+import com.paxos.server.grpc.proto.PeerRequest;
+import com.paxos.server.grpc.proto.PeerResponse;
+import com.paxos.server.grpc.proto.PrepareRequest;
+import com.paxos.server.grpc.proto.StateRequest;
+import com.paxos.server.service.PaxosAcceptorService;
+import com.paxos.server.service.PersistentPaxosAcceptorService;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PeerStreamTest {
+
+    @TempDir
+    Path tmpDir;
+
+    private PersistentPaxosAcceptorService acceptor;
+    private PaxosGrpcService service;
+    private Server server;
+    private ManagedChannel channel;
+    private PeerStream stream;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        acceptor = new PersistentPaxosAcceptorService(1, tmpDir.toString(), new PaxosAcceptorService());
+        acceptor.init();
+        service = new PaxosGrpcService(acceptor, 4);
+        String name = InProcessServerBuilder.generateName();
+        server = InProcessServerBuilder.forName(name).addService(service).build().start();
+        channel = InProcessChannelBuilder.forName(name).build();
+        stream = new PeerStream(1, channel);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        stream.close();
+        channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        service.close();
+        acceptor.close();
+    }
+
+    @Test
+    @DisplayName("many requests in flight on one stream are each answered with their own response")
+    void testPipelinedRequestsAreCorrelated() {
+        List<CompletableFuture<PeerResponse>> futures = new ArrayList<>();
+        for (int slot = 1; slot <= 100; slot++) {
+            futures.add(stream.send(PeerRequest.newBuilder().setAccept(AcceptRequestMessage.newBuilder()
+                    .setSlot(slot)
+                    .setId(slot)
+                    .setValue(ByteString.copyFromUtf8("v" + slot)))));
+        }
+
+        for (int slot = 1; slot <= 100; slot++) {
+            PeerResponse response = futures.get(slot - 1).join();
+            assertEquals(PeerResponse.BodyCase.ACCEPT, response.getBodyCase());
+            assertFalse(response.getAccept().getIgnored());
+            assertEquals(slot, response.getAccept().getAcceptedId());
+            assertEquals("v" + slot, response.getAccept().getAcceptedValue().toStringUtf8());
+        }
+
+        PeerResponse state = stream.send(PeerRequest.newBuilder()
+                .setState(StateRequest.newBuilder().setSlot(42))).join();
+        assertEquals(42, state.getState().getAcceptedId());
+        assertEquals("v42", state.getState().getAcceptedValue().toStringUtf8());
+    }
+
+    @Test
+    @DisplayName("a failed request fails its future without breaking the stream")
+    void testErrorResponse() {
+        CompletableFuture<PeerResponse> failed = stream.send(PeerRequest.newBuilder()
+                .setPrepare(PrepareRequest.newBuilder().setSlot(-1).setId(1)));
+        CompletionException e = assertThrows(CompletionException.class, failed::join);
+        assertTrue(e.getCause().getMessage().contains("slot must be non-negative"), e.getCause().getMessage());
+
+        PeerResponse ok = stream.send(PeerRequest.newBuilder()
+                .setPrepare(PrepareRequest.newBuilder().setId(3))).join();
+        assertEquals(3, ok.getPrepare().getPromisedId());
+    }
+
+    @Test
+    @DisplayName("requests fail once the server is gone")
+    void testServerShutdown() throws InterruptedException {
+        stream.send(PeerRequest.newBuilder().setPrepare(PrepareRequest.newBuilder().setId(1))).join();
+        server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+
+        CompletableFuture<PeerResponse> response = stream.send(PeerRequest.newBuilder()
+                .setPrepare(PrepareRequest.newBuilder().setId(2)));
+        assertThrows(CompletionException.class, response::join);
+    }
+}
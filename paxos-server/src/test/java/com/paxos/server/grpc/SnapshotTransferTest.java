@@ -0,0 +1,122 @@
+package com.paxos.server.grpc;
+
+import com.paxos.server.grpc.proto.InstallSnapshotRequest;
+import com.paxos.server.grpc.proto.PaxosServiceGrpc;
+import com.paxos.server.grpc.proto.SnapshotChunk;
+import com.paxos.server.model.KvSnapshot;
+import com.paxos.server.service.KvStateMachine;
+import com.paxos.server.service.LeaderService;
+import com.paxos.server.service.PaxosAcceptorService;
+import com.paxos.server.service.PersistentPaxosAcceptorService;
+import com.paxos.server.storage.KvSnapshotStore;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SnapshotTransferTest {
+
+    @TempDir
+    Path tmpDir;
+
+    private PersistentPaxosAcceptorService acceptor;
+    private PaxosGrpcService service;
+    private Server server;
+    private ManagedChannel channel;
+    private PaxosServiceGrpc.PaxosServiceBlockingStub stub;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        acceptor = new PersistentPaxosAcceptorService(1, tmpDir.resolve("acceptor").toString(), new PaxosAcceptorService());
+        acceptor.init();
+        service = new PaxosGrpcService(acceptor, 4);
+        String name = InProcessServerBuilder.generateName();
+        server = InProcessServerBuilder.forName(name).addService(service).build().start();
+        channel = InProcessChannelBuilder.forName(name).build();
+        stub = PaxosServiceGrpc.newBlockingStub(channel);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        service.close();
+        acceptor.close();
+    }
+
+    @Test
+    @DisplayName("the snapshot file arrives in chunks of the requested size and installs as is")
+    void testChunkedTransfer() throws IOException {
+        TreeMap<String, String> entries = new TreeMap<>();
+        for (int i = 0; i < 1000; i++) {
+            entries.put("key" + i, "value" + i);
+        }
+        Path senderDir = tmpDir.resolve("sender");
+        new KvSnapshotStore(senderDir.resolve("0")).write(new KvSnapshot(41, entries));
+        KvStateMachine sender = new KvStateMachine(new LeaderService(), senderDir.toString(), 1);
+        sender.start();
+        service.setKvStateMachine(sender);
+
+        KvSnapshotStore receiverStore = new KvSnapshotStore(tmpDir.resolve("receiver"));
+        int chunks = 0;
+        try (KvSnapshotStore.Transfer transfer = receiverStore.receive()) {
+            Iterator<SnapshotChunk> stream = stub.installSnapshot(
+                    InstallSnapshotRequest.newBuilder().setChunkBytes(1000).build());
+            while (stream.hasNext()) {
+                SnapshotChunk chunk = stream.next();
+                assertEquals(transfer.bytes(), chunk.getOffset());
+                assertTrue(chunk.getData().size() <= 1000);
+                transfer.write(chunk.getData().asReadOnlyByteBuffer());
+                chunks++;
+            }
+            KvSnapshot received = transfer.finish();
+            assertEquals(41, received.getIndex());
+            assertEquals(entries, received.getEntries());
+            transfer.commit();
+        }
+        long size = Files.size(sender.snapshotFile().orElseThrow());
+        assertEquals((size + 999) / 1000, chunks);
+        assertArrayEquals(Files.readAllBytes(sender.snapshotFile().orElseThrow()),
+                Files.readAllBytes(receiverStore.file().orElseThrow()));
+        sender.close();
+    }
+
+    @Test
+    @DisplayName("a server without a snapshot fails the transfer with NOT_FOUND")
+    void testNoSnapshot() {
+        StatusRuntimeException e = assertThrows(StatusRuntimeException.class,
+                () -> stub.installSnapshot(InstallSnapshotRequest.getDefaultInstance()).hasNext());
+        assertEquals(Status.Code.NOT_FOUND, e.getStatus().getCode());
+    }
+
+    @Test
+    @DisplayName("an incomplete transfer is not installed and leaves no file behind")
+    void testIncompleteTransfer() throws IOException {
+        KvSnapshotStore store = new KvSnapshotStore(tmpDir.resolve("partial"));
+        try (KvSnapshotStore.Transfer transfer = store.receive()) {
+            transfer.write(ByteBuffer.wrap("{\"index\": 3, \"entr".getBytes()));
+            assertThrows(IOException.class, transfer::finish);
+        }
+        assertTrue(store.file().isEmpty());
+        try (var files = Files.list(tmpDir.resolve("partial"))) {
+            assertEquals(0, files.count());
+        }
+    }
+}
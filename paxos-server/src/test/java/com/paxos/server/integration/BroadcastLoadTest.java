@@ -0,0 +1,134 @@
+package com.paxos.server.integration;
+
+import com.paxos.server.PaxosServerApplication;
+import com.paxos.server.grpc.PaxosGrpcService;
+import com.paxos.server.model.PaxosState;
+import com.paxos.server.service.PaxosAcceptorService;
+import com.paxos.server.service.PersistentPaxosAcceptorService;
+import io.grpc.Server;
+import io.grpc.netty.shaded.io.grpc.netty.NettyServerBuilder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.paxos.server.integration.TestUtils.findAvailablePort;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Load on the broadcast endpoints while one peer does not answer. Server 1 runs with a handful
+ * of Tomcat threads, peer 2 answers right away and peer 3 holds every state read until the
+ * test lets it go. Blocking endpoints could only get as many requests to peer 3 as there are
+ * Tomcat threads; async ones get every request in flight there. Throughput is measured by the
+ * load generator's broadcast op, not here.
+ */
+public class BroadcastLoadTest {
+
+    static final int TOMCAT_THREADS = 4;
+    static final int CLIENTS = 64;
+
+    @TempDir
+    Path tmpDir;
+
+    /**
+     * An acceptor whose state reads wait for release once it is held.
+     */
+    private static class HeldAcceptor extends PersistentPaxosAcceptorService {
+        final CountDownLatch arrived = new CountDownLatch(CLIENTS);
+        final CountDownLatch release = new CountDownLatch(1);
+        volatile boolean held;
+
+        HeldAcceptor(int serverId, String dataDir) {
+            super(serverId, dataDir, new PaxosAcceptorService());
+        }
+
+        @Override
+        public PaxosState getState(long slot) {
+            if (held) {
+                arrived.countDown();
+                try {
+                    release.await(30, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return super.getState(slot);
+        }
+    }
+
+    private static Server startPeer(PersistentPaxosAcceptorService acceptor, int port) throws Exception {
+        acceptor.init();
+        // enough stream threads for every request to be held at once
+        return NettyServerBuilder.forAddress(new InetSocketAddress("127.0.0.1", port))
+                .addService(new PaxosGrpcService(acceptor, CLIENTS))
+                .build()
+                .start();
+    }
+
+    @Test
+    void testStateWithHeldPeer() throws Exception {
+        int baseGrpcPort = findAvailablePort();
+        HeldAcceptor held = new HeldAcceptor(3, tmpDir.resolve("3").toString());
+        List<PersistentPaxosAcceptorService> acceptors = List.of(
+                new PersistentPaxosAcceptorService(2, tmpDir.resolve("2").toString(), new PaxosAcceptorService()),
+                held);
+        List<Server> peers = new ArrayList<>();
+        ConfigurableApplicationContext ctx = null;
+        try {
+            peers.add(startPeer(acceptors.get(0), baseGrpcPort + 2));
+            peers.add(startPeer(acceptors.get(1), baseGrpcPort + 3));
+            int httpPort = findAvailablePort();
+            ctx = new SpringApplicationBuilder(PaxosServerApplication.class).run(
+                    "--paxos.server.id=1",
+                    "--paxos.server.count=3",
+                    "--paxos.server.data.dir=" + tmpDir.resolve("1").toAbsolutePath(),
+                    "--grpc.server.port=" + (baseGrpcPort + 1),
+                    "--server.port=" + httpPort,
+                    "--paxos.server.grpc.base.port=" + baseGrpcPort,
+                    "--server.tomcat.threads.max=" + TOMCAT_THREADS,
+                    "--server.tomcat.threads.min-spare=" + TOMCAT_THREADS);
+
+            HttpClient client = HttpClient.newHttpClient();
+            URI uri = URI.create("http://localhost:" + httpPort + "/api/broadcast/paxos/state?slot=0");
+            // warm up the connections to the peers
+            assertEquals(200, client.send(HttpRequest.newBuilder(uri).build(), HttpResponse.BodyHandlers.ofString()).statusCode());
+
+            held.held = true;
+            List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+            for (int i = 0; i < CLIENTS; i++) {
+                responses.add(client.sendAsync(HttpRequest.newBuilder(uri).build(), HttpResponse.BodyHandlers.ofString()));
+            }
+            // every request reaches the held peer while the few Tomcat threads are free again
+            assertTrue(held.arrived.await(30, TimeUnit.SECONDS),
+                    (CLIENTS - held.arrived.getCount()) + " of " + CLIENTS + " requests reached the held peer");
+            held.release.countDown();
+            for (CompletableFuture<HttpResponse<String>> response : responses) {
+                HttpResponse<String> answer = response.get(30, TimeUnit.SECONDS);
+                assertEquals(200, answer.statusCode());
+                assertTrue(answer.body().contains("\"3\""), answer.body());
+            }
+        } finally {
+            if (ctx != null) {
+                ctx.close();
+            }
+            for (Server peer : peers) {
+                peer.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+            }
+            for (PersistentPaxosAcceptorService acceptor : acceptors) {
+                acceptor.close();
+            }
+        }
+    }
+}
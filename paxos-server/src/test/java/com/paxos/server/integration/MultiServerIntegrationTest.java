@@ -1,8 +1,14 @@
 package com.paxos.server.integration;
 
+import com.google.protobuf.ByteString;
 import com.paxos.server.PaxosServerApplication;
+import com.paxos.server.model.AcceptResponse;
+import com.paxos.server.model.ChosenValue;
+import com.paxos.server.model.KvResult;
 import com.paxos.server.model.PaxosState;
 import com.paxos.server.model.PromiseResponse;
+import com.paxos.server.service.KvStateMachine;
+import com.paxos.server.service.PaxosForwardingService;
 import com.paxos.server.service.PersistentPaxosAcceptorService;
 import org.apache.tomcat.util.http.fileupload.FileUtils;
 import org.junit.jupiter.api.Test;
@@ -10,14 +16,20 @@ import org.springframework.boot.builder.SpringApplicationBuilder;
 import org.springframework.boot.test.web.client.TestRestTemplate;
 import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static com.paxos.server.integration.TestUtils.findAvailablePort;
 import static org.junit.jupiter.api.Assertions.*;
@@ -44,12 +56,11 @@ public class MultiServerIntegrationTest {
         }
     }
 
-    @Test
-    void testGetStateProposerController() throws Exception {
-        List<TestServerContext> contexts = new ArrayList<>();
-        List<Path> tempDirs = new ArrayList<>();
-        int serverCount = 3;
-
+    /**
+     * Launch serverCount fully independent Spring Boot contexts that talk to each other over grpc.
+     */
+    private static void startServers(int serverCount, List<TestServerContext> contexts, List<Path> tempDirs,
+                                     String... extraArgs) throws Exception {
         int baseGrpcPort = findAvailablePort();
         for (int i = 1; i <= serverCount; i++) {
             // this is just a hack while the grpc port
@@ -57,40 +68,72 @@ public class MultiServerIntegrationTest {
             // will fix when containerized using docker
             findAvailablePort();
         }
-
         System.out.println(baseGrpcPort);
 
-        try {
-            for (int i = 1; i <= serverCount; i++) {
-                // Create a unique temp dir for each server
-                Path tempDir = Files.createTempDirectory("paxos-server-" + i);
-                tempDirs.add(tempDir);
-
-                int httpPort = findAvailablePort();
-                int grpcPort = baseGrpcPort + i; // bad -- assuming it is free
-
-
-
-                // Launch a fully independent Spring Boot context
-                ConfigurableApplicationContext ctx = new SpringApplicationBuilder(PaxosServerApplication.class)
-                        .properties()
-                        .run(
-                                "--paxos.server.id=" + i,
-                                "--paxos.server.data.dir=" + tempDir.toAbsolutePath(),
-                                "--grpc.server.port=" + grpcPort,
-                                "--server.port=" + httpPort,
-                                "--paxos.server.grpc.base.port=" + baseGrpcPort,
-                                "--paxos.server.count=" + serverCount
-                        );
-
-                contexts.add(new TestServerContext(ctx, httpPort));
-
-                // Verify the bean is initialized correctly
-                PersistentPaxosAcceptorService service =
-                        ctx.getBean(PersistentPaxosAcceptorService.class);
-                assertNotNull(service);
-                System.out.println("Server " + i + " started with data dir: " + tempDir);
+        for (int i = 1; i <= serverCount; i++) {
+            // Create a unique temp dir for each server
+            Path tempDir = Files.createTempDirectory("paxos-server-" + i);
+            tempDirs.add(tempDir);
+
+            int httpPort = findAvailablePort();
+            int grpcPort = baseGrpcPort + i; // bad -- assuming it is free
+
+
+
+            // Launch a fully independent Spring Boot context
+            List<String> args = new ArrayList<>(List.of(
+                    "--paxos.server.id=" + i,
+                    "--paxos.server.data.dir=" + tempDir.toAbsolutePath(),
+                    "--grpc.server.port=" + grpcPort,
+                    "--server.port=" + httpPort,
+                    "--paxos.server.grpc.base.port=" + baseGrpcPort,
+                    "--paxos.server.count=" + serverCount
+            ));
+            args.addAll(List.of(extraArgs));
+            ConfigurableApplicationContext ctx = new SpringApplicationBuilder(PaxosServerApplication.class)
+                    .properties()
+                    .run(args.toArray(new String[0]));
+
+            contexts.add(new TestServerContext(ctx, httpPort));
+
+            // Verify the bean is initialized correctly
+            PersistentPaxosAcceptorService service =
+                    ctx.getBean(PersistentPaxosAcceptorService.class);
+            assertNotNull(service);
+            System.out.println("Server " + i + " started with data dir: " + tempDir);
+        }
+
+        // every server reached every other one (pinged while they were still starting) and
+        // the circuits opened meanwhile closed with the first pongs
+        for (TestServerContext ctx : contexts) {
+            PaxosForwardingService forwarding = ctx.sprintCtx.getBean(PaxosForwardingService.class);
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (!forwarding.peerStatus().values().stream().allMatch(peer ->
+                    peer.getSinceLastPongMillis() >= 0 && peer.getCircuit().equals("CLOSED"))
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
             }
+        }
+    }
+
+    private static void stopServers(List<TestServerContext> contexts, List<Path> tempDirs) throws Exception {
+        // Cleanup: stop all servers and delete temp dirs
+        for (TestServerContext ctx : contexts) {
+            ctx.sprintCtx.close();
+        }
+        for (Path dir : tempDirs) {
+            FileUtils.deleteDirectory(dir.toFile());
+        }
+    }
+
+    @Test
+    void testGetStateProposerController() throws Exception {
+        List<TestServerContext> contexts = new ArrayList<>();
+        List<Path> tempDirs = new ArrayList<>();
+        int serverCount = 3;
+
+        try {
+            startServers(serverCount, contexts, tempDirs);
 
             // At this point, all 3 servers are independent and can talk to each other
             TestRestTemplate httpTemplate = new TestRestTemplate();
@@ -122,15 +165,277 @@ public class MultiServerIntegrationTest {
                 assertEquals(i, state.getPromisedId());
             }
 
+            // one call runs both phases from server 2, a later proposal in the slot gets the same value
+            ResponseEntity<ChosenValue> chosen = httpTemplate.postForEntity(
+                    contexts.get(1).baseUrl + "/api/propose?value=first&slot=1", null, ChosenValue.class);
+            assertTrue(chosen.getStatusCode().is2xxSuccessful(), chosen.toString());
+            assertEquals("first", chosen.getBody().getValue());
+            ResponseEntity<ChosenValue> again = httpTemplate.postForEntity(
+                    contexts.get(2).baseUrl + "/api/propose?value=second&slot=1", null, ChosenValue.class);
+            assertTrue(again.getStatusCode().is2xxSuccessful(), again.toString());
+            assertEquals("first", again.getBody().getValue());
+            assertTrue(again.getBody().getProposalId() > chosen.getBody().getProposalId());
+
+            // binary values go through both as the raw request body
+            byte[] binary = {0, (byte) 0xff, (byte) 0xc3, 0x28};
+            HttpHeaders headers = new HttpHeaders();
+            headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+            ResponseEntity<ChosenValue> chosenBytes = httpTemplate.postForEntity(
+                    contexts.get(1).baseUrl + "/api/propose/bytes?slot=2", new HttpEntity<>(binary, headers),
+                    ChosenValue.class);
+            assertTrue(chosenBytes.getStatusCode().is2xxSuccessful(), chosenBytes.toString());
+            assertEquals(ByteString.copyFrom(binary), chosenBytes.getBody().getValueBytes());
+            ResponseEntity<Map<Integer, AcceptResponse>> accepts = httpTemplate.exchange(
+                    contexts.get(0).baseUrl + "/api/broadcast/paxos/accept/bytes?id=1&slot=3",
+                    HttpMethod.POST,
+                    new HttpEntity<>(binary, headers),
+                    new ParameterizedTypeReference<Map<Integer, AcceptResponse>>() {}
+            );
+            assertTrue(accepts.getStatusCode().is2xxSuccessful(), accepts.toString());
+            for (AcceptResponse accept : accepts.getBody().values()) {
+                assertFalse(accept.isIgnored());
+                assertEquals(ByteString.copyFrom(binary), accept.getAcceptedValueBytes());
+            }
 
         } finally {
-            // Cleanup: stop all servers and delete temp dirs
+            stopServers(contexts, tempDirs);
+        }
+    }
+
+    @Test
+    void testLeaderProposeAndPreemption() throws Exception {
+        List<TestServerContext> contexts = new ArrayList<>();
+        List<Path> tempDirs = new ArrayList<>();
+        int serverCount = 3;
+
+        try {
+            startServers(serverCount, contexts, tempDirs);
+            TestRestTemplate httpTemplate = new TestRestTemplate();
+
+            // server 1 becomes leader on its first proposal, later ones reuse the ballot
+            ChosenValue first = propose(httpTemplate, contexts.get(0), "a");
+            ChosenValue second = propose(httpTemplate, contexts.get(0), "b");
+            assertEquals(0, first.getSlot());
+            assertEquals(1, second.getSlot());
+            assertEquals(first.getProposalId(), second.getProposalId());
+
+            // server 2 takes over, recovering the slots server 1 got chosen
+            ChosenValue third = propose(httpTemplate, contexts.get(1), "c");
+            assertEquals(2, third.getSlot());
+            assertTrue(third.getProposalId() > second.getProposalId());
+
+            // server 1 is preempted, runs phase 1 again and continues after server 2's slot
+            ChosenValue fourth = propose(httpTemplate, contexts.get(0), "d");
+            assertEquals(3, fourth.getSlot());
+            assertTrue(fourth.getProposalId() > third.getProposalId());
+
+            String[] values = {"a", "b", "c", "d"};
+            for (TestServerContext ctx : contexts) {
+                PersistentPaxosAcceptorService acceptor = ctx.sprintCtx.getBean(PersistentPaxosAcceptorService.class);
+                for (int slot = 0; slot < values.length; slot++) {
+                    PaxosState state = acceptor.getState(slot);
+                    if (state.getAcceptedId() >= 0) {
+                        assertEquals(values[slot], state.getAcceptedValue(), "slot " + slot);
+                    }
+                }
+            }
+
+            // a binary value reaches every acceptor over grpc as the same bytes
+            byte[] binary = {0, (byte) 0xff, (byte) 0xc3, 0x28};
+            HttpHeaders headers = new HttpHeaders();
+            headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+            ResponseEntity<ChosenValue> fifth = httpTemplate.postForEntity(
+                    contexts.get(0).baseUrl + "/api/leader/propose/bytes", new HttpEntity<>(binary, headers), ChosenValue.class);
+            assertTrue(fifth.getStatusCode().is2xxSuccessful(), fifth.toString());
+            assertEquals(4, fifth.getBody().getSlot());
             for (TestServerContext ctx : contexts) {
-                ctx.sprintCtx.close();
+                PaxosState state = ctx.sprintCtx.getBean(PersistentPaxosAcceptorService.class).getState(4);
+                if (state.getAcceptedId() >= 0) {
+                    assertEquals(ByteString.copyFrom(binary), state.getAcceptedValueBytes());
+                }
+            }
+        } finally {
+            stopServers(contexts, tempDirs);
+        }
+    }
+
+    @Test
+    void testLeaderLeaseReads() throws Exception {
+        List<TestServerContext> contexts = new ArrayList<>();
+        List<Path> tempDirs = new ArrayList<>();
+        long leaseMillis = 500;
+
+        try {
+            startServers(3, contexts, tempDirs, "--paxos.lease.millis=" + leaseMillis);
+            TestRestTemplate httpTemplate = new TestRestTemplate();
+            // freshly started acceptors make no promises for one lease duration
+            Thread.sleep(leaseMillis + 100);
+
+            ChosenValue first = propose(httpTemplate, contexts.get(0), "a");
+            ResponseEntity<ChosenValue> read = httpTemplate.getForEntity(
+                    contexts.get(0).baseUrl + "/api/leader/read?slot=" + first.getSlot(), ChosenValue.class);
+            assertEquals(HttpStatus.OK, read.getStatusCode());
+            assertEquals("a", read.getBody().getValue());
+            ResponseEntity<byte[]> bytes = httpTemplate.getForEntity(
+                    contexts.get(0).baseUrl + "/api/leader/read/bytes?slot=" + first.getSlot(), byte[].class);
+            assertEquals(HttpStatus.OK, bytes.getStatusCode());
+            assertArrayEquals("a".getBytes(StandardCharsets.UTF_8), bytes.getBody());
+
+            ResponseEntity<ChosenValue> empty = httpTemplate.getForEntity(
+                    contexts.get(0).baseUrl + "/api/leader/read?slot=" + (first.getSlot() + 1), ChosenValue.class);
+            assertEquals(HttpStatus.NOT_FOUND, empty.getStatusCode());
+
+            // server 1 renews its lease, so server 2 gets no promises and cannot take over
+            Thread.sleep(2 * leaseMillis);
+            ResponseEntity<String> takeover = httpTemplate.postForEntity(
+                    contexts.get(1).baseUrl + "/api/leader/propose?value=b", null, String.class);
+            assertTrue(takeover.getStatusCode().is5xxServerError(), takeover.toString());
+
+            ChosenValue second = propose(httpTemplate, contexts.get(0), "c");
+            assertEquals(first.getSlot() + 1, second.getSlot());
+            assertEquals(first.getProposalId(), second.getProposalId());
+
+            // key-value reads are served under the lease
+            String kvUrl = contexts.get(0).baseUrl + "/api/kv/k";
+            httpTemplate.put(kvUrl + "?value=v", null);
+            ResponseEntity<KvResult> get = httpTemplate.getForEntity(kvUrl, KvResult.class);
+            assertEquals(HttpStatus.OK, get.getStatusCode());
+            assertEquals("v", get.getBody().getValue());
+            assertEquals(second.getSlot() + 1, get.getBody().getIndex());
+        } finally {
+            stopServers(contexts, tempDirs);
+        }
+    }
+
+    @Test
+    void testKvStore() throws Exception {
+        List<TestServerContext> contexts = new ArrayList<>();
+        List<Path> tempDirs = new ArrayList<>();
+
+        try {
+            startServers(3, contexts, tempDirs);
+            TestRestTemplate httpTemplate = new TestRestTemplate();
+            String first = contexts.get(0).baseUrl + "/api/kv/";
+
+            httpTemplate.put(first + "a?value=1", null);
+            ResponseEntity<KvResult> swapped = httpTemplate.postForEntity(first + "a/cas?expected=1&value=2", null, KvResult.class);
+            assertEquals(HttpStatus.OK, swapped.getStatusCode());
+            ResponseEntity<KvResult> conflict = httpTemplate.postForEntity(first + "a/cas?expected=1&value=3", null, KvResult.class);
+            assertEquals(HttpStatus.CONFLICT, conflict.getStatusCode());
+            assertEquals("2", conflict.getBody().getValue());
+            ResponseEntity<KvResult> created = httpTemplate.postForEntity(first + "b/cas?value=x", null, KvResult.class);
+            assertEquals(HttpStatus.OK, created.getStatusCode());
+            httpTemplate.delete(first + "b");
+            assertEquals(HttpStatus.NOT_FOUND, httpTemplate.getForEntity(first + "b", KvResult.class).getStatusCode());
+
+            // server 3 never proposed, it learns the decisions from the accepts and applies them
+            TestServerContext third = contexts.get(2);
+            KvStateMachine thirdKv = third.sprintCtx.getBean(KvStateMachine.class);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (thirdKv.appliedIndex() < 5 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
             }
-            for (Path dir : tempDirs) {
-                FileUtils.deleteDirectory(dir.toFile());
+            assertEquals(5, thirdKv.appliedIndex());
+            ResponseEntity<ChosenValue> learned = httpTemplate.getForEntity(
+                    third.baseUrl + "/api/learner/decided?slot=0", ChosenValue.class);
+            assertEquals(HttpStatus.OK, learned.getStatusCode());
+            assertEquals(HttpStatus.NOT_FOUND, httpTemplate.getForEntity(
+                    third.baseUrl + "/api/learner/decided?slot=6", ChosenValue.class).getStatusCode());
+
+            // server 2 takes over, recovers the slots and applies them before its own commands
+            ResponseEntity<KvResult> read = httpTemplate.getForEntity(contexts.get(1).baseUrl + "/api/kv/a", KvResult.class);
+            assertEquals(HttpStatus.OK, read.getStatusCode());
+            assertEquals("2", read.getBody().getValue());
+            assertEquals(6, read.getBody().getIndex());
+
+            // every peer answered, no circuit is open and nobody is suspected
+            ResponseEntity<Map<String, Map<String, Object>>> peers = httpTemplate.exchange(
+                    contexts.get(0).baseUrl + "/health/peers", HttpMethod.GET, null,
+                    new ParameterizedTypeReference<>() {});
+            assertEquals(Set.of("2", "3"), peers.getBody().keySet());
+            peers.getBody().values().forEach(peer -> {
+                assertEquals("CLOSED", peer.get("circuit"));
+                assertEquals(false, peer.get("suspected"));
+            });
+        } finally {
+            stopServers(contexts, tempDirs);
+        }
+    }
+
+    @Test
+    void testMembershipChange() throws Exception {
+        List<TestServerContext> contexts = new ArrayList<>();
+        List<Path> tempDirs = new ArrayList<>();
+        String alpha = "--paxos.membership.alpha=8";
+
+        try {
+            startServers(3, contexts, tempDirs, alpha);
+            TestRestTemplate httpTemplate = new TestRestTemplate();
+            String first = contexts.get(0).baseUrl;
+            httpTemplate.put(first + "/api/kv/a?value=1", null);
+
+            // server 4 starts knowing the pool of 3, joins it and catches up from a peer
+            int baseGrpcPort = Integer.parseInt(contexts.get(0).sprintCtx.getEnvironment()
+                    .getProperty("paxos.server.grpc.base.port"));
+            Path tempDir = Files.createTempDirectory("paxos-server-4");
+            tempDirs.add(tempDir);
+            int httpPort = findAvailablePort();
+            ConfigurableApplicationContext ctx = new SpringApplicationBuilder(PaxosServerApplication.class)
+                    .run("--paxos.server.id=4",
+                            "--paxos.server.data.dir=" + tempDir.toAbsolutePath(),
+                            "--grpc.server.port=" + (baseGrpcPort + 4),
+                            "--server.port=" + httpPort,
+                            "--paxos.server.grpc.base.port=" + baseGrpcPort,
+                            "--paxos.server.count=3",
+                            alpha);
+            TestServerContext fourth = new TestServerContext(ctx, httpPort);
+            contexts.add(fourth);
+
+            ResponseEntity<ChosenValue> added = httpTemplate.postForEntity(
+                    first + "/api/membership/add?id=4&address=localhost:" + (baseGrpcPort + 4), null, ChosenValue.class);
+            assertEquals(HttpStatus.OK, added.getStatusCode(), added.toString());
+            ResponseEntity<KvResult> caughtUp = httpTemplate.postForEntity(
+                    fourth.baseUrl + "/api/kv/catch-up", null, KvResult.class);
+            assertEquals(HttpStatus.OK, caughtUp.getStatusCode());
+            assertTrue(caughtUp.getBody().getIndex() >= added.getBody().getSlot() + 7, caughtUp.toString());
+
+            ResponseEntity<Map<String, Object>> current = httpTemplate.exchange(
+                    fourth.baseUrl + "/api/membership/current", HttpMethod.GET, null,
+                    new ParameterizedTypeReference<>() {});
+            assertEquals(Set.of("1", "2", "3", "4"), ((Map<?, ?>) current.getBody().get("members")).keySet());
+
+            // the new member leads
+            ResponseEntity<KvResult> read = httpTemplate.getForEntity(fourth.baseUrl + "/api/kv/a", KvResult.class);
+            assertEquals(HttpStatus.OK, read.getStatusCode());
+            assertEquals("1", read.getBody().getValue());
+
+            // server 2 leaves and stops, the remaining three still make a majority
+            ResponseEntity<ChosenValue> removed = httpTemplate.postForEntity(
+                    fourth.baseUrl + "/api/membership/remove?id=2", null, ChosenValue.class);
+            assertEquals(HttpStatus.OK, removed.getStatusCode(), removed.toString());
+            contexts.get(1).sprintCtx.close();
+            // server 1 drains its channel once it applied the slots up to where the change is in effect
+            PaxosForwardingService firstPeers = contexts.get(0).sprintCtx.getBean(PaxosForwardingService.class);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (firstPeers.peers().contains(2) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
             }
+            assertEquals(List.of(3, 4), firstPeers.peers());
+
+            httpTemplate.put(first + "/api/kv/b?value=2", null);
+            ResponseEntity<KvResult> written = httpTemplate.getForEntity(first + "/api/kv/b", KvResult.class);
+            assertEquals(HttpStatus.OK, written.getStatusCode());
+            assertEquals("2", written.getBody().getValue());
+        } finally {
+            stopServers(contexts, tempDirs);
         }
     }
+
+    private static ChosenValue propose(TestRestTemplate httpTemplate, TestServerContext ctx, String value) {
+        ResponseEntity<ChosenValue> resp = httpTemplate.postForEntity(
+                String.format("%s/api/leader/propose?value=%s", ctx.baseUrl, value), null, ChosenValue.class);
+        assertTrue(resp.getStatusCode().is2xxSuccessful(), resp.toString());
+        assertEquals(value, resp.getBody().getValue());
+        return resp.getBody();
+    }
 }
@@ -1,6 +1,9 @@
 package com.paxos.server.integration;
 
+import com.google.protobuf.ByteString;
 import com.paxos.server.model.AcceptResponse;
+import com.paxos.server.model.BatchRequest;
+import com.paxos.server.model.BatchResponse;
 import com.paxos.server.model.PaxosState;
 import com.paxos.server.model.PromiseResponse;
 import com.paxos.server.service.PersistentPaxosAcceptorService;
@@ -9,9 +12,14 @@ import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.observability.AutoConfigureObservability;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.web.client.TestRestTemplate;
 import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.DynamicPropertyRegistry;
@@ -26,6 +34,8 @@ import static com.paxos.server.integration.TestUtils.findAvailablePort;
 import static org.junit.jupiter.api.Assertions.*;
 
 @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+// metrics export is disabled in tests unless asked for
+@AutoConfigureObservability(tracing = false)
 @DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
 public class PaxosControllerTest {
 
@@ -187,4 +197,113 @@ public class PaxosControllerTest {
         assertEquals(10, state.getAcceptedId());
         assertEquals("test-value", state.getAcceptedValue());
     }
+
+    @Test
+    void testPrepare_isVisibleInPrometheusMetrics() {
+        restTemplate.postForEntity("/api/paxos/prepare?id=5", null, PromiseResponse.class);
+        restTemplate.postForEntity("/api/paxos/prepare?id=4", null, PromiseResponse.class);
+
+        ResponseEntity<String> metrics = restTemplate.getForEntity("/actuator/prometheus", String.class);
+
+        assertTrue(metrics.getStatusCode().is2xxSuccessful(), metrics.toString());
+        String body = metrics.getBody();
+        assertNotNull(body);
+        assertTrue(body.contains("paxos_acceptor_prepare_seconds_count{entrypoint=\"rest\",outcome=\"promised\""), body);
+        assertTrue(body.contains("paxos_acceptor_prepare_seconds_count{entrypoint=\"rest\",outcome=\"ignored\""), body);
+        assertTrue(body.contains("paxos_acceptor_prepare_seconds_bucket"), body);
+        assertTrue(body.contains("paxos_storage_persist_seconds_count{engine=\"json\",result=\"success\""), body);
+        assertTrue(body.contains("paxos_acceptor_promised_id{server=\"1\",} 5.0"), body);
+    }
+
+    @Test
+    void testAcceptBytes_thenStateBytes() {
+        byte[] value = {0, (byte) 0xff, (byte) 0xc3, 0x28, 'v'};
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+
+        // When: accepting a value that is not UTF-8 as the request body
+        ResponseEntity<AcceptResponse> acceptResponse = restTemplate.postForEntity(
+                "/api/paxos/accept/bytes?id=3&slot=2",
+                new HttpEntity<>(value, headers),
+                AcceptResponse.class
+        );
+        assertTrue(acceptResponse.getStatusCode().is2xxSuccessful());
+        assertNotNull(acceptResponse.getBody());
+        assertFalse(acceptResponse.getBody().isIgnored());
+        assertEquals(ByteString.copyFrom(value), acceptResponse.getBody().getAcceptedValueBytes());
+
+        // Then: the stored bytes come back unchanged
+        ResponseEntity<byte[]> bytes = restTemplate.getForEntity("/api/paxos/state/bytes?slot=2", byte[].class);
+        assertTrue(bytes.getStatusCode().is2xxSuccessful());
+        assertArrayEquals(value, bytes.getBody());
+        assertEquals(HttpStatus.NOT_FOUND,
+                restTemplate.getForEntity("/api/paxos/state/bytes?slot=3", byte[].class).getStatusCode());
+
+        // And: the JSON state carries them as base64
+        PaxosState state = restTemplate.getForEntity("/api/paxos/state?slot=2", PaxosState.class).getBody();
+        assertNotNull(state);
+        assertNull(state.getAcceptedValue());
+        assertEquals(ByteString.copyFrom(value), state.getAcceptedValueBytes());
+    }
+
+    @Test
+    void testAcceptBytes_thenPrepareAndProposeAgain() {
+        byte[] value = {(byte) 0x80, 0, (byte) 0xfe, 'x'};
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+        restTemplate.postForEntity("/api/paxos/accept/bytes?id=3&slot=1", new HttpEntity<>(value, headers),
+                AcceptResponse.class);
+
+        // When: a REST proposer prepares the slot with a higher id
+        ResponseEntity<String> json = restTemplate.postForEntity("/api/paxos/prepare?id=5&slot=1", null, String.class);
+        assertTrue(json.getStatusCode().is2xxSuccessful());
+        assertNotNull(json.getBody());
+        assertFalse(json.getBody().contains("\"acceptedValue\""), json.getBody());
+        assertTrue(json.getBody().contains("\"acceptedValueBase64\""), json.getBody());
+        PromiseResponse promise = restTemplate.postForEntity("/api/paxos/prepare?id=5&slot=1", null,
+                PromiseResponse.class).getBody();
+        assertNotNull(promise);
+        assertEquals(ByteString.copyFrom(value), promise.getAcceptedValueBytes());
+
+        // Then: the value it proposes again is the accepted one, byte for byte
+        restTemplate.postForEntity("/api/paxos/accept/bytes?id=5&slot=1",
+                new HttpEntity<>(promise.getAcceptedValueBytes().toByteArray(), headers), AcceptResponse.class);
+        ResponseEntity<byte[]> bytes = restTemplate.getForEntity("/api/paxos/state/bytes?slot=1", byte[].class);
+        assertArrayEquals(value, bytes.getBody());
+        assertEquals(5, restTemplate.getForEntity("/api/paxos/state?slot=1", PaxosState.class).getBody().getAcceptedId());
+    }
+
+    @Test
+    void testBatch_thenVerifyState() {
+        BatchRequest request = new BatchRequest()
+                .addPrepare(0, 10)
+                .addPrepare(1, 3)
+                .addAccept(0, 10, "batched")
+                .addAccept(1, 2, "stale");
+
+        ResponseEntity<BatchResponse> batchResponse = restTemplate.postForEntity(
+                "/api/paxos/batch",
+                request,
+                BatchResponse.class
+        );
+
+        assertTrue(batchResponse.getStatusCode().is2xxSuccessful());
+        BatchResponse batch = batchResponse.getBody();
+        assertNotNull(batch);
+        assertEquals(2, batch.getPrepares().size());
+        assertEquals(10L, batch.getPrepares().get(0).getPromisedId());
+        assertEquals(3L, batch.getPrepares().get(1).getPromisedId());
+        assertEquals(2, batch.getAccepts().size());
+        assertFalse(batch.getAccepts().get(0).isIgnored());
+        assertTrue(batch.getAccepts().get(1).isIgnored());
+
+        PaxosState state = restTemplate.getForEntity("/api/paxos/state", PaxosState.class).getBody();
+        assertNotNull(state);
+        assertEquals(10, state.getAcceptedId());
+        assertEquals("batched", state.getAcceptedValue());
+        PaxosState slot1 = restTemplate.getForEntity("/api/paxos/state?slot=1", PaxosState.class).getBody();
+        assertNotNull(slot1);
+        assertEquals(3, slot1.getPromisedId());
+        assertEquals(-1, slot1.getAcceptedId());
+    }
 }
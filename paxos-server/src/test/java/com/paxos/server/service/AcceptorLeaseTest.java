@@ -0,0 +1,151 @@
+package com.paxos.server.service;
+
+import com.google.common.base.Ticker;
+import com.paxos.server.model.LeaderPromiseResponse;
+import com.paxos.server.model.LeaseResponse;
+import com.paxos.server.model.PromiseResponse;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Leader leases on simulated clocks.
+ */
+class AcceptorLeaseTest {
+
+    private static final long LEASE_MILLIS = 1000;
+    private static final double MAX_DRIFT = 0.01;
+    private static final long MARGIN_MILLIS = 20;
+
+    // ballots of round 1
+    private static final long BALLOT_1 = ballot(1, 1);
+    private static final long BALLOT_2 = ballot(1, 2);
+
+    @TempDir
+    Path tmpDir;
+
+    private final SimulatedTime time = new SimulatedTime();
+
+    private static long ballot(long round, int server) {
+        return (round << LeaderService.SERVER_BITS) | server;
+    }
+
+    private PersistentPaxosAcceptorService acceptor(Ticker clock) {
+        PersistentPaxosAcceptorService svc =
+                new PersistentPaxosAcceptorService(3, tmpDir.toString(), new PaxosAcceptorService());
+        svc.setLease(LEASE_MILLIS, clock);
+        svc.init();
+        return svc;
+    }
+
+    @Test
+    @DisplayName("a started acceptor makes no promise for one lease duration")
+    void testNoPromisesAfterStart() {
+        PersistentPaxosAcceptorService svc = acceptor(time.clock(1));
+        assertTrue(svc.prepare(0, BALLOT_1).isIgnored());
+        assertTrue(svc.prepareFrom(0, BALLOT_1).isIgnored());
+
+        time.advance(LEASE_MILLIS);
+        assertFalse(svc.prepareFrom(0, BALLOT_1).isIgnored());
+    }
+
+    @Test
+    @DisplayName("while a lease is held only the holder gets promises")
+    void testLeaseBlocksOtherServers() {
+        PersistentPaxosAcceptorService svc = acceptor(time.clock(1));
+        time.advance(LEASE_MILLIS);
+        assertFalse(svc.prepareFrom(0, BALLOT_1).isIgnored());
+        assertFalse(svc.grantLease(1, BALLOT_1, LEASE_MILLIS).isIgnored());
+
+        // a higher ballot of another server is refused, in every kind of prepare
+        long higher = ballot(5, 2);
+        assertTrue(svc.prepareFrom(0, higher).isIgnored());
+        PromiseResponse promise = svc.prepare(3, higher);
+        assertTrue(promise.isIgnored());
+        assertEquals(BALLOT_1, promise.getPromisedId());
+        assertTrue(svc.grantLease(2, higher, LEASE_MILLIS).isIgnored());
+
+        // the holder may raise its own ballot and keeps its lease
+        long holderHigher = ballot(2, 1);
+        LeaderPromiseResponse promotion = svc.prepareFrom(0, holderHigher);
+        assertFalse(promotion.isIgnored());
+        assertFalse(svc.grantLease(1, holderHigher, LEASE_MILLIS).isIgnored());
+
+        // once it ran out another server takes over
+        time.advance(LEASE_MILLIS);
+        assertFalse(svc.prepareFrom(0, higher).isIgnored());
+        assertFalse(svc.grantLease(2, higher, LEASE_MILLIS).isIgnored());
+        assertTrue(svc.grantLease(1, holderHigher, LEASE_MILLIS).isIgnored());
+    }
+
+    @Test
+    @DisplayName("a lease is refused for a ballot below a promise")
+    void testLeaseBelowPromise() {
+        PersistentPaxosAcceptorService svc = acceptor(time.clock(1));
+        time.advance(LEASE_MILLIS);
+        assertFalse(svc.prepare(7, BALLOT_2).isIgnored());
+
+        LeaseResponse refused = svc.grantLease(1, BALLOT_1, LEASE_MILLIS);
+        assertTrue(refused.isIgnored());
+        assertEquals(BALLOT_2, refused.getPromisedId());
+        assertFalse(svc.grantLease(2, BALLOT_2, LEASE_MILLIS).isIgnored());
+    }
+
+    @Test
+    @DisplayName("the promise a lease depends on survives a restart")
+    void testRestart() {
+        PersistentPaxosAcceptorService svc = acceptor(time.clock(1));
+        time.advance(LEASE_MILLIS);
+        assertFalse(svc.prepareFrom(0, BALLOT_2).isIgnored());
+        assertFalse(svc.grantLease(2, BALLOT_2, LEASE_MILLIS).isIgnored());
+        svc.close();
+
+        PersistentPaxosAcceptorService restarted = acceptor(time.clock(1));
+        // the granted lease may still run, so the restarted acceptor promises nothing
+        assertTrue(restarted.prepareFrom(0, ballot(9, 1)).isIgnored());
+        time.advance(LEASE_MILLIS);
+        // and a lower ballot does not get a lease afterwards either
+        assertTrue(restarted.grantLease(1, BALLOT_1, LEASE_MILLIS).isIgnored());
+        assertFalse(restarted.grantLease(1, ballot(9, 1), LEASE_MILLIS).isIgnored());
+    }
+
+    @Test
+    @DisplayName("leases are ignored when disabled")
+    void testDisabled() {
+        PersistentPaxosAcceptorService svc =
+                new PersistentPaxosAcceptorService(3, tmpDir.toString(), new PaxosAcceptorService());
+        svc.init();
+        assertTrue(svc.grantLease(1, BALLOT_1, LEASE_MILLIS).isIgnored());
+        assertFalse(svc.prepare(0, BALLOT_2).isIgnored());
+    }
+
+    @Test
+    @DisplayName("the leader's lease ends before the acceptor's with clocks drifting apart by the bound")
+    void testLeaderLeaseEndsFirst() {
+        // leader clock slow, acceptor clock fast, the lease request takes 5ms to arrive
+        Ticker leaderClock = time.clock(1 - MAX_DRIFT / 2);
+        Ticker acceptorClock = time.clock(1 + MAX_DRIFT / 2);
+        AcceptorLease lease = new AcceptorLease(acceptorClock, LEASE_MILLIS);
+        time.advance(LEASE_MILLIS);
+
+        long start = leaderClock.read();
+        time.advance(5);
+        assertFalse(lease.grant(1, BALLOT_1, LEASE_MILLIS, -1).isIgnored());
+        long validUntil = LeaderService.leaseValidUntil(start, LEASE_MILLIS, MAX_DRIFT, MARGIN_MILLIS);
+
+        int leaderMillis = 0;
+        while (leaderClock.read() - validUntil < 0) {
+            assertFalse(lease.guard(() -> lease.blocks(BALLOT_1)));
+            assertTrue(lease.guard(() -> lease.blocks(BALLOT_2)),
+                    "acceptor lease ran out while the leader still holds it, after " + leaderMillis + "ms");
+            time.advance(1);
+            leaderMillis++;
+        }
+        // the leader gave up its lease within the drift and margin
+        assertTrue(leaderMillis > LEASE_MILLIS * (1 - 2 * MAX_DRIFT) - MARGIN_MILLIS - 5, "lease used: " + leaderMillis);
+    }
+}
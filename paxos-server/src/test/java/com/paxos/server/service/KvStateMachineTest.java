@@ -0,0 +1,169 @@
+package com.paxos.server.service;
+
+import com.google.protobuf.ByteString;
+import com.paxos.server.model.ChosenValue;
+import com.paxos.server.model.KvCommand;
+import com.paxos.server.model.KvSnapshot;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Applying chosen commands, without a leader proposing them.
+ */
+class KvStateMachineTest {
+
+    private final KvStateMachine stateMachine = new KvStateMachine(new LeaderService());
+    private final TreeMap<Long, ChosenValue> waiting = new TreeMap<>();
+
+    private void decide(long slot, KvCommand.Op op, String key, String value, String expected) {
+        ByteString command = KvStateMachine.encode(new KvCommand("test-" + slot, op, key, value, expected));
+        waiting.put(slot, new ChosenValue(slot, 1, command));
+    }
+
+    @Test
+    @DisplayName("commands are applied in slot order once the slots below them are chosen")
+    void testAppliedInSlotOrder() {
+        decide(1, KvCommand.Op.PUT, "a", "2", null);
+        decide(2, KvCommand.Op.CAS, "a", "3", "2");
+        assertEquals(0, stateMachine.applyReady(waiting));
+        assertEquals(-1, stateMachine.appliedIndex());
+
+        decide(0, KvCommand.Op.PUT, "a", "1", null);
+        // the three consecutive slots are applied as one batch
+        assertEquals(3, stateMachine.applyReady(waiting));
+        assertEquals(2, stateMachine.appliedIndex());
+        assertEquals(Map.of("a", "3"), stateMachine.entries());
+        assertTrue(waiting.isEmpty());
+    }
+
+    @Test
+    @DisplayName("no-ops and values that are not commands take up their slot")
+    void testSkipsOtherValues() {
+        waiting.put(0L, new ChosenValue(0, 1, LeaderService.NO_OP));
+        waiting.put(1L, new ChosenValue(1, 1, "plain value"));
+        waiting.put(2L, new ChosenValue(2, 1, "{\"unrelated\": true}"));
+        decide(3, KvCommand.Op.PUT, "b", "x", null);
+
+        assertEquals(4, stateMachine.applyReady(waiting));
+        assertEquals(3, stateMachine.appliedIndex());
+        assertEquals(Map.of("b", "x"), stateMachine.entries());
+    }
+
+    @Test
+    @DisplayName("changes in the membership envelope are applied, invalid ones and look-alikes are skipped")
+    void testMembershipChanges() {
+        MembershipService membership = new MembershipService(1, Map.of(1, "h1", 2, "h2", 3, "h3"), 4);
+        stateMachine.setMembership(membership);
+        // what a client could get chosen through the text or bytes endpoints
+        waiting.put(0L, new ChosenValue(0, 1, "{\"members\":{}}"));
+        waiting.put(1L, new ChosenValue(1, 1, "{\"members\":5}"));
+        waiting.put(2L, new ChosenValue(2, 1, MembershipService.CHANGE_PREFIX.concat(ByteString.copyFromUtf8("{\"members\":5}"))));
+        waiting.put(3L, new ChosenValue(3, 1, MembershipService.CHANGE_PREFIX.concat(ByteString.copyFromUtf8("{\"members\":{}}"))));
+        waiting.put(4L, new ChosenValue(4, 1, MembershipService.CHANGE_PREFIX.concat(ByteString.copyFromUtf8("{\"members\":{\"-1\":\"h\"}}"))));
+        waiting.put(5L, new ChosenValue(5, 1, MembershipService.encode(Map.of(1, "h1", 2, "h2"))));
+        decide(6, KvCommand.Op.PUT, "a", "1", null);
+
+        assertEquals(7, stateMachine.applyReady(waiting));
+        assertEquals(6, stateMachine.appliedIndex());
+        assertEquals(6, membership.appliedIndex());
+        assertEquals(Map.of("a", "1"), stateMachine.entries());
+        assertEquals(2, membership.configs().size());
+        assertEquals(Map.of(1, "h1", 2, "h2"), membership.configFor(5 + 4).getMembers());
+        assertTrue(waiting.isEmpty());
+    }
+
+    @Test
+    @DisplayName("slots stay waiting until they are applied")
+    void testWaitingUntilApplied() {
+        decide(0, KvCommand.Op.PUT, "a", "1", null);
+        decide(2, KvCommand.Op.PUT, "a", "3", null);
+        assertEquals(1, stateMachine.applyReady(waiting));
+        assertEquals(Set.of(2L), waiting.keySet());
+
+        decide(1, KvCommand.Op.PUT, "a", "2", null);
+        assertEquals(2, stateMachine.applyReady(waiting));
+        assertEquals(Map.of("a", "3"), stateMachine.entries());
+        assertTrue(waiting.isEmpty());
+    }
+
+    @Test
+    @DisplayName("cas only swaps the expected value, delete removes the key")
+    void testCasAndDelete() {
+        decide(0, KvCommand.Op.CAS, "k", "1", null);
+        decide(1, KvCommand.Op.CAS, "k", "2", null);
+        decide(2, KvCommand.Op.CAS, "k", "3", "0");
+        stateMachine.applyReady(waiting);
+        assertEquals(Map.of("k", "1"), stateMachine.entries());
+
+        decide(3, KvCommand.Op.DELETE, "k", null, null);
+        decide(4, KvCommand.Op.CAS, "k", "4", null);
+        decide(5, KvCommand.Op.DELETE, "other", null, null);
+        stateMachine.applyReady(waiting);
+        assertEquals(Map.of("k", "4"), stateMachine.entries());
+        assertEquals(5, stateMachine.appliedIndex());
+    }
+
+    @Test
+    @DisplayName("snapshot is written in the background and restored on start")
+    void testSnapshotRestore(@TempDir Path tmpDir) throws InterruptedException {
+        LeaderService leader = new LeaderService();
+        KvStateMachine snapshotting = new KvStateMachine(leader, tmpDir.toString(), 3);
+        snapshotting.start();
+        decide(0, KvCommand.Op.PUT, "a", "1", null);
+        decide(1, KvCommand.Op.PUT, "b", "2", null);
+        snapshotting.applyReady(waiting);
+        snapshotting.maybeSnapshot();
+        // fewer than 3 slots applied since the last snapshot
+        assertEquals(-1, snapshotting.snapshotIndex());
+
+        decide(2, KvCommand.Op.DELETE, "a", null, null);
+        snapshotting.applyReady(waiting);
+        snapshotting.maybeSnapshot();
+        for (int i = 0; i < 100 && snapshotting.snapshotIndex() < 2; i++) {
+            Thread.sleep(20);
+        }
+        assertEquals(2, snapshotting.snapshotIndex());
+        // the leader forgets the chosen values in the snapshot
+        assertEquals(3, leader.compactedBelow());
+        snapshotting.close();
+
+        LeaderService restartedLeader = new LeaderService();
+        KvStateMachine restarted = new KvStateMachine(restartedLeader, tmpDir.toString(), 3);
+        restarted.start();
+        assertEquals(2, restarted.appliedIndex());
+        assertEquals(2, restarted.snapshotIndex());
+        assertEquals(Map.of("b", "2"), restarted.entries());
+        assertEquals(3, restartedLeader.compactedBelow());
+        restarted.close();
+    }
+
+    @Test
+    @DisplayName("an installed snapshot replaces the contents, slots it covers are skipped")
+    void testInstallSnapshot() {
+        decide(0, KvCommand.Op.PUT, "old", "1", null);
+        stateMachine.applyReady(waiting);
+
+        stateMachine.install(new KvSnapshot(5, Map.of("a", "5")));
+        assertEquals(5, stateMachine.appliedIndex());
+        assertEquals(5, stateMachine.snapshotIndex());
+        assertEquals(Map.of("a", "5"), stateMachine.entries());
+
+        for (int slot = 1; slot <= 6; slot++) {
+            decide(slot, KvCommand.Op.PUT, "a", String.valueOf(slot), null);
+        }
+        assertEquals(1, stateMachine.applyReady(waiting));
+        assertEquals(Map.of("a", "6"), stateMachine.entries());
+
+        // an older snapshot changes nothing
+        stateMachine.install(new KvSnapshot(3, Map.of()));
+        assertEquals(6, stateMachine.appliedIndex());
+    }
+}
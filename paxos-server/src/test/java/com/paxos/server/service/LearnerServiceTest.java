@@ -0,0 +1,184 @@
+package com.paxos.server.service;
+
+import com.paxos.server.model.ChosenValue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Deciding values from accept notifications of a pool of 3, and watching them.
+ */
+class LearnerServiceTest {
+
+    private LearnerService learner;
+
+    @BeforeEach
+    void setUp() {
+        learner = new LearnerService(1, 3, 4);
+        learner.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        learner.close();
+    }
+
+    /**
+     * Collects what a watcher is sent.
+     */
+    private static class Collector implements DecisionStream.Sink {
+        final BlockingQueue<ChosenValue> values = new LinkedBlockingQueue<>();
+        final CompletableFuture<Throwable> closed = new CompletableFuture<>();
+
+        @Override
+        public void send(ChosenValue value) {
+            values.add(value);
+        }
+
+        @Override
+        public void close(Throwable error) {
+            closed.complete(error);
+        }
+
+        long nextSlot() throws InterruptedException {
+            ChosenValue value = values.poll(5, TimeUnit.SECONDS);
+            assertNotNull(value, "no value sent");
+            return value.getSlot();
+        }
+    }
+
+    private void decide(long slot) {
+        learner.learn(1, slot, 10, "v" + slot);
+        learner.learn(2, slot, 10, "v" + slot);
+    }
+
+    @Test
+    @DisplayName("a value is decided once a majority accepted the same proposal id")
+    void testMajorityOfSameId() {
+        List<ChosenValue> decided = new ArrayList<>();
+        learner.addListener(decided::add);
+
+        learner.learn(1, 0, 10, "a");
+        learner.learn(2, 0, 11, "b");
+        // the same acceptor twice is one vote
+        learner.learn(1, 0, 10, "a");
+        assertTrue(learner.decided(0).isEmpty());
+        assertTrue(decided.isEmpty());
+
+        learner.learn(3, 0, 10, "a");
+        assertEquals("a", learner.decided(0).orElseThrow().getValue());
+        assertEquals(10, learner.decided(0).orElseThrow().getProposalId());
+
+        // later accepts of the slot change nothing
+        learner.learn(2, 0, 12, "c");
+        learner.learn(3, 0, 12, "c");
+        assertEquals(1, decided.size());
+        assertEquals("a", learner.decided(0).orElseThrow().getValue());
+    }
+
+    @Test
+    @DisplayName("with a membership only members count, and only once the slot's configuration is known")
+    void testMembershipQuorum() {
+        MembershipService membership = new MembershipService(1, Map.of(1, "a", 2, "b", 3, "c"), 2);
+        LearnerService members = new LearnerService(1, 3, 4);
+        members.setMembership(membership);
+        members.start();
+        try {
+            // server 4 is not a member, two votes of three members decide
+            members.learn(1, 0, 10, "x");
+            members.learn(4, 0, 10, "x");
+            assertTrue(members.decided(0).isEmpty());
+            members.learn(2, 0, 10, "x");
+            assertEquals("x", members.decided(0).orElseThrow().getValue());
+
+            // a change in slot 0 could take effect in slot 2, its votes are held until slot 0 is applied
+            members.learn(1, 2, 10, "y");
+            members.learn(2, 2, 10, "y");
+            assertTrue(members.decided(2).isEmpty());
+
+            membership.apply(0, MembershipService.encode(Map.of(1, "a", 2, "b", 3, "c", 4, "d", 5, "e")));
+            membership.applied(0);
+            // a majority of five members is three
+            assertTrue(members.decided(2).isEmpty());
+            members.learn(5, 2, 10, "y");
+            assertEquals("y", members.decided(2).orElseThrow().getValue());
+
+            // held votes are counted once the slot's configuration is known
+            members.learn(1, 3, 10, "z");
+            members.learn(2, 3, 10, "z");
+            members.learn(3, 3, 10, "z");
+            assertTrue(members.decided(3).isEmpty());
+            membership.applied(1);
+            assertEquals("z", members.decided(3).orElseThrow().getValue());
+        } finally {
+            members.close();
+        }
+    }
+
+    @Test
+    @DisplayName("a watcher gets the held values from its slot on, then every new one")
+    void testWatchReplaysThenFollows() throws InterruptedException {
+        decide(0);
+        decide(1);
+        decide(2);
+        Collector collector = new Collector();
+        learner.watch(1, collector);
+        assertEquals(1, collector.nextSlot());
+        assertEquals(2, collector.nextSlot());
+
+        decide(4);
+        decide(3);
+        assertEquals(4, collector.nextSlot());
+        assertEquals(3, collector.nextSlot());
+
+        // nothing below a compaction is replayed
+        learner.compactBelow(3);
+        Collector late = new Collector();
+        learner.watch(0, late);
+        assertEquals(3, late.nextSlot());
+        assertEquals(4, late.nextSlot());
+    }
+
+    @Test
+    @DisplayName("a watcher that falls too far behind is closed with an error")
+    void testSlowWatcherIsClosed() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        Collector collector = new Collector() {
+            @Override
+            public void send(ChosenValue value) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.send(value);
+            }
+        };
+        learner.watch(0, collector);
+        // one value is being sent, the next 4 fill the buffer, the 6th overflows it
+        for (int slot = 0; slot < 6; slot++) {
+            decide(slot);
+        }
+        Throwable error = collector.closed.get(5, TimeUnit.SECONDS);
+        assertNotNull(error);
+        release.countDown();
+
+        // a cancelled watcher is no longer sent anything
+        Collector cancelled = new Collector();
+        learner.watch(10, cancelled).cancel();
+        decide(10);
+        assertNull(cancelled.values.poll(100, TimeUnit.MILLISECONDS));
+    }
+}
@@ -0,0 +1,176 @@
+package com.paxos.server.service;
+
+import com.google.protobuf.ByteString;
+import com.paxos.server.model.AcceptResponse;
+import com.paxos.server.model.LeaderPromiseResponse;
+import com.paxos.server.model.PaxosState;
+import com.paxos.server.model.PromiseResponse;
+import com.paxos.server.storage.StateRecord;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LockFreePaxosAcceptorTest {
+
+    private LockFreePaxosAcceptor acceptor;
+
+    @BeforeEach
+    void setUp() {
+        acceptor = new LockFreePaxosAcceptor();
+    }
+
+    @Test
+    @DisplayName("prepare and accept follow the paxos acceptor rules")
+    void testProtocol() {
+        assertEquals(new PaxosState(-1, -1), acceptor.getState(0));
+
+        LockFreePaxosAcceptor.Transition<PromiseResponse> promise = acceptor.prepare(0, 5);
+        assertFalse(promise.ignored);
+        assertTrue(promise.changed());
+        assertEquals(5L, promise.response.getPromisedId());
+
+        // lower accept is ignored and changes nothing
+        LockFreePaxosAcceptor.Transition<AcceptResponse> accept = acceptor.acceptRequest(0, 4, ByteString.copyFromUtf8("four"));
+        assertTrue(accept.ignored);
+        assertTrue(accept.response.isIgnored());
+        assertFalse(accept.changed());
+
+        accept = acceptor.acceptRequest(0, 5, ByteString.copyFromUtf8("five"));
+        assertFalse(accept.ignored);
+        assertTrue(accept.changed());
+        assertEquals(new PaxosState(5, 5, "five"), acceptor.getState(0));
+
+        // repeated accept succeeds without a change
+        accept = acceptor.acceptRequest(0, 5, ByteString.copyFromUtf8("five"));
+        assertFalse(accept.ignored);
+        assertFalse(accept.changed());
+
+        // higher prepare returns the accepted proposal
+        promise = acceptor.prepare(0, 7);
+        assertEquals(5L, promise.response.getAcceptedId());
+        assertEquals("five", promise.response.getAcceptedValue());
+        assertEquals(new PaxosState(7, 5, "five"), acceptor.getState(0));
+
+        // lower prepare is ignored and reports the current promise
+        promise = acceptor.prepare(0, 6);
+        assertTrue(promise.ignored);
+        assertFalse(promise.changed());
+        assertEquals(7L, promise.response.getPromisedId());
+    }
+
+    @Test
+    @DisplayName("slots are independent and untouched slots do not allocate")
+    void testSlots() {
+        acceptor.acceptRequest(100000, 3, ByteString.copyFromUtf8("far"));
+        assertEquals(new PaxosState(3, 3, "far"), acceptor.getState(100000));
+        assertEquals(new PaxosState(-1, -1), acceptor.getState(0));
+        assertEquals(new PaxosState(-1, -1), acceptor.getState(1L << 30));
+        assertEquals(100000, acceptor.maxSlot());
+
+        List<Long> visited = new ArrayList<>();
+        acceptor.forEachSlot((slot, state) -> visited.add(slot));
+        assertEquals(List.of(100000L), visited);
+        assertThrows(IllegalArgumentException.class, () -> acceptor.prepare(-1, 1));
+    }
+
+    @Test
+    @DisplayName("restored states are merged monotonically")
+    void testRestore() {
+        acceptor.restoreState(1, new PaxosState(9, 4, "four"));
+        acceptor.restoreState(1, new PaxosState(5, -1));
+        acceptor.restoreState(1, new PaxosState(6, 3, "three"));
+        assertEquals(new PaxosState(9, 4, "four"), acceptor.getState(1));
+        assertTrue(acceptor.prepare(1, 10).before.durable.isDone());
+    }
+
+    @Test
+    @DisplayName("leader promise covers every slot and reports accepted slots")
+    void testLeaderPromise() {
+        acceptor.acceptRequest(2, 3, ByteString.copyFromUtf8("two"));
+        LockFreePaxosAcceptor.Transition<LeaderPromiseResponse> promise = acceptor.prepareFrom(1, 10);
+        assertFalse(promise.ignored);
+        assertEquals(StateRecord.ALL_SLOTS, promise.slot);
+        assertEquals(1, promise.response.getAccepted().size());
+        assertEquals(2, promise.response.getAccepted().get(0).getSlot());
+
+        assertEquals(new PaxosState(10, 3, "two"), acceptor.getState(2));
+        assertEquals(10L, acceptor.acceptRequest(5, 9, ByteString.copyFromUtf8("low")).response.getPromisedId());
+        assertTrue(acceptor.prepare(5, 10).ignored);
+        assertTrue(acceptor.prepareFrom(0, 10).ignored);
+
+        LockFreePaxosAcceptor restored = new LockFreePaxosAcceptor();
+        acceptor.forEachSlot(restored::restoreState);
+        assertEquals(10, restored.leaderPromisedId());
+    }
+
+    @Test
+    @DisplayName("an accept racing a leader promise is either reported to the leader or ignored")
+    void testAcceptRacingLeaderPromise() throws Exception {
+        for (int round = 0; round < 20; round++) {
+            LockFreePaxosAcceptor racing = new LockFreePaxosAcceptor();
+            int slots = 2000;
+            Set<Long> acceptedSlots = ConcurrentHashMap.newKeySet();
+            CountDownLatch started = new CountDownLatch(1);
+            Thread proposer = new Thread(() -> {
+                started.countDown();
+                for (long slot = 0; slot < slots; slot++) {
+                    if (!racing.acceptRequest(slot, 1, ByteString.copyFromUtf8("old")).ignored) {
+                        acceptedSlots.add(slot);
+                    }
+                }
+            });
+            proposer.start();
+            started.await();
+            LeaderPromiseResponse promise = racing.prepareFrom(0, 2).response;
+            proposer.join();
+
+            Set<Long> reported = ConcurrentHashMap.newKeySet();
+            promise.getAccepted().forEach(accepted -> reported.add(accepted.getSlot()));
+            assertTrue(reported.containsAll(acceptedSlots), "round " + round);
+        }
+    }
+
+    @Test
+    @DisplayName("racing prepares promise each proposal at most once and keep the highest")
+    void testConcurrentPrepares() throws Exception {
+        int threads = 8;
+        int proposals = 2000;
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger promised = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    int id;
+                    while ((id = next.incrementAndGet()) <= proposals) {
+                        if (!acceptor.prepare(0, id).ignored) {
+                            promised.incrementAndGet();
+                        }
+                        acceptor.getState(0);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(proposals, acceptor.getState(0).getPromisedId());
+        assertTrue(promised.get() >= 1 && promised.get() <= proposals);
+    }
+}
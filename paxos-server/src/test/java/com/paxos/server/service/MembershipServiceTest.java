@@ -0,0 +1,106 @@
+package com.paxos.server.service;
+
+import com.google.protobuf.ByteString;
+import com.paxos.server.model.ClusterConfig;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Configurations of a pool of 3 changing with an alpha window of {@value #ALPHA} slots.
+ */
+class MembershipServiceTest {
+
+    private static final long ALPHA = 4;
+
+    private final MembershipService membership =
+            new MembershipService(1, Map.of(1, "h1", 2, "h2", 3, "h3"), ALPHA);
+
+    @Test
+    @DisplayName("a change chosen in slot i is in effect from slot i + alpha")
+    void testChangeTakesEffectAfterAlpha() {
+        assertTrue(membership.settled(ALPHA - 1));
+        assertFalse(membership.settled(ALPHA));
+
+        membership.apply(0, ByteString.copyFromUtf8("not a change"));
+        membership.apply(1, MembershipService.encode(membership.adding(4, "h4")));
+        membership.applied(1);
+
+        assertEquals(Set.of(1, 2, 3), membership.configFor(1 + ALPHA - 1).getMembers().keySet());
+        assertEquals(Set.of(1, 2, 3, 4), membership.configFor(1 + ALPHA).getMembers().keySet());
+        assertEquals(3, membership.configFor(1 + ALPHA).majority());
+        assertEquals(4, membership.latest().getMembers().size());
+        assertTrue(membership.settled(1 + ALPHA));
+        assertFalse(membership.settled(2 + ALPHA));
+
+        // applying the same slot again, e.g. replayed after a restart, changes nothing
+        membership.apply(1, MembershipService.encode(Map.of(1, "h1")));
+        assertEquals(2, membership.configs().size());
+    }
+
+    @Test
+    @DisplayName("a phase 1 quorum covers every configuration from its slot on")
+    void testConfigsFrom() {
+        membership.apply(2, MembershipService.encode(membership.removing(3)));
+        membership.applied(2);
+
+        List<ClusterConfig> configs = membership.configsFrom(1);
+        assertEquals(2, configs.size());
+        assertFalse(configs.stream().allMatch(config -> config.isQuorum(List.of(1, 3))));
+        assertTrue(configs.stream().allMatch(config -> config.isQuorum(List.of(1, 2))));
+        assertEquals(1, membership.configsFrom(2 + ALPHA).size());
+    }
+
+    @Test
+    @DisplayName("changes among values not applied yet count for the slots after them")
+    void testUnappliedChanges() {
+        Map<Long, ByteString> recovered = Map.of(0L, ByteString.copyFromUtf8(LeaderService.NO_OP),
+                1L, MembershipService.encode(Map.of(1, "h1", 2, "h2")));
+        assertEquals(3, membership.configFor(1 + ALPHA - 1, recovered).getMembers().size());
+        assertEquals(Set.of(1, 2), membership.configFor(1 + ALPHA, recovered).getMembers().keySet());
+        // only the applied ones are kept
+        assertEquals(3, membership.configFor(1 + ALPHA).getMembers().size());
+    }
+
+    @Test
+    @DisplayName("the last member cannot be removed, nor a server that is no member")
+    void testInvalidChanges() {
+        assertThrows(IllegalStateException.class, () -> membership.removing(4));
+        assertThrows(IllegalStateException.class, () -> membership.adding(2, "h2"));
+        assertThrows(IllegalStateException.class, () -> membership.adding(0, "h0"));
+
+        membership.apply(0, MembershipService.encode(Map.of(1, "h1")));
+        assertThrows(IllegalStateException.class, () -> membership.removing(1));
+    }
+
+    @Test
+    @DisplayName("members are validated before proposing a change")
+    void testEncodeValidates() {
+        assertThrows(IllegalStateException.class, () -> MembershipService.encode(Map.of()));
+        assertThrows(IllegalStateException.class, () -> MembershipService.encode(Map.of(0, "h0")));
+        assertThrows(IllegalStateException.class, () -> MembershipService.encode(Map.of(1, " ")));
+        assertTrue(MembershipService.isChange(MembershipService.encode(Map.of(1, "h1"))));
+    }
+
+    @Test
+    @DisplayName("only values in the envelope with valid members change the pool")
+    void testSpoofedAndInvalidChangesSkipped() {
+        ByteString bare = ByteString.copyFromUtf8("{\"members\":{\"1\":\"h1\"}}");
+        assertFalse(MembershipService.isChange(bare));
+        membership.apply(0, bare);
+        membership.apply(1, MembershipService.CHANGE_PREFIX.concat(ByteString.copyFromUtf8("{\"members\":{}}")));
+        membership.apply(2, MembershipService.CHANGE_PREFIX.concat(ByteString.copyFromUtf8("{\"members\":5}")));
+        membership.apply(3, MembershipService.CHANGE_PREFIX.concat(ByteString.copyFromUtf8("{\"members\":{\"2\":null}}")));
+        membership.apply(4, MembershipService.CHANGE_PREFIX);
+        assertEquals(1, membership.configs().size());
+
+        Map<Long, ByteString> recovered = Map.of(1L,
+                MembershipService.CHANGE_PREFIX.concat(ByteString.copyFromUtf8("{\"members\":{}}")));
+        assertEquals(3, membership.configFor(1 + ALPHA, recovered).getMembers().size());
+    }
+}
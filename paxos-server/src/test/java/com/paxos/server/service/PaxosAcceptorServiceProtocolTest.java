@@ -1,6 +1,7 @@
 package com.paxos.server.service;
 
 import com.paxos.server.model.AcceptResponse;
+import com.paxos.server.model.LeaderPromiseResponse;
 import com.paxos.server.model.PaxosState;
 import com.paxos.server.model.PromiseResponse;
 import org.junit.jupiter.api.BeforeEach;
@@ -561,6 +562,129 @@ class PaxosAcceptorServiceProtocolTest {
         }
     }
 
+    // ==================== Multi-Slot Tests ====================
+
+    @Nested
+    @DisplayName("Multi-Slot (Multi-Paxos) Tests")
+    class MultiSlotTests {
+
+        @Test
+        @DisplayName("Slots are independent paxos instances")
+        void testSlotsAreIndependent() {
+            svc.prepare(1, 10);
+            svc.acceptRequest(1, 10, "one");
+
+            // a lower proposal is still fine on another slot
+            PromiseResponse promise = svc.prepare(2, 5);
+            verifyPromise(promise, false, 5L, null, null);
+
+            verifyState(svc.getState(), -1, -1, null);
+            verifyState(svc.getState(1), 10, 10, "one");
+            verifyState(svc.getState(2), 5, -1, null);
+            assertEquals(2, svc.maxSlot());
+        }
+
+        @Test
+        @DisplayName("Slot-less calls operate on slot 0")
+        void testDefaultSlotIsZero() {
+            svc.prepare(3);
+            svc.acceptRequest(3, "zero");
+            verifyState(svc.getState(0), 3, 3, "zero");
+        }
+
+        @Test
+        @DisplayName("Slots far apart and across pages keep their state")
+        void testSparseSlots() {
+            long far = 10L * SlotTable.PAGE_SIZE + 7;
+            svc.acceptRequest(far, 4, "far");
+            svc.acceptRequest(SlotTable.PAGE_SIZE - 1, 3, "edge");
+
+            verifyState(svc.getState(far), 4, 4, "far");
+            verifyState(svc.getState(SlotTable.PAGE_SIZE - 1), 3, 3, "edge");
+            verifyState(svc.getState(SlotTable.PAGE_SIZE), -1, -1, null);
+            verifyState(svc.getState(far + SlotTable.PAGE_SIZE * 100L), -1, -1, null);
+            assertEquals(far, svc.maxSlot());
+        }
+
+        @Test
+        @DisplayName("Negative slot is rejected")
+        void testNegativeSlot() {
+            assertThrows(IllegalArgumentException.class, () -> svc.prepare(-1, 1));
+        }
+    }
+
+    // ==================== Leader Promise Tests ====================
+
+    @Nested
+    @DisplayName("Leader Promise (prepareFrom) Tests")
+    class LeaderPromiseTests {
+
+        @Test
+        @DisplayName("Leader promise covers every slot, including slots never used")
+        void testPromiseCoversEverySlot() {
+            LeaderPromiseResponse promise = svc.prepareFrom(0, 10);
+            assertFalse(promise.isIgnored());
+            assertEquals(10L, promise.getPromisedId());
+            assertTrue(promise.getAccepted().isEmpty());
+
+            verifyState(svc.getState(0), 10, -1, null);
+            verifyState(svc.getState(12345), 10, -1, null);
+            verifyAccept(svc.acceptRequest(7, 9, "low"), true, null, null);
+            verifyAccept(svc.acceptRequest(7, 10, "leader"), false, 10L, "leader");
+            assertTrue(svc.prepare(8, 10).isIgnored());
+        }
+
+        @Test
+        @DisplayName("Leader promise returns the accepted proposals at or above fromSlot")
+        void testPromiseReturnsAcceptedSlots() {
+            svc.acceptRequest(1, 3, "one");
+            svc.acceptRequest(5, 4, "five");
+            svc.prepare(6, 2);
+
+            LeaderPromiseResponse promise = svc.prepareFrom(2, 8);
+            assertFalse(promise.isIgnored());
+            assertEquals(1, promise.getAccepted().size());
+            LeaderPromiseResponse.AcceptedSlot accepted = promise.getAccepted().get(0);
+            assertEquals(5, accepted.getSlot());
+            assertEquals(4, accepted.getAcceptedId());
+            assertEquals("five", accepted.getAcceptedValue());
+        }
+
+        @Test
+        @DisplayName("Lower or equal leader promise is ignored and reports the current one")
+        void testLowerLeaderPromiseIgnored() {
+            svc.prepareFrom(0, 10);
+            LeaderPromiseResponse promise = svc.prepareFrom(0, 10);
+            assertTrue(promise.isIgnored());
+            assertEquals(10L, promise.getPromisedId());
+            assertTrue(svc.prepareFrom(3, 4).isIgnored());
+            assertEquals(10, svc.leaderPromisedId());
+        }
+
+        @Test
+        @DisplayName("Slot promise above the leader's preempts the leader in that slot only")
+        void testHigherSlotPromisePreemptsLeader() {
+            svc.prepareFrom(0, 10);
+            svc.prepare(3, 20);
+
+            AcceptResponse preempted = svc.acceptRequest(3, 10, "leader");
+            assertTrue(preempted.isIgnored());
+            assertEquals(20L, preempted.getPromisedId());
+            verifyAccept(svc.acceptRequest(4, 10, "leader"), false, 10L, "leader");
+        }
+
+        @Test
+        @DisplayName("Leader promise is visited as ALL_SLOTS and restored")
+        void testLeaderPromiseRestore() {
+            svc.prepareFrom(0, 10);
+            PaxosAcceptorService restored = new PaxosAcceptorService();
+            svc.forEachSlot(restored::restoreState);
+            assertEquals(10, restored.leaderPromisedId());
+            assertEquals(-1, restored.maxSlot());
+            verifyState(restored.getState(99), 10, -1, null);
+        }
+    }
+
     // ==================== Helper Methods ====================
 
     private void verifyState(PaxosState state, long pId, long aId, String aVal) {
@@ -0,0 +1,132 @@
+package com.paxos.server.service;
+
+import com.paxos.server.model.PeerStatus;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Deadlines and the circuit breaker of one peer on a simulated clock.
+ */
+class PeerHealthTest {
+
+    private static final long MIN_DEADLINE_MILLIS = 100;
+    private static final long MAX_DEADLINE_MILLIS = 5000;
+    private static final int FAILURES = 3;
+    private static final long OPEN_MILLIS = 1000;
+
+    private final SimulatedTime time = new SimulatedTime();
+    private final PeerHealth health = new PeerHealth(2, time.clock(1), MIN_DEADLINE_MILLIS, MAX_DEADLINE_MILLIS,
+            3, FAILURES, OPEN_MILLIS);
+
+    private void succeed(int times, long latencyMillis) {
+        for (int i = 0; i < times; i++) {
+            assertTrue(health.tryAcquire());
+            health.success(TimeUnit.MILLISECONDS.toNanos(latencyMillis));
+        }
+    }
+
+    @Test
+    @DisplayName("the deadline follows the p99 latency, within its bounds")
+    void testDeadlineFollowsLatency() {
+        assertEquals(MAX_DEADLINE_MILLIS, health.deadlineMillis());
+
+        succeed(PeerHealth.MIN_SAMPLES - 1, 50);
+        assertEquals(MAX_DEADLINE_MILLIS, health.deadlineMillis());
+        succeed(1, 50);
+        assertEquals(150, health.deadlineMillis());
+
+        // a slower peer gets more time once its slow requests are in the p99
+        succeed(PeerHealth.WINDOW, 400);
+        assertEquals(1200, health.deadlineMillis());
+
+        // never below the minimum, nor above the maximum
+        succeed(PeerHealth.WINDOW, 1);
+        assertEquals(MIN_DEADLINE_MILLIS, health.deadlineMillis());
+        succeed(PeerHealth.WINDOW, 10_000);
+        assertEquals(MAX_DEADLINE_MILLIS, health.deadlineMillis());
+    }
+
+    @Test
+    @DisplayName("a step up in latency past the deadline widens it instead of timing out forever")
+    void testDeadlineWidensOnTimeouts() {
+        succeed(PeerHealth.WINDOW, 50);
+        assertEquals(150, health.deadlineMillis());
+
+        // the peer now takes 400ms, requests time out at 150 and 300, the third one gets through
+        int timeouts = 0;
+        for (int i = 0; i < PeerHealth.WINDOW; i++) {
+            if (!health.tryAcquire()) {
+                time.advance(OPEN_MILLIS);
+                assertTrue(health.tryAcquire());
+            }
+            long deadline = health.deadlineMillis();
+            if (deadline < 400) {
+                timeouts++;
+                health.timeout(deadline);
+            } else {
+                health.success(TimeUnit.MILLISECONDS.toNanos(400));
+            }
+        }
+        assertEquals(2, timeouts);
+        assertEquals(PeerHealth.State.CLOSED, health.state());
+        assertEquals(1200, health.deadlineMillis());
+
+        // requests in flight together widen it once, and never past the maximum
+        health.timeout(1200);
+        health.timeout(1200);
+        assertEquals(2400, health.deadlineMillis());
+        health.timeout(4000);
+        assertEquals(MAX_DEADLINE_MILLIS, health.deadlineMillis());
+    }
+
+    @Test
+    @DisplayName("consecutive failures open the circuit until a probe succeeds")
+    void testCircuitOpensAndCloses() {
+        for (int i = 0; i < FAILURES; i++) {
+            assertEquals(PeerHealth.State.CLOSED, health.state());
+            assertTrue(health.tryAcquire());
+            health.failure();
+        }
+        assertEquals(PeerHealth.State.OPEN, health.state());
+        assertFalse(health.tryAcquire());
+
+        // one probe after the open time, nothing else while it is in flight
+        time.advance(OPEN_MILLIS);
+        assertTrue(health.tryAcquire());
+        assertEquals(PeerHealth.State.HALF_OPEN, health.state());
+        assertFalse(health.tryAcquire());
+
+        // a failed probe opens it for another open time
+        health.failure();
+        assertEquals(PeerHealth.State.OPEN, health.state());
+        time.advance(OPEN_MILLIS - 1);
+        assertFalse(health.tryAcquire());
+        time.advance(1);
+        assertTrue(health.tryAcquire());
+        health.success(TimeUnit.MILLISECONDS.toNanos(5));
+        assertEquals(PeerHealth.State.CLOSED, health.state());
+
+        PeerStatus status = health.status(0, false, -1);
+        assertEquals(2, status.getServerId());
+        assertEquals("CLOSED", status.getCircuit());
+        assertEquals(0, status.getConsecutiveFailures());
+        assertEquals(3, status.getRejected());
+    }
+
+    @Test
+    @DisplayName("a success in between resets the failure count")
+    void testSuccessResetsFailures() {
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < FAILURES - 1; i++) {
+                assertTrue(health.tryAcquire());
+                health.failure();
+            }
+            succeed(1, 5);
+        }
+        assertEquals(PeerHealth.State.CLOSED, health.state());
+    }
+}
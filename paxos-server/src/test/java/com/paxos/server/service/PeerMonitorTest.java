@@ -0,0 +1,69 @@
+package com.paxos.server.service;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Phi accrual suspicion of peers on a simulated clock, pinged every {@value #INTERVAL_MILLIS}ms.
+ */
+class PeerMonitorTest {
+
+    private static final long INTERVAL_MILLIS = 200;
+    private static final double THRESHOLD = 8;
+
+    private final SimulatedTime time = new SimulatedTime();
+    private final PeerMonitor monitor = new PeerMonitor(1, 3, time.clock(1), INTERVAL_MILLIS, THRESHOLD);
+
+    private void pongs(int count, int... peers) {
+        for (int i = 0; i < count; i++) {
+            time.advance(INTERVAL_MILLIS);
+            for (int peer : peers) {
+                monitor.detector(peer).heartbeat();
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("a peer is not suspected before its first pong")
+    void testUnknownPeer() {
+        time.advance(60_000);
+        assertEquals(0, monitor.phi(2));
+        assertFalse(monitor.isSuspected(2));
+    }
+
+    @Test
+    @DisplayName("phi grows while pongs are missing, beyond the acceptable pause")
+    void testSuspicionGrowsWithSilence() {
+        pongs(20, 2);
+        assertTrue(monitor.phi(2) < 0.1);
+
+        // a second of silence is an acceptable pause
+        time.advance(1000);
+        assertFalse(monitor.isSuspected(2));
+        double paused = monitor.phi(2);
+
+        time.advance(300);
+        assertTrue(monitor.phi(2) > paused);
+        time.advance(300);
+        assertTrue(monitor.isSuspected(2));
+
+        // the next pong ends the suspicion
+        monitor.detector(2).heartbeat();
+        assertFalse(monitor.isSuspected(2));
+    }
+
+    @Test
+    @DisplayName("peers are ordered least suspected first")
+    void testOrderByPhi() {
+        pongs(20, 2, 3);
+        pongs(5, 3);
+        assertEquals(List.of(3, 2), monitor.byPhi());
+
+        pongs(10, 2);
+        assertEquals(List.of(2, 3), monitor.byPhi());
+    }
+}
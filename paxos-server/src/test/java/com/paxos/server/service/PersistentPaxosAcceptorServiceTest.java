@@ -2,15 +2,22 @@ package com.paxos.server.service;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.paxos.server.model.AcceptResponse;
+import com.paxos.server.model.BatchRequest;
+import com.paxos.server.model.BatchResponse;
 import com.paxos.server.model.PaxosState;
 import com.paxos.server.model.PromiseResponse;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.junit.jupiter.params.provider.ValueSource;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -161,4 +168,174 @@ class PersistentPaxosAcceptorServiceTest {
         assertEquals(lastModifiedBefore, stateFile.lastModified());
         assertEquals(stateBefore, readStateFile());
     }
-}
\ No newline at end of file
+
+    static Stream<Arguments> enginesAndModes() {
+        return Stream.of("json", "wal").flatMap(engine -> Stream.of(PersistentPaxosAcceptorService.MODE_LOCKED,
+                PersistentPaxosAcceptorService.MODE_LOCKFREE).map(mode -> Arguments.of(engine, mode)));
+    }
+
+    private PersistentPaxosAcceptorService start(String engine, String mode) {
+        PersistentPaxosAcceptorService svc = new PersistentPaxosAcceptorService(SERVER_ID,
+                tmpDir.resolve(engine + "-" + mode).toString(), engine, new PaxosAcceptorService());
+        svc.setAcceptorMode(mode);
+        svc.init();
+        return svc;
+    }
+
+    @ParameterizedTest(name = "{0}/{1}")
+    @MethodSource("enginesAndModes")
+    @DisplayName("state of every slot survives a restart")
+    void testMultipleSlotsSurviveRestart(String engine, String mode) {
+        PersistentPaxosAcceptorService svc = start(engine, mode);
+        svc.acceptRequest(0, 10, "zero");
+        svc.prepare(1, 11);
+        svc.acceptRequest(5000, 12, "far");
+        svc.close();
+
+        PersistentPaxosAcceptorService restarted = start(engine, mode);
+        assertEquals(new PaxosState(10, 10, "zero"), restarted.getState(0));
+        assertEquals(new PaxosState(11, -1), restarted.getState(1));
+        assertEquals(new PaxosState(12, 12, "far"), restarted.getState(5000));
+        assertEquals(new PaxosState(-1, -1), restarted.getState(2));
+        restarted.close();
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @ValueSource(strings = {"json", "wal"})
+    @DisplayName("lock-free mode persists and restores state, repeats wait for durability")
+    void testLockFreeMode(String engine) {
+        PersistentPaxosAcceptorService svc = start(engine, PersistentPaxosAcceptorService.MODE_LOCKFREE);
+        assertFalse(svc.prepare(0, 10).isIgnored());
+        assertFalse(svc.acceptRequest(0, 10, "ten").isIgnored());
+        assertFalse(svc.acceptRequest(0, 10, "ten").isIgnored());
+        assertTrue(svc.prepare(0, 9).isIgnored());
+        svc.prepare(3, 20);
+        svc.close();
+
+        PersistentPaxosAcceptorService restarted = start(engine, PersistentPaxosAcceptorService.MODE_LOCKFREE);
+        assertEquals(new PaxosState(10, 10, "ten"), restarted.getState(0));
+        assertEquals(new PaxosState(20, -1), restarted.getState(3));
+        assertEquals(3, restarted.maxSlot());
+        restarted.close();
+    }
+
+    @ParameterizedTest(name = "{0}/{1}")
+    @MethodSource("enginesAndModes")
+    @DisplayName("truncated slots are dropped, ignored and stay dropped after a restart")
+    void testTruncation(String engine, String mode) {
+        PersistentPaxosAcceptorService svc = start(engine, mode);
+        for (int slot = 0; slot < 300; slot++) {
+            svc.acceptRequest(slot, 10, "v" + slot);
+        }
+        svc.truncateBelow(250);
+        assertEquals(250, svc.truncatedBelow());
+        assertTrue(svc.prepare(10, 20).isIgnored());
+        assertTrue(svc.acceptRequest(249, 20, "late").isIgnored());
+        assertEquals(new PaxosState(10, 10, "v250"), svc.getState(250));
+        // a leader prepare only reports the slots that are kept
+        assertEquals(50, svc.prepareFrom(0, 30).getAccepted().size());
+        svc.close();
+
+        PersistentPaxosAcceptorService restarted = start(engine, mode);
+        assertEquals(250, restarted.truncatedBelow());
+        assertNull(restarted.getState(10).getAcceptedValue());
+        assertEquals(new PaxosState(30, 10, "v299"), restarted.getState(299));
+        assertTrue(restarted.acceptRequest(0, 40, "late").isIgnored());
+        restarted.close();
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @ValueSource(strings = {PersistentPaxosAcceptorService.MODE_LOCKED, PersistentPaxosAcceptorService.MODE_LOCKFREE})
+    @DisplayName("batch returns a result per entry and persists all of them, in both modes")
+    void testBatch(String mode) {
+        String dataDir = tmpDir.resolve(mode).toString();
+        PersistentPaxosAcceptorService svc =
+                new PersistentPaxosAcceptorService(SERVER_ID, dataDir, "wal", new PaxosAcceptorService());
+        svc.setAcceptorMode(mode);
+        svc.setGroupCommit(0, 16);
+        svc.init();
+        svc.prepare(2, 50);
+
+        BatchResponse response = svc.batch(new BatchRequest()
+                .addPrepare(0, 10)
+                .addPrepare(1, 11)
+                .addPrepare(2, 40)
+                .addAccept(0, 10, "zero")
+                .addAccept(1, 9, "stale")
+                .addAccept(2, 50, "two"));
+
+        assertEquals(3, response.getPrepares().size());
+        assertFalse(response.getPrepares().get(0).isIgnored());
+        assertFalse(response.getPrepares().get(1).isIgnored());
+        assertTrue(response.getPrepares().get(2).isIgnored());
+        assertEquals(3, response.getAccepts().size());
+        assertFalse(response.getAccepts().get(0).isIgnored());
+        assertTrue(response.getAccepts().get(1).isIgnored());
+        assertEquals("two", response.getAccepts().get(2).getAcceptedValue());
+
+        // a repeat of the whole batch changes nothing
+        BatchResponse repeat = svc.batch(new BatchRequest().addAccept(0, 10, "zero"));
+        assertFalse(repeat.getAccepts().get(0).isIgnored());
+        svc.close();
+
+        PersistentPaxosAcceptorService restarted =
+                new PersistentPaxosAcceptorService(SERVER_ID, dataDir, "wal", new PaxosAcceptorService());
+        restarted.setAcceptorMode(mode);
+        restarted.init();
+        assertEquals(new PaxosState(10, 10, "zero"), restarted.getState(0));
+        assertEquals(new PaxosState(11, -1), restarted.getState(1));
+        assertEquals(new PaxosState(50, 50, "two"), restarted.getState(2));
+        restarted.close();
+    }
+
+    @ParameterizedTest(name = "{0}/{1}")
+    @MethodSource("enginesAndModes")
+    @DisplayName("leader promise survives a restart for every engine and mode")
+    void testLeaderPromiseSurvivesRestart(String engine, String mode) {
+        PersistentPaxosAcceptorService svc = start(engine, mode);
+        svc.acceptRequest(0, 3, "zero");
+        assertFalse(svc.prepareFrom(0, 10).isIgnored());
+        svc.acceptRequest(4, 10, "four");
+        svc.close();
+
+        PersistentPaxosAcceptorService restarted = start(engine, mode);
+        assertEquals(10, restarted.leaderPromisedId());
+        assertEquals(new PaxosState(10, 3, "zero"), restarted.getState(0));
+        assertEquals(new PaxosState(10, 10, "four"), restarted.getState(4));
+        assertTrue(restarted.acceptRequest(7, 9, "low").isIgnored());
+        assertEquals(4, restarted.maxSlot());
+        restarted.close();
+    }
+
+    @ParameterizedTest(name = "group commit {0}")
+    @ValueSource(booleans = {false, true})
+    @DisplayName("a retried accept whose write failed is written before it is answered")
+    void testRetryAfterFailedWrite(boolean groupCommit) throws IOException {
+        PersistentPaxosAcceptorService svc =
+                new PersistentPaxosAcceptorService(SERVER_ID, tmpDir.toString(), new PaxosAcceptorService());
+        if (groupCommit) {
+            svc.setGroupCommit(0, 16);
+        }
+        svc.init();
+        svc.prepare(1, 10);
+
+        // a directory in place of the slots file makes every write of slot 1 fail
+        File slotsFile = tmpDir.resolve(String.valueOf(SERVER_ID)).resolve("paxos-slots.json").toFile();
+        assertTrue(slotsFile.delete());
+        assertTrue(slotsFile.mkdir());
+        assertThrows(IllegalStateException.class, () -> svc.acceptRequest(1, 10, "lost"));
+        // the state is already accepted in memory, the retry still has to write it
+        assertThrows(IllegalStateException.class, () -> svc.acceptRequest(1, 10, "lost"));
+        assertTrue(svc.prepare(1, 9).isIgnored());
+
+        assertTrue(slotsFile.delete());
+        assertFalse(svc.acceptRequest(1, 10, "lost").isIgnored());
+        svc.close();
+
+        PersistentPaxosAcceptorService restarted =
+                new PersistentPaxosAcceptorService(SERVER_ID, tmpDir.toString(), new PaxosAcceptorService());
+        restarted.init();
+        assertEquals(new PaxosState(10, 10, "lost"), restarted.getState(1));
+        restarted.close();
+    }
+}
@@ -0,0 +1,140 @@
+package com.paxos.server.service;
+
+import com.paxos.server.model.ChosenValue;
+import com.paxos.server.model.PaxosState;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Proposals against a pool of one acceptor.
+ */
+class ProposerServiceTest {
+
+    @TempDir
+    Path tmpDir;
+
+    private PersistentPaxosAcceptorService acceptor;
+    private BallotAllocator ballots;
+    private ProposerService proposer;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        acceptor = new PersistentPaxosAcceptorService(1, tmpDir.toString(), new PaxosAcceptorService());
+        acceptor.init();
+        proposer = newProposer();
+    }
+
+    @AfterEach
+    void tearDown() {
+        acceptor.close();
+    }
+
+    private ProposerService newProposer() throws IOException {
+        ballots = new BallotAllocator(1, tmpDir.toString());
+        ballots.start();
+        return new ProposerService(1, 1, ballots, acceptor, null);
+    }
+
+    @Test
+    @DisplayName("rounds are durable, a restarted proposer continues above the last one")
+    void testRoundSurvivesRestart() throws IOException {
+        ChosenValue first = proposer.propose(0, "a");
+        assertEquals("a", first.getValue());
+        assertEquals(1, LeaderService.serverOf(first.getProposalId()));
+        proposer.propose(1, "b");
+        assertEquals(2, proposer.round());
+
+        ProposerService restarted = newProposer();
+        assertEquals(2, restarted.round());
+        ChosenValue next = restarted.propose(2, "c");
+        assertEquals(3, restarted.round());
+        assertTrue(next.getProposalId() > first.getProposalId());
+    }
+
+    @Test
+    @DisplayName("the leader and the proposer of a server draw from one allocator, no ballot repeats")
+    void testBallotsSharedWithLeader() {
+        // what the leader's phase 1 takes with nothing promised yet
+        long leaderBallot = ballots.next(-1);
+        ChosenValue chosen = proposer.propose(0, "a");
+        assertTrue(chosen.getProposalId() > leaderBallot);
+        assertTrue(ballots.next(-1) > chosen.getProposalId());
+    }
+
+    @Test
+    @DisplayName("a value already accepted in the slot is proposed instead of the client's")
+    void testKeepsAcceptedValue() {
+        acceptor.prepare(0, 5);
+        acceptor.acceptRequest(0, 5, "earlier");
+
+        ChosenValue chosen = proposer.propose(0, "mine");
+        assertEquals("earlier", chosen.getValue());
+        assertEquals("earlier", acceptor.getState(0).getAcceptedValue());
+    }
+
+    @Test
+    @DisplayName("client values in the envelope of a membership change are refused")
+    void testRefusesMembershipEnvelope() {
+        assertThrows(IllegalStateException.class,
+                () -> proposer.propose(0, MembershipService.encode(Map.of(1, "h1"))));
+        assertNull(acceptor.getState(0).getAcceptedValue());
+    }
+
+    @Test
+    @DisplayName("quorums are a majority of the replicated membership, not of paxos.server.count")
+    void testQuorumOfMembership() {
+        proposer.setRetries(1, 1, 1);
+        proposer.setMembership(new MembershipService(1, Map.of(1, "h1", 2, "h2", 3, "h3"), 4));
+        // the local acceptor alone was a majority of one
+        assertThrows(IllegalStateException.class, () -> proposer.propose(0, "a"));
+
+        proposer.setMembership(new MembershipService(1, Map.of(1, "h1"), 4));
+        assertEquals("a", proposer.propose(0, "a").getValue());
+    }
+
+    @Test
+    @DisplayName("a slot's quorum waits until every change that can affect its configuration is applied")
+    void testQuorumWaitsForUnappliedChange() {
+        proposer.setRetries(1, 1, 1);
+        MembershipService membership = new MembershipService(1, Map.of(1, "h1"), 4);
+        proposer.setMembership(membership);
+        // a change in slot 1 takes effect at slot 5, the old majority of one must not be counted
+        assertThrows(IllegalStateException.class, () -> proposer.propose(5, "a"));
+        assertEquals(new PaxosState(-1, -1), acceptor.getState(5));
+
+        membership.apply(1, MembershipService.encode(Map.of(1, "h1")));
+        membership.applied(1);
+        assertEquals("a", proposer.propose(5, "a").getValue());
+    }
+
+    @Test
+    @DisplayName("retrying blindly one round at a time gives up below a much higher competing ballot")
+    void testBlindRetriesGiveUp() {
+        acceptor.prepare(0, (1000L << LeaderService.SERVER_BITS) | 2);
+        proposer.setContention(false, false, false);
+
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> proposer.propose(0, "v"));
+        assertTrue(e.getMessage().contains("5 rounds"), e.getMessage());
+        assertEquals(5, proposer.round());
+    }
+
+    @Test
+    @DisplayName("the retry jumps past the ballot reported by the ignored responses")
+    void testJumpsPastCompetingBallot() {
+        acceptor.prepare(0, (1000L << LeaderService.SERVER_BITS) | 2);
+
+        ChosenValue chosen = proposer.propose(0, "v");
+        assertEquals("v", chosen.getValue());
+        assertEquals(1001, proposer.round());
+        assertEquals((1001L << LeaderService.SERVER_BITS) | 1, chosen.getProposalId());
+    }
+}
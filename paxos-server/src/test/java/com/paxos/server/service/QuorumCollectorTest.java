@@ -0,0 +1,114 @@
+package com.paxos.server.service;
+
+import com.paxos.server.model.AcceptResponse;
+import com.paxos.server.model.ClusterConfig;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QuorumCollectorTest {
+
+    @Test
+    @DisplayName("completes once quorum is met without waiting for stragglers")
+    void testCompletesOnQuorum() {
+        QuorumCollector<AcceptResponse> collector = new QuorumCollector<>(2, AcceptResponse::isIgnored, "accept");
+        CompletableFuture<AcceptResponse> fast = new CompletableFuture<>();
+        CompletableFuture<AcceptResponse> stalled = new CompletableFuture<>();
+
+        collector.add(1, AcceptResponse.accept(5, "v"));
+        collector.add(2, fast);
+        collector.add(3, stalled);
+        CompletableFuture<Map<Integer, AcceptResponse>> result = collector.result();
+        assertFalse(result.isDone());
+
+        fast.complete(AcceptResponse.accept(5, "v"));
+        assertTrue(result.isDone());
+        assertEquals(2, result.join().size());
+
+        // straggler arriving afterwards does not change the result
+        stalled.complete(AcceptResponse.accept(5, "v"));
+        assertEquals(2, result.join().size());
+    }
+
+    @Test
+    @DisplayName("ignored responses do not count towards quorum")
+    void testIgnoredDoNotCount() {
+        QuorumCollector<AcceptResponse> collector = new QuorumCollector<>(2, AcceptResponse::isIgnored, "accept");
+        CompletableFuture<AcceptResponse> second = new CompletableFuture<>();
+        CompletableFuture<AcceptResponse> third = new CompletableFuture<>();
+
+        collector.add(1, AcceptResponse.accept(5, "v"));
+        collector.add(2, second);
+        collector.add(3, third);
+        CompletableFuture<Map<Integer, AcceptResponse>> result = collector.result();
+
+        second.complete(AcceptResponse.ignore());
+        assertFalse(result.isDone());
+
+        third.complete(AcceptResponse.accept(5, "v"));
+        assertEquals(2, result.join().size());
+        assertEquals(List.of(2), collector.ignoredServers());
+    }
+
+    @Test
+    @DisplayName("completes early once quorum is no longer reachable")
+    void testCompletesWhenQuorumUnreachable() {
+        QuorumCollector<AcceptResponse> collector = new QuorumCollector<>(2, AcceptResponse::isIgnored, "accept");
+        CompletableFuture<AcceptResponse> failed = new CompletableFuture<>();
+        CompletableFuture<AcceptResponse> stalled = new CompletableFuture<>();
+
+        collector.add(1, AcceptResponse.ignore());
+        collector.add(2, failed);
+        collector.add(3, stalled);
+        CompletableFuture<Map<Integer, AcceptResponse>> result = collector.result();
+        assertFalse(result.isDone());
+
+        failed.completeExceptionally(new RuntimeException("unavailable"));
+        assertTrue(result.isDone());
+        assertTrue(result.join().isEmpty());
+    }
+
+    @Test
+    @DisplayName("quorum of zero waits for every server")
+    void testZeroQuorumWaitsForAll() {
+        QuorumCollector<AcceptResponse> collector = new QuorumCollector<>(0, AcceptResponse::isIgnored, "accept");
+        CompletableFuture<AcceptResponse> second = new CompletableFuture<>();
+        CompletableFuture<AcceptResponse> third = new CompletableFuture<>();
+
+        collector.add(1, AcceptResponse.accept(5, "v"));
+        collector.add(2, second);
+        collector.add(3, third);
+        CompletableFuture<Map<Integer, AcceptResponse>> result = collector.result();
+
+        second.complete(AcceptResponse.accept(5, "v"));
+        assertFalse(result.isDone());
+
+        third.completeExceptionally(new RuntimeException("unavailable"));
+        assertEquals(2, result.join().size());
+    }
+
+    @Test
+    @DisplayName("a quorum of configuration members ignores the other servers")
+    void testConfigurationQuorum() {
+        ClusterConfig config = new ClusterConfig(0, Map.of(1, "a", 2, "b", 3, "c"));
+        QuorumCollector<AcceptResponse> collector =
+                new QuorumCollector<>(config::isQuorum, AcceptResponse::isIgnored, "accept");
+        CompletableFuture<AcceptResponse> member = new CompletableFuture<>();
+        CompletableFuture<AcceptResponse> other = new CompletableFuture<>();
+
+        collector.add(1, AcceptResponse.accept(5, "v"));
+        collector.add(4, other);
+        collector.add(2, member);
+        CompletableFuture<Map<Integer, AcceptResponse>> result = collector.result();
+
+        other.complete(AcceptResponse.accept(5, "v"));
+        assertFalse(result.isDone());
+        member.complete(AcceptResponse.accept(5, "v"));
+        assertEquals(3, result.join().size());
+    }
+}
@@ -0,0 +1,32 @@
+package com.paxos.server.service;
+
+import com.google.common.base.Ticker;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Real time for tests, advanced by hand. Each server reads it through its own clock,
+ * which may run faster or slower than real time.
+ */
+class SimulatedTime {
+
+    private long nanos;
+
+    void advance(long millis) {
+        nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+     * A clock running at rate times real time, e.g. 1.01 for a clock 1% fast.
+     */
+    Ticker clock(double rate) {
+        // clocks do not start at zero, so nothing depends on that
+        long offset = 1_000_000_000L * 3600;
+        return new Ticker() {
+            @Override
+            public long read() {
+                return offset + (long) (nanos * rate);
+            }
+        };
+    }
+}
@@ -0,0 +1,126 @@
+package com.paxos.server.storage;
+
+import com.paxos.server.model.PaxosState;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GroupCommitterTest {
+
+    /**
+     * Records every batch, the first batch blocks until released so that
+     * further submissions pile up behind it.
+     */
+    private static class RecordingStore implements PaxosStateStore {
+        final List<List<StateRecord>> batches = new ArrayList<>();
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public boolean load(SlotStateConsumer consumer) {
+            return false;
+        }
+
+        @Override
+        public void persist(StateRecord record) {
+            persistAll(List.of(record));
+        }
+
+        @Override
+        public void persistAll(List<StateRecord> records) {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            synchronized (batches) {
+                batches.add(new ArrayList<>(records));
+            }
+        }
+
+        @Override
+        public long bytesWritten() {
+            return 0;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static StateRecord promise(long promisedId) {
+        return new StateRecord(0, new PaxosState(promisedId, -1), true);
+    }
+
+    @Test
+    @DisplayName("states queued behind a sync are committed together and in order")
+    void testBatchesQueuedStates() {
+        RecordingStore store = new RecordingStore();
+        GroupCommitter committer = new GroupCommitter(store, 0, 256, "test-group-commit");
+        try {
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            for (int i = 1; i <= 10; i++) {
+                futures.add(committer.submit(promise(i)));
+            }
+            assertFalse(committer.lastSubmitted().isDone());
+
+            store.release.countDown();
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+            assertTrue(committer.lastSubmitted().isDone());
+
+            List<StateRecord> committed = new ArrayList<>();
+            store.batches.forEach(committed::addAll);
+            assertEquals(10, committed.size());
+            for (int i = 0; i < 10; i++) {
+                assertEquals(i + 1, committed.get(i).getState().getPromisedId());
+            }
+            // the first state may be taken alone, everything queued behind it shares a sync
+            assertTrue(store.batches.size() <= 2, "batches: " + store.batches.size());
+        } finally {
+            committer.close();
+        }
+    }
+
+    @Test
+    @DisplayName("batches are capped at the max batch size")
+    void testMaxBatchSize() {
+        RecordingStore store = new RecordingStore();
+        GroupCommitter committer = new GroupCommitter(store, 0, 3, "test-group-commit");
+        try {
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            for (int i = 1; i <= 10; i++) {
+                futures.add(committer.submit(promise(i)));
+            }
+            store.release.countDown();
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+
+            store.batches.forEach(batch -> assertTrue(batch.size() <= 3));
+        } finally {
+            committer.close();
+        }
+    }
+
+    @Test
+    @DisplayName("a failed sync fails every caller in the batch")
+    void testFailedBatch() {
+        PaxosStateStore failing = new RecordingStore() {
+            @Override
+            public void persistAll(List<StateRecord> records) {
+                throw new IllegalStateException("disk full");
+            }
+        };
+        GroupCommitter committer = new GroupCommitter(failing, 0, 256, "test-group-commit");
+        try {
+            CompletableFuture<Void> future = committer.submit(promise(1));
+            assertThrows(Exception.class, future::join);
+        } finally {
+            committer.close();
+        }
+    }
+}
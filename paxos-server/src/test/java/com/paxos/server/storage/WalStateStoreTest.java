@@ -0,0 +1,255 @@
+package com.paxos.server.storage;
+
+import com.google.protobuf.ByteString;
+import com.paxos.server.model.PaxosState;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WalStateStoreTest {
+
+    @TempDir
+    Path tmpDir;
+
+    /**
+     * Stand-in for the acceptor: holds the state of every slot, merges loaded
+     * records monotonically and is the source of checkpoints.
+     */
+    private static class Slots implements PaxosStateStore.SlotStateSource, PaxosStateStore.SlotStateConsumer {
+        final Map<Long, PaxosState> states = new TreeMap<>();
+
+        @Override
+        public void accept(long slot, PaxosState state) {
+            PaxosState current = states.getOrDefault(slot, new PaxosState(-1, -1));
+            long promisedId = Math.max(current.getPromisedId(), state.getPromisedId());
+            boolean newer = state.getAcceptedId() >= 0 && state.getAcceptedId() >= current.getAcceptedId();
+            PaxosState accepted = newer ? state : current;
+            states.put(slot, new PaxosState(promisedId, accepted.getAcceptedId(), accepted.getAcceptedValueBytes()));
+        }
+
+        @Override
+        public void forEachSlot(PaxosStateStore.SlotStateConsumer consumer) {
+            states.forEach(consumer::accept);
+        }
+
+        void persist(WalStateStore store, long slot, PaxosState state, boolean promise) throws IOException {
+            accept(slot, state);
+            store.persist(new StateRecord(slot, state, promise));
+        }
+    }
+
+    private Slots load(int compactEvery) throws IOException {
+        Slots slots = new Slots();
+        try (WalStateStore store = new WalStateStore(tmpDir, compactEvery, slots)) {
+            store.load(slots);
+        }
+        return slots;
+    }
+
+    @Test
+    @DisplayName("load from empty directory finds nothing")
+    void testLoadFresh() throws IOException {
+        Slots slots = new Slots();
+        try (WalStateStore store = new WalStateStore(tmpDir, 10, slots)) {
+            assertFalse(store.load(slots));
+            assertTrue(slots.states.isEmpty());
+        }
+    }
+
+    @Test
+    @DisplayName("persisted promise and accept records are replayed on load")
+    void testReplay() throws IOException {
+        Slots slots = new Slots();
+        try (WalStateStore store = new WalStateStore(tmpDir, 10, slots)) {
+            store.load(slots);
+            slots.persist(store, 0, new PaxosState(5, -1), true);
+            slots.persist(store, 0, new PaxosState(5, 5, "five"), false);
+            slots.persist(store, 0, new PaxosState(7, 5, "five"), true);
+        }
+
+        assertEquals(new PaxosState(7, 5, "five"), load(10).states.get(0L));
+    }
+
+    @Test
+    @DisplayName("records of different slots are replayed independently")
+    void testMultipleSlots() throws IOException {
+        Slots slots = new Slots();
+        try (WalStateStore store = new WalStateStore(tmpDir, 10, slots)) {
+            store.load(slots);
+            slots.persist(store, 0, new PaxosState(3, 3, "zero"), false);
+            slots.persist(store, 1, new PaxosState(4, -1), true);
+            slots.persist(store, 100000, new PaxosState(5, 5, "far"), false);
+        }
+
+        Map<Long, PaxosState> loaded = load(10).states;
+        assertEquals(3, loaded.size());
+        assertEquals(new PaxosState(3, 3, "zero"), loaded.get(0L));
+        assertEquals(new PaxosState(4, -1), loaded.get(1L));
+        assertEquals(new PaxosState(5, 5, "far"), loaded.get(100000L));
+    }
+
+    @Test
+    @DisplayName("values are stored as their bytes, binary ones included")
+    void testBinaryValue() throws IOException {
+        ByteString binary = ByteString.copyFrom(new byte[]{0, (byte) 0xff, (byte) 0xc3, 0x28, 10});
+        Slots slots = new Slots();
+        try (WalStateStore store = new WalStateStore(tmpDir, 10, slots)) {
+            store.load(slots);
+            slots.persist(store, 0, new PaxosState(3, 3, binary), false);
+            slots.persist(store, 1, new PaxosState(4, 4, ByteString.EMPTY), false);
+        }
+
+        Map<Long, PaxosState> loaded = load(10).states;
+        assertEquals(binary, loaded.get(0L).getAcceptedValueBytes());
+        assertNull(loaded.get(0L).getAcceptedValue());
+        assertEquals(ByteString.EMPTY, loaded.get(1L).getAcceptedValueBytes());
+    }
+
+    @Test
+    @DisplayName("log is compacted into a checkpoint and truncated")
+    void testCompaction() throws IOException {
+        Slots slots = new Slots();
+        try (WalStateStore store = new WalStateStore(tmpDir, 3, slots)) {
+            store.load(slots);
+            for (int i = 1; i <= 4; i++) {
+                slots.persist(store, i, new PaxosState(i, i, "v" + i), false);
+            }
+        }
+
+        assertTrue(Files.exists(tmpDir.resolve(WalStateStore.CHECKPOINT_FILE_NAME)));
+        // 3 records were compacted, only the 4th remains in the log
+        assertEquals(WalStateStore.encodeAccept(4, new PaxosState(4, 4, "v4")).remaining(),
+                Files.size(tmpDir.resolve(WalStateStore.LOG_FILE_NAME)));
+
+        Map<Long, PaxosState> loaded = load(3).states;
+        assertEquals(4, loaded.size());
+        for (long i = 1; i <= 4; i++) {
+            assertEquals(new PaxosState(i, i, "v" + i), loaded.get(i));
+        }
+    }
+
+    @Test
+    @DisplayName("checkpoint runs on the executor while appends go to a new log")
+    void testBackgroundCheckpoint() throws IOException {
+        Slots slots = new Slots();
+        List<Runnable> checkpoints = new ArrayList<>();
+        try (WalStateStore store = new WalStateStore(tmpDir, 3, slots, checkpoints::add)) {
+            store.load(slots);
+            for (int i = 1; i <= 5; i++) {
+                slots.persist(store, i, new PaxosState(i, i, "v" + i), false);
+            }
+            // rotated after 3 records, the checkpoint has not run yet
+            assertEquals(1, checkpoints.size());
+            assertTrue(store.checkpointing());
+            assertTrue(Files.exists(tmpDir.resolve(WalStateStore.PREVIOUS_LOG_FILE_NAME)));
+            assertFalse(Files.exists(tmpDir.resolve(WalStateStore.CHECKPOINT_FILE_NAME)));
+
+            checkpoints.get(0).run();
+            assertFalse(store.checkpointing());
+            assertFalse(Files.exists(tmpDir.resolve(WalStateStore.PREVIOUS_LOG_FILE_NAME)));
+            assertTrue(Files.exists(tmpDir.resolve(WalStateStore.CHECKPOINT_FILE_NAME)));
+        }
+
+        Map<Long, PaxosState> loaded = load(3).states;
+        assertEquals(5, loaded.size());
+        assertEquals(new PaxosState(5, 5, "v5"), loaded.get(5L));
+    }
+
+    @Test
+    @DisplayName("a checkpoint interrupted by a crash is completed on load")
+    void testInterruptedCheckpoint() throws IOException {
+        Slots slots = new Slots();
+        try (WalStateStore store = new WalStateStore(tmpDir, 2, slots, runnable -> {})) {
+            store.load(slots);
+            for (int i = 1; i <= 3; i++) {
+                slots.persist(store, i, new PaxosState(i, i, "v" + i), false);
+            }
+        }
+        assertTrue(Files.exists(tmpDir.resolve(WalStateStore.PREVIOUS_LOG_FILE_NAME)));
+
+        Map<Long, PaxosState> loaded = load(2).states;
+        assertEquals(3, loaded.size());
+        for (long i = 1; i <= 3; i++) {
+            assertEquals(new PaxosState(i, i, "v" + i), loaded.get(i));
+        }
+        assertFalse(Files.exists(tmpDir.resolve(WalStateStore.PREVIOUS_LOG_FILE_NAME)));
+        assertTrue(Files.exists(tmpDir.resolve(WalStateStore.CHECKPOINT_FILE_NAME)));
+    }
+
+    @Test
+    @DisplayName("a failed checkpoint keeps the previous log through the next rotation")
+    void testFailedCheckpoint() throws IOException {
+        Slots slots = new Slots();
+        // a directory in place of the temp file makes every checkpoint fail
+        Path tmp = Files.createDirectory(tmpDir.resolve(WalStateStore.CHECKPOINT_FILE_NAME + ".tmp"));
+        try (WalStateStore store = new WalStateStore(tmpDir, 2, slots)) {
+            store.load(slots);
+            for (int i = 1; i <= 5; i++) {
+                slots.persist(store, i, new PaxosState(i, i, "v" + i), false);
+            }
+            assertFalse(store.checkpointing());
+            assertTrue(Files.exists(tmpDir.resolve(WalStateStore.PREVIOUS_LOG_FILE_NAME)));
+        }
+        Files.delete(tmp);
+
+        Map<Long, PaxosState> loaded = load(2).states;
+        assertEquals(5, loaded.size());
+        for (long i = 1; i <= 5; i++) {
+            assertEquals(new PaxosState(i, i, "v" + i), loaded.get(i));
+        }
+    }
+
+    @Test
+    @DisplayName("torn record at the tail of the log is discarded")
+    void testTornTail() throws IOException {
+        Slots slots = new Slots();
+        try (WalStateStore store = new WalStateStore(tmpDir, 10, slots)) {
+            store.load(slots);
+            slots.persist(store, 0, new PaxosState(5, 5, "five"), false);
+            slots.persist(store, 0, new PaxosState(9, 5, "five"), true);
+        }
+        Path logFile = tmpDir.resolve(WalStateStore.LOG_FILE_NAME);
+        long goodSize = WalStateStore.encodeAccept(0, new PaxosState(5, 5, "five")).remaining();
+        try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.WRITE)) {
+            // cut the promise record in half
+            channel.truncate(goodSize + 5);
+        }
+
+        slots = new Slots();
+        try (WalStateStore store = new WalStateStore(tmpDir, 10, slots)) {
+            store.load(slots);
+            assertEquals(new PaxosState(5, 5, "five"), slots.states.get(0L));
+            assertEquals(goodSize, Files.size(logFile));
+
+            // log is usable after the tail was discarded
+            slots.persist(store, 0, new PaxosState(11, 5, "five"), true);
+        }
+        assertEquals(new PaxosState(11, 5, "five"), load(10).states.get(0L));
+    }
+
+    @Test
+    @DisplayName("null and empty values survive a round trip")
+    void testNullAndEmptyValues() throws IOException {
+        Slots slots = new Slots();
+        try (WalStateStore store = new WalStateStore(tmpDir, 10, slots)) {
+            store.load(slots);
+            slots.persist(store, 0, new PaxosState(1, 1), false);
+            slots.persist(store, 1, new PaxosState(2, 2, ""), false);
+        }
+        Map<Long, PaxosState> loaded = load(10).states;
+        assertEquals(new PaxosState(1, 1), loaded.get(0L));
+        assertEquals(new PaxosState(2, 2, ""), loaded.get(1L));
+    }
+}